@@ -6,23 +6,54 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
+import javax.swing.AbstractAction;
 import javax.swing.JColorChooser;
+import javax.swing.JComponent;
 import javax.swing.JPanel;
+import javax.swing.KeyStroke;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 
 /**
  * Canvas represents a drawing surface that allows the user to draw
  * on it freehand, with the mouse.
+ *
+ * The Canvas shows the part of the Whiteboard whose upper-left corner is
+ * (viewX, viewY), and the arrow keys pan it across the Whiteboard by
+ * PAN_STEP pixels. Once panned, the Canvas asks the server for the commands
+ * inside its viewport only.
+ *
+ * A stroke only repaints the rectangle it was drawn in: the rectangles drawn
+ * in during a frame of FRAME_MILLIS are merged into their union in a
+ * DirtyRegion, which is repainted once at the end of the frame.
+ *
+ * The local strokes can be simplified before they are sent: each segment is
+ * drawn as the mouse moves, but the points of a stroke are only sent every
+ * sendMillis, as the fewer segments a StrokeSimplifier keeps of them.
  */
 public class Canvas extends JPanel{
+    protected static final int PAN_STEP = 200;
+    protected static final int FRAME_MILLIS = 16;
+    protected static final int SEND_MILLIS = 50;
+    // Largest stroke size whose BasicStroke is made once and reused
+    protected static final int MAX_INTERNED_STROKE = 255;
+    private static final BasicStroke[] STROKES = new BasicStroke[MAX_INTERNED_STROKE + 1];
+
     // Image storing the whiteboard
-    protected Image drawingBuffer;
+    protected BufferedImage drawingBuffer;
     protected boolean drawMode;
     private int strokeSize;
     private final JColorChooser tcc = new JColorChooser(Color.BLACK);
@@ -31,6 +62,30 @@ public class Canvas extends JPanel{
     protected final BlockingQueue<String> outputCommandsQueue;
     private int width;
     private int height;
+    // Coordinates on the Whiteboard of the upper-left corner of the Canvas
+    protected int viewX = 0;
+    protected int viewY = 0;
+    // Reused by every stroke, all drawn on the event dispatch thread, so that
+    // drawing a stroke allocates nothing but the command sent for a local one
+    private Graphics2D bufferGraphics = null;
+    private Color clientColor = Color.BLACK;
+    private Color serverColor = Color.BLACK;
+    private final StringBuilder commandBuilder = new StringBuilder();
+    // Union of the rectangles drawn in since the last repaint, repainted by
+    // the repaintTimer
+    protected final DirtyRegion dirtyRegion = new DirtyRegion();
+    private final Timer repaintTimer;
+    // Simplifies the points of the local strokes before they are sent, if
+    // not null, the points drawn during one interval of the sendTimer being
+    // sent together
+    private StrokeSimplifier strokeSimplifier = null;
+    private final Timer sendTimer;
+    // The mode, color and stroke size of the local stroke being simplified,
+    // taken when it starts, so that it is sent the way it was drawn even if
+    // they are changed before its points are sent
+    private boolean simplifiedErase = false;
+    private Color simplifiedColor = Color.BLACK;
+    private int simplifiedStrokeSize = 0;
 
     /**
      * Make a canvas.
@@ -44,6 +99,24 @@ public class Canvas extends JPanel{
         height = canvasHeight;
         this.setPreferredSize(new Dimension(width, height));
         addDrawingController();
+        addPanKeys();
+        repaintTimer = new Timer(FRAME_MILLIS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                repaintDirty();
+            }
+        });
+        repaintTimer.setRepeats(false);
+        sendTimer = new Timer(SEND_MILLIS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                sendSimplifiedStroke();
+            }
+        });
+        sendTimer.setRepeats(false);
+        tcc.getSelectionModel().addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent e) {
+                clientColor = tcc.getColor();
+            }
+        });
         drawMode = true;
         outputCommandsQueue = queue;
         checkRep();
@@ -55,6 +128,7 @@ public class Canvas extends JPanel{
      */
     protected void setServerColor(int red, int green, int blue){
         serverTcc.setColor(red, green, blue);
+        serverColor = serverTcc.getColor();
         checkRep();
     }
     
@@ -63,9 +137,9 @@ public class Canvas extends JPanel{
      */
     protected int[] getServerColor(){
         int[] rgb = new int[3];
-        rgb[0] = (Integer)serverTcc.getColor().getRed();
-        rgb[1] = (Integer)serverTcc.getColor().getGreen();
-        rgb[2] = (Integer)serverTcc.getColor().getBlue();
+        rgb[0] = serverColor.getRed();
+        rgb[1] = serverColor.getGreen();
+        rgb[2] = serverColor.getBlue();
         return rgb;
     }
     
@@ -130,7 +204,14 @@ public class Canvas extends JPanel{
      * Make the drawing buffer.
      */
     protected void makeDrawingBuffer() {
-        drawingBuffer = createImage(getWidth(), getHeight());
+        if (bufferGraphics != null) {
+            bufferGraphics.dispose();
+            bufferGraphics = null;
+        }
+        // Sized to the Canvas once laid out, and to its preferred size before
+        int bufferWidth = getWidth() > 0 ? getWidth() : width;
+        int bufferHeight = getHeight() > 0 ? getHeight() : height;
+        drawingBuffer = new BufferedImage(bufferWidth, bufferHeight, BufferedImage.TYPE_INT_RGB);
         fillWithWhite();
     }
 
@@ -162,9 +243,13 @@ public class Canvas extends JPanel{
      */
     protected void fillWithWhite() {
         final Graphics2D g = (Graphics2D) drawingBuffer.getGraphics();
-
-        g.setColor(Color.WHITE);
-        g.fillRect(0,  0,  getWidth(), getHeight());
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0,  0,  drawingBuffer.getWidth(), drawingBuffer.getHeight());
+        } finally {
+            // Not the reused bufferGraphics, the drawing buffer may have just been replaced
+            g.dispose();
+        }
 
         // IMPORTANT!  every time we draw on the internal drawing buffer, we
         // have to notify Swing to repaint this component on the screen.
@@ -191,103 +276,292 @@ public class Canvas extends JPanel{
         return strokeSize;
     }
 
+    /**
+     * Sets whether the local strokes are simplified before they are sent.
+     * The points of a stroke not yet sent are sent first.
+     *
+     * @param tolerance represents the distance in pixels from the segments
+     *            sent up to which the points of a stroke are dropped; if 0 or
+     *            less, every segment is sent as it is drawn
+     * @param sendMillis represents the interval in milliseconds at which the
+     *            points of a stroke are simplified and sent, positive
+     */
+    protected void setStrokeSimplification(int tolerance, int sendMillis) {
+        sendSimplifiedStroke();
+        strokeSimplifier = tolerance > 0 ? new StrokeSimplifier(tolerance) : null;
+        sendTimer.setInitialDelay(sendMillis);
+        checkRep();
+    }
+
     /**
      * Draw a line between two points (x1, y1) and (x2, y2), specified in
      * pixels relative to the upper-left corner of the drawing buffer.
      */
     protected void drawLineSegment(int x1, int y1, int x2, int y2) {
-        if (drawingBuffer == null) {
-            System.out.println("error 1");
-            makeDrawingBuffer();
-            System.out.println("make a drawing buffer");
-        }
-        System.out.println("error");
-        Graphics2D g = (Graphics2D) drawingBuffer.getGraphics();
-        g.setColor(tcc.getColor());
-        g.setStroke(new BasicStroke(strokeSize));
+        paintLineSegment(x1, y1, x2, y2, clientColor, strokeSize);
+        sendLineSegment(false, clientColor, strokeSize, x1, y1, x2, y2);
+    }
 
-        //colors in RGB
-        String red = Integer.toString(tcc.getColor().getRed());
-        String green = Integer.toString(tcc.getColor().getGreen());
-        String blue = Integer.toString(tcc.getColor().getBlue());
+    /**
+     * Draw a white line between two points (x1, y1) and (x2, y2), specified in
+     * pixels relative to the upper-left corner of the drawing buffer.
+     */
+    protected void eraseLineSegment(int x1, int y1, int x2, int y2) {
+        paintLineSegment(x1, y1, x2, y2, Color.WHITE, strokeSize);
+        sendLineSegment(true, clientColor, strokeSize, x1, y1, x2, y2);
+    }
 
+    /**
+     * Draws a line of a stroke size between two points (x1, y1) and
+     * (x2, y2), specified in pixels relative to the upper-left corner of the
+     * drawing buffer, without sending it.
+     */
+    private void paintLineSegment(int x1, int y1, int x2, int y2, Color color, int segmentStrokeSize) {
+        Graphics2D g = bufferGraphics();
+        g.setColor(color);
+        g.setStroke(strokeOf(segmentStrokeSize));
         g.drawLine(x1, y1, x2, y2);
-        
+
         // IMPORTANT!  every time we draw on the internal drawing buffer, we
         // have to notify Swing to repaint this component on the screen.
-        this.repaint();
-        String drawCommand = whiteboardName + " draw " + x1 + " " + y1 + " " + x2 + " " + y2 + " " + strokeSize + " " + red + " " + green + " " + blue;
+        repaintSegment(x1, y1, x2, y2, segmentStrokeSize);
+    }
 
-        outputCommandsQueue.offer(drawCommand);
+    /**
+     * Sends the command of a line of a stroke size between two points
+     * (x1, y1) and (x2, y2), specified in pixels relative to the upper-left
+     * corner of the drawing buffer, drawn in a color or erased.
+     */
+    private void sendLineSegment(boolean erase, Color color, int segmentStrokeSize, int x1, int y1, int x2,
+            int y2) {
+        if (erase) {
+            startCommand("erase", segmentStrokeSize, x1, y1, x2, y2);
+        } else {
+            //colors in RGB
+            startCommand("draw", segmentStrokeSize, x1, y1, x2, y2).append(' ').append(color.getRed()).append(' ')
+                    .append(color.getGreen()).append(' ').append(color.getBlue());
+        }
+        outputCommandsQueue.offer(commandBuilder.toString());
         checkRep();
     }
 
     /**
-     * Draw a white line between two points (x1, y1) and (x2, y2), specified in
-     * pixels relative to the upper-left corner of the drawing buffer.
+     * Sends the segments between the simplified points of the local stroke
+     * drawn since they were last sent, if any, in the mode, color and stroke
+     * size the stroke started with. Called on the event dispatch thread, by
+     * the sendTimer or at the end of the stroke.
      */
-    protected void eraseLineSegment(int x1, int y1, int x2, int y2) {
+    protected void sendSimplifiedStroke() {
+        sendTimer.stop();
+        if (strokeSimplifier == null) {
+            return;
+        }
+        int points = strokeSimplifier.simplify();
+        for (int i = 1; i < points; i++) {
+            sendLineSegment(simplifiedErase, simplifiedColor, simplifiedStrokeSize, strokeSimplifier.getX(i - 1),
+                    strokeSimplifier.getY(i - 1), strokeSimplifier.getX(i), strokeSimplifier.getY(i));
+        }
+    }
+
+    /**
+     * Adds the rectangle a line segment was drawn in, in pixels relative to
+     * the upper-left corner of the drawing buffer, to the DirtyRegion, and
+     * schedules its repaint at the end of the frame if it is the first one
+     * of the frame.
+     */
+    private void repaintSegment(int x1, int y1, int x2, int y2, int segmentStrokeSize) {
+        // A Canvas off the screen is painted whole once shown
+        if (isShowing() && dirtyRegion.addSegment(x1, y1, x2, y2, segmentStrokeSize)) {
+            repaintTimer.restart();
+        }
+    }
+
+    /**
+     * Repaints the union of the rectangles drawn in since the last repaint,
+     * if any. Called on the event dispatch thread.
+     */
+    protected void repaintDirty() {
+        Rectangle dirty = dirtyRegion.take();
+        if (dirty != null) {
+            repaint(dirty);
+        }
+    }
+
+    /**
+     * Returns the Graphics2D of the drawing buffer reused by the strokes,
+     * making the drawing buffer first if there is none.
+     */
+    private Graphics2D bufferGraphics() {
         if (drawingBuffer == null) {
             makeDrawingBuffer();
         }
-        Graphics2D g = (Graphics2D) drawingBuffer.getGraphics();
-        g.setColor(Color.WHITE);
-        g.setStroke(new BasicStroke(strokeSize));
-        g.drawLine(x1, y1, x2, y2);
-        // IMPORTANT!  every time we draw on the internal drawing buffer, we
-        // have to notify Swing to repaint this component on the screen.
-        this.repaint();
-        String eraseCommand = whiteboardName + " " + "erase" +  " " + x1 + " " + y1 + " " + x2 + " " + y2 + " " + strokeSize;
-        outputCommandsQueue.offer(eraseCommand);
-        checkRep();
+        if (bufferGraphics == null) {
+            bufferGraphics = (Graphics2D) drawingBuffer.getGraphics();
+        }
+        return bufferGraphics;
+    }
+
+    /**
+     * Starts the command of a local stroke in the reused commandBuilder, up
+     * to the stroke size: the Whiteboard name, the kind of command, the
+     * points in Whiteboard coordinates and the stroke size.
+     */
+    private StringBuilder startCommand(String kind, int segmentStrokeSize, int x1, int y1, int x2, int y2) {
+        commandBuilder.setLength(0);
+        return commandBuilder.append(whiteboardName).append(' ').append(kind).append(' ').append(x1 + viewX)
+                .append(' ').append(y1 + viewY).append(' ').append(x2 + viewX).append(' ').append(y2 + viewY)
+                .append(' ').append(segmentStrokeSize);
+    }
+
+    /**
+     * Returns a BasicStroke of the stroke size, the same one for every call
+     * up to MAX_INTERNED_STROKE.
+     */
+    protected static BasicStroke strokeOf(int size) {
+        if (size < 0 || size > MAX_INTERNED_STROKE) {
+            return new BasicStroke(size);
+        }
+        BasicStroke stroke = STROKES[size];
+        if (stroke == null) {
+            // Made again by a racing thread at worst, BasicStrokes are immutable
+            stroke = new BasicStroke(size);
+            STROKES[size] = stroke;
+        }
+        return stroke;
     }
 
     /**
      * Draws a line segment between two points (x1,y1) and (x2,y2) 
      * with a specified stroke size and color (in RGB), specified 
-     * in pixels relative to the upper left corner of the drawing buffer
+     * in pixels relative to the upper left corner of the Whiteboard.
+     * Called on the event dispatch thread, by RemoteStrokes.
      */
-    protected void commandDraw(int x1, int y1, int x2, int y2, int currentStrokeSize, String red, String green, String blue) {
-        if (drawingBuffer == null) {
-            makeDrawingBuffer();
-        }
-        Graphics2D g = (Graphics2D) drawingBuffer.getGraphics();
-
-        g.setStroke(new BasicStroke(currentStrokeSize));
-        int redValue = Integer.parseInt(red);
-        int greenValue = Integer.parseInt(green);
-        int blueValue = Integer.parseInt(blue);
-        serverTcc.setColor(redValue, greenValue, blueValue);
-        g.setColor(serverTcc.getColor());
+    protected void commandDraw(int x1, int y1, int x2, int y2, int currentStrokeSize, int redValue, int greenValue, int blueValue) {
+        Graphics2D g = bufferGraphics();
+
+        g.setStroke(strokeOf(currentStrokeSize));
         //colors in RGB
+        if ((serverColor.getRGB() & 0xffffff) != ((redValue << 16) | (greenValue << 8) | blueValue)) {
+            // Not set in the serverTcc, whose listeners are far slower than a stroke
+            serverColor = new Color(redValue, greenValue, blueValue);
+        }
+        g.setColor(serverColor);
 
-        g.drawLine(x1, y1, x2, y2);
+        g.drawLine(x1 - viewX, y1 - viewY, x2 - viewX, y2 - viewY);
 
         // IMPORTANT!  every time we draw on the internal drawing buffer, we
         // have to notify Swing to repaint this component on the screen.
-        this.repaint();
+        repaintSegment(x1 - viewX, y1 - viewY, x2 - viewX, y2 - viewY, currentStrokeSize);
         checkRep();
     }
 
     /**
      * Draw a white line between two points (x1, y1) and (x2, y2), specified in
-     * pixels relative to the upper-left corner of the drawing buffer.
+     * pixels relative to the upper-left corner of the Whiteboard.
+     * Called on the event dispatch thread, by RemoteStrokes.
      */
     protected void commandErase(int x1, int y1, int x2, int y2, int newStroke) {
+        Graphics2D g = bufferGraphics();
+        g.setColor(Color.WHITE);
+        g.setStroke(strokeOf(newStroke));
+        g.drawLine(x1 - viewX, y1 - viewY, x2 - viewX, y2 - viewY);
+ 
+        // IMPORTANT!  every time we draw on the internal drawing buffer, we
+        // have to notify Swing to repaint this component on the screen.
+        repaintSegment(x1 - viewX, y1 - viewY, x2 - viewX, y2 - viewY, newStroke);
+        checkRep();
+    }
+
+    /**
+     * Replaces the drawing buffer with the image of a keyframe, when the
+     * server sends the Whiteboard as an image followed by the commands made
+     * after it. The image is the upper-left corner of the Whiteboard. The
+     * drawing buffer outside of the image is cleared.
+     */
+    protected void commandKeyframe(BufferedImage image) {
         if (drawingBuffer == null) {
             makeDrawingBuffer();
+        } else {
+            fillWithWhite();
         }
-        Graphics2D g = (Graphics2D) drawingBuffer.getGraphics();
-        g.setColor(Color.WHITE);
-        g.setStroke(new BasicStroke(newStroke));
-        g.drawLine(x1, y1, x2, y2);
- 
+        bufferGraphics().drawImage(image, -viewX, -viewY, null);
+
         // IMPORTANT!  every time we draw on the internal drawing buffer, we
         // have to notify Swing to repaint this component on the screen.
         this.repaint();
         checkRep();
     }
 
+    /**
+     * Clears the whole drawing buffer, when the server resends the history of
+     * commands of the Whiteboard.
+     */
+    protected void commandClear() {
+        if (drawingBuffer == null) {
+            makeDrawingBuffer();
+        } else {
+            fillWithWhite();
+        }
+    }
+
+    /**
+     * Moves the Canvas to show the part of the Whiteboard whose upper-left
+     * corner is (x, y), clears it, and asks the server for the commands
+     * inside the new viewport, which it sends next.
+     */
+    protected void pan(int x, int y) {
+        // The points of a stroke not yet sent are relative to the view
+        sendSimplifiedStroke();
+        viewX = x;
+        viewY = y;
+        if (drawingBuffer != null) {
+            fillWithWhite();
+        }
+        outputCommandsQueue.offer(whiteboardName + " viewport " + viewX + " " + viewY + " " + width + " " + height);
+        checkRep();
+    }
+
+    /**
+     * Moves the Canvas back to the upper-left corner of the Whiteboard without
+     * asking the server, when it selects a Whiteboard again and is sent every
+     * command of it. The Canvas is cleared if it was panned.
+     */
+    protected void resetView() {
+        if ((viewX != 0 || viewY != 0) && drawingBuffer != null) {
+            fillWithWhite();
+        }
+        viewX = 0;
+        viewY = 0;
+        checkRep();
+    }
+
+    /**
+     * Returns the coordinates on the Whiteboard of the upper-left corner of
+     * the Canvas, as [x, y].
+     */
+    protected int[] getView() {
+        return new int[] { viewX, viewY };
+    }
+
+    /**
+     * Binds the arrow keys to panning the Canvas by PAN_STEP pixels.
+     */
+    private void addPanKeys() {
+        bindPanKey(KeyEvent.VK_LEFT, "pan left", -PAN_STEP, 0);
+        bindPanKey(KeyEvent.VK_RIGHT, "pan right", PAN_STEP, 0);
+        bindPanKey(KeyEvent.VK_UP, "pan up", 0, -PAN_STEP);
+        bindPanKey(KeyEvent.VK_DOWN, "pan down", 0, PAN_STEP);
+    }
+
+    private void bindPanKey(int keyCode, String name, final int dx, final int dy) {
+        getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(keyCode, 0), name);
+        getActionMap().put(name, new AbstractAction() {
+            public void actionPerformed(ActionEvent e) {
+                pan(viewX + dx, viewY + dy);
+            }
+        });
+    }
+
     /**
      * Add the mouse listener that supports the user's freehand drawing.
      */
@@ -330,16 +604,29 @@ public class Canvas extends JPanel{
             } else{
                 drawLineSegment(lastX, lastY, lastX, lastY);
             }
+            if (strokeSimplifier != null) {
+                simplifiedErase = !drawMode;
+                simplifiedColor = clientColor;
+                simplifiedStrokeSize = strokeSize;
+                strokeSimplifier.start(lastX, lastY);
+            }
         }
 
         /**
          * When mouse moves while a button is pressed down,
-         * draw a line segment.
+         * draw a line segment. If the strokes are simplified, it is
+         * only sent with the next points, once simplified.
          */
         public void mouseDragged(MouseEvent e) {
             int x = e.getX();
             int y = e.getY();
-            if (!drawMode){
+            if (strokeSimplifier != null) {
+                paintLineSegment(lastX, lastY, x, y, simplifiedErase ? Color.WHITE : simplifiedColor,
+                        simplifiedStrokeSize);
+                if (strokeSimplifier.add(x, y)) {
+                    sendTimer.restart();
+                }
+            } else if (!drawMode){
                 eraseLineSegment(lastX,lastY, x ,y);
             } else{
                 drawLineSegment(lastX, lastY, x, y);
@@ -348,10 +635,17 @@ public class Canvas extends JPanel{
             lastY = y;
         }
 
+        /**
+         * When the button is released, send the points of the stroke not
+         * yet sent.
+         */
+        public void mouseReleased(MouseEvent e) {
+            sendSimplifiedStroke();
+        }
+
         // Ignore all these other mouse events.
         public void mouseMoved(MouseEvent e) { }
         public void mouseClicked(MouseEvent e) { }
-        public void mouseReleased(MouseEvent e) { }
         public void mouseEntered(MouseEvent e) { }
         public void mouseExited(MouseEvent e) { }
     }
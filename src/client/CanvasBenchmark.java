@@ -0,0 +1,156 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+/**
+ * Canvas Benchmark measures the drawing of the server's commands on the
+ * Canvas. Like every *Benchmark class it is run on its own, not with the unit
+ * tests, and prints what it measures.
+ */
+public class CanvasBenchmark {
+    /**
+     * Benchmark of 200000 freehand commands of stroke sizes 1 to 10, one
+     * stroke in ten erased, replayed through commandDraw and commandErase on
+     * an 800x600 Canvas: drawn into the TYPE_INT_RGB drawing buffer, and into
+     * the image createImage made for the Canvas before, the screen's
+     * compatible image, when there is a screen.
+     */
+    @Test
+    public void replayThroughput(){
+        StringBuilder report = new StringBuilder();
+        report.append("TYPE_INT_RGB ").append(replay(new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB)));
+        if (GraphicsEnvironment.isHeadless()){
+            report.append(", createImage: no screen");
+        } else {
+            GraphicsConfiguration screen = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            report.append(", createImage ").append(replay(screen.createCompatibleImage(800, 600)));
+        }
+        System.out.println("remote commands drawn per second on the drawing buffer, " + report);
+    }
+
+    /**
+     * Replays the commands twice on a Canvas drawing into the image, the
+     * first time to warm up, and returns the commands drawn per second the
+     * second time.
+     */
+    private static long replay(BufferedImage image){
+        Canvas canvas = new Canvas(800, 600, new ArrayBlockingQueue<String>(1));
+        canvas.drawingBuffer = image;
+        canvas.fillWithWhite();
+        int commands = 200000;
+        long nanos = 0;
+        for (int round = 0; round < 2; round++){
+            Random random = new Random(23);
+            int x = 400;
+            int y = 300;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < commands; i++){
+                int nextX = Math.max(0, Math.min(799, x + random.nextInt(21) - 10));
+                int nextY = Math.max(0, Math.min(599, y + random.nextInt(21) - 10));
+                int strokeSize = 1 + random.nextInt(10);
+                if (i / 100 % 10 == 9){
+                    canvas.commandErase(x, y, nextX, nextY, strokeSize);
+                } else {
+                    canvas.commandDraw(x, y, nextX, nextY, strokeSize, random.nextInt(256), 0, 0);
+                }
+                x = nextX;
+                y = nextY;
+            }
+            nanos = System.nanoTime() - startTime;
+        }
+        // The commands drew on the image
+        assertTrue(inked(image) > 0);
+        return commands * 1000000000L / nanos;
+    }
+
+    /**
+     * Returns the number of pixels of the image that are not white.
+     */
+    private static int inked(BufferedImage image){
+        int inked = 0;
+        for (int y = 0; y < image.getHeight(); y++){
+            for (int x = 0; x < image.getWidth(); x++){
+                if ((image.getRGB(x, y) & 0xffffff) != 0xffffff){
+                    inked++;
+                }
+            }
+        }
+        return inked;
+    }
+
+    /**
+     * Benchmark of the local strokes of 1M mouse drags, reporting the time
+     * and the bytes allocated per segment: only the command sent should be
+     * allocated.
+     */
+    @Test
+    public void testDragAllocations(){
+        BlockingQueue<String> outputCommandsQueue = new ArrayBlockingQueue<String>(1024);
+        Canvas canvas = new Canvas(800,600, outputCommandsQueue);
+        canvas.drawingBuffer = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        canvas.setStrokeState(5);
+        canvas.getTcc().setColor(12, 200, 99);
+        // Warms up the drawing before measuring it
+        drag(canvas, outputCommandsQueue, 200000);
+        int segments = 1000000;
+        long allocatedBefore = allocatedBytes();
+        long startTime = System.nanoTime();
+        drag(canvas, outputCommandsQueue, segments);
+        long nanos = System.nanoTime() - startTime;
+        long allocated = allocatedBytes() - allocatedBefore;
+        String command = "Board1 draw 799 599 799 599 5 12 200 99";
+        System.out.println("local strokes of " + segments + " drags: " + nanos / segments + "ns and "
+                + (allocatedBefore < 0 ? "unknown" : Long.toString(allocated / segments))
+                + " bytes allocated per segment, for commands of " + command.length() + " characters");
+        if (allocatedBefore >= 0) {
+            // The command String and its array, with some room for the JIT
+            assertTrue(allocated / segments < 128);
+        }
+    }
+
+    /**
+     * Draws segments along a zigzag, the way a mouse drag does, emptying the
+     * queue of commands once full.
+     */
+    private static void drag(Canvas canvas, BlockingQueue<String> outputCommandsQueue, int segments){
+        int lastX = 0;
+        int lastY = 0;
+        for (int i = 0; i < segments; i++){
+            int x = (i * 7) % 800;
+            int y = (i * 3) % 600;
+            canvas.drawLineSegment(lastX, lastY, x, y);
+            if (outputCommandsQueue.remainingCapacity() == 0){
+                outputCommandsQueue.clear();
+            }
+            lastX = x;
+            lastY = y;
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread, or -1 if the JVM
+     * does not count them.
+     */
+    private static long allocatedBytes(){
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Class<?> counting = Class.forName("com.sun.management.ThreadMXBean");
+            return (Long) counting.getMethod("getThreadAllocatedBytes", long.class).invoke(bean,
+                    Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package client;
 
 import static org.junit.Assert.*;
+
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import org.junit.Test;
@@ -250,4 +253,159 @@ public class CanvasTest {
         //check initial drawMode (true by default)
         assertEquals(true, canvas.getDrawMode());
     }
+    
+    /**
+     * TESTING pan and resetView
+     * 
+     * Partition the input space as follows:
+     * View:    upper-left corner, panned right, panned to negative coordinates
+     */
+    @Test
+    public void testPanAsksForViewport(){
+        BlockingQueue<String> outputCommandsQueue = new ArrayBlockingQueue<String>(10000000); ;
+        Canvas canvas = new Canvas(100,100, outputCommandsQueue);
+        assertArrayEquals(new int[] {0, 0}, canvas.getView());
+        canvas.pan(Canvas.PAN_STEP, 0);
+        assertArrayEquals(new int[] {Canvas.PAN_STEP, 0}, canvas.getView());
+        assertEquals("Board1 viewport " + Canvas.PAN_STEP + " 0 100 100", outputCommandsQueue.poll());
+        canvas.pan(-50, -70);
+        assertEquals("Board1 viewport -50 -70 100 100", outputCommandsQueue.poll());
+        // The server sends every command again, nothing is asked
+        canvas.resetView();
+        assertArrayEquals(new int[] {0, 0}, canvas.getView());
+        assertEquals(true, outputCommandsQueue.isEmpty());
+    }
+    
+    /**
+     * TESTING drawLineSegment and eraseLineSegment
+     * 
+     * Partition the input space as follows:
+     * Color:   default, changed through the color chooser
+     * View:    upper-left corner, panned
+     */
+    @Test
+    public void testLineSegmentCommands(){
+        BlockingQueue<String> outputCommandsQueue = new ArrayBlockingQueue<String>(10000000); ;
+        Canvas canvas = new Canvas(100,100, outputCommandsQueue);
+        canvas.drawingBuffer = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        canvas.setStrokeState(3);
+        canvas.drawLineSegment(1, 2, 3, 4);
+        assertEquals("Board1 draw 1 2 3 4 3 0 0 0", outputCommandsQueue.poll());
+        assertEquals(0x000000, canvas.drawingBuffer.getRGB(2, 3) & 0xffffff);
+        canvas.getTcc().setColor(255, 0, 10);
+        canvas.pan(Canvas.PAN_STEP, 0);
+        outputCommandsQueue.clear();
+        canvas.drawLineSegment(1, 2, 3, 4);
+        assertEquals("Board1 draw " + (1 + Canvas.PAN_STEP) + " 2 " + (3 + Canvas.PAN_STEP) + " 4 3 255 0 10",
+                outputCommandsQueue.poll());
+        assertEquals(0xff000a, canvas.drawingBuffer.getRGB(2, 3) & 0xffffff);
+        canvas.eraseLineSegment(1, 2, 3, 4);
+        assertEquals("Board1 erase " + (1 + Canvas.PAN_STEP) + " 2 " + (3 + Canvas.PAN_STEP) + " 4 3",
+                outputCommandsQueue.poll());
+        assertEquals(0xffffff, canvas.drawingBuffer.getRGB(2, 3) & 0xffffff);
+        assertSame(Canvas.strokeOf(3), Canvas.strokeOf(3));
+    }
+
+    /**
+     * TESTING setStrokeSimplification and the DrawingController
+     *
+     * Partition the input space as follows:
+     * Simplification:  off, on
+     * Stroke:          pressed, dragged, sent by the timer, released
+     * Mode:            draw, erase
+     */
+    @Test
+    public void testSimplifiedStrokeCommands(){
+        BlockingQueue<String> outputCommandsQueue = new ArrayBlockingQueue<String>(100);
+        Canvas canvas = new Canvas(100,100, outputCommandsQueue);
+        canvas.drawingBuffer = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        canvas.setStrokeState(1);
+        mouse(canvas, MouseEvent.MOUSE_PRESSED, 10, 10);
+        mouse(canvas, MouseEvent.MOUSE_DRAGGED, 11, 10);
+        mouse(canvas, MouseEvent.MOUSE_RELEASED, 11, 10);
+        assertEquals("Board1 draw 10 10 10 10 1 0 0 0", outputCommandsQueue.poll());
+        assertEquals("Board1 draw 10 10 11 10 1 0 0 0", outputCommandsQueue.poll());
+        assertEquals(true, outputCommandsQueue.isEmpty());
+
+        // The timer never fires
+        canvas.setStrokeSimplification(1, Integer.MAX_VALUE);
+        mouse(canvas, MouseEvent.MOUSE_PRESSED, 10, 20);
+        assertEquals("Board1 draw 10 20 10 20 1 0 0 0", outputCommandsQueue.poll());
+        for (int x = 11; x <= 30; x++){
+            mouse(canvas, MouseEvent.MOUSE_DRAGGED, x, 20 + x % 2);
+        }
+        // Drawn as dragged, sent once simplified
+        assertEquals(0x000000, canvas.drawingBuffer.getRGB(20, 20) & 0xffffff);
+        assertEquals(true, outputCommandsQueue.isEmpty());
+        canvas.sendSimplifiedStroke();
+        assertEquals("Board1 draw 10 20 30 20 1 0 0 0", outputCommandsQueue.poll());
+        assertEquals(true, outputCommandsQueue.isEmpty());
+        mouse(canvas, MouseEvent.MOUSE_DRAGGED, 30, 40);
+        mouse(canvas, MouseEvent.MOUSE_DRAGGED, 31, 50);
+        mouse(canvas, MouseEvent.MOUSE_RELEASED, 31, 50);
+        assertEquals("Board1 draw 30 20 31 50 1 0 0 0", outputCommandsQueue.poll());
+        assertEquals(true, outputCommandsQueue.isEmpty());
+
+        canvas.drawMode = false;
+        mouse(canvas, MouseEvent.MOUSE_PRESSED, 50, 50);
+        mouse(canvas, MouseEvent.MOUSE_DRAGGED, 60, 50);
+        mouse(canvas, MouseEvent.MOUSE_DRAGGED, 60, 60);
+        mouse(canvas, MouseEvent.MOUSE_RELEASED, 60, 60);
+        assertEquals("Board1 erase 50 50 50 50 1", outputCommandsQueue.poll());
+        assertEquals("Board1 erase 50 50 60 50 1", outputCommandsQueue.poll());
+        assertEquals("Board1 erase 60 50 60 60 1", outputCommandsQueue.poll());
+        assertEquals(true, outputCommandsQueue.isEmpty());
+    }
+
+    /**
+     * A simplified stroke is sent in the mode, color and stroke size it
+     * started with, even if they are changed before its points are sent.
+     */
+    @Test
+    public void testSimplifiedStrokeKeepsItsStyle(){
+        BlockingQueue<String> outputCommandsQueue = new ArrayBlockingQueue<String>(100);
+        Canvas canvas = new Canvas(100,100, outputCommandsQueue);
+        canvas.drawingBuffer = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+        canvas.fillWithWhite();
+        canvas.setStrokeState(3);
+        canvas.setClientColor(255, 0, 10);
+        // The timer never fires
+        canvas.setStrokeSimplification(1, Integer.MAX_VALUE);
+        mouse(canvas, MouseEvent.MOUSE_PRESSED, 10, 10);
+        mouse(canvas, MouseEvent.MOUSE_DRAGGED, 20, 10);
+        canvas.setStrokeState(7);
+        canvas.setClientColor(0, 0, 255);
+        canvas.drawMode = false;
+        mouse(canvas, MouseEvent.MOUSE_DRAGGED, 20, 30);
+        mouse(canvas, MouseEvent.MOUSE_RELEASED, 20, 30);
+        assertEquals("Board1 draw 10 10 10 10 3 255 0 10", outputCommandsQueue.poll());
+        assertEquals("Board1 draw 10 10 20 10 3 255 0 10", outputCommandsQueue.poll());
+        assertEquals("Board1 draw 20 10 20 30 3 255 0 10", outputCommandsQueue.poll());
+        assertEquals(true, outputCommandsQueue.isEmpty());
+        // Drawn the way it is sent
+        assertEquals(0xff000a, canvas.drawingBuffer.getRGB(20, 25) & 0xffffff);
+
+        // The next stroke takes the new ones
+        mouse(canvas, MouseEvent.MOUSE_PRESSED, 50, 50);
+        mouse(canvas, MouseEvent.MOUSE_DRAGGED, 60, 50);
+        mouse(canvas, MouseEvent.MOUSE_RELEASED, 60, 50);
+        assertEquals("Board1 erase 50 50 50 50 7", outputCommandsQueue.poll());
+        assertEquals("Board1 erase 50 50 60 50 7", outputCommandsQueue.poll());
+        assertEquals(true, outputCommandsQueue.isEmpty());
+    }
+
+    /**
+     * Gives a mouse event to the DrawingController of a Canvas.
+     */
+    private static void mouse(Canvas canvas, int id, int x, int y){
+        MouseEvent e = new MouseEvent(canvas, id, 0, 0, x, y, 1, false);
+        if (id == MouseEvent.MOUSE_PRESSED){
+            canvas.getMouseListeners()[0].mousePressed(e);
+        } else if (id == MouseEvent.MOUSE_RELEASED){
+            canvas.getMouseListeners()[0].mouseReleased(e);
+        } else {
+            canvas.getMouseMotionListeners()[0].mouseDragged(e);
+        }
+    }
+    
 }
@@ -0,0 +1,249 @@
+package client;
+
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Command Ring is the bounded queue of the commands a client sends to the
+ * server: a ring buffer of a power of two slots, which the event dispatch
+ * thread and the thread reading the server offer commands to, and which the
+ * thread writing to the socket takes them from.
+ *
+ * Offering a command claims the next slot with a compare-and-set and takes
+ * no lock. The writing thread parks once the ring is empty, using no CPU,
+ * and is unparked only by a command offered while it is parked; it then
+ * drains every command offered meanwhile as one batch. Once every slot is
+ * full, offer returns false, as for an ArrayBlockingQueue.
+ *
+ * Only one thread at a time may take commands from a Command Ring, with
+ * take, poll, peek, drainTo or clear. Its iterator is a snapshot of the
+ * commands queued, which cannot remove them.
+ */
+class CommandRing extends AbstractQueue<String> implements BlockingQueue<String> {
+    // Sleep of a thread putting a command into a full ring before trying again
+    private static final long FULL_PARK_NANOS = 100000;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<String> slots;
+    // Number of slots ever claimed by the offering threads
+    private final AtomicLong tail = new AtomicLong();
+    // Number of commands ever taken, only written by the taking thread
+    private volatile long head = 0;
+    // The taking thread, when parked or about to park in take
+    private volatile Thread parkedTaker = null;
+
+    /**
+     * Makes an empty Command Ring.
+     *
+     * @param minimumCapacity represents the number of commands the ring holds
+     *            at least, rounded up to a power of two, positive
+     */
+    protected CommandRing(int minimumCapacity) {
+        if (minimumCapacity <= 0 || minimumCapacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity " + minimumCapacity + " out of range");
+        }
+        capacity = minimumCapacity == 1 ? 1 : Integer.highestOneBit(minimumCapacity - 1) << 1;
+        mask = capacity - 1;
+        slots = new AtomicReferenceArray<String>(capacity);
+    }
+
+    /**
+     * Queues a command if a slot is free.
+     *
+     * @return true if it was queued, false if the ring is full
+     */
+    public boolean offer(String command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        long claimed;
+        do {
+            claimed = tail.get();
+            if (claimed - head >= capacity) {
+                return false;
+            }
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+        // A volatile write, ordered before the read of parkedTaker below, so
+        // that either the taker sees the command or it is unparked
+        slots.set((int) claimed & mask, command);
+        Thread taker = parkedTaker;
+        if (taker != null) {
+            LockSupport.unpark(taker);
+        }
+        return true;
+    }
+
+    /**
+     * Takes the oldest command, or returns null if the ring is empty.
+     */
+    public String poll() {
+        long taken = head;
+        if (taken == tail.get()) {
+            return null;
+        }
+        int slot = (int) taken & mask;
+        String command = awaitPublished(slot);
+        slots.lazySet(slot, null);
+        // Frees the slot for the offering threads, after it was emptied
+        head = taken + 1;
+        return command;
+    }
+
+    /**
+     * Returns the oldest command without taking it, or null if the ring is
+     * empty.
+     */
+    public String peek() {
+        long taken = head;
+        if (taken == tail.get()) {
+            return null;
+        }
+        return awaitPublished((int) taken & mask);
+    }
+
+    /**
+     * Takes the oldest command, parking until one is offered if the ring is
+     * empty.
+     */
+    public String take() throws InterruptedException {
+        String command;
+        while ((command = poll()) == null) {
+            parkedTaker = Thread.currentThread();
+            // Checked again once offering threads can see it is parking
+            if (head == tail.get()) {
+                LockSupport.park(this);
+            }
+            parkedTaker = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return command;
+    }
+
+    /**
+     * Takes the oldest command, parking up to a timeout until one is offered
+     * if the ring is empty.
+     *
+     * @return the command, or null if none was offered before the timeout
+     */
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        String command;
+        while ((command = poll()) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            parkedTaker = Thread.currentThread();
+            if (head == tail.get()) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            parkedTaker = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return command;
+    }
+
+    /**
+     * Queues a command, waiting for a slot to be freed if the ring is full.
+     */
+    public void put(String command) throws InterruptedException {
+        while (!offer(command)) {
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Queues a command, waiting up to a timeout for a slot to be freed if the
+     * ring is full.
+     *
+     * @return true if it was queued, false if the ring was full until the
+     *         timeout
+     */
+    public boolean offer(String command, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(command)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, Math.min(remaining, FULL_PARK_NANOS));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return true;
+    }
+
+    public int drainTo(Collection<? super String> batch) {
+        return drainTo(batch, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super String> batch, int maxCommands) {
+        if (batch == this) {
+            throw new IllegalArgumentException();
+        }
+        int drained = 0;
+        String command;
+        while (drained < maxCommands && (command = poll()) != null) {
+            batch.add(command);
+            drained++;
+        }
+        return drained;
+    }
+
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the commands queued, oldest
+     * first, which cannot remove them.
+     */
+    public Iterator<String> iterator() {
+        long taken = head;
+        long claimed = tail.get();
+        String[] commands = new String[(int) (claimed - taken)];
+        int count = 0;
+        for (long i = taken; i < claimed; i++) {
+            String command = slots.get((int) i & mask);
+            // Taken meanwhile, or claimed and not yet written
+            if (command != null) {
+                commands[count++] = command;
+            }
+        }
+        return Collections.unmodifiableList(Arrays.asList(commands).subList(0, count)).iterator();
+    }
+
+    /**
+     * Returns the command of a claimed slot, waiting for the offering thread
+     * that claimed it to write it there, which it is about to.
+     */
+    private String awaitPublished(int slot) {
+        String command;
+        while ((command = slots.get(slot)) == null) {
+            Thread.yield();
+        }
+        return command;
+    }
+}
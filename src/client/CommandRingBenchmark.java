@@ -0,0 +1,119 @@
+package client;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+/**
+ * CommandRing Benchmark measures the writing of a client's commands to its
+ * socket through a Command Ring and through an ArrayBlockingQueue. Like every
+ * *Benchmark class it is run on its own, not with the unit tests, and prints
+ * what it measures.
+ */
+public class CommandRingBenchmark {
+    /**
+     * Benchmark of the commands of a client drawing, written to the socket
+     * by a writer thread taking them in batches with one flush per batch:
+     * through the ArrayBlockingQueue of 10000000 commands the client used,
+     * and through a CommandRing of OUTPUT_CAPACITY. Reports the bytes the
+     * queue allocates when made, the commands written per second and per
+     * flush of the socket.
+     */
+    @Test
+    public void testWriterThroughput() throws Exception{
+        StringBuilder report = new StringBuilder();
+        for (int round = 0; round < 2; round++){
+            for (int kind = 0; kind < 2; kind++){
+                long allocatedBefore = allocatedBytes();
+                BlockingQueue<String> queue = kind == 0 ? new ArrayBlockingQueue<String>(10000000)
+                        : new CommandRing(WhiteboardClient.OUTPUT_CAPACITY);
+                long allocated = allocatedBytes() - allocatedBefore;
+                long[] flushes = new long[1];
+                long nanos = write(queue, 1000000, flushes);
+                // The first round warms up the writing
+                if (round == 1){
+                    report.append(kind == 0 ? "; ArrayBlockingQueue: " : "; CommandRing: ").append(allocated / 1024)
+                            .append("KB allocated, ").append(1000000 * 1000000000L / nanos)
+                            .append(" commands per second, ").append(1000000 / Math.max(1, flushes[0]))
+                            .append(" commands per flush");
+                }
+            }
+        }
+        System.out.println("client commands written" + report);
+    }
+
+    /**
+     * Offers commands to a queue while a writer thread takes them the way
+     * WhiteboardClient.handleOutputs does, and returns the nanoseconds until
+     * the last one was written.
+     */
+    private static long write(final BlockingQueue<String> queue, int commands, final long[] flushes)
+            throws InterruptedException{
+        final OutputStream socket = new OutputStream() {
+            public void write(int b) {
+            }
+            public void write(byte[] b, int off, int len) {
+            }
+            public void flush() {
+                flushes[0]++;
+            }
+        };
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket));
+                    List<String> batch = new ArrayList<String>();
+                    while (true){
+                        batch.add(queue.take());
+                        queue.drainTo(batch);
+                        for (String command : batch){
+                            if (command.startsWith("Disconnect ")){
+                                out.flush();
+                                return;
+                            }
+                            out.write(command);
+                            out.newLine();
+                        }
+                        out.flush();
+                        batch.clear();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < commands; i++){
+            String command = "Board1 draw " + (i % 800) + " 300 " + (i % 800 + 3) + " 302 5 0 0 0";
+            while (!queue.offer(command)){
+                Thread.yield();
+            }
+        }
+        queue.put("Disconnect alice");
+        writer.join();
+        return System.nanoTime() - startTime;
+    }
+
+    private static long allocatedBytes(){
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Class<?> counting = Class.forName("com.sun.management.ThreadMXBean");
+            return (Long) counting.getMethod("getThreadAllocatedBytes", long.class).invoke(bean,
+                    Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
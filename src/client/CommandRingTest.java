@@ -0,0 +1,161 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Test;
+
+/**
+ * CommandRing Test runs the JUnit tests for the Command Ring class.
+ */
+public class CommandRingTest {
+    /**
+     * TESTING offer, poll, peek, drainTo, size, remainingCapacity, iterator
+     * and clear
+     *
+     * Partition the input space as follows:
+     * Capacity:    1, rounded up to a power of two
+     * Ring:        empty, partly full, full, wrapped around
+     */
+    @Test
+    public void testRing() throws InterruptedException{
+        CommandRing ring = new CommandRing(3);
+        assertEquals(4, ring.remainingCapacity());
+        assertEquals(true, ring.isEmpty());
+        assertNull(ring.poll());
+        assertNull(ring.peek());
+        assertNull(ring.poll(1, TimeUnit.MILLISECONDS));
+
+        for (int lap = 0; lap < 3; lap++){
+            assertEquals(true, ring.offer("a"));
+            assertEquals(true, ring.offer("b"));
+            assertEquals(true, ring.offer("c"));
+            assertEquals(true, ring.offer("d"));
+            assertEquals(false, ring.offer("e"));
+            assertEquals(false, ring.offer("e", 1, TimeUnit.MILLISECONDS));
+            assertEquals(4, ring.size());
+            assertEquals(0, ring.remainingCapacity());
+            assertEquals("a", ring.peek());
+            assertEquals("a", ring.poll());
+            assertEquals(true, ring.offer("e"));
+            Iterator<String> snapshot = ring.iterator();
+            List<String> batch = new ArrayList<String>();
+            assertEquals(2, ring.drainTo(batch, 2));
+            assertEquals("[b, c]", batch.toString());
+            // Taken before the commands were drained
+            assertEquals("b", snapshot.next());
+            assertEquals("d", ring.take());
+            ring.clear();
+            assertEquals(true, ring.isEmpty());
+        }
+        CommandRing single = new CommandRing(1);
+        assertEquals(true, single.offer("a"));
+        assertEquals(false, single.offer("b"));
+        assertEquals("a", single.take());
+        try {
+            single.offer(null);
+            fail("expected NullPointerException");
+        } catch (NullPointerException e) {
+        }
+    }
+
+    /**
+     * Every command offered by two threads, the event dispatch thread and the
+     * thread reading the server, is taken once and in the order each thread
+     * offered them.
+     */
+    @Test
+    public void testTwoProducers() throws InterruptedException{
+        final CommandRing ring = new CommandRing(64);
+        final int commands = 200000;
+        Thread[] producers = new Thread[2];
+        for (int p = 0; p < producers.length; p++){
+            final String name = p + " ";
+            producers[p] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < commands; i++){
+                            ring.put(name + i);
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        int[] next = new int[producers.length];
+        List<String> batch = new ArrayList<String>();
+        for (int taken = 0; taken < producers.length * commands; ){
+            batch.add(ring.take());
+            ring.drainTo(batch);
+            for (String command : batch){
+                int producer = command.charAt(0) - '0';
+                assertEquals(next[producer]++, Integer.parseInt(command.substring(2)));
+            }
+            taken += batch.size();
+            batch.clear();
+        }
+        for (Thread producer : producers){
+            producer.join();
+        }
+        assertArrayEquals(new int[] {commands, commands}, next);
+        assertEquals(true, ring.isEmpty());
+    }
+
+    /**
+     * A writer waiting for commands parks on the ring, rather than spinning,
+     * until one is offered.
+     */
+    @Test
+    public void testIdleWriterParks() throws InterruptedException{
+        final CommandRing ring = new CommandRing(16);
+        final List<String> written = new ArrayList<String>();
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    String command;
+                    while (!(command = ring.take()).equals("Disconnect")){
+                        synchronized (written) {
+                            written.add(command);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        writer.start();
+        ring.offer("first");
+        // Until the writer has taken it and parked on the ring for the next one
+        while (!parkedAfter(writer, ring, written, 1)){
+            Thread.yield();
+        }
+        synchronized (written) {
+            assertEquals("[first]", written.toString());
+        }
+        ring.offer("second");
+        ring.offer("Disconnect");
+        writer.join(10000);
+        assertEquals(false, writer.isAlive());
+        assertEquals("[first, second]", written.toString());
+    }
+
+    /**
+     * Returns true if the writer has written a number of commands and is
+     * parked on the ring, waiting for the next one.
+     */
+    private static boolean parkedAfter(Thread writer, CommandRing ring, List<String> written, int commands){
+        synchronized (written) {
+            if (written.size() < commands){
+                return false;
+            }
+        }
+        return LockSupport.getBlocker(writer) == ring && writer.getState() == Thread.State.WAITING;
+    }
+}
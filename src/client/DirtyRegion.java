@@ -0,0 +1,74 @@
+package client;
+
+import java.awt.Rectangle;
+
+/**
+ * Dirty Region accumulates the union of the rectangles of a Canvas drawn on
+ * since it was last repainted, so that the strokes drawn during one frame
+ * are repainted together, and only where they were drawn.
+ *
+ * A Dirty Region is thread safe: strokes can be added from any thread, and
+ * the union is taken on the event dispatch thread to repaint it.
+ */
+class DirtyRegion {
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+    private boolean empty = true;
+
+    /**
+     * Adds the bounds of a line segment drawn with a stroke size to the
+     * union.
+     *
+     * @param strokeSize represents the width of the stroke, whose caps reach
+     *            past the points
+     * @return true if the union was empty, so that a repaint of it must be
+     *         scheduled
+     */
+    protected synchronized boolean addSegment(int x1, int y1, int x2, int y2, int strokeSize) {
+        // Square caps reach half the width past the points, further along a
+        // diagonal; the extra pixel covers the antialiasing
+        int margin = Math.abs(strokeSize) + 1;
+        return add(Math.min(x1, x2) - margin, Math.min(y1, y2) - margin, Math.max(x1, x2) + margin,
+                Math.max(y1, y2) + margin);
+    }
+
+    /**
+     * Adds a rectangle to the union.
+     *
+     * @param minX represents the left edge of the rectangle
+     * @param minY represents the top edge of the rectangle
+     * @param maxX represents the right edge of the rectangle, included
+     * @param maxY represents the bottom edge of the rectangle, included
+     * @return true if the union was empty, so that a repaint of it must be
+     *         scheduled
+     */
+    protected synchronized boolean add(int minX, int minY, int maxX, int maxY) {
+        boolean wasEmpty = empty;
+        if (empty) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            empty = false;
+        } else {
+            this.minX = Math.min(this.minX, minX);
+            this.minY = Math.min(this.minY, minY);
+            this.maxX = Math.max(this.maxX, maxX);
+            this.maxY = Math.max(this.maxY, maxY);
+        }
+        return wasEmpty;
+    }
+
+    /**
+     * Returns the union and empties it, or returns null if it is empty.
+     */
+    protected synchronized Rectangle take() {
+        if (empty) {
+            return null;
+        }
+        empty = true;
+        return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+}
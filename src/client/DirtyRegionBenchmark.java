@@ -0,0 +1,81 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+/**
+ * DirtyRegion Benchmark measures what repainting only the Dirty Region saves
+ * against repainting the whole Canvas. Like every *Benchmark class it is run
+ * on its own, not with the unit tests, and prints what it measures.
+ */
+public class DirtyRegionBenchmark {
+    /**
+     * Benchmark of the copying of the drawing buffer to the screen for a
+     * remote stroke of short segments arriving 20 per frame: repainting the
+     * whole Canvas for each segment, and repainting the union of the
+     * segments of each frame.
+     */
+    @Test
+    public void testRepaintCost(){
+        BufferedImage drawingBuffer = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        BufferedImage screen = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        int segments = 4000;
+        int segmentsPerFrame = 20;
+        // Warms up the copies before measuring them
+        paint(drawingBuffer, screen, segments, segmentsPerFrame, false);
+        paint(drawingBuffer, screen, segments, segmentsPerFrame, true);
+        long startTime = System.nanoTime();
+        long wholePixels = paint(drawingBuffer, screen, segments, segmentsPerFrame, false);
+        long wholeNanos = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        long dirtyPixels = paint(drawingBuffer, screen, segments, segmentsPerFrame, true);
+        long dirtyNanos = System.nanoTime() - startTime;
+        assertTrue(dirtyPixels < wholePixels / 100);
+        System.out.println("repaint of " + segments + " segments, " + segmentsPerFrame + " per frame: whole Canvas "
+                + wholeNanos / segments + "ns and " + wholePixels / segments + " pixels per segment, dirty region "
+                + dirtyNanos / segments + "ns and " + dirtyPixels / segments + " pixels per segment");
+    }
+
+    /**
+     * Copies the drawing buffer to the screen the way paintComponent does,
+     * for each segment of a stroke or for the union of the segments of each
+     * frame, and returns the pixels copied.
+     */
+    private static long paint(BufferedImage drawingBuffer, BufferedImage screen, int segments, int segmentsPerFrame,
+            boolean dirtyOnly){
+        DirtyRegion dirtyRegion = new DirtyRegion();
+        long pixels = 0;
+        int x = 400;
+        int y = 300;
+        for (int i = 0; i < segments; i++){
+            // Moves right across the Canvas, starting over at the left edge
+            int nextX = 100 + (x - 100 + 3) % 600;
+            int nextY = Math.max(100, Math.min(500, y + (i * 3) % 11 - 5));
+            if (!dirtyOnly){
+                pixels += copy(drawingBuffer, screen, new Rectangle(0, 0, 800, 600));
+            } else {
+                dirtyRegion.addSegment(x, y, nextX, nextY, 5);
+                if (i % segmentsPerFrame == segmentsPerFrame - 1){
+                    pixels += copy(drawingBuffer, screen, dirtyRegion.take());
+                }
+            }
+            x = nextX;
+            y = nextY;
+        }
+        return pixels;
+    }
+
+    private static long copy(BufferedImage drawingBuffer, BufferedImage screen, Rectangle clip){
+        Graphics2D g = screen.createGraphics();
+        g.setClip(clip);
+        g.drawImage(drawingBuffer, 0, 0, null);
+        g.dispose();
+        Rectangle copied = clip.intersection(new Rectangle(0, 0, 800, 600));
+        return (long) copied.width * copied.height;
+    }
+}
@@ -0,0 +1,64 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+/**
+ * DirtyRegion Test runs the JUnit tests for the Dirty Region class.
+ */
+public class DirtyRegionTest {
+    /**
+     * TESTING addSegment, add and take
+     *
+     * Partition the input space as follows:
+     * Segments:    none, one, several merged, points given in any order
+     * Stroke size: 0, positive
+     */
+    @Test
+    public void testUnionOfSegments(){
+        DirtyRegion dirtyRegion = new DirtyRegion();
+        assertNull(dirtyRegion.take());
+        assertEquals(true, dirtyRegion.addSegment(10, 20, 30, 40, 0));
+        assertEquals(new Rectangle(9, 19, 23, 23), dirtyRegion.take());
+        assertNull(dirtyRegion.take());
+
+        // Only the first one asks for a repaint
+        assertEquals(true, dirtyRegion.addSegment(30, 40, 10, 20, 5));
+        assertEquals(false, dirtyRegion.addSegment(100, 5, 90, 7, 1));
+        assertEquals(false, dirtyRegion.add(50, 50, 50, 50));
+        assertEquals(new Rectangle(4, 3, 99, 48), dirtyRegion.take());
+        assertEquals(true, dirtyRegion.add(0, 0, 0, 0));
+    }
+
+    /**
+     * Every pixel a segment draws is inside its rectangle.
+     */
+    @Test
+    public void testSegmentInsideRegion(){
+        int[][] segments = { {50, 50, 50, 50, 1}, {50, 50, 80, 90, 9}, {90, 10, 10, 90, 20}, {40, 60, 41, 60, 40} };
+        for (int[] segment : segments){
+            BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            g.setColor(Color.WHITE);
+            g.setStroke(Canvas.strokeOf(segment[4]));
+            g.drawLine(segment[0], segment[1], segment[2], segment[3]);
+            g.dispose();
+            DirtyRegion dirtyRegion = new DirtyRegion();
+            dirtyRegion.addSegment(segment[0], segment[1], segment[2], segment[3], segment[4]);
+            Rectangle dirty = dirtyRegion.take();
+            for (int x = 0; x < 200; x++){
+                for (int y = 0; y < 200; y++){
+                    if ((image.getRGB(x, y) & 0xffffff) != 0){
+                        assertTrue(dirty.contains(x, y));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package client;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.Timer;
+
+/**
+ * Remote Strokes queues the commands the server sends for a Canvas, in the
+ * order they were read, and applies them to the Canvas on the event dispatch
+ * thread, a batch per frame: the first command queued after a batch starts a
+ * timer of Canvas.FRAME_MILLIS, at the end of which every command queued
+ * meanwhile is drawn with the Canvas' Graphics2D and repainted at once.
+ *
+ * The thread reading the server queues the commands without drawing
+ * anything, so the Canvas is only ever drawn on by the event dispatch
+ * thread. The draw and erase commands are queued as ints, without allocating.
+ */
+class RemoteStrokes {
+    // Kinds of the queued commands
+    private static final int DRAW = 0;
+    private static final int ERASE = 1;
+    private static final int CLEAR = 2;
+    private static final int KEYFRAME = 3;
+    private static final int RESET_VIEW = 4;
+    // Ints queued per command: its kind, the points, the stroke size and the
+    // packed color
+    private static final int COMMAND_INTS = 7;
+    private static final int INITIAL_COMMANDS = 1024;
+
+    private final Canvas canvas;
+    private final Timer frameTimer;
+    // Commands queued since the last batch, and the images of their keyframes
+    private int[] queued = new int[COMMAND_INTS * INITIAL_COMMANDS];
+    private int queuedCount = 0;
+    private List<BufferedImage> queuedImages = new ArrayList<BufferedImage>();
+    // Swapped with the queued commands by each batch, only used by the event
+    // dispatch thread
+    private int[] applying = new int[COMMAND_INTS * INITIAL_COMMANDS];
+    private List<BufferedImage> applyingImages = new ArrayList<BufferedImage>();
+    // Number of batches applied
+    private long batches = 0;
+
+    /**
+     * Makes the Remote Strokes of a Canvas.
+     *
+     * @param canvas represents the Canvas the commands are applied to
+     * @param everyFrame represents whether the commands are applied on the
+     *            event dispatch thread every frame; if false, they are only
+     *            applied by calls to applyQueued
+     */
+    protected RemoteStrokes(final Canvas canvas, final boolean everyFrame) {
+        this.canvas = canvas;
+        if (everyFrame) {
+            frameTimer = new Timer(Canvas.FRAME_MILLIS, new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    applyQueued();
+                }
+            });
+            frameTimer.setRepeats(false);
+        } else {
+            frameTimer = null;
+        }
+    }
+
+    /**
+     * Queues a draw command, specified in pixels relative to the upper-left
+     * corner of the Whiteboard.
+     */
+    protected void draw(int x1, int y1, int x2, int y2, int strokeSize, int red, int green, int blue) {
+        queue(DRAW, x1, y1, x2, y2, strokeSize, (red << 16) | (green << 8) | blue, null);
+    }
+
+    /**
+     * Queues an erase command, specified in pixels relative to the upper-left
+     * corner of the Whiteboard.
+     */
+    protected void erase(int x1, int y1, int x2, int y2, int strokeSize) {
+        queue(ERASE, x1, y1, x2, y2, strokeSize, 0, null);
+    }
+
+    /**
+     * Queues the clearing of the Canvas, when the server resends the history
+     * of commands of the Whiteboard.
+     */
+    protected void clear() {
+        queue(CLEAR, 0, 0, 0, 0, 0, 0, null);
+    }
+
+    /**
+     * Queues the replacement of the Canvas with the image of a keyframe.
+     */
+    protected void keyframe(BufferedImage image) {
+        queue(KEYFRAME, 0, 0, 0, 0, 0, 0, image);
+    }
+
+    /**
+     * Queues the move of the Canvas back to the upper-left corner of the
+     * Whiteboard, when the server sends every command of it next.
+     */
+    protected void resetView() {
+        queue(RESET_VIEW, 0, 0, 0, 0, 0, 0, null);
+    }
+
+    /**
+     * Queues the clearing of the Canvas and its move back to the upper-left
+     * corner of the Whiteboard, when the client has selected a Whiteboard and
+     * the server sends every command of it next. The commands of the previous
+     * Whiteboard still queued are dropped, never drawn.
+     */
+    protected void selectBoard() {
+        synchronized (this) {
+            queuedCount = 0;
+            queuedImages.clear();
+        }
+        queue(RESET_VIEW, 0, 0, 0, 0, 0, 0, null);
+        queue(CLEAR, 0, 0, 0, 0, 0, 0, null);
+    }
+
+    /**
+     * Returns the number of batches applied.
+     */
+    protected synchronized long getBatches() {
+        return batches;
+    }
+
+    private void queue(int kind, int x1, int y1, int x2, int y2, int strokeSize, int rgb, BufferedImage image) {
+        boolean first;
+        synchronized (this) {
+            if (queuedCount + COMMAND_INTS > queued.length) {
+                queued = Arrays.copyOf(queued, 2 * queued.length);
+            }
+            first = queuedCount == 0;
+            queued[queuedCount++] = kind;
+            queued[queuedCount++] = x1;
+            queued[queuedCount++] = y1;
+            queued[queuedCount++] = x2;
+            queued[queuedCount++] = y2;
+            queued[queuedCount++] = strokeSize;
+            queued[queuedCount++] = rgb;
+            if (image != null) {
+                queuedImages.add(image);
+            }
+        }
+        // The timer is only started once its previous batch has been taken
+        if (first && frameTimer != null) {
+            frameTimer.restart();
+        }
+    }
+
+    /**
+     * Applies every command queued to the Canvas, in order, and repaints the
+     * union of the regions they were drawn in. Called on the event dispatch
+     * thread.
+     */
+    protected void applyQueued() {
+        int count;
+        synchronized (this) {
+            if (queuedCount == 0) {
+                return;
+            }
+            int[] commands = queued;
+            queued = applying;
+            applying = commands;
+            count = queuedCount;
+            queuedCount = 0;
+            List<BufferedImage> images = queuedImages;
+            queuedImages = applyingImages;
+            applyingImages = images;
+            batches++;
+        }
+        int[] c = applying;
+        int image = 0;
+        for (int i = 0; i < count; i += COMMAND_INTS) {
+            switch (c[i]) {
+            case DRAW:
+                canvas.commandDraw(c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5], c[i + 6] >> 16,
+                        (c[i + 6] >> 8) & 0xff, c[i + 6] & 0xff);
+                break;
+            case ERASE:
+                canvas.commandErase(c[i + 1], c[i + 2], c[i + 3], c[i + 4], c[i + 5]);
+                break;
+            case CLEAR:
+                canvas.commandClear();
+                break;
+            case KEYFRAME:
+                canvas.commandKeyframe(applyingImages.get(image++));
+                break;
+            case RESET_VIEW:
+                canvas.resetView();
+                break;
+            default:
+                break;
+            }
+        }
+        applyingImages.clear();
+        canvas.repaintDirty();
+    }
+}
@@ -0,0 +1,48 @@
+package client;
+
+import org.junit.Test;
+
+/**
+ * RemoteStrokes Benchmark measures how fast the remote draw commands of a busy
+ * Whiteboard are applied to the Canvas. Like every *Benchmark class it is run
+ * on its own, not with the unit tests, and prints what it measures.
+ */
+public class RemoteStrokesBenchmark {
+    /**
+     * Benchmark of the remote draw commands of a busy Whiteboard applied to
+     * the Canvas, one per batch and in batches of the commands of a frame.
+     */
+    @Test
+    public void testBatchThroughput(){
+        Canvas canvas = RemoteStrokesTest.canvasOf(800, 600);
+        RemoteStrokes remoteStrokes = new RemoteStrokes(canvas, false);
+        int commands = 200000;
+        // Warms up the drawing before measuring it
+        apply(remoteStrokes, commands, 1);
+        apply(remoteStrokes, commands, 256);
+        long startTime = System.nanoTime();
+        apply(remoteStrokes, commands, 1);
+        long singleNanos = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        apply(remoteStrokes, commands, 256);
+        long batchNanos = System.nanoTime() - startTime;
+        System.out.println("remote commands applied per second: " + commands * 1000000000L / singleNanos
+                + " one per batch, " + commands * 1000000000L / batchNanos + " 256 per batch");
+    }
+
+    /**
+     * Queues short segments of many colors, the way several clients drawing
+     * at once send them, applying them every batch commands.
+     */
+    private static void apply(RemoteStrokes remoteStrokes, int commands, int batch){
+        for (int i = 0; i < commands; i++){
+            int x = (i * 7) % 780;
+            int y = (i * 3) % 580;
+            remoteStrokes.draw(x, y, x + 5, y + 5, 1 + i % 4, (i % 3) * 100, 20, 30);
+            if (i % batch == batch - 1){
+                remoteStrokes.applyQueued();
+            }
+        }
+        remoteStrokes.applyQueued();
+    }
+}
@@ -0,0 +1,125 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+/**
+ * RemoteStrokes Test runs the JUnit tests for the Remote Strokes class, by
+ * checking that the commands queued by one thread are drawn on the Canvas in
+ * order once applied.
+ */
+public class RemoteStrokesTest {
+    /**
+     * TESTING draw, erase, clear, keyframe, resetView and applyQueued
+     *
+     * Partition the input space as follows:
+     * Commands:    none, one, many queued by another thread, more than the
+     *              initial capacity
+     * Order:       a stroke before and after a clear, a keyframe
+     * View:        panned, reset
+     */
+    @Test
+    public void testAppliedInOrder() throws InterruptedException{
+        Canvas canvas = canvasOf(100, 100);
+        final RemoteStrokes remoteStrokes = new RemoteStrokes(canvas, false);
+        remoteStrokes.applyQueued();
+        assertEquals(0, remoteStrokes.getBatches());
+
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < 5000; i++){
+                    remoteStrokes.draw(10, 10, 20, 10, 3, 255, 0, 0);
+                }
+                remoteStrokes.erase(10, 10, 12, 10, 3);
+            }
+        });
+        reader.start();
+        reader.join();
+        // Nothing is drawn until applied
+        assertEquals(0xffffff, pixel(canvas, 15, 10));
+        remoteStrokes.applyQueued();
+        assertEquals(1, remoteStrokes.getBatches());
+        assertEquals(0xff0000, pixel(canvas, 15, 10));
+        assertEquals(0xffffff, pixel(canvas, 10, 10));
+        assertArrayEquals(new int[] {255, 0, 0}, canvas.getServerColor());
+
+        remoteStrokes.draw(50, 50, 60, 50, 3, 0, 0, 255);
+        remoteStrokes.clear();
+        remoteStrokes.draw(70, 70, 80, 70, 3, 0, 255, 0);
+        remoteStrokes.applyQueued();
+        assertEquals(0xffffff, pixel(canvas, 15, 10));
+        assertEquals(0xffffff, pixel(canvas, 55, 50));
+        assertEquals(0x00ff00, pixel(canvas, 75, 70));
+
+        BufferedImage keyframe = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+        keyframe.setRGB(30, 40, 0x123456);
+        canvas.viewX = 20;
+        canvas.viewY = 20;
+        remoteStrokes.keyframe(keyframe);
+        remoteStrokes.draw(30, 30, 40, 30, 1, 0, 0, 255);
+        remoteStrokes.applyQueued();
+        assertEquals(0x123456, pixel(canvas, 10, 20));
+        assertEquals(0x0000ff, pixel(canvas, 15, 10));
+        remoteStrokes.resetView();
+        remoteStrokes.applyQueued();
+        assertArrayEquals(new int[] {0, 0}, canvas.getView());
+    }
+
+    /**
+     * TESTING selectBoard
+     *
+     * Partition the input space as follows:
+     * Queued:      strokes and a keyframe of the previous Whiteboard, none
+     * View:        panned
+     */
+    @Test
+    public void testSelectBoard(){
+        Canvas canvas = canvasOf(100, 100);
+        RemoteStrokes remoteStrokes = new RemoteStrokes(canvas, false);
+        remoteStrokes.draw(10, 10, 20, 10, 3, 255, 0, 0);
+        remoteStrokes.applyQueued();
+        assertEquals(0xff0000, pixel(canvas, 15, 10));
+
+        // Strokes of the previous Whiteboard, still queued when it is left
+        canvas.viewX = 20;
+        remoteStrokes.draw(50, 50, 60, 50, 3, 0, 0, 255);
+        remoteStrokes.keyframe(new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB));
+        remoteStrokes.selectBoard();
+        remoteStrokes.draw(70, 70, 80, 70, 3, 0, 255, 0);
+        remoteStrokes.applyQueued();
+        assertArrayEquals(new int[] {0, 0}, canvas.getView());
+        assertEquals(0xffffff, pixel(canvas, 15, 10));
+        assertEquals(0xffffff, pixel(canvas, 55, 50));
+        assertEquals(0x00ff00, pixel(canvas, 75, 70));
+
+        remoteStrokes.selectBoard();
+        remoteStrokes.applyQueued();
+        assertEquals(0xffffff, pixel(canvas, 75, 70));
+    }
+
+    /**
+     * Makes a white Canvas with a drawing buffer, as once shown.
+     */
+    protected static Canvas canvasOf(int width, int height){
+        BlockingQueue<String> outputCommandsQueue = new ArrayBlockingQueue<String>(100);
+        Canvas canvas = new Canvas(width, height, outputCommandsQueue);
+        canvas.setSize(width, height);
+        canvas.drawingBuffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = (Graphics2D) canvas.drawingBuffer.getGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        return canvas;
+    }
+
+    private static int pixel(Canvas canvas, int x, int y){
+        return canvas.drawingBuffer.getRGB(x, y) & 0xffffff;
+    }
+}
@@ -0,0 +1,168 @@
+package client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import protocol.LineScanner;
+
+/**
+ * Response represents one parsed text message sent by the Whiteboard Server
+ * to a client.
+ */
+class Response {
+    /**
+     * Type represents the kind of a Response.
+     */
+    enum Type {
+        USERNAME_TAKEN, CHOOSE_WHITEBOARD, ON_BOARD, EXISTING_WHITEBOARD, UPDATING_CLIENTS, SAME_CLIENT,
+        REMOVE_CLIENT, DONE_WHITEBOARDS, DONE_CLIENTS, BOARD_ADDED, RESYNC, KEYFRAME, DRAW, ERASE, SERVER_ERROR,
+        NO_ACTION
+    }
+
+    // Types of the messages that never change
+    private static final Map<String, Type> FIXED_MESSAGE_TYPES = new HashMap<String, Type>();
+    static {
+        FIXED_MESSAGE_TYPES.put("Username already taken. Please select a new username.", Type.USERNAME_TAKEN);
+        FIXED_MESSAGE_TYPES.put("Select a whiteboard", Type.CHOOSE_WHITEBOARD);
+        FIXED_MESSAGE_TYPES.put("Whiteboard already exists.", Type.CHOOSE_WHITEBOARD);
+        FIXED_MESSAGE_TYPES.put("Whiteboard does not exist. Select a different board or make a board.", Type.NO_ACTION);
+        FIXED_MESSAGE_TYPES.put("Updating Clients", Type.UPDATING_CLIENTS);
+        FIXED_MESSAGE_TYPES.put("Done sending whiteboard names", Type.DONE_WHITEBOARDS);
+        FIXED_MESSAGE_TYPES.put("Done sending client names", Type.DONE_CLIENTS);
+        FIXED_MESSAGE_TYPES.put("Not in Server Regex", Type.SERVER_ERROR);
+        FIXED_MESSAGE_TYPES.put("In Server Regex, no action", Type.SERVER_ERROR);
+    }
+
+    // Types of the messages that are identified by their first token
+    private static final Map<String, Type> FIRST_TOKEN_TYPES = new HashMap<String, Type>();
+    static {
+        FIRST_TOKEN_TYPES.put("Existing", Type.EXISTING_WHITEBOARD);
+        FIRST_TOKEN_TYPES.put("sameClient", Type.SAME_CLIENT);
+        FIRST_TOKEN_TYPES.put("removeClient", Type.REMOVE_CLIENT);
+        FIRST_TOKEN_TYPES.put("Board", Type.BOARD_ADDED);
+        FIRST_TOKEN_TYPES.put("resync", Type.RESYNC);
+        FIRST_TOKEN_TYPES.put("keyframe", Type.KEYFRAME);
+    }
+
+    // Types of the messages that are identified by their second token
+    private static final Map<String, Type> SECOND_TOKEN_TYPES = new HashMap<String, Type>();
+    static {
+        SECOND_TOKEN_TYPES.put("on", Type.ON_BOARD);
+        SECOND_TOKEN_TYPES.put("draw", Type.DRAW);
+        SECOND_TOKEN_TYPES.put("erase", Type.ERASE);
+    }
+
+    protected Type type;
+    // The Whiteboard's name for ON_BOARD, EXISTING_WHITEBOARD, BOARD_ADDED, RESYNC, KEYFRAME, DRAW and ERASE
+    protected String whiteboard;
+    // The encoded image of a KEYFRAME, decoded with KeyframeCodec
+    protected String image;
+    // The client's name for ON_BOARD, SAME_CLIENT and REMOVE_CLIENT
+    protected String client;
+    protected int x1;
+    protected int y1;
+    protected int x2;
+    protected int y2;
+    protected int strokeSize;
+    protected int red;
+    protected int green;
+    protected int blue;
+
+    /**
+     * Parses a text message from the server.
+     *
+     * @param input represents the message from the server
+     * @return the parsed Response, or null if the message is not part of the
+     *         protocol
+     */
+    protected static Response parse(final String input) {
+        Response response = new Response();
+        response.type = FIXED_MESSAGE_TYPES.get(input);
+        if (response.type != null) {
+            return response;
+        }
+        LineScanner scanner = new LineScanner(input);
+        try {
+            String first = scanner.next();
+            response.type = FIRST_TOKEN_TYPES.get(first);
+            if (response.type != null && response.parseFirstTokenMessage(scanner)) {
+                return response;
+            }
+            // "Board" can also be the name of a Whiteboard
+            scanner = new LineScanner(input);
+            scanner.next();
+            response.type = SECOND_TOKEN_TYPES.get(scanner.next());
+            if (response.type == null) {
+                return null;
+            }
+            switch (response.type) {
+            case ON_BOARD:
+                response.client = first;
+                if (!scanner.nextIs("board")) {
+                    return null;
+                }
+                response.whiteboard = scanner.next();
+                return response;
+            case DRAW:
+                response.whiteboard = first;
+                response.parseSegment(scanner);
+                response.red = scanner.nextInt();
+                response.green = scanner.nextInt();
+                response.blue = scanner.nextInt();
+                return scanner.hasNext() ? null : response;
+            case ERASE:
+                response.whiteboard = first;
+                response.parseSegment(scanner);
+                return scanner.hasNext() ? null : response;
+            default:
+                return null;
+            }
+        } catch (NoSuchElementException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses the rest of a message identified by its first token.
+     *
+     * @return true if the message has the form its first token announces
+     */
+    private boolean parseFirstTokenMessage(final LineScanner scanner) {
+        switch (type) {
+        case EXISTING_WHITEBOARD:
+            if (!scanner.nextIs("Whiteboards")) {
+                return false;
+            }
+            whiteboard = scanner.next();
+            return true;
+        case SAME_CLIENT:
+        case REMOVE_CLIENT:
+            client = scanner.next();
+            return true;
+        case BOARD_ADDED:
+            whiteboard = scanner.next();
+            return scanner.nextIs("added") && !scanner.hasNext();
+        case RESYNC:
+            whiteboard = scanner.next();
+            return !scanner.hasNext();
+        case KEYFRAME:
+            whiteboard = scanner.next();
+            image = scanner.next();
+            return !scanner.hasNext();
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Parses the coordinates and stroke size of a draw or erase message.
+     */
+    private void parseSegment(final LineScanner scanner) {
+        x1 = scanner.nextInt();
+        y1 = scanner.nextInt();
+        x2 = scanner.nextInt();
+        y2 = scanner.nextInt();
+        strokeSize = scanner.nextInt();
+    }
+}
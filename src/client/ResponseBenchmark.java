@@ -0,0 +1,99 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Response Benchmark measures the parsing of the messages a client is sent,
+ * with Response and with the regex it replaced. Like every *Benchmark class it
+ * is run on its own, not with the unit tests, and prints what it measures.
+ */
+public class ResponseBenchmark {
+    // The messages the client matched before they were parsed in one pass
+    private static final String OLD_REGEX = "(Existing Whiteboards [^=]*)|(sameClient [^=]*)|(removeClient [^=]*)|"
+            + "(Username already taken. Please select a new username.)|(Whiteboard already exists.)|"
+            + "(Select a whiteboard)|(Whiteboard does not exist. Select a different board or make a board.)|"
+            + "([^=]* on board [^=]*)|(Updating Clients)|(Board [^=]* added)|"
+            + "([^=]* draw -?\\d+ -?\\d+ -?\\d+ -?\\d+ -?\\d+ [^=]* [^=]* [^=]*)|"
+            + "([^=]* erase -?\\d+ -?\\d+ -?\\d+ -?\\d+ -?\\d+)|(Done sending whiteboard names)|"
+            + "(Done sending client names)|(Not in Server Regex)|(In Server Regex, no action)";
+
+    /**
+     * Benchmark of the parsing of the messages a client is sent while others
+     * draw on its Whiteboard, mostly draw and erase commands: with Response,
+     * and with the regex match and split into Strings of each message it
+     * replaced.
+     */
+    @Test
+    public void testParseThroughput(){
+        List<String> lines = recordedLines(100000);
+        int checksum = 0;
+        long regexNanos = 0;
+        long responseNanos = 0;
+        // The first round warms up the parsing
+        for (int round = 0; round < 2; round++){
+            long startTime = System.nanoTime();
+            for (String line : lines){
+                if (line.matches(OLD_REGEX)){
+                    String[] tokens = line.split(" ");
+                    if (tokens[1].equals("draw") || tokens[1].equals("erase")){
+                        checksum += Integer.parseInt(tokens[2]) + Integer.parseInt(tokens[6]);
+                    }
+                }
+            }
+            regexNanos = System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            for (String line : lines){
+                Response response = Response.parse(line);
+                assertNotNull(response);
+                if (response.type == Response.Type.DRAW || response.type == Response.Type.ERASE){
+                    checksum -= response.x1 + response.strokeSize;
+                }
+            }
+            responseNanos = System.nanoTime() - startTime;
+        }
+        assertEquals(0, checksum);
+        System.out.println("client messages parsed per second: regex and split "
+                + lines.size() * 1000000000L / regexNanos + ", Response "
+                + lines.size() * 1000000000L / responseNanos);
+    }
+
+    /**
+     * Returns the messages of a session of a client on a busy Whiteboard: the
+     * Whiteboards and clients it is sent on joining, then draw commands with
+     * an erase command every twentieth and a client joining every thousandth.
+     */
+    private static List<String> recordedLines(int count){
+        Random random = new Random(5);
+        List<String> lines = new ArrayList<String>();
+        lines.add("Existing Whiteboards Board1");
+        lines.add("Existing Whiteboards Board2");
+        lines.add("Done sending whiteboard names");
+        lines.add("Select a whiteboard");
+        lines.add("bob on board Board1");
+        int x = 400;
+        int y = 300;
+        while (lines.size() < count){
+            int nextX = Math.max(0, Math.min(799, x + random.nextInt(9) - 4));
+            int nextY = Math.max(0, Math.min(599, y + random.nextInt(9) - 4));
+            if (lines.size() % 1000 == 0){
+                lines.add("Updating Clients");
+                lines.add("sameClient user" + lines.size());
+                lines.add("Done sending client names");
+            } else if (lines.size() % 20 == 0){
+                lines.add("Board1 erase " + x + " " + y + " " + nextX + " " + nextY + " 20");
+            } else {
+                lines.add("Board1 draw " + x + " " + y + " " + nextX + " " + nextY + " " + (1 + random.nextInt(10))
+                        + " " + random.nextInt(256) + " 0 0");
+            }
+            x = nextX;
+            y = nextY;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,43 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Response Test runs the JUnit tests for the Response class.
+ */
+public class ResponseTest {
+    /**
+     * TESTING parse
+     *
+     * Partition the input space as follows:
+     * Message:     fixed, identified by its first token, by its second token,
+     *              not part of the protocol
+     * Whiteboard:  named like a first token
+     */
+    @Test
+    public void testParse(){
+        assertEquals(Response.Type.CHOOSE_WHITEBOARD, Response.parse("Select a whiteboard").type);
+        Response existing = Response.parse("Existing Whiteboards Board2");
+        assertEquals(Response.Type.EXISTING_WHITEBOARD, existing.type);
+        assertEquals("Board2", existing.whiteboard);
+        Response onBoard = Response.parse("bob on board Board1");
+        assertEquals(Response.Type.ON_BOARD, onBoard.type);
+        assertEquals("bob", onBoard.client);
+        assertEquals("Board1", onBoard.whiteboard);
+
+        Response draw = Response.parse("Board1 draw 1 2 -3 4 5 6 7 8");
+        assertEquals(Response.Type.DRAW, draw.type);
+        assertEquals("Board1", draw.whiteboard);
+        assertArrayEquals(new int[] {1, 2, -3, 4, 5, 6, 7, 8}, new int[] {draw.x1, draw.y1, draw.x2, draw.y2,
+                draw.strokeSize, draw.red, draw.green, draw.blue});
+        Response erase = Response.parse("Board erase 1 2 3 4 5");
+        assertEquals(Response.Type.ERASE, erase.type);
+        assertEquals("Board", erase.whiteboard);
+
+        assertNull(Response.parse("Board1 draw 1 2 3 4 5 6 7"));
+        assertNull(Response.parse("Board1 erase 1 2 3 4 x"));
+        assertNull(Response.parse("Hello"));
+    }
+}
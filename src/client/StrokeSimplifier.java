@@ -0,0 +1,177 @@
+package client;
+
+import java.util.Arrays;
+
+/**
+ * Stroke Simplifier collects the points of a freehand stroke drawn on a
+ * Canvas since its last point sent to the server, and simplifies them with
+ * the Ramer-Douglas-Peucker algorithm before they are sent: only the points
+ * further than a tolerance from the segments between the points kept are
+ * kept, so that a stroke is sent as a few long segments rather than one
+ * segment per mouse event, however much the mouse jitters.
+ *
+ * The last point sent is the first point of the next ones, and the last
+ * point added is always kept, so that the segments sent join up and end
+ * where the stroke ends.
+ */
+class StrokeSimplifier {
+    private static final int INITIAL_POINTS = 256;
+
+    private final long squaredTolerance;
+    // Points of the stroke since the last one sent, which is the first one
+    private int[] xs = new int[INITIAL_POINTS];
+    private int[] ys = new int[INITIAL_POINTS];
+    private int count = 0;
+    // Whether each point is kept, and the ranges of points left to simplify
+    private boolean[] kept = new boolean[INITIAL_POINTS];
+    private int[] ranges = new int[2 * INITIAL_POINTS];
+    // Points kept by the last simplification
+    private int[] keptXs = new int[INITIAL_POINTS];
+    private int[] keptYs = new int[INITIAL_POINTS];
+
+    /**
+     * Makes a Stroke Simplifier.
+     *
+     * @param tolerance represents the distance in pixels from the segments
+     *            sent up to which a point is dropped, positive
+     */
+    protected StrokeSimplifier(int tolerance) {
+        squaredTolerance = (long) tolerance * tolerance;
+    }
+
+    /**
+     * Starts a stroke at a point, already sent.
+     */
+    protected void start(int x, int y) {
+        xs[0] = x;
+        ys[0] = y;
+        count = 1;
+    }
+
+    /**
+     * Adds the next point of the stroke.
+     *
+     * @return true if it is the first point added since the points were last
+     *         simplified, so that their sending must be scheduled
+     */
+    protected boolean add(int x, int y) {
+        // The same pixel again, as the mouse moves less than one
+        if (count > 0 && xs[count - 1] == x && ys[count - 1] == y) {
+            return false;
+        }
+        if (count == xs.length) {
+            xs = Arrays.copyOf(xs, 2 * count);
+            ys = Arrays.copyOf(ys, 2 * count);
+        }
+        xs[count] = x;
+        ys[count] = y;
+        count++;
+        return count == 2;
+    }
+
+    /**
+     * Simplifies the points added since the last call, keeping the last one
+     * as the first point of the next ones.
+     *
+     * @return the number of points kept, the first one being the last point
+     *         previously kept, to read with getX and getY until the next
+     *         call; less than 2 if there is no segment to send
+     */
+    protected int simplify() {
+        if (count < 2) {
+            return 0;
+        }
+        if (kept.length < count) {
+            kept = new boolean[xs.length];
+        }
+        Arrays.fill(kept, 0, count, false);
+        kept[0] = true;
+        kept[count - 1] = true;
+        int pending = push(0, 0, count - 1);
+        while (pending > 0) {
+            int last = ranges[--pending];
+            int first = ranges[--pending];
+            int farthest = -1;
+            double farthestDistance = squaredTolerance;
+            for (int i = first + 1; i < last; i++) {
+                double distance = squaredDistance(i, first, last);
+                if (distance > farthestDistance) {
+                    farthest = i;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthest >= 0) {
+                kept[farthest] = true;
+                pending = push(pending, first, farthest);
+                pending = push(pending, farthest, last);
+            }
+        }
+        if (keptXs.length < count) {
+            keptXs = new int[xs.length];
+            keptYs = new int[xs.length];
+        }
+        int keptCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (kept[i]) {
+                keptXs[keptCount] = xs[i];
+                keptYs[keptCount] = ys[i];
+                keptCount++;
+            }
+        }
+        // The next points start from the last one kept
+        xs[0] = xs[count - 1];
+        ys[0] = ys[count - 1];
+        count = 1;
+        return keptCount;
+    }
+
+    /**
+     * Returns the abscissa of a point kept by the last call to simplify.
+     */
+    protected int getX(int i) {
+        return keptXs[i];
+    }
+
+    /**
+     * Returns the ordinate of a point kept by the last call to simplify.
+     */
+    protected int getY(int i) {
+        return keptYs[i];
+    }
+
+    private int push(int pending, int first, int last) {
+        if (last - first < 2) {
+            return pending;
+        }
+        if (pending + 2 > ranges.length) {
+            ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+        }
+        ranges[pending] = first;
+        ranges[pending + 1] = last;
+        return pending + 2;
+    }
+
+    /**
+     * Returns the square of the distance from point i to the segment between
+     * points first and last.
+     */
+    private double squaredDistance(int i, int first, int last) {
+        long dx = xs[last] - xs[first];
+        long dy = ys[last] - ys[first];
+        long px = xs[i] - xs[first];
+        long py = ys[i] - ys[first];
+        long squaredLength = dx * dx + dy * dy;
+        long dot = px * dx + py * dy;
+        if (squaredLength == 0 || dot <= 0) {
+            return px * px + py * py;
+        }
+        if (dot >= squaredLength) {
+            long qx = xs[i] - xs[last];
+            long qy = ys[i] - ys[last];
+            return qx * qx + qy * qy;
+        }
+        // Distance to the line through them, the point being beside the segment
+        long cross = px * dy - py * dx;
+        return (double) (cross * cross) / squaredLength;
+    }
+}
@@ -0,0 +1,76 @@
+package client;
+
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.junit.Test;
+
+/**
+ * StrokeSimplifier Benchmark measures the commands a Canvas sends for
+ * freehand strokes, simplified and not. Like every *Benchmark class it is run
+ * on its own, not with the unit tests, and prints what it measures.
+ */
+public class StrokeSimplifierBenchmark {
+    /**
+     * Benchmark of the commands a Canvas sends for freehand strokes of mouse
+     * events one to three pixels apart, with a pixel of jitter: one per
+     * mouse event when not simplified, and the segments kept when simplified
+     * with tolerances of 1 and 2 pixels, sent every SEND_MILLIS.
+     */
+    @Test
+    public void testCommandsSent(){
+        int[] tolerances = {0, 1, 2};
+        StringBuilder report = new StringBuilder();
+        for (int tolerance : tolerances){
+            BlockingQueue<String> outputCommandsQueue = new ArrayBlockingQueue<String>(10000000);
+            Canvas canvas = new Canvas(800, 600, outputCommandsQueue);
+            canvas.drawingBuffer = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+            canvas.setStrokeState(5);
+            // The timer never fires, the points are sent as if it did
+            canvas.setStrokeSimplification(tolerance, Integer.MAX_VALUE);
+            Random random = new Random(3);
+            int events = 0;
+            long startTime = System.nanoTime();
+            for (int stroke = 0; stroke < 200; stroke++){
+                double angle = random.nextDouble() * 2 * Math.PI;
+                double centerX = 200 + random.nextInt(400);
+                double centerY = 150 + random.nextInt(300);
+                double radius = 20 + random.nextInt(100);
+                press(canvas, MouseEvent.MOUSE_PRESSED, (int) (centerX + radius), (int) centerY);
+                for (int i = 0; i < 500; i++){
+                    angle += (1 + random.nextInt(3)) / radius;
+                    int x = (int) Math.round(centerX + radius * Math.cos(angle)) + random.nextInt(3) - 1;
+                    int y = (int) Math.round(centerY + radius * Math.sin(angle)) + random.nextInt(3) - 1;
+                    drag(canvas, x, y);
+                    events++;
+                    // Sent every SEND_MILLIS, at about 8 mouse events per frame
+                    if (i % (8 * Canvas.SEND_MILLIS / Canvas.FRAME_MILLIS) == 0){
+                        canvas.sendSimplifiedStroke();
+                    }
+                }
+                press(canvas, MouseEvent.MOUSE_RELEASED, 0, 0);
+            }
+            long nanos = System.nanoTime() - startTime;
+            report.append(", tolerance " + tolerance + ": " + outputCommandsQueue.size() + " commands, "
+                    + nanos / events + "ns per event");
+        }
+        System.out.println("freehand strokes of 100000 mouse events" + report);
+    }
+
+    private static void press(Canvas canvas, int id, int x, int y){
+        MouseEvent e = new MouseEvent(canvas, id, 0, 0, x, y, 1, false);
+        if (id == MouseEvent.MOUSE_PRESSED){
+            canvas.getMouseListeners()[0].mousePressed(e);
+        } else {
+            canvas.getMouseListeners()[0].mouseReleased(e);
+        }
+    }
+
+    private static void drag(Canvas canvas, int x, int y){
+        canvas.getMouseMotionListeners()[0].mouseDragged(new MouseEvent(canvas, MouseEvent.MOUSE_DRAGGED, 0, 0, x, y,
+                0, false));
+    }
+}
@@ -0,0 +1,126 @@
+package client;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * StrokeSimplifier Test runs the JUnit tests for the Stroke Simplifier class.
+ */
+public class StrokeSimplifierTest {
+    /**
+     * TESTING start, add and simplify
+     *
+     * Partition the input space as follows:
+     * Points:      none added, the same pixel again, a straight line, a
+     *              corner, jitter within the tolerance, a stroke doubling back
+     * Calls:       first points added since simplified, simplified again
+     */
+    @Test
+    public void testSimplify(){
+        StrokeSimplifier simplifier = new StrokeSimplifier(1);
+        simplifier.start(0, 0);
+        assertEquals(0, simplifier.simplify());
+        assertEquals(false, simplifier.add(0, 0));
+        assertEquals(true, simplifier.add(1, 0));
+        for (int x = 2; x <= 10; x++){
+            assertEquals(false, simplifier.add(x, 0));
+        }
+        assertPoints(simplifier, new int[] {0, 0, 10, 0});
+
+        // Starts from the last point kept, the corner is kept
+        assertEquals(true, simplifier.add(10, 5));
+        simplifier.add(10, 10);
+        simplifier.add(15, 10);
+        assertPoints(simplifier, new int[] {10, 0, 10, 10, 15, 10});
+
+        // Jitter of one pixel is dropped
+        simplifier.add(16, 11);
+        simplifier.add(17, 10);
+        simplifier.add(18, 9);
+        simplifier.add(19, 10);
+        simplifier.add(20, 10);
+        assertPoints(simplifier, new int[] {15, 10, 20, 10});
+
+        // The far end of a stroke doubling back on itself is kept
+        simplifier.add(30, 10);
+        simplifier.add(25, 10);
+        assertPoints(simplifier, new int[] {20, 10, 30, 10, 25, 10});
+        assertEquals(0, simplifier.simplify());
+    }
+
+    /**
+     * Every point added is within the tolerance of the segment between the
+     * points kept on each side of it.
+     */
+    @Test
+    public void testWithinTolerance(){
+        Random random = new Random(24);
+        for (int tolerance = 1; tolerance <= 4; tolerance++){
+            StrokeSimplifier simplifier = new StrokeSimplifier(tolerance);
+            List<int[]> added = new ArrayList<int[]>();
+            int x = 400;
+            int y = 300;
+            simplifier.start(x, y);
+            added.add(new int[] {x, y});
+            for (int i = 0; i < 20000; i++){
+                // Never back to a point added, so that the points kept are found
+                x += 1 + random.nextInt(3);
+                y += random.nextInt(7) - 3;
+                int[] previous = added.get(added.size() - 1);
+                simplifier.add(x, y);
+                if (x != previous[0] || y != previous[1]){
+                    added.add(new int[] {x, y});
+                }
+                if (i % 97 == 96 || i == 19999){
+                    int points = simplifier.simplify();
+                    int first = 0;
+                    assertEquals(added.get(0)[0], simplifier.getX(0));
+                    assertEquals(added.get(0)[1], simplifier.getY(0));
+                    for (int k = 1; k < points; k++){
+                        // The points kept are some of the points added, in order
+                        int last = first + 1;
+                        while (added.get(last)[0] != simplifier.getX(k) || added.get(last)[1] != simplifier.getY(k)){
+                            last++;
+                        }
+                        for (int j = first + 1; j < last; j++){
+                            assertTrue(distance(added.get(j), added.get(first), added.get(last)) <= tolerance + 1e-9);
+                        }
+                        first = last;
+                    }
+                    assertEquals(added.size() - 1, first);
+                    int[] lastPoint = added.get(added.size() - 1);
+                    added.clear();
+                    added.add(lastPoint);
+                }
+            }
+        }
+    }
+
+    private static void assertPoints(StrokeSimplifier simplifier, int[] expected){
+        int points = simplifier.simplify();
+        assertEquals(expected.length / 2, points);
+        for (int i = 0; i < points; i++){
+            assertEquals(expected[2 * i], simplifier.getX(i));
+            assertEquals(expected[2 * i + 1], simplifier.getY(i));
+        }
+    }
+
+    /**
+     * Returns the distance from a point to the segment between two others.
+     */
+    private static double distance(int[] point, int[] first, int[] last){
+        double dx = last[0] - first[0];
+        double dy = last[1] - first[1];
+        double squaredLength = dx * dx + dy * dy;
+        double t = squaredLength == 0 ? 0
+                : Math.max(0, Math.min(1, ((point[0] - first[0]) * dx + (point[1] - first[1]) * dy) / squaredLength));
+        double x = first[0] + t * dx - point[0];
+        double y = first[1] + t * dy - point[1];
+        return Math.sqrt(x * x + y * y);
+    }
+}
@@ -1,9 +1,13 @@
 package client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
@@ -14,24 +18,37 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import protocol.BinaryFrameReader;
+import protocol.BinaryFrameWriter;
+import protocol.BinaryProtocol;
+import protocol.KeyframeCodec;
 
 /**
  * Whiteboard Client represents a client working on the Whiteboard.
  */
 public class WhiteboardClient {
+    // Commands waiting to be written to the server at most, about 3MB of them
+    protected static final int OUTPUT_CAPACITY = 1 << 16;
     private boolean outActive = true;
     private BufferedReader in;
-    private PrintWriter out;
+    private BufferedWriter out;
     protected String whiteboardName;
     protected final BlockingQueue<String> outputCommandsQueue; // For communication with the server
     private final List<String> usersInWhiteboard;
     private WhiteboardGUI whiteboards; // The Whiteboard GUI
+    private RemoteStrokes remoteStrokes; // Draws the commands of the server on the Canvas, a batch per frame
     private int width;
     private int height;
     private String ipAddress;
     private int portNumber;
+    private final boolean binaryRequested; // Whether to ask the server for the binary protocol
+    private volatile boolean binaryProtocol = false; // Whether the server accepted the binary protocol
+    private final CountDownLatch protocolNegotiated;
+    private int strokeTolerance = 0; // Pixels up to which the points of the local strokes are dropped
+    private int strokeSendMillis = Canvas.SEND_MILLIS; // Interval at which the simplified strokes are sent
 
     /**
      * Makes a WhiteboardClient
@@ -42,13 +59,42 @@ public class WhiteboardClient {
      * @param port the port the Client uses to conect to the Server
      */
     public WhiteboardClient(final int clientWidth, final int clientHeight, final String serverIPAddress, final int port) {
-        //MAX_INT doesn't work as an argument, thus a very large number is passed on
-        outputCommandsQueue = new ArrayBlockingQueue<String>(10000000);     
+        this(clientWidth, clientHeight, serverIPAddress, port, false);
+    }
+
+    /**
+     * Makes a WhiteboardClient
+     * 
+     * @param width width of the whiteboard in pixels
+     * @param height height of the whiteboard in pixels
+     * @param serverIPAddress the ipAddress the Server is running on
+     * @param port the port the Client uses to conect to the Server
+     * @param binary whether to ask the Server for the binary protocol, falling back to the
+     *            text protocol if the Server does not support it
+     */
+    public WhiteboardClient(final int clientWidth, final int clientHeight, final String serverIPAddress, final int port,
+            final boolean binary) {
+        outputCommandsQueue = new CommandRing(OUTPUT_CAPACITY);
         usersInWhiteboard = Collections.synchronizedList(new ArrayList<String>());
         width = clientWidth;
         height = clientHeight;
         ipAddress = serverIPAddress;
         portNumber = port;
+        binaryRequested = binary;
+        protocolNegotiated = new CountDownLatch(binary ? 1 : 0);
+    }
+
+    /**
+     * Sets whether the local strokes are simplified before they are sent, once
+     * the GUI is created.
+     * @param tolerance represents the distance in pixels up to which the points
+     *            of a stroke are dropped, or 0 to send every segment as it is drawn
+     * @param sendMillis represents the interval in milliseconds at which the
+     *            simplified points of a stroke are sent
+     */
+    protected void setStrokeSimplification(final int tolerance, final int sendMillis) {
+        strokeTolerance = tolerance;
+        strokeSendMillis = sendMillis;
     }
 
     /**
@@ -56,6 +102,8 @@ public class WhiteboardClient {
      */
     protected void createGUI(){
         whiteboards = new WhiteboardGUI(width,height, outputCommandsQueue);  
+        remoteStrokes = new RemoteStrokes(whiteboards.getCanvas(), true);
+        whiteboards.getCanvas().setStrokeSimplification(strokeTolerance, strokeSendMillis);
         //Asks for the username
         outputCommandsQueue.offer(whiteboards.getUsername(""));
         createWhiteboard(whiteboards.clientName);
@@ -120,8 +168,27 @@ public class WhiteboardClient {
      * @throws IOException if connection has an error or terminates unexpectedly
      */
     private void handleServerResponse(final Socket socket) throws IOException {
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        InputStream socketIn = socket.getInputStream();
         try {
+            if (binaryRequested) {
+                // Read without buffering ahead until the server answers the binary protocol request
+                for (String line = BinaryProtocol.readLine(socketIn); line != null; line = BinaryProtocol.readLine(socketIn)) {
+                    if (line.equals(BinaryProtocol.ACCEPT)) {
+                        binaryProtocol = true;
+                        protocolNegotiated.countDown();
+                        handleBinaryResponses(new BinaryFrameReader(new BufferedInputStream(socketIn)));
+                        return;
+                    } else if (line.equals("Not in Server Regex")) {
+                        // The server only supports the text protocol
+                        System.err.println("Binary protocol not supported by the server");
+                        protocolNegotiated.countDown();
+                        break;
+                    }
+                    handleResponse(line);
+                }
+                protocolNegotiated.countDown();
+            }
+            in = new BufferedReader(new InputStreamReader(socketIn));
             while(true) {
                 for (String line = in.readLine(); line != null; line = in.readLine()) {
                     handleResponse(line);
@@ -134,128 +201,199 @@ public class WhiteboardClient {
         }
     }
 
+    /**
+     * Reads the binary frames sent by the server once it accepted the binary protocol.
+     * Draw and erase frames are queued for the canvas without parsing them as text.
+     * 
+     * @param reader represents the reader of the server's binary frames
+     * @throws IOException if connection has an error or terminates unexpectedly
+     */
+    private void handleBinaryResponses(final BinaryFrameReader reader) throws IOException {
+        for (int frame = reader.read(); frame != -1; frame = reader.read()) {
+            if (frame == BinaryFrameReader.TEXT) {
+                handleResponse(reader.getText());
+            } else if (reader.getBoard().equals(whiteboardName)) {
+                if (frame == BinaryFrameReader.DRAW) {
+                    remoteStrokes.draw(reader.getX1(), reader.getY1(), reader.getX2(), reader.getY2(),
+                            reader.getStrokeSize(), reader.getRed(), reader.getGreen(), reader.getBlue());
+                } else {
+                    remoteStrokes.erase(reader.getX1(), reader.getY1(), reader.getX2(), reader.getY2(),
+                            reader.getStrokeSize());
+                }
+            }
+        }
+    }
+
     /**
      * Parses input from the server, performing appropriate operations.
      * @param input represents the message from server
      */
     private void handleResponse(String input) {
-        String regex = "(Existing Whiteboards [^=]*)|(sameClient [^=]*)|(removeClient [^=]*)|(Username already taken. Please select a new username.)|"
-                + "(Whiteboard already exists.)|(Select a whiteboard)|(Whiteboard does not exist. Select a different board or make a board.)|"
-                + "([^=]* on board [^=]*)|(Updating Clients)|(Board [^=]* added)|([^=]* draw -?\\d+ -?\\d+ -?\\d+ -?\\d+ -?\\d+ [^=]* [^=]* [^=]*)|"
-                + "([^=]* erase -?\\d+ -?\\d+ -?\\d+ -?\\d+ -?\\d+)|(Done sending whiteboard names)|(Done sending client names)|(Not in Server Regex)|"
-                + "(In Server Regex, no action)";
-        if (!input.matches(regex)) {
+        Response response = Response.parse(input);
+        if (response == null) {
             System.err.println("Not in Client Regex");
             System.err.println(input);
             return ;
         }
-        String[] tokens = input.split(" ");
-        if (tokens.length > 1) {
-            if (tokens[0].equals("Username")){
-                // Prompts for a new username
-                outputCommandsQueue.offer(whiteboards.getUsername("Username already taken.\n"));
-            } else if (((tokens[0].equals("Select")) && tokens[2].equals("whiteboard")) || (tokens[0].equals("Whiteboard") && tokens[2].equals("exists"))){
-                // Prompts to select a Whiteboard
-                whiteboards.chooseWhiteboardPopup();
-            } else if (tokens[1].equals("on") && tokens[2].equals("board")) {
-                //updates the client's whiteboard
-                whiteboardName = tokens[3];
-                // Updates the Canvas' Whiteboard Name 
-                whiteboards.canvas.setWhiteboardName(tokens[3]);              
-            } else if ((tokens[0].equals("Existing")) && (tokens[1].equals("Whiteboards"))){
-                if (!whiteboards.getExistingWhiteboards().contains(tokens[2])){
-                    // Add to list of existing Whiteboards if not already in the list
-                    whiteboards.getExistingWhiteboards().add(tokens[2]);
-                }
-            } else if (tokens[0].equals("Updating") && tokens[1].equals("Clients")){
-                // Clears the usersInWhiteboard JList
-                usersInWhiteboard.clear();
-            } else if (tokens[0].equals("sameClient")){
-                if (!usersInWhiteboard.contains(tokens[1])){
-                    // Adds to list of users in whiteboard if not already in there
-                    usersInWhiteboard.add(tokens[1]);
-                }
-            } else if (tokens[0].equals("removeClient")){
-                if (usersInWhiteboard.contains(tokens[1])){
-                    // Removes client from the list of users in whiteboard and updates JList in Sidepanel
-                    usersInWhiteboard.remove(tokens[1]);
-                    whiteboards.getSidePanel().updateClientsList(usersInWhiteboard);
-                }
-            } else if ((tokens[0].equals("Done")) && (tokens[1].equals("sending")) && (tokens[2].equals("whiteboard"))){
-                if (!(whiteboardName != null)){
-                    // Sets default to Board1 to prevent null pointer exception
-                    whiteboardName = "Board1";
-                }
-                // Updates SidePanel
-                whiteboards.getSidePanel().updateWhiteboardsList(whiteboards.getExistingWhiteboards(), whiteboardName);
-            } else if ((tokens[0].equals("Done")) && (tokens[1].equals("sending")) && (tokens[2].equals("client"))){
-                // Updates SidePanel collaborators Jlist
+        switch (response.type) {
+        case USERNAME_TAKEN:
+            // Prompts for a new username
+            outputCommandsQueue.offer(whiteboards.getUsername("Username already taken.\n"));
+            break;
+        case CHOOSE_WHITEBOARD:
+            // Prompts to select a Whiteboard
+            whiteboards.chooseWhiteboardPopup();
+            break;
+        case ON_BOARD:
+            //updates the client's whiteboard
+            whiteboardName = response.whiteboard;
+            // Updates the Canvas' Whiteboard Name 
+            whiteboards.canvas.setWhiteboardName(response.whiteboard);
+            // The server sends every command of the Whiteboard next, the
+            // strokes of the previous one still queued are dropped
+            remoteStrokes.selectBoard();
+            break;
+        case EXISTING_WHITEBOARD:
+            if (!whiteboards.getExistingWhiteboards().contains(response.whiteboard)){
+                // Add to list of existing Whiteboards if not already in the list
+                whiteboards.getExistingWhiteboards().add(response.whiteboard);
+            }
+            break;
+        case UPDATING_CLIENTS:
+            // Clears the usersInWhiteboard JList
+            usersInWhiteboard.clear();
+            break;
+        case SAME_CLIENT:
+            if (!usersInWhiteboard.contains(response.client)){
+                // Adds to list of users in whiteboard if not already in there
+                usersInWhiteboard.add(response.client);
+            }
+            break;
+        case REMOVE_CLIENT:
+            if (usersInWhiteboard.contains(response.client)){
+                // Removes client from the list of users in whiteboard and updates JList in Sidepanel
+                usersInWhiteboard.remove(response.client);
                 whiteboards.getSidePanel().updateClientsList(usersInWhiteboard);
-            } else if (tokens[0].equals("Board") && tokens[2].equals("added")) {
-                // Sets whiteboard name
-                whiteboardName = tokens[1];
-                // Sends command to server to selectBoard
-                outputCommandsQueue.offer(whiteboards.clientName + " selectBoard " + tokens[1]);
-                // Updates GUI
-                whiteboards.canvas.setWhiteboardName(tokens[1]);              
-                whiteboards.updateTitle(whiteboardName);
-            } else if (tokens[0].equals(whiteboardName) && (tokens[1].equals("draw"))){
-                int x1 = Integer.parseInt(tokens[2]);
-                int y1 = Integer.parseInt(tokens[3]);
-                int x2 = Integer.parseInt(tokens[4]);
-                int y2 = Integer.parseInt(tokens[5]);
-                int newStrokeSize = Integer.parseInt(tokens[6]);
-                String redValue = tokens[7];
-                String greenValue = tokens[8];
-                String blueValue = tokens[9];
+            }
+            break;
+        case DONE_WHITEBOARDS:
+            if (!(whiteboardName != null)){
+                // Sets default to Board1 to prevent null pointer exception
+                whiteboardName = "Board1";
+            }
+            // Updates SidePanel
+            whiteboards.getSidePanel().updateWhiteboardsList(whiteboards.getExistingWhiteboards(), whiteboardName);
+            break;
+        case DONE_CLIENTS:
+            // Updates SidePanel collaborators Jlist
+            whiteboards.getSidePanel().updateClientsList(usersInWhiteboard);
+            break;
+        case BOARD_ADDED:
+            // Sets whiteboard name
+            whiteboardName = response.whiteboard;
+            // Sends command to server to selectBoard
+            outputCommandsQueue.offer(whiteboards.clientName + " selectBoard " + response.whiteboard);
+            // Updates GUI
+            whiteboards.canvas.setWhiteboardName(response.whiteboard);
+            whiteboards.updateTitle(whiteboardName);
+            break;
+        case RESYNC:
+            if (response.whiteboard.equals(whiteboardName)) {
+                // Clears the canvas, the Whiteboard's history of commands follows
+                remoteStrokes.clear();
+            }
+            break;
+        case KEYFRAME:
+            if (response.whiteboard.equals(whiteboardName)) {
+                // Replaces the canvas with the image, the commands made after it follow
+                try {
+                    remoteStrokes.keyframe(KeyframeCodec.decode(response.image));
+                } catch (IOException e) {
+                    System.err.println("Bad keyframe for " + response.whiteboard);
+                }
+            }
+            break;
+        case DRAW:
+            if (response.whiteboard.equals(whiteboardName)) {
                 // Draws command in the canvas
-                whiteboards.getCanvas().commandDraw(x1, y1, x2, y2, newStrokeSize, redValue, greenValue, blueValue);
-            } else if (tokens[0].equals(whiteboardName) && (tokens[1].equals("erase"))){
-                int x1 = Integer.parseInt(tokens[2]);
-                int y1 = Integer.parseInt(tokens[3]);
-                int x2 = Integer.parseInt(tokens[4]);
-                int y2 = Integer.parseInt(tokens[5]);
-                int newStrokeSize = Integer.parseInt(tokens[6]);
+                remoteStrokes.draw(response.x1, response.y1, response.x2, response.y2,
+                        response.strokeSize, response.red, response.green, response.blue);
+            }
+            break;
+        case ERASE:
+            if (response.whiteboard.equals(whiteboardName)) {
                 // Erases command in the command
-                whiteboards.getCanvas().commandErase(x1, y1, x2, y2, newStrokeSize);            
-            } else if (tokens[2].equals("Server") && (tokens[3].equals("Regex"))){
-                System.err.println("Command " + input); // Don't need to do anything      
-            } else if (tokens[0].equals("In") && (tokens[1].equals("Server"))){
-                System.err.println("Command " + input); // Don't need to do anything      
-            } 
-        } else {
-            System.err.println("In Server Regex, no action");
-            System.err.println(input);
-            return ;
+                remoteStrokes.erase(response.x1, response.y1, response.x2, response.y2,
+                        response.strokeSize);
+            }
+            break;
+        case SERVER_ERROR:
+            System.err.println("Command " + input); // Don't need to do anything
+            break;
+        default:
+            break;
         }
-        // Should never get here--make sure to return in each of the valid cases above.
-        //        throw new UnsupportedOperationException();
     }
 
     /**
-     * Polls the outputCommandQueue and writes items as text messages to the client's socket. 
+     * Waits on the outputCommandQueue and writes items as text messages to the client's socket.
+     * Every command queued while the previous batch was being written is written as one batch,
+     * with a single flush of the socket. The thread parks while the CommandRing is empty.
      * 
      * @param socket represents socket where the client is connected
      * @throws IOException if connection has an error or terminates unexpectedly
      * @throws InterruptedException 
      */
     private void handleOutputs(final Socket socket) throws IOException, InterruptedException {
-        out = new PrintWriter(socket.getOutputStream(), true);
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        BinaryFrameWriter binaryOut = null;
+        if (binaryRequested) {
+            out.write(BinaryProtocol.REQUEST);
+            out.newLine();
+            out.flush();
+            // Nothing else is sent until the server has answered the request
+            protocolNegotiated.await();
+            if (binaryProtocol) {
+                binaryOut = new BinaryFrameWriter(new BufferedOutputStream(socket.getOutputStream()));
+            }
+        }
+        List<String> batch = new ArrayList<String>();
         try {
-            while (outActive){ // constantly poll the commands queue 
-                while (outputCommandsQueue.peek() != null){
-                    String output = (String) outputCommandsQueue.take();
+            while (outActive){
+                // Wait for a command, then take everything queued behind it
+                batch.add(outputCommandsQueue.take());
+                outputCommandsQueue.drainTo(batch);
+                for (String output : batch) {
 //                    System.out.println("Output to Server: " + output); 
-                    out.println(output);
-                    if (output.substring(0,10).equals("Disconnect")) { // Disconnect Message
+                    if (binaryOut != null) {
+                        binaryOut.writeLine(output);
+                    } else {
+                        out.write(output);
+                        out.newLine();
+                    }
+                    if (output.startsWith("Disconnect ")) { // Disconnect Message
+                        if (binaryOut != null) {
+                            binaryOut.flush();
+                        }
+                        out.flush();
                         outputCommandsQueue.clear(); // Clears the outputCommandsQueue
                         outActive = false;
                         out.close();
-                        in.close();
+                        if (in != null) {
+                            in.close();
+                        }
                         socket.close();
                         break;
                     }
                 }
+                if (outActive) {
+                    if (binaryOut != null) {
+                        binaryOut.flush();
+                    } else {
+                        out.flush();
+                    }
+                }
+                batch.clear();
             }
         } finally {
             System.out.println("Output thread done");
@@ -263,14 +401,47 @@ public class WhiteboardClient {
     }
 
     /**
-     * Runs the Whiteboard Client.
+     * Runs the Whiteboard Client. The client asks the WhiteboardServer for the
+     * binary protocol when it connects, falling back to the text protocol if
+     * the server does not support it.
      * @param ipAddress represents the Server IP Address
      * @param port represents the WhiteboardServer Port
      * @param clientWidth represents the width of the client GUI
      * @param clientHeight represents the height of the client GUI
      */
     public static void runWhiteboardClient(final String ipAddress, final int port, final int clientWidth, final int clientHeight){
-        WhiteboardClient client = new WhiteboardClient(clientWidth,clientHeight, ipAddress, port);
+        runWhiteboardClient(ipAddress, port, clientWidth, clientHeight, true);
+    }
+
+    /**
+     * Runs the Whiteboard Client.
+     * @param ipAddress represents the Server IP Address
+     * @param port represents the WhiteboardServer Port
+     * @param clientWidth represents the width of the client GUI
+     * @param clientHeight represents the height of the client GUI
+     * @param binary represents whether to ask the WhiteboardServer for the binary protocol
+     */
+    public static void runWhiteboardClient(final String ipAddress, final int port, final int clientWidth, final int clientHeight,
+            final boolean binary){
+        runWhiteboardClient(ipAddress, port, clientWidth, clientHeight, binary, 0, Canvas.SEND_MILLIS);
+    }
+
+    /**
+     * Runs the Whiteboard Client.
+     * @param ipAddress represents the Server IP Address
+     * @param port represents the WhiteboardServer Port
+     * @param clientWidth represents the width of the client GUI
+     * @param clientHeight represents the height of the client GUI
+     * @param binary represents whether to ask the WhiteboardServer for the binary protocol
+     * @param tolerance represents the distance in pixels up to which the points of the
+     *            local strokes are dropped before they are sent, or 0 to send them all
+     * @param sendMillis represents the interval in milliseconds at which the simplified
+     *            points of the local strokes are sent
+     */
+    public static void runWhiteboardClient(final String ipAddress, final int port, final int clientWidth, final int clientHeight,
+            final boolean binary, final int tolerance, final int sendMillis){
+        WhiteboardClient client = new WhiteboardClient(clientWidth,clientHeight, ipAddress, port, binary);
+        client.setStrokeSimplification(tolerance, sendMillis);
         client.connectToServer();
         client.createGUI();
     }
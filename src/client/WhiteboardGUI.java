@@ -6,7 +6,6 @@ import java.awt.event.WindowEvent;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
 import javax.swing.JFrame;
@@ -160,7 +159,8 @@ public class WhiteboardGUI extends JFrame {
         helpMessage += "To draw, simply click and draw your mouse cursor across the screen. \nDo the same for erasing. \n";
         helpMessage += "You can view the state of the pen at the bottom of the interface.\n";
         helpMessage += "To change the color of the pen, click the color button and select the desired color from the color palette.\n";
-        helpMessage += "To change the stroke size of the pen, drag the slider on the bottom of the interface to adjust the stroke size.\n\n";
+        helpMessage += "To change the stroke size of the pen, drag the slider on the bottom of the interface to adjust the stroke size.\n";
+        helpMessage += "To move across a whiteboard larger than the screen, press the arrow keys.\n\n";
         helpMessage += "Changing Whiteboards\n\n";
         helpMessage += "Select the desired whiteboard you wish to switch to in the list on the right denoted by Whiteboards in Server \nand click the Switch Whiteboards button.\n";
         helpMessage += "You can view the other users working on the same whiteboard as you in the list labeled Users in Whiteboard.\n";
@@ -206,7 +206,7 @@ public class WhiteboardGUI extends JFrame {
      * Main program. Make a window containing a Canvas.
      */
     public static void main(String[] args) {
-        BlockingQueue<String> queue = new ArrayBlockingQueue<String>(10000000);
+        BlockingQueue<String> queue = new CommandRing(WhiteboardClient.OUTPUT_CAPACITY);
         WhiteboardGUI client = new WhiteboardGUI(800,600,queue);
         client.createWindow("test");
         client.makeWhiteboard();
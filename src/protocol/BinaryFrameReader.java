@@ -0,0 +1,203 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary Frame Reader reads the binary frames described in BinaryProtocol
+ * from one direction of a connection. BOARD and PALETTE frames are handled by
+ * the reader itself; read() returns once a TEXT, DRAW or ERASE frame has been
+ * read, and its content is available from the getters until the next read().
+ */
+public class BinaryFrameReader {
+    public static final int TEXT = BinaryProtocol.TEXT;
+    public static final int DRAW = BinaryProtocol.DRAW;
+    public static final int ERASE = BinaryProtocol.ERASE;
+
+    private final InputStream in;
+    private final List<String> boards = new ArrayList<String>();
+    private final List<Integer> palette = new ArrayList<Integer>();
+    private int lastX = 0;
+    private int lastY = 0;
+
+    private String text;
+    private String board;
+    private int x1;
+    private int y1;
+    private int x2;
+    private int y2;
+    private int strokeSize;
+    private int rgb;
+
+    /**
+     * Makes a Binary Frame Reader.
+     *
+     * @param in represents the stream of the connection, should be buffered
+     */
+    public BinaryFrameReader(final InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next TEXT, DRAW or ERASE frame.
+     *
+     * @return TEXT, DRAW or ERASE, or -1 at the end of the stream
+     * @throws IOException if the connection has an error or a frame is
+     *             malformed
+     */
+    public int read() throws IOException {
+        while (true) {
+            int type = in.read();
+            switch (type) {
+            case -1:
+                return -1;
+            case BinaryProtocol.TEXT:
+                text = readString();
+                return TEXT;
+            case BinaryProtocol.BOARD:
+                int boardId = BinaryProtocol.readVarint(in);
+                if (boardId != boards.size()) {
+                    throw new IOException("unexpected board id " + boardId);
+                }
+                boards.add(readString());
+                break;
+            case BinaryProtocol.PALETTE:
+                int paletteIndex = BinaryProtocol.readVarint(in);
+                if (paletteIndex != palette.size()) {
+                    throw new IOException("unexpected palette index " + paletteIndex);
+                }
+                palette.add((readByte() << 16) | (readByte() << 8) | readByte());
+                break;
+            case BinaryProtocol.DRAW:
+                readSegment();
+                rgb = palette.get(readIndex(palette.size()));
+                return DRAW;
+            case BinaryProtocol.ERASE:
+                readSegment();
+                return ERASE;
+            default:
+                throw new IOException("unknown frame type " + type);
+            }
+        }
+    }
+
+    /**
+     * Returns the text message of the last TEXT frame.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the Whiteboard's name of the last DRAW or ERASE frame.
+     */
+    public String getBoard() {
+        return board;
+    }
+
+    public int getX1() {
+        return x1;
+    }
+
+    public int getY1() {
+        return y1;
+    }
+
+    public int getX2() {
+        return x2;
+    }
+
+    public int getY2() {
+        return y2;
+    }
+
+    public int getStrokeSize() {
+        return strokeSize;
+    }
+
+    public int getRed() {
+        return (rgb >> 16) & 0xff;
+    }
+
+    public int getGreen() {
+        return (rgb >> 8) & 0xff;
+    }
+
+    public int getBlue() {
+        return rgb & 0xff;
+    }
+
+    /**
+     * Returns the last DRAW frame as a text protocol message.
+     */
+    public String toDrawLine() {
+        return board + " draw " + x1 + " " + y1 + " " + x2 + " " + y2 + " " + strokeSize + " "
+                + getRed() + " " + getGreen() + " " + getBlue();
+    }
+
+    /**
+     * Returns the last ERASE frame as a text protocol message.
+     */
+    public String toEraseLine() {
+        return board + " erase " + x1 + " " + y1 + " " + x2 + " " + y2 + " " + strokeSize;
+    }
+
+    /**
+     * Reads the board id, delta encoded points and stroke size of a segment.
+     */
+    private void readSegment() throws IOException {
+        board = boards.get(readIndex(boards.size()));
+        x1 = lastX + BinaryProtocol.unZigZag(BinaryProtocol.readVarint(in));
+        y1 = lastY + BinaryProtocol.unZigZag(BinaryProtocol.readVarint(in));
+        x2 = x1 + BinaryProtocol.unZigZag(BinaryProtocol.readVarint(in));
+        y2 = y1 + BinaryProtocol.unZigZag(BinaryProtocol.readVarint(in));
+        strokeSize = BinaryProtocol.unZigZag(BinaryProtocol.readVarint(in));
+        lastX = x2;
+        lastY = y2;
+    }
+
+    /**
+     * Reads a board id or palette index, which must already be assigned.
+     */
+    private int readIndex(final int size) throws IOException {
+        int index = BinaryProtocol.readVarint(in);
+        if (index < 0 || index >= size) {
+            throw new IOException("unassigned index " + index);
+        }
+        return index;
+    }
+
+    /**
+     * Reads a length prefixed UTF-8 string.
+     */
+    private String readString() throws IOException {
+        int length = BinaryProtocol.readVarint(in);
+        if (length < 0) {
+            throw new IOException("malformed string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(bytes, read, length - read);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            read += count;
+        }
+        return new String(bytes, BinaryProtocol.UTF_8);
+    }
+
+    /**
+     * Reads one byte, failing at the end of the stream.
+     */
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+}
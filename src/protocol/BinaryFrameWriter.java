@@ -0,0 +1,174 @@
+package protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Binary Frame Writer writes the messages of one direction of a connection as
+ * the binary frames described in BinaryProtocol.
+ */
+public class BinaryFrameWriter {
+    private final OutputStream out;
+    private final Map<String, Integer> boardIds = new HashMap<String, Integer>();
+    private final Map<Integer, Integer> paletteIndexes = new HashMap<Integer, Integer>();
+    private int lastX = 0;
+    private int lastY = 0;
+
+    /**
+     * Makes a Binary Frame Writer.
+     *
+     * @param out represents the stream of the connection, should be buffered
+     */
+    public BinaryFrameWriter(final OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a text protocol message, as a DRAW or ERASE frame if it is a draw
+     * or erase message and as a TEXT frame otherwise.
+     *
+     * @param line represents the text message
+     * @throws IOException if the connection has an error
+     */
+    public void writeLine(final String line) throws IOException {
+        LineScanner scanner = new LineScanner(line);
+        try {
+            String board = scanner.next();
+            if (scanner.nextIs("draw")) {
+                int x1 = scanner.nextInt();
+                int y1 = scanner.nextInt();
+                int x2 = scanner.nextInt();
+                int y2 = scanner.nextInt();
+                int strokeSize = scanner.nextInt();
+                int red = scanner.nextInt();
+                int green = scanner.nextInt();
+                int blue = scanner.nextInt();
+                if (!scanner.hasNext() && isColorValue(red) && isColorValue(green) && isColorValue(blue)) {
+                    writeDraw(board, x1, y1, x2, y2, strokeSize, red, green, blue);
+                    return;
+                }
+            } else if (scanner.nextIs("erase")) {
+                int x1 = scanner.nextInt();
+                int y1 = scanner.nextInt();
+                int x2 = scanner.nextInt();
+                int y2 = scanner.nextInt();
+                int strokeSize = scanner.nextInt();
+                if (!scanner.hasNext()) {
+                    writeErase(board, x1, y1, x2, y2, strokeSize);
+                    return;
+                }
+            }
+        } catch (NoSuchElementException | NumberFormatException e) {
+            // Not a draw or erase message
+        }
+        writeText(line);
+    }
+
+    /**
+     * Writes a TEXT frame.
+     */
+    public void writeText(final String text) throws IOException {
+        byte[] bytes = text.getBytes(BinaryProtocol.UTF_8);
+        out.write(BinaryProtocol.TEXT);
+        BinaryProtocol.writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes a DRAW frame, preceded by the BOARD and PALETTE frames it needs.
+     * Red, green and blue must be between 0 and 255.
+     */
+    public void writeDraw(final String board, int x1, int y1, int x2, int y2, int strokeSize,
+            int red, int green, int blue) throws IOException {
+        int boardId = boardId(board);
+        int paletteIndex = paletteIndex(red, green, blue);
+        out.write(BinaryProtocol.DRAW);
+        BinaryProtocol.writeVarint(out, boardId);
+        writeSegment(x1, y1, x2, y2, strokeSize);
+        BinaryProtocol.writeVarint(out, paletteIndex);
+    }
+
+    /**
+     * Writes an ERASE frame, preceded by the BOARD frame it needs.
+     */
+    public void writeErase(final String board, int x1, int y1, int x2, int y2, int strokeSize) throws IOException {
+        int boardId = boardId(board);
+        out.write(BinaryProtocol.ERASE);
+        BinaryProtocol.writeVarint(out, boardId);
+        writeSegment(x1, y1, x2, y2, strokeSize);
+    }
+
+    /**
+     * Flushes the frames written so far to the connection.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Closes the connection's stream.
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Writes the delta encoded points and the stroke size of a segment.
+     */
+    private void writeSegment(int x1, int y1, int x2, int y2, int strokeSize) throws IOException {
+        BinaryProtocol.writeVarint(out, BinaryProtocol.zigZag(x1 - lastX));
+        BinaryProtocol.writeVarint(out, BinaryProtocol.zigZag(y1 - lastY));
+        BinaryProtocol.writeVarint(out, BinaryProtocol.zigZag(x2 - x1));
+        BinaryProtocol.writeVarint(out, BinaryProtocol.zigZag(y2 - y1));
+        BinaryProtocol.writeVarint(out, BinaryProtocol.zigZag(strokeSize));
+        lastX = x2;
+        lastY = y2;
+    }
+
+    /**
+     * Returns the board id of the Whiteboard, writing a BOARD frame the first
+     * time the Whiteboard is used.
+     */
+    private int boardId(final String board) throws IOException {
+        Integer boardId = boardIds.get(board);
+        if (boardId == null) {
+            boardId = boardIds.size();
+            boardIds.put(board, boardId);
+            byte[] bytes = board.getBytes(BinaryProtocol.UTF_8);
+            out.write(BinaryProtocol.BOARD);
+            BinaryProtocol.writeVarint(out, boardId);
+            BinaryProtocol.writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        return boardId;
+    }
+
+    /**
+     * Returns the palette index of the color, writing a PALETTE frame the
+     * first time the color is used.
+     */
+    private int paletteIndex(int red, int green, int blue) throws IOException {
+        Integer rgb = (red << 16) | (green << 8) | blue;
+        Integer paletteIndex = paletteIndexes.get(rgb);
+        if (paletteIndex == null) {
+            paletteIndex = paletteIndexes.size();
+            paletteIndexes.put(rgb, paletteIndex);
+            out.write(BinaryProtocol.PALETTE);
+            BinaryProtocol.writeVarint(out, paletteIndex);
+            out.write(red);
+            out.write(green);
+            out.write(blue);
+        }
+        return paletteIndex;
+    }
+
+    /**
+     * Returns true if the value fits in a color byte.
+     */
+    private static boolean isColorValue(final int value) {
+        return value >= 0 && value <= 255;
+    }
+}
@@ -0,0 +1,123 @@
+package protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Binary Protocol holds the constants shared by the BinaryFrameWriter and the
+ * BinaryFrameReader, and the helpers used to negotiate it.
+ *
+ * A client asks for the binary protocol by sending the text line REQUEST
+ * before any other message. A server that supports it answers with the text
+ * line ACCEPT, after which both directions are written as binary frames. A
+ * server that does not answers "Not in Server Regex", and both sides keep
+ * using the text protocol.
+ *
+ * Every frame starts with its type byte:
+ *      TEXT        length, UTF-8 bytes of a text message
+ *      BOARD       board id, length, UTF-8 bytes of the Whiteboard's name
+ *      PALETTE     palette index, red byte, green byte, blue byte
+ *      DRAW        board id, x1, y1, x2, y2, stroke size, palette index
+ *      ERASE       board id, x1, y1, x2, y2, stroke size
+ * All numbers are varints. x1 and y1 are zig-zag encoded relative to the end
+ * point of the previous segment in the same direction, x2 and y2 relative to
+ * x1 and y1, and the stroke size is zig-zag encoded. Board ids and palette
+ * indexes are assigned by the writer with a BOARD or PALETTE frame before
+ * their first use, and only hold for one direction of one connection.
+ */
+public class BinaryProtocol {
+    public static final String REQUEST = "protocol binary";
+    public static final String ACCEPT = "protocol binary ok";
+
+    protected static final int TEXT = 0;
+    protected static final int BOARD = 1;
+    protected static final int PALETTE = 2;
+    protected static final int DRAW = 3;
+    protected static final int ERASE = 4;
+
+    protected static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private BinaryProtocol() {
+        // Holds constants and helpers only
+    }
+
+    /**
+     * Reads one text line directly from the stream, without reading any byte
+     * past its line terminator, so that the rest of the stream can still be
+     * read as binary frames.
+     *
+     * @param in represents the stream of the connection
+     * @return the line without its line terminator, or null at the end of the
+     *         stream
+     * @throws IOException if the connection has an error
+     */
+    public static String readLine(final InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        if (b < 0) {
+            return null;
+        }
+        while (b >= 0 && b != '\n') {
+            line.write(b);
+            b = in.read();
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, Charset.defaultCharset());
+    }
+
+    /**
+     * Writes an int as an unsigned varint: 7 bits per byte, lowest bits
+     * first, with the high bit set on every byte but the last.
+     */
+    protected static void writeVarint(final OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads an unsigned varint written by writeVarint.
+     *
+     * @throws EOFException if the stream ends in the middle of the varint
+     * @throws IOException if the varint is longer than an int
+     */
+    protected static int readVarint(final InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /**
+     * Zig-zag encodes an int, so that numbers close to zero, negative or
+     * positive, take few varint bytes.
+     */
+    protected static int zigZag(final int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Decodes an int encoded by zigZag.
+     */
+    protected static int unZigZag(final int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,82 @@
+package protocol;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * BinaryProtocol Test runs the JUnit tests for the Binary Frame Writer and
+ * Binary Frame Reader classes, by writing messages and reading them back.
+ */
+public class BinaryProtocolTest {
+    /**
+     * TESTING writeLine and read
+     *
+     * Partition the input space as follows:
+     * Message: text message, draw message, erase message, draw with a color
+     *          out of range, draw message with negative coordinates
+     * Board:   first use, repeated use, second board
+     * Color:   first use, repeated use
+     */
+    @Test
+    public void textMessage() throws IOException {
+        BinaryFrameReader reader = roundTrip("bob on board Board1");
+        assertEquals(reader.read(), BinaryFrameReader.TEXT);
+        assertEquals(reader.getText(), "bob on board Board1");
+        assertEquals(reader.read(), -1);
+    }
+
+    @Test
+    public void drawAndEraseMessages() throws IOException {
+        BinaryFrameReader reader = roundTrip("Board1 draw 0 0 100 100 50 12 34 56",
+                "Board1 draw 100 100 101 99 50 12 34 56", "Board2 erase -5 -5 -6 -7 3",
+                "Board1 draw 101 99 400 300 2 255 0 0");
+        assertEquals(reader.read(), BinaryFrameReader.DRAW);
+        assertEquals(reader.toDrawLine(), "Board1 draw 0 0 100 100 50 12 34 56");
+        assertEquals(reader.read(), BinaryFrameReader.DRAW);
+        assertEquals(reader.toDrawLine(), "Board1 draw 100 100 101 99 50 12 34 56");
+        assertEquals(reader.read(), BinaryFrameReader.ERASE);
+        assertEquals(reader.toEraseLine(), "Board2 erase -5 -5 -6 -7 3");
+        assertEquals(reader.read(), BinaryFrameReader.DRAW);
+        assertEquals(reader.getBoard(), "Board1");
+        assertEquals(reader.getRed(), 255);
+        assertEquals(reader.toDrawLine(), "Board1 draw 101 99 400 300 2 255 0 0");
+        assertEquals(reader.read(), -1);
+    }
+
+    @Test
+    public void drawColorOutOfRange() throws IOException {
+        BinaryFrameReader reader = roundTrip("Board1 draw 0 0 1 1 5 256 0 0");
+        assertEquals(reader.read(), BinaryFrameReader.TEXT);
+        assertEquals(reader.getText(), "Board1 draw 0 0 1 1 5 256 0 0");
+    }
+
+    @Test
+    public void segmentIsSmall() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryFrameWriter writer = new BinaryFrameWriter(bytes);
+        writer.writeLine("Board1 draw 123 456 124 457 5 0 0 0");
+        int firstSize = bytes.size();
+        writer.writeLine("Board1 draw 124 457 126 458 5 0 0 0");
+        // type, board id, 4 small deltas, stroke size and palette index
+        assertEquals(bytes.size() - firstSize, 8);
+    }
+
+    /**
+     * Writes the lines with a Binary Frame Writer and returns a Binary Frame
+     * Reader of the written bytes.
+     */
+    private static BinaryFrameReader roundTrip(String... lines) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryFrameWriter writer = new BinaryFrameWriter(bytes);
+        for (String line : lines) {
+            writer.writeLine(line);
+        }
+        writer.flush();
+        return new BinaryFrameReader(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
@@ -0,0 +1,110 @@
+package protocol;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Keyframe Codec turns the image of a Whiteboard into the single token sent
+ * in the keyframe message, and back:
+ *      keyframe WHITEBOARD IMAGE
+ * IMAGE is the image compressed as a PNG, written in base64 so that the
+ * message stays a text line in both the text and the binary protocol.
+ */
+public class KeyframeCodec {
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .toCharArray();
+    private static final int[] BASE64_VALUES = new int[128];
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        for (int i = 0; i < BASE64.length; i++) {
+            BASE64_VALUES[BASE64[i]] = i;
+        }
+    }
+
+    private KeyframeCodec() {
+        // Holds helpers only
+    }
+
+    /**
+     * Returns the token of an image.
+     *
+     * @param image represents the image of the Whiteboard
+     * @throws IOException if the image cannot be compressed
+     */
+    public static String encode(final BufferedImage image) throws IOException {
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", png)) {
+            throw new IOException("no PNG writer");
+        }
+        return toBase64(png.toByteArray());
+    }
+
+    /**
+     * Returns the image of a token made by encode.
+     *
+     * @param token represents the IMAGE token of a keyframe message
+     * @throws IOException if the token is not an image made by encode
+     */
+    public static BufferedImage decode(final String token) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(fromBase64(token)));
+        if (image == null) {
+            throw new IOException("not a PNG image");
+        }
+        return image;
+    }
+
+    /**
+     * Writes bytes in base64, padded with '=' to a multiple of 4 characters.
+     */
+    private static String toBase64(final byte[] bytes) {
+        StringBuilder text = new StringBuilder((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int remaining = bytes.length - i;
+            int group = (bytes[i] & 0xff) << 16;
+            if (remaining > 1) {
+                group |= (bytes[i + 1] & 0xff) << 8;
+            }
+            if (remaining > 2) {
+                group |= bytes[i + 2] & 0xff;
+            }
+            text.append(BASE64[(group >> 18) & 0x3f]).append(BASE64[(group >> 12) & 0x3f]);
+            text.append(remaining > 1 ? BASE64[(group >> 6) & 0x3f] : '=');
+            text.append(remaining > 2 ? BASE64[group & 0x3f] : '=');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reads bytes written by toBase64.
+     *
+     * @throws IOException if the text is not padded base64
+     */
+    private static byte[] fromBase64(final String text) throws IOException {
+        if (text.length() % 4 != 0) {
+            throw new IOException("malformed base64");
+        }
+        int padding = text.endsWith("==") ? 2 : text.endsWith("=") ? 1 : 0;
+        byte[] bytes = new byte[text.length() / 4 * 3 - padding];
+        int length = 0;
+        for (int i = 0; i < text.length(); i += 4) {
+            int group = 0;
+            for (int j = 0; j < 4; j++) {
+                char c = text.charAt(i + j);
+                int value = c == '=' && i + j >= text.length() - padding ? 0 : c < 128 ? BASE64_VALUES[c] : -1;
+                if (value < 0) {
+                    throw new IOException("malformed base64");
+                }
+                group = (group << 6) | value;
+            }
+            for (int shift = 16; shift >= 0 && length < bytes.length; shift -= 8) {
+                bytes[length++] = (byte) (group >> shift);
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,150 @@
+package protocol;
+
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Line Scanner reads the space separated tokens of one text message of the
+ * whiteboard protocol in a single pass, parsing numbers straight into ints
+ * without creating a String for them. The names of the clients and
+ * Whiteboards are tokens without an '=', as the protocol's regex had them.
+ */
+public class LineScanner {
+    private final String line;
+    private int position;
+
+    /**
+     * Makes a Line Scanner positioned before the first token of the line.
+     *
+     * @param line represents the text message, not null
+     */
+    public LineScanner(final String line) {
+        this.line = line;
+        this.position = 0;
+    }
+
+    /**
+     * Returns true if there is a token left in the line.
+     */
+    public boolean hasNext() {
+        return position < line.length();
+    }
+
+    /**
+     * Returns the next token of the line.
+     *
+     * @throws NoSuchElementException if there are no tokens left
+     */
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int end = tokenEnd();
+        String token = line.substring(position, end);
+        skipTo(end);
+        return token;
+    }
+
+    /**
+     * Returns the next token of the line as the name of a client or a
+     * Whiteboard. The token must not contain an '='.
+     *
+     * @throws NoSuchElementException if there are no tokens left
+     * @throws InputMismatchException if the token is not a name; the scanner
+     *             stays where it is
+     */
+    public String nextName() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int end = tokenEnd();
+        if (line.lastIndexOf('=', end - 1) >= position) {
+            throw new InputMismatchException("not a name at " + position + ": " + line);
+        }
+        return next();
+    }
+
+    /**
+     * Returns true, and moves past the next token, if the next token is equal
+     * to the expected token. Otherwise the scanner stays where it is.
+     *
+     * @param expected represents the expected token, without spaces
+     */
+    public boolean nextIs(final String expected) {
+        if (!hasNext()) {
+            return false;
+        }
+        int end = tokenEnd();
+        if (end - position != expected.length() || !line.regionMatches(position, expected, 0, expected.length())) {
+            return false;
+        }
+        skipTo(end);
+        return true;
+    }
+
+    /**
+     * Returns the next token of the line as an int. The token must be an
+     * optional minus sign followed by decimal digits.
+     *
+     * @throws NoSuchElementException if there are no tokens left
+     * @throws NumberFormatException if the token is not an int
+     */
+    public int nextInt() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int end = tokenEnd();
+        int i = position;
+        boolean negative = line.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("not a number at " + position + ": " + line);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("not a number at " + position + ": " + line);
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("number out of range at " + position + ": " + line);
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("number out of range at " + position + ": " + line);
+        }
+        skipTo(end);
+        return (int) value;
+    }
+
+    /**
+     * Returns the rest of the line, from the next token to the end.
+     */
+    public String rest() {
+        String rest = line.substring(position);
+        position = line.length();
+        return rest;
+    }
+
+    /**
+     * Returns the index of the space that ends the next token, or the length
+     * of the line for the last token.
+     */
+    private int tokenEnd() {
+        int end = line.indexOf(' ', position);
+        return end < 0 ? line.length() : end;
+    }
+
+    /**
+     * Moves the scanner past the token ending at end and the space after it.
+     */
+    private void skipTo(final int end) {
+        position = end < line.length() ? end + 1 : end;
+    }
+}
@@ -0,0 +1,92 @@
+package protocol;
+
+import static org.junit.Assert.*;
+
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+/**
+ * LineScanner Test runs the JUnit tests for the Line Scanner class.
+ */
+public class LineScannerTest {
+    /**
+     * TESTING next, nextName, nextIs and nextInt
+     *
+     * Partition the input space as follows:
+     * Line:    single token, draw message, erase message with negative numbers
+     * Token:   matching expected token, prefix of expected token, not a number,
+     *          number out of int range, name with an '=', no tokens left
+     */
+    @Test
+    public void nextSingleToken() {
+        LineScanner scanner = new LineScanner("Board1");
+        assertEquals(scanner.hasNext(), true);
+        assertEquals(scanner.next(), "Board1");
+        assertEquals(scanner.hasNext(), false);
+    }
+
+    @Test
+    public void nextDrawMessage() {
+        LineScanner scanner = new LineScanner("Board1 draw 0 0 100 100 50 12 34 56");
+        assertEquals(scanner.next(), "Board1");
+        assertEquals(scanner.nextIs("draw"), true);
+        assertEquals(scanner.nextInt(), 0);
+        assertEquals(scanner.nextInt(), 0);
+        assertEquals(scanner.nextInt(), 100);
+        assertEquals(scanner.nextInt(), 100);
+        assertEquals(scanner.nextInt(), 50);
+        assertEquals(scanner.rest(), "12 34 56");
+        assertEquals(scanner.hasNext(), false);
+    }
+
+    @Test
+    public void nextIntNegative() {
+        LineScanner scanner = new LineScanner("Board1 erase -5 -2147483648 2147483647");
+        scanner.next();
+        scanner.next();
+        assertEquals(scanner.nextInt(), -5);
+        assertEquals(scanner.nextInt(), Integer.MIN_VALUE);
+        assertEquals(scanner.nextInt(), Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void nextIsPrefix() {
+        LineScanner scanner = new LineScanner("drawing 1");
+        assertEquals(scanner.nextIs("draw"), false);
+        assertEquals(scanner.next(), "drawing");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void nextIntNotNumber() {
+        new LineScanner("12a").nextInt();
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void nextIntOutOfRange() {
+        new LineScanner("2147483648").nextInt();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void nextNoTokensLeft() {
+        LineScanner scanner = new LineScanner("Board1");
+        scanner.next();
+        scanner.next();
+    }
+
+    @Test
+    public void nextNameWithEquals() {
+        LineScanner scanner = new LineScanner("bob selectBoard Board=1 Board1");
+        assertEquals(scanner.nextName(), "bob");
+        assertEquals(scanner.nextName(), "selectBoard");
+        try {
+            scanner.nextName();
+            fail("expected InputMismatchException");
+        } catch (InputMismatchException e) {
+            // The scanner stays before the token
+        }
+        assertEquals(scanner.next(), "Board=1");
+        assertEquals(scanner.nextName(), "Board1");
+    }
+}
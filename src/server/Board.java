@@ -0,0 +1,935 @@
+package server;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import protocol.KeyframeCodec;
+
+/**
+ * Board represents one Whiteboard on the server: its StrokeHistory of draw
+ * and erase commands, with a SpatialIndex of them to find the ones inside a
+ * region, its latest Keyframe and the BlockingQueues of the clients working
+ * on it.
+ *
+ * Every change of a Board is made by a single writer: the Board's lane of
+ * the server's BoardExecutor, or the thread using a Board on its own. The
+ * writer adds each command to the history and sends it to the subscribers
+ * without taking a lock, so every subscriber receives the commands in the
+ * order of the history. Clients joining the Board, moving their viewport or
+ * being resynced are handled by the writer too, in between two commands.
+ * The Board's lock only guards what the other threads hand over to the
+ * writer: the history read back after an eviction, a compacted history and
+ * the latest Keyframe, and the writer takes it only to pick them up.
+ *
+ * Every keyframe interval of commands, a snapshot of the history is handed to
+ * the keyframe Executor, which draws the commands made since the previous
+ * Keyframe on the Board's image and compresses it into the next Keyframe,
+ * without holding the lock. A client joining the Board is sent the latest
+ * Keyframe and the commands made after it, instead of the whole history.
+ *
+ * After every KEYFRAMES_PER_COMPACTION Keyframes, the keyframe Executor also
+ * compacts the history: it drops the commands every pixel of which has been
+ * drawn over by later commands, found by the Board's HistoryCompactor. The
+ * writer adds the commands made meanwhile to the compacted history and swaps
+ * it in before its next change, so drawing is not held up.
+ *
+ * A subscriber can narrow its subscription to a viewport: it is then only
+ * sent the commands that may draw inside the viewport plus VIEWPORT_MARGIN
+ * pixels around it, so the commands a client receives scale with the region
+ * it looks at rather than with the activity of the whole Board. Moving the
+ * viewport sends the commands of the new region, found with the SpatialIndex.
+ *
+ * A Board without subscribers can be evicted by its writer: its history and
+ * latest Keyframe are written to a file and dropped from memory, and read
+ * back the next time they are needed.
+ *
+ * When the server keeps a HistoryLog, each command is also written to the
+ * Board's BoardLog by the writer, in the order of the history. Once the
+ * writer swaps in a compacted history, it rolls the BoardLog over to a new
+ * segment, and the keyframe Executor writes the compacted history as the
+ * BoardLog's checkpoint, so the log does not keep the commands dropped.
+ */
+class Board {
+    protected static final int KEYFRAME_INTERVAL = 10000;
+    protected static final int KEYFRAMES_PER_COMPACTION = 5;
+    // Heap used by the Board's image, and by its HistoryCompactor's
+    protected static final long IMAGE_BYTES = 4L * Keyframe.WIDTH * Keyframe.HEIGHT;
+    // Pixels around a viewport whose commands are also sent to its client
+    protected static final int VIEWPORT_MARGIN = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Makes the Keyframes of every Board, one at a time
+    private static final ExecutorService KEYFRAME_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "Keyframes");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    protected final String name;
+    private final int keyframeInterval;
+    private final Executor keyframeExecutor;
+    // Runs the changes of the Board one at a time, null if the threads using
+    // the Board make them one at a time themselves, guarded by this
+    private volatile Executor writer = null;
+    // Draw and erase commands in the order they were made, only added to by
+    // the writer, replaced when it is compacted, null while the Board is
+    // evicted. Only replaced holding the lock
+    private volatile StrokeHistory history = new StrokeHistory();
+    // Finds the commands of the history inside a rectangle, replaced with
+    // it, null while the Board is evicted, only added to by the writer
+    private SpatialIndex index = new SpatialIndex();
+    // Compacted history waiting for the writer to swap it in, guarded by this
+    private volatile Compaction pendingCompaction = null;
+    // File holding the history and the Keyframe while the Board is evicted, guarded by this
+    private Path evictedTo = null;
+    // Last time a client used the Board, in milliseconds
+    private volatile long lastUsed = System.currentTimeMillis();
+    // Commands made since the latest Keyframe was handed to the Executor, only used by the writer
+    private int commandsSinceKeyframe = 0;
+    // Number of commands of the latest Keyframe handed to the Executor, only changed by the writer
+    private volatile int keyframeRequested = 0;
+    // Number of times the history was compacted, only changed by the writer
+    private volatile int compactions = 0;
+    // Latest Keyframe, null until the first one, guarded by this
+    private Keyframe keyframe = null;
+    // Write-ahead log of the commands, null if the Board is not logged
+    private volatile BoardLog log = null;
+    // Image of the history up to imageCommandCount, null until the first
+    // Keyframe, only used by the keyframe Executor one Keyframe at a time
+    private BufferedImage image = null;
+    private int imageCommandCount = 0;
+    // Finds the commands no longer seen, null until the first compaction,
+    // only used by the keyframe Executor
+    private HistoryCompactor compactor = null;
+    private int keyframesSinceCompaction = 0;
+    // Maps each client working on the Board to its Subscription
+    private final Map<String, Subscription> subscribers = new ConcurrentHashMap<String, Subscription>();
+
+    /**
+     * Makes an empty Board, with a Keyframe every KEYFRAME_INTERVAL commands.
+     *
+     * @param name represents the name of the Whiteboard
+     */
+    protected Board(final String name) {
+        this(name, KEYFRAME_INTERVAL, KEYFRAME_EXECUTOR);
+    }
+
+    /**
+     * Makes an empty Board.
+     *
+     * @param name represents the name of the Whiteboard
+     * @param keyframeInterval represents the number of commands between two
+     *            Keyframes, positive
+     * @param keyframeExecutor represents the Executor that makes the
+     *            Keyframes, running them one at a time
+     */
+    protected Board(final String name, final int keyframeInterval, final Executor keyframeExecutor) {
+        this.name = name;
+        this.keyframeInterval = keyframeInterval;
+        this.keyframeExecutor = keyframeExecutor;
+    }
+
+    /**
+     * Adds a draw command to the history and sends it to every subscriber.
+     *
+     * @throws IllegalArgumentException if red, green or blue is not between 0
+     *             and 255
+     */
+    protected void draw(int x1, int y1, int x2, int y2, int strokeSize, int red, int green, int blue) {
+        lastUsed = System.currentTimeMillis();
+        StrokeHistory current = writable();
+        current.draw(x1, y1, x2, y2, strokeSize, red, green, blue);
+        index.addAll(current);
+        BoardLog currentLog = log;
+        if (currentLog != null) {
+            try {
+                currentLog.appendDraw(x1, y1, x2, y2, strokeSize, red, green, blue);
+            } catch (IOException e) {
+                stopLogging(e);
+            }
+        }
+        commandMade(current);
+    }
+
+    /**
+     * Adds an erase command to the history and sends it to every subscriber.
+     */
+    protected void erase(int x1, int y1, int x2, int y2, int strokeSize) {
+        lastUsed = System.currentTimeMillis();
+        StrokeHistory current = writable();
+        current.erase(x1, y1, x2, y2, strokeSize);
+        index.addAll(current);
+        BoardLog currentLog = log;
+        if (currentLog != null) {
+            try {
+                currentLog.appendErase(x1, y1, x2, y2, strokeSize);
+            } catch (IOException e) {
+                stopLogging(e);
+            }
+        }
+        commandMade(current);
+    }
+
+    /**
+     * Sends the command just added to the history to the subscribers, and
+     * hands the next Keyframe to the keyframe Executor if it is due.
+     */
+    private void commandMade(final StrokeHistory current) {
+        sendLastCommand(current);
+        Runnable keyframeTask = keyframeTask(current);
+        if (keyframeTask != null) {
+            keyframeExecutor.execute(keyframeTask);
+        }
+    }
+
+    /**
+     * Gives a new, empty Board the history read back from its log.
+     *
+     * @param restored represents the history
+     */
+    protected synchronized void restore(final StrokeHistory restored) {
+        index = new SpatialIndex();
+        index.addAll(restored);
+        history = restored;
+    }
+
+    /**
+     * Makes the Board write its commands to a write-ahead log from now on.
+     * Called before the Board is drawn on, or by its writer.
+     *
+     * @param log represents the log, which already holds every command of
+     *            the history
+     */
+    protected void setLog(final BoardLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Makes every change of the Board run on the writer from now on, rather
+     * than on the threads using the Board. Called once, before the writer
+     * makes its first change.
+     *
+     * @param writer represents the Executor running the changes one at a
+     *            time, in order
+     */
+    protected synchronized void setWriter(final Executor writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Returns the Executor running the changes of the Board, or null if the
+     * threads using the Board make them one at a time themselves.
+     */
+    protected Executor getWriter() {
+        return writer;
+    }
+
+    /**
+     * Returns the history for the writer to change: read back first if the
+     * Board was evicted, and replaced by the compacted history if one is
+     * waiting. The lock is only taken then.
+     */
+    private StrokeHistory writable() {
+        StrokeHistory current = history;
+        if (current != null && pendingCompaction == null) {
+            return current;
+        }
+        synchronized (this) {
+            return loaded();
+        }
+    }
+
+    /**
+     * Stops writing the commands to the log after it failed, keeping the
+     * Board working in memory.
+     */
+    private void stopLogging(final IOException e) {
+        System.err.println("Stopped logging Whiteboard " + name + ": " + e);
+        log = null;
+    }
+
+    /**
+     * Sends the last command of the history to every subscriber whose
+     * viewport it may draw inside, encoded only once, and only if sent.
+     */
+    private void sendLastCommand(final StrokeHistory history) {
+        int last = history.size() - 1;
+        Message message = null;
+        for (Subscription subscription : subscribers.values()) {
+            int[] region = subscription.region;
+            if (region == null || history.intersects(last, region[0], region[1], region[2], region[3])) {
+                if (message == null) {
+                    message = new Message(history.toLine(name, last), true);
+                }
+                subscription.commandsQueue.offer(message);
+            }
+        }
+    }
+
+    /**
+     * Returns the task that makes the next Keyframe from a snapshot of the
+     * history if a keyframe interval of commands was made since the previous
+     * one, or null. Called by the writer. The task does nothing if a later
+     * snapshot was handed to the Executor in the meantime, or if the history
+     * was compacted since the snapshot, the next keyframe interval then makes
+     * the Keyframe.
+     */
+    private Runnable keyframeTask(final StrokeHistory current) {
+        if (++commandsSinceKeyframe < keyframeInterval) {
+            return null;
+        }
+        commandsSinceKeyframe = 0;
+        keyframeRequested = current.size();
+        final StrokeHistory snapshot = current.snapshot();
+        final int compaction = compactions;
+        return new Runnable() {
+            public void run() {
+                if (history == null || !isCurrent(compaction) || snapshot.size() < keyframeRequested) {
+                    // Evicted, the Keyframe is made once it is read back
+                    return;
+                }
+                makeKeyframe(snapshot);
+                if (++keyframesSinceCompaction == KEYFRAMES_PER_COMPACTION) {
+                    keyframesSinceCompaction = 0;
+                    compact(snapshot, compaction);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns true if the positions of the commands of a snapshot taken
+     * after a number of compactions are still those of the history: no other
+     * compaction was made or is waiting for the writer since.
+     */
+    private boolean isCurrent(final int compaction) {
+        return compaction == compactions && pendingCompaction == null;
+    }
+
+    /**
+     * Draws the commands of the snapshot made since the previous Keyframe on
+     * the Board's image, and makes the image the latest Keyframe.
+     *
+     * @param snapshot represents the snapshot of the history
+     */
+    private void makeKeyframe(final StrokeHistory snapshot) {
+        if (snapshot.size() <= imageCommandCount) {
+            // Already in the latest Keyframe
+            return;
+        }
+        if (image == null) {
+            image = new BufferedImage(Keyframe.WIDTH, Keyframe.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = image.createGraphics();
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, Keyframe.WIDTH, Keyframe.HEIGHT);
+            g.dispose();
+        }
+        Graphics2D g = image.createGraphics();
+        snapshot.render(g, imageCommandCount, snapshot.size());
+        g.dispose();
+        imageCommandCount = snapshot.size();
+        Keyframe next;
+        try {
+            next = new Keyframe(name, image, snapshot.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        synchronized (this) {
+            if (history != null) {
+                keyframe = next;
+            }
+        }
+    }
+
+    /**
+     * Asks the keyframe Executor to compact the history. Called by the
+     * writer, which swaps the compacted history in before its next change.
+     */
+    protected void requestCompaction() {
+        final StrokeHistory snapshot = writable().snapshot();
+        final int compaction = compactions;
+        keyframeExecutor.execute(new Runnable() {
+            public void run() {
+                compact(snapshot, compaction);
+            }
+        });
+    }
+
+    /**
+     * Finds the commands of a snapshot of the history whose every pixel has
+     * been drawn over by later commands, and hands the writer the history
+     * without them, with the latest Keyframe renumbered to match. Renumbers
+     * the Board's image right away. Run by the keyframe Executor.
+     *
+     * @param snapshot represents the snapshot of the history, taken by the
+     *            writer
+     * @param compaction represents the number of compactions made before the
+     *            snapshot
+     */
+    private void compact(final StrokeHistory snapshot, final int compaction) {
+        Keyframe latest;
+        synchronized (this) {
+            if (history == null || !isCurrent(compaction)) {
+                return;
+            }
+            latest = keyframe;
+        }
+        if (compactor == null) {
+            compactor = new HistoryCompactor();
+        }
+        BitSet visible = compactor.visibleCommands(snapshot);
+        if (visible == null || visible.cardinality() == snapshot.size()) {
+            return;
+        }
+        StrokeHistory compacted = new StrokeHistory();
+        for (int i = visible.nextSetBit(0); i >= 0; i = visible.nextSetBit(i + 1)) {
+            compacted.add(snapshot, i);
+        }
+        compactor.compacted(visible);
+        SpatialIndex compactedIndex = new SpatialIndex();
+        compactedIndex.addAll(compacted);
+        imageCommandCount = keptBefore(visible, snapshot.size(), imageCommandCount);
+        Keyframe renumbered = latest == null ? null
+                : new Keyframe(latest, keptBefore(visible, snapshot.size(), latest.getCommandCount()));
+        synchronized (this) {
+            if (history == null) {
+                // Evicted during the pass, the image and the compactor are dropped too
+                return;
+            }
+            pendingCompaction = new Compaction(snapshot.size(), visible, compacted, compactedIndex, renumbered);
+        }
+    }
+
+    /**
+     * Swaps in the compacted history waiting for the writer, if any, adding
+     * the commands made since its snapshot. Called by the writer with the
+     * lock held.
+     */
+    private void applyCompaction() {
+        Compaction compaction = pendingCompaction;
+        if (compaction == null || history == null) {
+            return;
+        }
+        pendingCompaction = null;
+        StrokeHistory compacted = compaction.history;
+        // The commands made during the pass are all kept
+        for (int i = compaction.snapshotSize; i < history.size(); i++) {
+            compacted.add(history, i);
+        }
+        compaction.index.addAll(compacted);
+        index = compaction.index;
+        keyframe = compaction.keyframe;
+        keyframeRequested = keptBefore(compaction.visible, compaction.snapshotSize, keyframeRequested);
+        history = compacted;
+        compactions++;
+        System.out.println("Compacted Whiteboard " + name + " from " + compaction.snapshotSize + " to "
+                + compaction.visible.cardinality() + " commands");
+        BoardLog currentLog = log;
+        if (currentLog != null) {
+            checkpoint(currentLog);
+        }
+    }
+
+    /**
+     * Rolls the log over to a new segment and hands the keyframe Executor the
+     * history to write as its checkpoint. Called by the writer.
+     */
+    private void checkpoint(final BoardLog currentLog) {
+        final int segment;
+        try {
+            segment = currentLog.roll();
+        } catch (IOException e) {
+            // The log keeps every command, it is checkpointed after the next compaction
+            System.err.println("Cannot roll the log of Whiteboard " + name + ": " + e);
+            return;
+        }
+        final StrokeHistory snapshot = history.snapshot();
+        keyframeExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    currentLog.checkpoint(snapshot, segment);
+                } catch (IOException e) {
+                    System.err.println("Cannot checkpoint Whiteboard " + name + ": " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the position in the compacted history of a position in the
+     * history before it was compacted.
+     *
+     * @param visible represents the positions of the commands of the
+     *            snapshot kept
+     * @param size represents the number of commands of the snapshot, all the
+     *            commands after it are kept
+     * @param position represents the position before the compaction
+     */
+    private static int keptBefore(final BitSet visible, final int size, final int position) {
+        if (position >= size) {
+            return visible.cardinality() + position - size;
+        }
+        return visible.get(0, position).cardinality();
+    }
+
+    /**
+     * Adds the client's BlockingQueue to the subscribers, so that it receives
+     * every draw and erase command of the Board, whatever viewport it had.
+     *
+     * @param client represents the name of the client
+     * @param commandsQueue represents the client's BlockingQueue
+     */
+    protected void subscribe(final String client, final BlockingQueue<Message> commandsQueue) {
+        lastUsed = System.currentTimeMillis();
+        subscribers.put(client, new Subscription(commandsQueue));
+    }
+
+    /**
+     * Narrows the subscription of a client to a viewport, and queues a
+     * Replay of the commands of the history that may draw inside it to the
+     * client, unless there are none. Only the commands that may draw inside
+     * the viewport are sent to the client from then on, so it misses none
+     * and gets none twice. Called by the writer.
+     *
+     * @param client represents the name of the client
+     * @param x represents the left edge of the viewport
+     * @param y represents the top edge of the viewport
+     * @param width represents the width of the viewport, positive
+     * @param height represents the height of the viewport, positive
+     * @return false if the client does not work on the Board
+     */
+    protected synchronized boolean setViewport(final String client, final int x, final int y, final int width,
+            final int height) {
+        Subscription subscription = subscribers.get(client);
+        if (subscription == null) {
+            return false;
+        }
+        lastUsed = System.currentTimeMillis();
+        int[] region = { clamp((long) x - VIEWPORT_MARGIN), clamp((long) y - VIEWPORT_MARGIN),
+                clamp((long) x + width - 1 + VIEWPORT_MARGIN), clamp((long) y + height - 1 + VIEWPORT_MARGIN) };
+        subscription.region = region;
+        replayRegionTo(subscription.commandsQueue, region[0], region[1], region[2], region[3]);
+        return true;
+    }
+
+    /**
+     * Returns the region a client is sent the commands of, its viewport plus
+     * the margin as { minX, minY, maxX, maxY }, or null if it is sent every
+     * command or does not work on the Board.
+     *
+     * @param client represents the name of the client
+     */
+    protected int[] getViewport(final String client) {
+        Subscription subscription = subscribers.get(client);
+        return subscription == null ? null : subscription.region;
+    }
+
+    private static int clamp(final long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    /**
+     * Removes the client's BlockingQueue from the subscribers, if it is one.
+     *
+     * @param client represents the name of the client
+     */
+    protected void unsubscribe(final String client) {
+        lastUsed = System.currentTimeMillis();
+        subscribers.remove(client);
+    }
+
+    /**
+     * Returns the BlockingQueue of the client if it works on the Board, or null.
+     */
+    protected BlockingQueue<Message> getSubscriber(final String client) {
+        Subscription subscription = subscribers.get(client);
+        return subscription == null ? null : subscription.commandsQueue;
+    }
+
+    /**
+     * Returns a copy of the names of the clients working on the Board.
+     */
+    protected List<String> getClients() {
+        return new ArrayList<String>(subscribers.keySet());
+    }
+
+    /**
+     * Returns a copy of the BlockingQueues of the clients working on the Board.
+     */
+    protected List<BlockingQueue<Message>> getSubscriberQueues() {
+        List<BlockingQueue<Message>> queues = new ArrayList<BlockingQueue<Message>>();
+        for (Subscription subscription : subscribers.values()) {
+            queues.add(subscription.commandsQueue);
+        }
+        return queues;
+    }
+
+    /**
+     * Sends the history to a client as a single Replay of the latest Keyframe
+     * and the commands made after it, which the client's output writes a
+     * chunk at a time. Nothing is sent if the history is empty. Called by the
+     * writer, right after the client subscribed, so the commands made
+     * afterwards are queued behind the Replay.
+     *
+     * @param commandsQueue represents the client's BlockingQueue
+     */
+    protected synchronized void replayTo(final BlockingQueue<Message> commandsQueue) {
+        if (loaded().size() > 0) {
+            commandsQueue.offer(new Replay(name, keyframe, history.snapshot()));
+        }
+    }
+
+    /**
+     * Returns a Resync holding the latest Keyframe and a snapshot of the
+     * history. Called by the writer.
+     */
+    protected synchronized Resync resync() {
+        return new Resync(name, keyframe, loaded().snapshot());
+    }
+
+    /**
+     * Returns a Resync for a client: the Resync of the whole history, or, if
+     * the client has a viewport, one of the commands that may draw inside it,
+     * without a Keyframe. Called by the writer.
+     *
+     * @param client represents the name of the client
+     */
+    protected synchronized Resync resync(final String client) {
+        int[] region = getViewport(client);
+        if (region == null) {
+            return resync();
+        }
+        return new Resync(name, null, regionOf(region[0], region[1], region[2], region[3]));
+    }
+
+    /**
+     * Queues a Resync for a client, as returned by resync(client). Called
+     * by the writer, so every command made before it is in the Resync and
+     * every command made afterwards is queued behind it.
+     *
+     * @param client represents the name of the client
+     * @param commandsQueue represents the client's BlockingQueue
+     * @return true if the Resync was queued
+     */
+    protected synchronized boolean resyncTo(final String client, final BlockingQueue<Message> commandsQueue) {
+        return commandsQueue.offer(resync(client));
+    }
+
+    /**
+     * Returns the latest Keyframe, or null if none has been made yet.
+     */
+    protected synchronized Keyframe getKeyframe() {
+        return keyframe;
+    }
+
+    /**
+     * Returns the text message of a command of the history.
+     *
+     * @param index represents the position of the command, in the order the
+     *            commands were made
+     */
+    protected synchronized String getCommand(final int index) {
+        return loaded().toLine(name, index);
+    }
+
+    /**
+     * Returns the positions, in order, of the commands of the history that
+     * may draw inside a rectangle.
+     *
+     * @param minX represents the left edge of the rectangle
+     * @param minY represents the top edge of the rectangle
+     * @param maxX represents the right edge of the rectangle, included
+     * @param maxY represents the bottom edge of the rectangle, included
+     */
+    protected synchronized int[] commandsIn(final int minX, final int minY, final int maxX, final int maxY) {
+        StrokeHistory current = loaded();
+        return index.commandsIn(current, minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Queues a Replay of the commands of the history that may draw inside a
+     * rectangle, without a Keyframe, to a client, unless there are none.
+     *
+     * @param commandsQueue represents the BlockingQueue of the client
+     * @param minX represents the left edge of the rectangle
+     * @param minY represents the top edge of the rectangle
+     * @param maxX represents the right edge of the rectangle, included
+     * @param maxY represents the bottom edge of the rectangle, included
+     */
+    protected synchronized void replayRegionTo(final BlockingQueue<Message> commandsQueue, final int minX,
+            final int minY, final int maxX, final int maxY) {
+        StrokeHistory region = regionOf(minX, minY, maxX, maxY);
+        if (region.size() > 0) {
+            commandsQueue.offer(new Replay(name, null, region));
+        }
+    }
+
+    /**
+     * Returns a StrokeHistory of the commands of the history that may draw
+     * inside a rectangle, in order.
+     */
+    private StrokeHistory regionOf(final int minX, final int minY, final int maxX, final int maxY) {
+        StrokeHistory region = new StrokeHistory();
+        for (int position : commandsIn(minX, minY, maxX, maxY)) {
+            region.add(history, position);
+        }
+        return region;
+    }
+
+    /**
+     * Returns the number of commands in the history.
+     */
+    protected synchronized int historySize() {
+        return loaded().size();
+    }
+
+    /**
+     * Returns the last time a client joined, left or drew on the Board, in
+     * milliseconds.
+     */
+    protected long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Marks the Board as used by a client now.
+     */
+    protected void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns true if the Board has been evicted and not read back yet.
+     */
+    protected synchronized boolean isEvicted() {
+        return history == null;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the Board's history, its latest
+     * Keyframe and its images, 0 while it is evicted. Read while the writer
+     * may be adding to the history.
+     */
+    protected synchronized long residentBytes() {
+        StrokeHistory current = history;
+        if (current == null) {
+            return 0;
+        }
+        long bytes = current.residentBytes() + index.residentBytes();
+        if (keyframe != null) {
+            // The text, its encoded line, and the image it was made from
+            bytes += 2L * keyframe.getText().length() + keyframe.getLine().length + IMAGE_BYTES;
+        }
+        if (compactions > 0) {
+            bytes += IMAGE_BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the history and the latest Keyframe to a file and drops them,
+     * with the Board's images, from memory, unless clients work on the Board.
+     * Runs on the writer, and waits for it.
+     *
+     * @param file represents the file the Board is written to
+     * @return true if the Board was evicted, false if it has subscribers or
+     *         was already evicted
+     * @throws IOException if the file cannot be written, the Board is then
+     *             kept in memory
+     */
+    protected boolean evict(final Path file) throws IOException {
+        Executor current = writer;
+        if (current == null) {
+            return evictNow(file);
+        }
+        FutureTask<Boolean> eviction = new FutureTask<Boolean>(new Callable<Boolean>() {
+            public Boolean call() throws IOException {
+                return evictNow(file);
+            }
+        });
+        current.execute(eviction);
+        try {
+            return eviction.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("cannot evict Whiteboard " + name, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted evicting Whiteboard " + name);
+        }
+    }
+
+    /**
+     * Evicts the Board, as evict does. Called by the writer.
+     */
+    private synchronized boolean evictNow(final Path file) throws IOException {
+        if (history == null || !subscribers.isEmpty()) {
+            return false;
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        try {
+            history.writeTo(out);
+            out.writeBoolean(keyframe != null);
+            if (keyframe != null) {
+                byte[] text = keyframe.getText().getBytes(UTF_8);
+                out.writeInt(keyframe.getCommandCount());
+                out.writeInt(text.length);
+                out.write(text);
+            }
+        } finally {
+            out.close();
+        }
+        history = null;
+        index = null;
+        keyframe = null;
+        pendingCompaction = null;
+        evictedTo = file;
+        keyframeExecutor.execute(new Runnable() {
+            public void run() {
+                image = null;
+                imageCommandCount = 0;
+                compactor = null;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Reads the history and the latest Keyframe back from the file the Board
+     * was evicted to, if it was, and deletes the file.
+     *
+     * @throws IOException if the file cannot be read, the Board then stays
+     *             evicted
+     */
+    protected synchronized void load() throws IOException {
+        if (history != null) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(evictedTo)));
+        final Keyframe latest;
+        StrokeHistory loadedHistory;
+        try {
+            loadedHistory = StrokeHistory.readFrom(in);
+            if (in.readBoolean()) {
+                int commandCount = in.readInt();
+                byte[] text = new byte[in.readInt()];
+                in.readFully(text);
+                latest = new Keyframe(new String(text, UTF_8), commandCount);
+            } else {
+                latest = null;
+            }
+        } finally {
+            in.close();
+        }
+        index = new SpatialIndex();
+        index.addAll(loadedHistory);
+        keyframe = latest;
+        history = loadedHistory;
+        Files.delete(evictedTo);
+        evictedTo = null;
+        if (latest != null) {
+            // The Board's image starts again from the Keyframe
+            keyframeExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        BufferedImage decoded = KeyframeCodec.decode(
+                                latest.getText().substring(("keyframe " + name + " ").length()));
+                        image = new BufferedImage(Keyframe.WIDTH, Keyframe.HEIGHT, BufferedImage.TYPE_INT_RGB);
+                        Graphics2D g = image.createGraphics();
+                        g.drawImage(decoded, 0, 0, null);
+                        g.dispose();
+                        imageCommandCount = latest.getCommandCount();
+                    } catch (IOException e) {
+                        // The next Keyframe draws the whole history again
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the history, reading it back first if the Board was evicted,
+     * and swapping in the compacted history if one is waiting. Called by the
+     * writer with the lock held.
+     *
+     * @throws IllegalStateException if the evicted history cannot be read
+     */
+    private StrokeHistory loaded() {
+        try {
+            load();
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot read back Whiteboard " + name, e);
+        }
+        applyCompaction();
+        return history;
+    }
+
+    /**
+     * Compaction holds a compacted history made by the keyframe Executor
+     * until the writer swaps it in.
+     */
+    private static class Compaction {
+        // Number of commands of the snapshot that was compacted
+        private final int snapshotSize;
+        // The commands of the snapshot that were kept
+        private final BitSet visible;
+        private final StrokeHistory history;
+        private final SpatialIndex index;
+        // Latest Keyframe, renumbered to the compacted history, or null
+        private final Keyframe keyframe;
+
+        private Compaction(final int snapshotSize, final BitSet visible, final StrokeHistory history,
+                final SpatialIndex index, final Keyframe keyframe) {
+            this.snapshotSize = snapshotSize;
+            this.visible = visible;
+            this.history = history;
+            this.index = index;
+            this.keyframe = keyframe;
+        }
+    }
+
+    /**
+     * Subscription holds the BlockingQueue of a client working on the Board
+     * and the region it is sent the commands of.
+     */
+    private static class Subscription {
+        private final BlockingQueue<Message> commandsQueue;
+        // { minX, minY, maxX, maxY } of the viewport plus the margin, or null
+        // to be sent every command. Only changed by the Board's writer
+        private volatile int[] region = null;
+
+        private Subscription(final BlockingQueue<Message> commandsQueue) {
+            this.commandsQueue = commandsQueue;
+        }
+    }
+}
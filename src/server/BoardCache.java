@@ -0,0 +1,227 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Board Cache keeps the Boards of the Whiteboard Server within a memory
+ * budget. Every EVICTION_INTERVAL_MILLIS its evictor thread adds up the heap
+ * used by the Boards and, while it is over the budget, evicts the least
+ * recently used Board that has had no client for the idle time, writing its
+ * history to a file in the cache's directory. An evicted Board is read back
+ * the next time a client selects it or draws on it.
+ *
+ * The counters are only ever incremented and can be read from any thread.
+ */
+public class BoardCache {
+    protected static final long EVICTION_INTERVAL_MILLIS = 1000;
+
+    private final Collection<Board> boards;
+    private final long memoryBudget;
+    private final long idleMillis;
+    private final Path directory;
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong reloadNanos = new AtomicLong();
+    private final AtomicLong maxReloadNanos = new AtomicLong();
+    private final Thread evictor;
+    private volatile boolean closed = false;
+
+    /**
+     * Makes a Board Cache and starts its evictor thread.
+     *
+     * @param boards represents the Boards of the server, which the evictor
+     *            reads as they change
+     * @param memoryBudget represents the heap the Boards may use, in bytes
+     * @param idleMillis represents the time a Board must have had no client
+     *            before it can be evicted, in milliseconds
+     * @param directory represents the directory the evicted Boards are
+     *            written to, made if it does not exist
+     * @throws IOException if the directory cannot be made
+     */
+    protected BoardCache(final Collection<Board> boards, final long memoryBudget, final long idleMillis,
+            final Path directory) throws IOException {
+        this(boards, memoryBudget, idleMillis, directory, true);
+    }
+
+    /**
+     * Makes a Board Cache.
+     *
+     * @param boards represents the Boards of the server, which the evictor
+     *            reads as they change
+     * @param memoryBudget represents the heap the Boards may use, in bytes
+     * @param idleMillis represents the time a Board must have had no client
+     *            before it can be evicted, in milliseconds
+     * @param directory represents the directory the evicted Boards are
+     *            written to, made if it does not exist
+     * @param startEvictor represents whether the evictor thread is started,
+     *            otherwise Boards are only evicted by calling evictIdle
+     * @throws IOException if the directory cannot be made
+     */
+    protected BoardCache(final Collection<Board> boards, final long memoryBudget, final long idleMillis,
+            final Path directory, final boolean startEvictor) throws IOException {
+        this.boards = boards;
+        this.memoryBudget = memoryBudget;
+        this.idleMillis = idleMillis;
+        this.directory = directory;
+        Files.createDirectories(directory);
+        evictor = new Thread(new Runnable() {
+            public void run() {
+                while (!closed) {
+                    try {
+                        Thread.sleep(EVICTION_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    evictIdle();
+                }
+            }
+        }, "Board cache evictor");
+        evictor.setDaemon(true);
+        if (startEvictor) {
+            evictor.start();
+        }
+    }
+
+    /**
+     * Marks a Board as used by a client, reading it back if it was evicted.
+     *
+     * @param board represents the Board
+     * @return false if the Board was evicted and cannot be read back
+     */
+    protected boolean touch(final Board board) {
+        board.touch();
+        if (!board.isEvicted()) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        long startTime = System.nanoTime();
+        try {
+            board.load();
+        } catch (IOException e) {
+            System.err.println("Cannot read back Whiteboard " + board.name + ": " + e);
+            return false;
+        }
+        long nanos = System.nanoTime() - startTime;
+        reloadNanos.addAndGet(nanos);
+        long max = maxReloadNanos.get();
+        while (nanos > max && !maxReloadNanos.compareAndSet(max, nanos)) {
+            max = maxReloadNanos.get();
+        }
+        return true;
+    }
+
+    /**
+     * Evicts idle Boards, least recently used first, until the Boards use
+     * less heap than the memory budget.
+     *
+     * @return the number of Boards evicted
+     */
+    protected int evictIdle() {
+        long resident = 0;
+        long now = System.currentTimeMillis();
+        List<Board> idle = new ArrayList<Board>();
+        for (Board board : boards) {
+            long bytes = board.residentBytes();
+            resident += bytes;
+            if (bytes > 0 && board.getClients().isEmpty() && now - board.getLastUsed() >= idleMillis) {
+                idle.add(board);
+            }
+        }
+        Collections.sort(idle, new Comparator<Board>() {
+            public int compare(final Board a, final Board b) {
+                return Long.compare(a.getLastUsed(), b.getLastUsed());
+            }
+        });
+        int evicted = 0;
+        for (Board board : idle) {
+            if (resident <= memoryBudget) {
+                break;
+            }
+            long bytes = board.residentBytes();
+            try {
+                if (board.evict(directory.resolve("board-" + files.getAndIncrement() + ".history"))) {
+                    resident -= bytes;
+                    evicted++;
+                }
+            } catch (IOException e) {
+                System.err.println("Cannot evict Whiteboard " + board.name + ": " + e);
+            }
+        }
+        if (evicted > 0) {
+            evictions.addAndGet(evicted);
+            System.err.println("Evicted " + evicted + " Whiteboards (" + this + ")");
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the number of times a client used a Board that was in memory.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times a client used a Board that had to be read
+     * back.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of Boards evicted.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the total time spent reading Boards back, in nanoseconds.
+     */
+    public long getReloadNanos() {
+        return reloadNanos.get();
+    }
+
+    /**
+     * Returns the longest time spent reading a Board back, in nanoseconds.
+     */
+    public long getMaxReloadNanos() {
+        return maxReloadNanos.get();
+    }
+
+    /**
+     * Stops the evictor thread. The evicted Boards stay in their files.
+     */
+    protected void close() {
+        closed = true;
+        evictor.interrupt();
+        try {
+            if (evictor.isAlive()) {
+                evictor.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long misses = getMisses();
+        return "hits " + getHits() + ", misses " + misses + ", evictions " + getEvictions()
+                + ", mean reload " + (misses == 0 ? 0 : getReloadNanos() / misses / 1000) + "us, max reload "
+                + getMaxReloadNanos() / 1000 + "us";
+    }
+}
@@ -0,0 +1,60 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+/**
+ * BoardCache Benchmark measures the heap many Boards use, in memory and
+ * evicted, and the time to read a Board back. Like every *Benchmark class it
+ * is run on its own, not with the unit tests, and prints what it measures.
+ */
+public class BoardCacheBenchmark {
+    // Runs the Board's keyframe tasks in the thread that asks for them
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Benchmark of the heap used by many Boards of recorded strokes, all in
+     * memory and with all but a few evicted, and of the time to read a Board
+     * back.
+     */
+    @Test
+    public void manyBoards() throws IOException {
+        Path directory = Files.createTempDirectory("boardcache");
+        List<Board> boards = new ArrayList<Board>();
+        for (int b = 0; b < 100; b++) {
+            Board board = new Board("Board" + b, 1000, DIRECT_EXECUTOR);
+            for (int i = 0; i < 2500; i++) {
+                board.draw(i % 800, i % 600, (i + 7) % 800, (i + 3) % 600, 1 + i % 8, b, i % 256, 0);
+            }
+            boards.add(board);
+        }
+        long resident = BoardCacheTest.residentBytes(boards);
+        BoardCache cache = new BoardCache(boards, resident / 20, 0, directory, false);
+        try {
+            int evicted = cache.evictIdle();
+            long after = BoardCacheTest.residentBytes(boards);
+            assertTrue(after <= resident / 20);
+            for (Board board : boards) {
+                assertTrue(cache.touch(board));
+            }
+            assertEquals(cache.getMisses(), evicted);
+            System.out.println(boards.size() + " Whiteboards of 2500 commands: " + resident / 1024 / 1024
+                    + "MB resident, " + after / 1024 / 1024 + "MB once " + evicted + " were evicted; " + cache);
+        } finally {
+            cache.close();
+            BoardCacheTest.delete(directory.toFile());
+        }
+    }
+}
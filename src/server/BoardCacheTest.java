@@ -0,0 +1,152 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+/**
+ * BoardCache Test runs the JUnit tests for the Board Cache class and the
+ * eviction of Boards, by checking that a Board read back has the same history
+ * and Keyframe as before it was evicted.
+ */
+public class BoardCacheTest {
+    /**
+     * TESTING evictIdle and touch
+     *
+     * Partition the input space as follows:
+     * Board:           with and without a Keyframe, with and without clients
+     * Read back by:    touch, a draw on the Board
+     * Budget:          already met, exceeded
+     */
+    @Test
+    public void evictAndReadBack() throws IOException {
+        Path directory = Files.createTempDirectory("boardcache");
+        Board board = new Board("Board1", 4, DIRECT_EXECUTOR);
+        for (int i = 0; i < 6; i++) {
+            board.draw(i, i, i + 10, i, 3, 255, 0, 0);
+        }
+        board.erase(0, 0, 10, 0, 5);
+        Keyframe keyframe = board.getKeyframe();
+        List<String> commands = commandsOf(board);
+        List<Board> boards = new ArrayList<Board>();
+        boards.add(board);
+        BoardCache cache = new BoardCache(boards, 0, 0, directory, false);
+        try {
+            assertEquals(cache.evictIdle(), 1);
+            assertTrue(board.isEvicted());
+            assertEquals(board.residentBytes(), 0);
+            assertEquals(cache.getEvictions(), 1);
+            // Already evicted
+            assertEquals(cache.evictIdle(), 0);
+
+            assertTrue(cache.touch(board));
+            assertFalse(board.isEvicted());
+            assertEquals(commandsOf(board), commands);
+            assertEquals(board.getKeyframe().getText(), keyframe.getText());
+            assertEquals(board.getKeyframe().getCommandCount(), keyframe.getCommandCount());
+            assertTrue(cache.touch(board));
+            assertEquals(cache.getMisses(), 1);
+            assertEquals(cache.getHits(), 1);
+            assertTrue(cache.getMaxReloadNanos() > 0);
+            // The file is deleted once read back
+            assertEquals(directory.toFile().list().length, 0);
+
+            // Keyframes keep being made from the image read back
+            board.draw(1, 2, 3, 4, 5, 6, 7, 8);
+            assertEquals(board.getKeyframe().getCommandCount(), 8);
+        } finally {
+            cache.close();
+            delete(directory.toFile());
+        }
+    }
+
+    @Test
+    public void drawReadsBack() throws IOException {
+        Path directory = Files.createTempDirectory("boardcache");
+        Board board = new Board("Board1", 100, DIRECT_EXECUTOR);
+        board.draw(1, 2, 3, 4, 5, 6, 7, 8);
+        List<Board> boards = new ArrayList<Board>();
+        boards.add(board);
+        BoardCache cache = new BoardCache(boards, 0, 0, directory, false);
+        try {
+            assertEquals(cache.evictIdle(), 1);
+            board.draw(8, 7, 6, 5, 4, 3, 2, 1);
+            assertFalse(board.isEvicted());
+            assertEquals(board.historySize(), 2);
+            assertEquals(board.getCommand(0), "Board1 draw 1 2 3 4 5 6 7 8");
+            assertEquals(board.getCommand(1), "Board1 draw 8 7 6 5 4 3 2 1");
+            assertNull(board.getKeyframe());
+        } finally {
+            cache.close();
+            delete(directory.toFile());
+        }
+    }
+
+    @Test
+    public void keptBoards() throws IOException {
+        Path directory = Files.createTempDirectory("boardcache");
+        Board joined = new Board("Board1", 100, DIRECT_EXECUTOR);
+        joined.draw(1, 2, 3, 4, 5, 6, 7, 8);
+        joined.subscribe("client1", new ArrayBlockingQueue<Message>(10));
+        Board recent = new Board("Board2", 100, DIRECT_EXECUTOR);
+        recent.draw(1, 2, 3, 4, 5, 6, 7, 8);
+        List<Board> boards = new ArrayList<Board>();
+        boards.add(joined);
+        boards.add(recent);
+        BoardCache idleCache = new BoardCache(boards, 0, 60000, directory, false);
+        BoardCache budgetCache = new BoardCache(boards, Long.MAX_VALUE, 0, directory, false);
+        try {
+            // Has a client, used too recently, or within the budget
+            assertEquals(idleCache.evictIdle(), 0);
+            assertEquals(budgetCache.evictIdle(), 0);
+            assertFalse(joined.isEvicted());
+            assertFalse(recent.isEvicted());
+        } finally {
+            idleCache.close();
+            budgetCache.close();
+            delete(directory.toFile());
+        }
+    }
+
+    private static List<String> commandsOf(final Board board) {
+        List<String> commands = new ArrayList<String>();
+        for (int i = 0; i < board.historySize(); i++) {
+            commands.add(board.getCommand(i));
+        }
+        return commands;
+    }
+
+    protected static long residentBytes(final List<Board> boards) {
+        long bytes = 0;
+        for (Board board : boards) {
+            bytes += board.residentBytes();
+        }
+        return bytes;
+    }
+
+    protected static void delete(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // Runs the Board's keyframe tasks in the thread that asks for them
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+}
@@ -0,0 +1,368 @@
+package server;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Board Executor runs the draw and erase commands of the Boards on a fixed
+ * pool of lanes, each a single thread taking commands from its own
+ * BlockingQueue. Every Board is assigned to one lane, so all of its commands
+ * are run by a single writer, one at a time and in the order they were
+ * executed, while the threads reading the clients only parse the commands and
+ * hand them over. Boards are spread over the lanes as they are first used,
+ * and the lane becomes the Board's writer, which also runs the other changes
+ * of the Board, such as an eviction.
+ *
+ * A lane's BlockingQueue holds LANE_CAPACITY commands: a client drawing
+ * faster than its Board's lane keeps up waits to hand over its next command,
+ * instead of the commands piling up. A thread that must not wait, such as an
+ * event loop, hands commands over with tryExecute instead, and is called
+ * back once the lane has room again.
+ *
+ * When the rebalancer is started, it moves a Board every
+ * REBALANCE_INTERVAL_MILLIS from the lane that ran the most commands to the
+ * one that ran the fewest, if that evens them out. A Board being moved takes
+ * no new command until the old lane has run all of its commands, so its
+ * commands stay in order. The moves are counted in the ServerMetrics.
+ */
+class BoardExecutor {
+    protected static final int LANE_CAPACITY = 10000;
+    protected static final long REBALANCE_INTERVAL_MILLIS = 1000;
+
+    // Set in a Mailbox's state while its Board is moved to another lane
+    private static final int MOVING = Integer.MIN_VALUE;
+
+    private final Lane[] lanes;
+    // Maps each Whiteboard's name to its Mailbox
+    private final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<String, Mailbox>();
+    private final AtomicInteger nextLane = new AtomicInteger();
+    private final ServerMetrics metrics;
+
+    /**
+     * Makes a Board Executor and starts its lanes.
+     *
+     * @param laneCount represents the number of lanes, positive
+     */
+    protected BoardExecutor(final int laneCount) {
+        this(laneCount, new ServerMetrics());
+    }
+
+    /**
+     * Makes a Board Executor and starts its lanes.
+     *
+     * @param laneCount represents the number of lanes, positive
+     * @param metrics represents the metrics the moves of Boards are counted in
+     */
+    protected BoardExecutor(final int laneCount, final ServerMetrics metrics) {
+        this.metrics = metrics;
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+            Thread thread = new Thread(lanes[i], "Board lane " + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Returns the default number of lanes: one per processor.
+     */
+    protected static int defaultLaneCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs a command of the Board on the Board's lane, after every command of
+     * the Board executed before it. Waits while the lane is full.
+     *
+     * @param board represents the Board the command changes
+     * @param command represents the command
+     */
+    protected void execute(final Board board, final Runnable command) {
+        Mailbox mailbox = mailboxOf(board);
+        mailbox.acquire();
+        try {
+            mailbox.lane.tasks.put(mailbox.task(command));
+        } catch (InterruptedException e) {
+            mailbox.state.decrementAndGet();
+            Thread.currentThread().interrupt();
+            System.err.println("Dropped a command of Whiteboard " + board.name + ": interrupted");
+        }
+    }
+
+    /**
+     * Runs a command of the Board on the Board's lane, after every command of
+     * the Board executed before it, unless the lane is full. Never waits for
+     * the lane.
+     *
+     * @param board represents the Board the command changes
+     * @param command represents the command
+     * @param onRoom represents what is run once the lane has room again, if
+     *            it was full, by the lane's thread or by the caller, or null
+     * @return true if the command was handed to the lane, false if the lane
+     *         was full and the command was not taken
+     */
+    protected boolean tryExecute(final Board board, final Runnable command, final Runnable onRoom) {
+        Mailbox mailbox = mailboxOf(board);
+        mailbox.acquire();
+        Lane lane = mailbox.lane;
+        if (lane.tasks.offer(mailbox.task(command))) {
+            return true;
+        }
+        mailbox.state.decrementAndGet();
+        if (onRoom == null) {
+            return false;
+        }
+        lane.roomWaiters.add(onRoom);
+        // The lane may have emptied before it could see the waiter
+        if (lane.tasks.remainingCapacity() > 0) {
+            lane.notifyRoom();
+        }
+        return false;
+    }
+
+    /**
+     * Waits until every lane has run the commands executed before the call.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected void await() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(lanes.length);
+        for (Lane lane : lanes) {
+            lane.tasks.put(new Runnable() {
+                public void run() {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    /**
+     * Returns the position of the lane the Board is assigned to.
+     *
+     * @param board represents the Board
+     */
+    protected int laneOf(final Board board) {
+        return mailboxOf(board).lane.index;
+    }
+
+    /**
+     * Returns the number of Boards moved to another lane by the rebalancer.
+     */
+    protected long getMoves() {
+        return metrics.getBoardMoves();
+    }
+
+    /**
+     * Starts the rebalancer thread.
+     */
+    protected void startRebalancer() {
+        Thread rebalancer = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(REBALANCE_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    rebalance();
+                }
+            }
+        }, "Board rebalancer");
+        rebalancer.setDaemon(true);
+        rebalancer.start();
+    }
+
+    /**
+     * Moves the Board that best evens out the number of commands the lanes
+     * ran since the previous pass from the busiest lane to the idlest one, if
+     * there is one.
+     *
+     * @return true if a Board was moved
+     */
+    protected boolean rebalance() {
+        long[] load = new long[lanes.length];
+        for (Mailbox mailbox : mailboxes.values()) {
+            long ran = mailbox.ran.get();
+            mailbox.recent = ran - mailbox.ranAtLastPass;
+            mailbox.ranAtLastPass = ran;
+            load[mailbox.lane.index] += mailbox.recent;
+        }
+        int busiest = 0;
+        int idlest = 0;
+        for (int i = 1; i < lanes.length; i++) {
+            if (load[i] > load[busiest]) {
+                busiest = i;
+            }
+            if (load[i] < load[idlest]) {
+                idlest = i;
+            }
+        }
+        // Moving a Board must lower the load of the busiest of the two lanes
+        Mailbox moved = null;
+        long peak = load[busiest];
+        for (Mailbox mailbox : mailboxes.values()) {
+            if (mailbox.lane.index == busiest && mailbox.recent > 0) {
+                long movedPeak = Math.max(load[busiest] - mailbox.recent, load[idlest] + mailbox.recent);
+                if (movedPeak < peak) {
+                    moved = mailbox;
+                    peak = movedPeak;
+                }
+            }
+        }
+        if (moved == null) {
+            return false;
+        }
+        moved.moveTo(lanes[idlest]);
+        metrics.boardMoved();
+        return true;
+    }
+
+    /**
+     * Returns the Mailbox of the Board, assigning it to the next lane if it
+     * has none yet, and making the lane the Board's writer.
+     */
+    private Mailbox mailboxOf(final Board board) {
+        Mailbox mailbox = mailboxes.get(board.name);
+        if (mailbox == null) {
+            Lane lane = lanes[(nextLane.getAndIncrement() & Integer.MAX_VALUE) % lanes.length];
+            mailboxes.putIfAbsent(board.name, new Mailbox(lane));
+            mailbox = mailboxes.get(board.name);
+        }
+        if (board.getWriter() == null) {
+            board.setWriter(new Executor() {
+                public void execute(final Runnable change) {
+                    BoardExecutor.this.execute(board, change);
+                }
+            });
+        }
+        return mailbox;
+    }
+
+    /**
+     * Lane runs the commands of its Boards one at a time, in the order they
+     * were put in its BlockingQueue.
+     */
+    private static class Lane implements Runnable {
+        private final int index;
+        private final BlockingQueue<Runnable> tasks = new ArrayBlockingQueue<Runnable>(LANE_CAPACITY);
+        // Run once the lane has room, for the callers of tryExecute it turned away
+        private final Queue<Runnable> roomWaiters = new ConcurrentLinkedQueue<Runnable>();
+
+        private Lane(final int index) {
+            this.index = index;
+        }
+
+        public void run() {
+            while (true) {
+                Runnable task;
+                try {
+                    task = tasks.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!roomWaiters.isEmpty()) {
+                    notifyRoom();
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // The lane keeps running the other commands
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Runs the callbacks of the callers of tryExecute turned away while
+         * the lane was full. Called once it has room.
+         */
+        private void notifyRoom() {
+            Runnable waiter;
+            while ((waiter = roomWaiters.poll()) != null) {
+                waiter.run();
+            }
+        }
+    }
+
+    /**
+     * Mailbox holds the lane of a Board and the number of its commands
+     * handed to the lane but not run yet, so that the Board is only moved
+     * once the old lane has run them all.
+     */
+    private static class Mailbox {
+        private volatile Lane lane;
+        // Commands handed to the lane and not run yet, plus MOVING while the
+        // Board is moved
+        private final AtomicInteger state = new AtomicInteger();
+        // Commands run by the lanes
+        private final AtomicLong ran = new AtomicLong();
+        // Commands run before the rebalancer's previous pass and since it,
+        // only used by the rebalancer
+        private long ranAtLastPass = 0;
+        private long recent = 0;
+
+        private Mailbox(final Lane lane) {
+            this.lane = lane;
+        }
+
+        /**
+         * Returns the task the lane runs for a command of the Board, which
+         * counts it as run.
+         */
+        private Runnable task(final Runnable command) {
+            return new Runnable() {
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        ran.incrementAndGet();
+                        state.decrementAndGet();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Counts a command about to be handed to the lane, waiting while the
+         * Board is moved.
+         */
+        private void acquire() {
+            while (true) {
+                int pending = state.get();
+                if (pending < 0) {
+                    Thread.yield();
+                } else if (state.compareAndSet(pending, pending + 1)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Moves the Board to another lane once its current lane has run all
+         * of its commands, holding back its new commands until then.
+         */
+        private void moveTo(final Lane to) {
+            while (true) {
+                int pending = state.get();
+                if (state.compareAndSet(pending, pending | MOVING)) {
+                    break;
+                }
+            }
+            while (state.get() != MOVING) {
+                Thread.yield();
+            }
+            lane = to;
+            state.set(0);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * BoardExecutor Benchmark measures the draws per second run on the lanes of
+ * a Board Executor. Like every *Benchmark class it is run on its own, not
+ * with the unit tests, and prints what it measures.
+ */
+public class BoardExecutorBenchmark {
+    /**
+     * Benchmark of the draws per second of a server whose clients each draw
+     * on their own Board, handled by one input thread per client, with the
+     * commands run on the lanes.
+     */
+    @Test
+    public void drawsOnLanes() throws InterruptedException {
+        final BoardExecutor executor = new BoardExecutor(BoardExecutor.defaultLaneCount());
+        int threads = Math.max(4, 2 * BoardExecutor.defaultLaneCount());
+        final int draws = 50000;
+        final List<Board> boards = new ArrayList<Board>();
+        for (int i = 0; i < threads; i++) {
+            boards.add(new Board("Stress" + i));
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final Board board = boards.get(i);
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < draws; j++) {
+                            final int y = j;
+                            executor.execute(board, new Runnable() {
+                                public void run() {
+                                    board.draw(0, y, 1, y + 1, 5, 1, 2, 3);
+                                }
+                            });
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        executor.await();
+        long nanos = System.nanoTime() - startTime;
+        for (Board board : boards) {
+            assertEquals(board.historySize(), draws);
+        }
+        System.out.println("draws per second on " + BoardExecutor.defaultLaneCount() + " lanes from " + threads
+                + " threads: " + threads * draws * 1000000000L / nanos);
+    }
+}
@@ -0,0 +1,233 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * BoardExecutor Test runs the JUnit tests for the Board Executor class, by
+ * checking that the commands of each Board are run in order, one at a time,
+ * whichever lane runs them.
+ */
+public class BoardExecutorTest {
+    /**
+     * TESTING execute, tryExecute, await, rebalance and getMoves
+     *
+     * Partition the input space as follows:
+     * Boards:      one, more than lanes
+     * Submitters:  one thread, many threads
+     * Lane:        room left, full
+     * Rebalance:   nothing to even out, a hot Board moved while commands of
+     *              it are waiting
+     * Writer:      draws while another thread holds the Board's lock,
+     *              eviction handed to the lane
+     */
+    @Test
+    public void commandsInOrder() throws InterruptedException {
+        BoardExecutor executor = new BoardExecutor(3);
+        Board board = new Board("Board1");
+        final List<Integer> ran = new ArrayList<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            final int command = i;
+            executor.execute(board, new Runnable() {
+                public void run() {
+                    ran.add(command);
+                }
+            });
+        }
+        executor.await();
+        assertEquals(ran.size(), 10000);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals((int) ran.get(i), i);
+        }
+    }
+
+    @Test
+    public void boardsSpreadOverLanes() throws InterruptedException {
+        BoardExecutor executor = new BoardExecutor(3);
+        int[] boardsPerLane = new int[3];
+        for (int i = 0; i < 9; i++) {
+            boardsPerLane[executor.laneOf(new Board("Board" + i))]++;
+        }
+        assertEquals(boardsPerLane[0], 3);
+        assertEquals(boardsPerLane[1], 3);
+        assertEquals(boardsPerLane[2], 3);
+        // Nothing ran, nothing to even out
+        assertEquals(executor.rebalance(), false);
+    }
+
+    @Test
+    public void hotBoardMoved() throws InterruptedException {
+        ServerMetrics metrics = new ServerMetrics();
+        final BoardExecutor executor = new BoardExecutor(2, metrics);
+        final Board hot = new Board("Board0");
+        final Board warm = new Board("Board1");
+        final Board cold = new Board("Board2");
+        // Board0 and Board2 share lane 0, Board1 has lane 1
+        assertEquals(executor.laneOf(hot), 0);
+        assertEquals(executor.laneOf(warm), 1);
+        assertEquals(executor.laneOf(cold), 0);
+        run(executor, hot, 3000);
+        run(executor, warm, 1000);
+        run(executor, cold, 2000);
+        executor.await();
+
+        // Lane 0 ran 5000 commands and lane 1 1000: moving Board2 evens them out best.
+        // Lane 0 is held until the rebalancer waits for it to run the commands of Board2
+        final CountDownLatch gate = new CountDownLatch(1);
+        executor.execute(hot, new Runnable() {
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread submitter = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < 20000; i++) {
+                    final int command = i;
+                    executor.execute(cold, new Runnable() {
+                        public void run() {
+                            ran.add(command);
+                        }
+                    });
+                    if (i == 1000) {
+                        started.countDown();
+                    }
+                }
+            }
+        });
+        submitter.start();
+        started.await();
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                gate.countDown();
+            }
+        }).start();
+        assertEquals(executor.rebalance(), true);
+        submitter.join();
+        executor.await();
+        assertEquals(executor.laneOf(cold), 1);
+        assertEquals(executor.laneOf(hot), 0);
+        assertEquals(executor.getMoves(), 1);
+        assertEquals(metrics.getBoardMoves(), 1);
+        // The commands made while the Board moved kept their order
+        assertEquals(ran.size(), 20000);
+        for (int i = 0; i < 20000; i++) {
+            assertEquals((int) ran.get(i), i);
+        }
+    }
+
+    @Test
+    public void fullLaneTurnsAway() throws InterruptedException {
+        BoardExecutor executor = new BoardExecutor(1);
+        Board board = new Board("Board1");
+        // The lane is held on its first command, the others fill it up
+        final CountDownLatch gate = new CountDownLatch(1);
+        assertEquals(executor.tryExecute(board, new Runnable() {
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null), true);
+        final List<Integer> ran = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch room = new CountDownLatch(1);
+        Runnable onRoom = new Runnable() {
+            public void run() {
+                room.countDown();
+            }
+        };
+        int taken = 0;
+        while (executor.tryExecute(board, record(ran, taken), onRoom)) {
+            taken++;
+        }
+        assertTrue(taken >= BoardExecutor.LANE_CAPACITY - 1);
+        assertEquals(room.getCount(), 1);
+
+        // Once the lane has room, the command turned away is handed over again
+        gate.countDown();
+        room.await();
+        while (!executor.tryExecute(board, record(ran, taken), onRoom)) {
+            Thread.yield();
+        }
+        executor.await();
+        assertEquals(ran.size(), taken + 1);
+        for (int i = 0; i <= taken; i++) {
+            assertEquals((int) ran.get(i), i);
+        }
+    }
+
+    @Test
+    public void laneIsBoardsWriter() throws InterruptedException, IOException {
+        BoardExecutor executor = new BoardExecutor(1);
+        final Board board = new Board("Board1");
+        final CountDownLatch drawn = new CountDownLatch(1);
+        synchronized (board) {
+            executor.execute(board, new Runnable() {
+                public void run() {
+                    board.draw(0, 0, 10, 10, 5, 1, 2, 3);
+                    drawn.countDown();
+                }
+            });
+            // The lane draws without the Board's lock
+            assertEquals(drawn.await(10, TimeUnit.SECONDS), true);
+        }
+        assertEquals(board.getWriter() != null, true);
+
+        // Evicted by the lane, after the commands handed to it before
+        Path file = Files.createTempFile("board", ".history");
+        executor.execute(board, new Runnable() {
+            public void run() {
+                board.erase(0, 0, 10, 10, 5);
+            }
+        });
+        assertEquals(board.evict(file), true);
+        assertEquals(board.isEvicted(), true);
+        assertEquals(board.historySize(), 2);
+        assertEquals(Files.exists(file), false);
+    }
+
+    /**
+     * Returns a command that adds its number to the list.
+     */
+    private static Runnable record(final List<Integer> ran, final int command) {
+        return new Runnable() {
+            public void run() {
+                ran.add(command);
+            }
+        };
+    }
+
+    /**
+     * Runs a number of empty commands of the Board.
+     */
+    private static void run(final BoardExecutor executor, final Board board, final int commands) {
+        for (int i = 0; i < commands; i++) {
+            executor.execute(board, new Runnable() {
+                public void run() {
+                }
+            });
+        }
+    }
+}
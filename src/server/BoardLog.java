@@ -0,0 +1,328 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Board Log represents the write-ahead log of one Board's draw and erase
+ * commands: a directory of segment files, each mapped into memory and filled
+ * with fixed size records in the order the commands were made.
+ *
+ * A record is its op byte followed by the two points, the stroke size and
+ * the packed red, green and blue as ints. The op byte is written last, and a
+ * zero op byte marks the end of the records, so a record is only read back
+ * once it has been written entirely. Records are written to the mapped
+ * segment, where they survive the server process, and are forced to the disk
+ * in batches by flush(), which the HistoryLog calls from its flusher thread.
+ *
+ * A Board's first segment is FIRST_SEGMENT_SIZE bytes, and each new segment
+ * is twice the size of the previous one, up to the log's segment size, so an
+ * idle Board only maps a small file.
+ *
+ * Once the Board's history is compacted, the log is rolled over to a new
+ * segment and the compacted history is written next to it as a checkpoint,
+ * in the format the Board is evicted in. The segments and checkpoints before
+ * it are then deleted. The log is read back from its latest checkpoint and
+ * the segments after it:
+ *      checkpoint-N.log    the history made before segment N, compacted
+ *      segment-N.log       the records of the commands made after it
+ */
+class BoardLog {
+    protected static final int SEGMENT_SIZE = 16 << 20;
+    protected static final int FIRST_SEGMENT_SIZE = 64 << 10;
+    protected static final int RECORD_SIZE = 25;
+
+    // Op bytes, 0 marks the end of the records
+    private static final byte DRAW = 1;
+    private static final byte ERASE = 2;
+
+    private final Path directory;
+    private final int segmentSize;
+    // Size of the next segment file made, guarded by this
+    private int nextSegmentSize;
+    private int segmentIndex = 0;
+    // Segment the records are written to, guarded by this
+    private MappedByteBuffer segment;
+    // Full segments that have not been forced to the disk yet, guarded by this
+    private final List<MappedByteBuffer> unflushedSegments = new ArrayList<MappedByteBuffer>();
+    // Set when records were written since the last flush, guarded by this
+    private boolean dirty = false;
+
+    /**
+     * Opens the log in the directory, making it if it does not exist, gives
+     * the Board the history of its latest checkpoint, if any, and adds the
+     * commands of the records after it to the Board.
+     *
+     * @param directory represents the directory of the log
+     * @param board represents the new, empty Board the commands are added
+     *            to, which must not have a log yet
+     * @param segmentSize represents the largest size in bytes of the new
+     *            segment files, at least RECORD_SIZE
+     * @throws IOException if the log cannot be read or a segment cannot be
+     *             mapped
+     */
+    protected BoardLog(final Path directory, final Board board, final int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.nextSegmentSize = Math.min(FIRST_SEGMENT_SIZE, segmentSize);
+        Files.createDirectories(directory);
+        int checkpoint = latestCheckpoint();
+        if (checkpoint >= 0) {
+            board.restore(readCheckpoint(checkpoint));
+            // Left over if the server stopped before they were deleted
+            deleteBefore(checkpoint);
+            segmentIndex = checkpoint;
+        }
+        segment = map(segmentIndex);
+        while (true) {
+            load(segment, board);
+            if (!Files.exists(segmentPath(segmentIndex + 1))) {
+                break;
+            }
+            segmentIndex++;
+            segment = map(segmentIndex);
+        }
+    }
+
+    /**
+     * Adds the commands of the records of a segment to the Board, leaving the
+     * segment's position after the last record.
+     */
+    private static void load(final ByteBuffer segment, final Board board) {
+        while (segment.remaining() >= RECORD_SIZE) {
+            int position = segment.position();
+            byte op = segment.get(position);
+            if (op != DRAW && op != ERASE) {
+                return;
+            }
+            segment.position(position + 1);
+            int x1 = segment.getInt();
+            int y1 = segment.getInt();
+            int x2 = segment.getInt();
+            int y2 = segment.getInt();
+            int strokeSize = segment.getInt();
+            int rgb = segment.getInt();
+            if (op == DRAW) {
+                board.draw(x1, y1, x2, y2, strokeSize, (rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+            } else {
+                board.erase(x1, y1, x2, y2, strokeSize);
+            }
+        }
+    }
+
+    /**
+     * Writes a draw command after the last record. Red, green and blue must
+     * be between 0 and 255.
+     *
+     * @throws IOException if the next segment cannot be mapped
+     */
+    protected synchronized void appendDraw(int x1, int y1, int x2, int y2, int strokeSize, int red, int green,
+            int blue) throws IOException {
+        append(DRAW, x1, y1, x2, y2, strokeSize, (red << 16) | (green << 8) | blue);
+    }
+
+    /**
+     * Writes an erase command after the last record.
+     *
+     * @throws IOException if the next segment cannot be mapped
+     */
+    protected synchronized void appendErase(int x1, int y1, int x2, int y2, int strokeSize) throws IOException {
+        append(ERASE, x1, y1, x2, y2, strokeSize, 0);
+    }
+
+    /**
+     * Writes a record after the last record, in the next segment if it does
+     * not fit in the current one.
+     */
+    private void append(byte op, int x1, int y1, int x2, int y2, int strokeSize, int rgb) throws IOException {
+        if (segment.remaining() < RECORD_SIZE) {
+            unflushedSegments.add(segment);
+            segment = map(segmentIndex + 1);
+            segmentIndex++;
+        }
+        int position = segment.position();
+        segment.position(position + 1);
+        segment.putInt(x1);
+        segment.putInt(y1);
+        segment.putInt(x2);
+        segment.putInt(y2);
+        segment.putInt(strokeSize);
+        segment.putInt(rgb);
+        // Written last, so the record only counts once it is complete
+        segment.put(position, op);
+        dirty = true;
+    }
+
+    /**
+     * Forces the records written since the last flush to the disk. The
+     * records are forced without holding the lock, so commands keep being
+     * written meanwhile.
+     *
+     * @return true if there were records to force
+     */
+    protected boolean flush() {
+        List<MappedByteBuffer> segments;
+        synchronized (this) {
+            if (!dirty) {
+                return false;
+            }
+            segments = new ArrayList<MappedByteBuffer>(unflushedSegments);
+            segments.add(segment);
+            unflushedSegments.clear();
+            dirty = false;
+        }
+        for (MappedByteBuffer unflushed : segments) {
+            unflushed.force();
+        }
+        return true;
+    }
+
+    /**
+     * Starts writing the records to a new segment, as the first segment after
+     * a checkpoint. Called by the Board's writer, with the history the
+     * checkpoint will hold, before its next command.
+     *
+     * @return the position of the new segment, which the checkpoint is
+     *         written for
+     * @throws IOException if the new segment cannot be mapped, the records
+     *             are then still written to the current one
+     */
+    protected synchronized int roll() throws IOException {
+        nextSegmentSize = Math.min(FIRST_SEGMENT_SIZE, segmentSize);
+        MappedByteBuffer next = map(segmentIndex + 1);
+        unflushedSegments.add(segment);
+        segment = next;
+        segmentIndex++;
+        return segmentIndex;
+    }
+
+    /**
+     * Writes a checkpoint of the history made before a segment, forces it to
+     * the disk, and then deletes the segments and checkpoints before it.
+     *
+     * @param history represents the history made before the segment,
+     *            compacted
+     * @param index represents the position of the segment, as returned by
+     *            roll()
+     * @throws IOException if the checkpoint cannot be written, the log is
+     *             then still read back from the previous one
+     */
+    protected void checkpoint(final StrokeHistory history, final int index) throws IOException {
+        Path written = directory.resolve(String.format("checkpoint-%08d.tmp", index));
+        FileOutputStream file = new FileOutputStream(written.toFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            history.writeTo(out);
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        // Only read back once it is complete
+        Files.move(written, checkpointPath(index), StandardCopyOption.ATOMIC_MOVE);
+        deleteBefore(index);
+    }
+
+    /**
+     * Returns the position of the segment the latest checkpoint was written
+     * for, or -1 if there is none.
+     */
+    private int latestCheckpoint() throws IOException {
+        int latest = -1;
+        DirectoryStream<Path> checkpoints = Files.newDirectoryStream(directory, "checkpoint-*.log");
+        try {
+            for (Path path : checkpoints) {
+                latest = Math.max(latest, indexOf(path));
+            }
+        } finally {
+            checkpoints.close();
+        }
+        return latest;
+    }
+
+    /**
+     * Reads back the history of a checkpoint.
+     */
+    private StrokeHistory readCheckpoint(final int index) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(checkpointPath(index))));
+        try {
+            return StrokeHistory.readFrom(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Deletes the segments, checkpoints and partly written checkpoints
+     * before a segment.
+     */
+    private void deleteBefore(final int index) throws IOException {
+        List<Path> deleted = new ArrayList<Path>();
+        DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{segment,checkpoint}-*");
+        try {
+            for (Path path : files) {
+                if (indexOf(path) < index) {
+                    deleted.add(path);
+                }
+            }
+        } finally {
+            files.close();
+        }
+        for (Path path : deleted) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Returns the position in the name of a segment or checkpoint file.
+     */
+    private static int indexOf(final Path path) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(name.indexOf('-') + 1, name.indexOf('.')));
+    }
+
+    /**
+     * Maps a segment file into memory, making it with the next segment size
+     * if it does not exist, and doubling the next segment size up to the
+     * log's segment size.
+     */
+    private MappedByteBuffer map(final int index) throws IOException {
+        Path path = segmentPath(index);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size == 0) {
+                size = nextSegmentSize;
+                nextSegmentSize = (int) Math.min((long) nextSegmentSize * 2, segmentSize);
+            }
+            // The mapping stays valid once the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private Path segmentPath(final int index) {
+        return directory.resolve(String.format("segment-%08d.log", index));
+    }
+
+    private Path checkpointPath(final int index) {
+        return directory.resolve(String.format("checkpoint-%08d.log", index));
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.BitSet;
+
+/**
+ * History Compactor finds the commands of a Board's history that can no
+ * longer be seen, because every pixel they drew has been drawn over by later
+ * draw or erase commands, so that the Board can drop them.
+ *
+ * It keeps an owner image the size of the Keyframes, in which each pixel
+ * holds the position plus one of the command that drew it last, or 0. Every
+ * command is drawn on the owner image once, the way the clients' Canvas draws
+ * it, so a pass only draws the commands made since the previous pass and then
+ * reads the owner image: a command is still seen if it owns a pixel. A
+ * command drawing outside the image is always kept, since the pixels it draws
+ * there are not tracked.
+ *
+ * A History Compactor is only used by the keyframe Executor, one pass at a
+ * time.
+ */
+class HistoryCompactor {
+    // Largest number of commands whose positions fit in the owner image
+    protected static final int MAX_COMMANDS = 0xffffff;
+
+    private final BufferedImage owners = new BufferedImage(Keyframe.WIDTH, Keyframe.HEIGHT,
+            BufferedImage.TYPE_INT_RGB);
+    // The packed red, green and blue of each pixel of the owner image
+    private final int[] ownerPixels = ((DataBufferInt) owners.getRaster().getDataBuffer()).getData();
+    // Number of commands of the history drawn on the owner image
+    private int drawnCount = 0;
+    // Positions of the commands drawing outside the owner image
+    private BitSet outside = new BitSet();
+
+    /**
+     * Draws the commands of a snapshot of the history made since the previous
+     * pass on the owner image, and returns the positions of the commands of
+     * the snapshot that are still seen.
+     *
+     * @param snapshot represents a snapshot of the history, whose first
+     *            commands are the ones of the previous passes
+     * @return the positions of the commands still seen, or null if the
+     *         snapshot has more than MAX_COMMANDS commands
+     */
+    protected BitSet visibleCommands(final StrokeHistory snapshot) {
+        int size = snapshot.size();
+        if (size > MAX_COMMANDS) {
+            return null;
+        }
+        Graphics2D g = owners.createGraphics();
+        snapshot.renderPositions(g, drawnCount, size);
+        g.dispose();
+        for (int i = drawnCount; i < size; i++) {
+            if (!snapshot.fitsIn(i, Keyframe.WIDTH, Keyframe.HEIGHT)) {
+                outside.set(i);
+            }
+        }
+        drawnCount = size;
+        BitSet visible = (BitSet) outside.clone();
+        for (int owner : ownerPixels) {
+            if (owner != 0) {
+                visible.set((owner & 0xffffff) - 1);
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * Renumbers the owner image once the Board has dropped the commands that
+     * are no longer seen, so that it matches the compacted history.
+     *
+     * @param visible represents the positions of the commands kept, as
+     *            returned by the last pass
+     */
+    protected void compacted(final BitSet visible) {
+        // New position plus one of each kept command, by old position
+        int[] renumbered = new int[drawnCount];
+        BitSet keptOutside = new BitSet();
+        int next = 0;
+        for (int i = visible.nextSetBit(0); i >= 0 && i < drawnCount; i = visible.nextSetBit(i + 1)) {
+            if (outside.get(i)) {
+                keptOutside.set(next);
+            }
+            renumbered[i] = ++next;
+        }
+        for (int p = 0; p < ownerPixels.length; p++) {
+            if (ownerPixels[p] != 0) {
+                ownerPixels[p] = renumbered[(ownerPixels[p] & 0xffffff) - 1];
+            }
+        }
+        outside = keptOutside;
+        drawnCount = next;
+    }
+}
@@ -0,0 +1,56 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * HistoryCompactor Benchmark measures the compaction of recorded sessions and
+ * the replay of their histories before and after. Like every *Benchmark class
+ * it is run on its own, not with the unit tests, and prints what it measures.
+ */
+public class HistoryCompactorBenchmark {
+    /**
+     * Benchmark of the compaction of recorded sessions: the ratio of commands
+     * kept, the time of a pass, and the time to replay the history, encoding
+     * every command as a text message and drawing it, before and after. The
+     * image drawn from the compacted history must be the one drawn from the
+     * whole history.
+     */
+    @Test
+    public void recordedSessions() throws IOException {
+        String[] names = { "sketching", "colouring in", "sketch and erase" };
+        for (int session = 0; session < names.length; session++) {
+            StrokeHistory history = HistoryCompactorTest.record(session, 200000, new Random(session));
+            long startTime = System.nanoTime();
+            BitSet visible = new HistoryCompactor().visibleCommands(history);
+            StrokeHistory compacted = new StrokeHistory();
+            for (int i = visible.nextSetBit(0); i >= 0; i = visible.nextSetBit(i + 1)) {
+                compacted.add(history, i);
+            }
+            long compactNanos = System.nanoTime() - startTime;
+
+            BufferedImage before = new BufferedImage(Keyframe.WIDTH, Keyframe.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            BufferedImage after = new BufferedImage(Keyframe.WIDTH, Keyframe.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            // Warms up the replay before timing it
+            HistoryCompactorTest.replay(compacted, after);
+            long beforeNanos = HistoryCompactorTest.replay(history, before);
+            long afterNanos = HistoryCompactorTest.replay(compacted, after);
+            for (int x = 0; x < Keyframe.WIDTH; x++) {
+                for (int y = 0; y < Keyframe.HEIGHT; y++) {
+                    assertEquals(before.getRGB(x, y), after.getRGB(x, y));
+                }
+            }
+            System.out.println(names[session] + ": " + history.size() + " commands compacted to "
+                    + compacted.size() + " (" + (100 * compacted.size() / history.size()) + "%) in "
+                    + compactNanos / 1000000 + "ms, replayed in " + beforeNanos / 1000000 + "ms before and "
+                    + afterNanos / 1000000 + "ms after");
+            assertTrue(compacted.size() < history.size());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+/**
+ * HistoryCompactor Test runs the JUnit tests for the History Compactor class
+ * and the compaction of a Board's history, by checking that the image drawn
+ * from the compacted history is the same as the one drawn from the whole
+ * history.
+ */
+public class HistoryCompactorTest {
+    /**
+     * TESTING visibleCommands, compacted and Board compaction
+     *
+     * Partition the input space as follows:
+     * Drawn over by:   nothing, a draw, an erase, several later commands
+     * Position:        inside the image, partly outside it
+     * Passes:          one, several with commands made in between
+     */
+    @Test
+    public void drawnOverCommands() {
+        StrokeHistory history = new StrokeHistory();
+        history.draw(100, 100, 110, 100, 3, 255, 0, 0);
+        history.draw(90, 100, 120, 100, 20, 0, 0, 255);
+        history.draw(300, 300, 310, 310, 3, 0, 255, 0);
+        history.erase(290, 300, 320, 300, 40);
+        history.draw(500, 500, 510, 500, 5, 0, 0, 0);
+        history.draw(400, 400, 410, 400, 5, 0, 0, 0);
+        history.draw(405, 400, 415, 400, 5, 0, 0, 0);
+
+        BitSet visible = new HistoryCompactor().visibleCommands(history);
+        assertEquals(visible.get(0), false);
+        assertEquals(visible.get(1), true);
+        assertEquals(visible.get(2), false);
+        assertEquals(visible.get(3), true);
+        assertEquals(visible.get(4), true);
+        // Only partly drawn over
+        assertEquals(visible.get(5), true);
+        assertEquals(visible.get(6), true);
+    }
+
+    @Test
+    public void outsideCommandsKept() {
+        StrokeHistory history = new StrokeHistory();
+        history.draw(-10, 0, 10, 0, 3, 255, 0, 0);
+        history.draw(790, 300, 900, 300, 3, 255, 0, 0);
+        history.erase(0, 0, 799, 599, 2000);
+
+        BitSet visible = new HistoryCompactor().visibleCommands(history);
+        assertEquals(visible.cardinality(), 3);
+    }
+
+    @Test
+    public void boardCompactionPasses() throws IOException {
+        Board board = new Board("Board1", 4, DIRECT_EXECUTOR);
+        board.draw(100, 100, 110, 100, 3, 255, 0, 0);
+        board.draw(200, 100, 210, 100, 3, 255, 0, 0);
+        board.draw(90, 100, 120, 100, 20, 0, 0, 255);
+        board.draw(300, 100, 310, 100, 3, 255, 0, 0);
+        board.draw(400, 100, 410, 100, 3, 255, 0, 0);
+        // The latest Keyframe holds the first 4 commands
+        assertEquals(board.getKeyframe().getCommandCount(), 4);
+        board.requestCompaction();
+        assertEquals(board.historySize(), 4);
+        assertEquals(board.getCommand(0), "Board1 draw 200 100 210 100 3 255 0 0");
+        assertEquals(board.getKeyframe().getCommandCount(), 3);
+
+        // A later pass only draws the commands made since the previous one
+        board.erase(190, 100, 220, 100, 20);
+        board.erase(0, 0, 799, 0, 1);
+        board.draw(400, 100, 410, 100, 30, 0, 0, 0);
+        board.requestCompaction();
+        assertEquals(board.historySize(), 5);
+        assertEquals(board.getCommand(0), "Board1 draw 90 100 120 100 20 0 0 255");
+        assertEquals(board.getCommand(1), "Board1 draw 300 100 310 100 3 255 0 0");
+        assertEquals(board.getCommand(4), "Board1 draw 400 100 410 100 30 0 0 0");
+        // The Keyframe of the first 8 commands was made before the pass
+        assertEquals(board.getKeyframe().getCommandCount(), 5);
+
+        // Commands keep being added after the compacted ones
+        board.draw(1, 2, 3, 4, 5, 6, 7, 8);
+        assertEquals(board.historySize(), 6);
+        assertEquals(board.getCommand(5), "Board1 draw 1 2 3 4 5 6 7 8");
+    }
+
+    /**
+     * The image drawn from the compacted history of each recorded session is
+     * the one drawn from the whole history, which has fewer commands.
+     */
+    @Test
+    public void recordedSessionsDrawTheSame() throws IOException {
+        for (int session = 0; session < 3; session++) {
+            StrokeHistory history = record(session, 20000, new Random(session));
+            BitSet visible = new HistoryCompactor().visibleCommands(history);
+            StrokeHistory compacted = new StrokeHistory();
+            for (int i = visible.nextSetBit(0); i >= 0; i = visible.nextSetBit(i + 1)) {
+                compacted.add(history, i);
+            }
+            BufferedImage before = new BufferedImage(Keyframe.WIDTH, Keyframe.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            BufferedImage after = new BufferedImage(Keyframe.WIDTH, Keyframe.HEIGHT, BufferedImage.TYPE_INT_RGB);
+            replay(history, before);
+            replay(compacted, after);
+            for (int x = 0; x < Keyframe.WIDTH; x++) {
+                for (int y = 0; y < Keyframe.HEIGHT; y++) {
+                    assertEquals(before.getRGB(x, y), after.getRGB(x, y));
+                }
+            }
+            assertTrue(compacted.size() < history.size());
+        }
+    }
+
+    /**
+     * Returns a recorded session of freehand strokes made of short segments:
+     *      0   strokes all over the Whiteboard
+     *      1   the same, then thick strokes filling in a few shapes over and
+     *          over again
+     *      2   the same as 0, sometimes erasing a patch with a thick eraser
+     */
+    protected static StrokeHistory record(final int session, final int commands, final Random random) {
+        StrokeHistory history = new StrokeHistory();
+        while (history.size() < commands) {
+            int x = random.nextInt(Keyframe.WIDTH);
+            int y = random.nextInt(Keyframe.HEIGHT);
+            int red = random.nextInt(256);
+            boolean fill = session == 1 && random.nextInt(2) == 0;
+            int strokeSize = fill ? 25 : 1 + random.nextInt(8);
+            if (session == 2 && random.nextInt(20) == 0) {
+                int length = 20 + random.nextInt(30);
+                for (int i = 0; i < length; i++) {
+                    int nextX = Math.max(0, Math.min(Keyframe.WIDTH - 1, x + random.nextInt(21) - 10));
+                    int nextY = Math.max(0, Math.min(Keyframe.HEIGHT - 1, y + random.nextInt(21) - 10));
+                    history.erase(x, y, nextX, nextY, 40);
+                    x = nextX;
+                    y = nextY;
+                }
+                continue;
+            }
+            if (fill) {
+                // Back and forth over one of a few shapes
+                int shape = random.nextInt(4);
+                x = 100 + shape * 150;
+                y = 200;
+                for (int i = 0; i < 100; i++) {
+                    history.draw(x, y + i, x + 100, y + i, strokeSize, red, 0, 0);
+                }
+                continue;
+            }
+            int length = 10 + random.nextInt(50);
+            for (int i = 0; i < length; i++) {
+                int nextX = Math.max(0, Math.min(Keyframe.WIDTH - 1, x + random.nextInt(11) - 5));
+                int nextY = Math.max(0, Math.min(Keyframe.HEIGHT - 1, y + random.nextInt(11) - 5));
+                history.draw(x, y, nextX, nextY, strokeSize, red, 128, 64);
+                x = nextX;
+                y = nextY;
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Replays a history to a client and its Canvas: encodes every command as
+     * a text message and draws it on a white image.
+     *
+     * @return the time the replay took, in nanoseconds
+     */
+    protected static long replay(final StrokeHistory history, final BufferedImage image) throws IOException {
+        long startTime = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < history.size(); i++) {
+            out.write(Message.encodeLine(history.toLine("Board1", i)));
+        }
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, Keyframe.WIDTH, Keyframe.HEIGHT);
+        history.render(g, 0, history.size());
+        g.dispose();
+        return System.nanoTime() - startTime;
+    }
+
+    // Runs the Board's keyframe and compaction tasks in the thread that asks for them
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+}
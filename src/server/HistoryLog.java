@@ -0,0 +1,183 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * History Log represents the directory where the Whiteboard Server logs its
+ * Boards, so that they survive a restart:
+ *      boards          the names of the Boards, one per line, in the order
+ *                      they were added
+ *      board-N         the BoardLog of the Nth Board of the names
+ *
+ * A Board's name is forced to the disk as soon as the Board is added. Its
+ * commands are written to its BoardLog by the Board's writer, and
+ * the flusher thread forces the BoardLogs written since its last batch to
+ * the disk every FLUSH_INTERVAL_MILLIS, so the commands never wait on the
+ * disk and at most one batch is lost if the machine stops.
+ */
+class HistoryLog {
+    protected static final long FLUSH_INTERVAL_MILLIS = 10;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Path directory;
+    private final int segmentSize;
+    // Maps the name of each logged Board to its BoardLog
+    private final Map<String, BoardLog> boardLogs = new ConcurrentHashMap<String, BoardLog>();
+    // Appends to the names file, guarded by this
+    private final FileOutputStream names;
+    private final List<Board> recovered = new ArrayList<Board>();
+    private final AtomicLong flushes = new AtomicLong();
+    private final Thread flusher;
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the History Log in the directory, making it if it does not exist,
+     * rebuilds the Boards it holds and starts its flusher thread.
+     *
+     * @param directory represents the directory of the History Log
+     * @param segmentSize represents the size in bytes of the new segment
+     *            files of the BoardLogs, at least BoardLog.RECORD_SIZE
+     * @throws IOException if the History Log cannot be read
+     */
+    protected HistoryLog(final Path directory, final int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        Path namesPath = directory.resolve("boards");
+        if (Files.exists(namesPath)) {
+            recover(namesPath);
+        }
+        names = new FileOutputStream(namesPath.toFile(), true);
+        flusher = new Thread(new Runnable() {
+            public void run() {
+                while (!closed) {
+                    try {
+                        Thread.sleep(FLUSH_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    flush();
+                }
+            }
+        }, "History log flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Rebuilds the Boards whose names are in the names file. A last name
+     * without its line terminator was being written when the server stopped,
+     * and its Board is not rebuilt.
+     */
+    private void recover(final Path namesPath) throws IOException {
+        byte[] bytes = Files.readAllBytes(namesPath);
+        int complete = bytes.length;
+        while (complete > 0 && bytes[complete - 1] != '\n') {
+            complete--;
+        }
+        if (complete < bytes.length) {
+            // Removes the partly written name, so the next name starts on its own line
+            OutputStream out = Files.newOutputStream(namesPath);
+            try {
+                out.write(bytes, 0, complete);
+            } finally {
+                out.close();
+            }
+        }
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(bytes, 0, complete), UTF_8));
+        for (String name = in.readLine(); name != null; name = in.readLine()) {
+            Board board = new Board(name);
+            BoardLog boardLog = new BoardLog(boardPath(recovered.size()), board, segmentSize);
+            board.setLog(boardLog);
+            boardLogs.put(name, boardLog);
+            recovered.add(board);
+        }
+    }
+
+    /**
+     * Returns the Boards rebuilt from the History Log when it was opened, in
+     * the order they were added.
+     */
+    protected List<Board> getRecoveredBoards() {
+        return new ArrayList<Board>(recovered);
+    }
+
+    /**
+     * Returns true if the Whiteboard is logged.
+     *
+     * @param whiteboard represents the name of the Whiteboard
+     */
+    protected boolean contains(final String whiteboard) {
+        return boardLogs.containsKey(whiteboard);
+    }
+
+    /**
+     * Logs a new, empty Board: forces its name to the disk and gives it a
+     * BoardLog.
+     *
+     * @param board represents the Board, which must not be logged yet
+     * @throws IOException if the name cannot be written or the BoardLog
+     *             cannot be made
+     */
+    protected synchronized void addBoard(final Board board) throws IOException {
+        BoardLog boardLog = new BoardLog(boardPath(boardLogs.size()), board, segmentSize);
+        names.write((board.name + "\n").getBytes(UTF_8));
+        names.getFD().sync();
+        board.setLog(boardLog);
+        boardLogs.put(board.name, boardLog);
+    }
+
+    /**
+     * Forces every BoardLog written since the last batch to the disk.
+     */
+    protected void flush() {
+        for (BoardLog boardLog : boardLogs.values()) {
+            if (boardLog.flush()) {
+                flushes.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of BoardLogs forced to the disk so far.
+     */
+    protected long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * Stops the flusher thread and forces every BoardLog to the disk.
+     *
+     * @throws IOException if the names file cannot be closed
+     */
+    protected void close() throws IOException {
+        closed = true;
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        names.close();
+    }
+
+    private Path boardPath(final int index) {
+        return directory.resolve("board-" + index);
+    }
+}
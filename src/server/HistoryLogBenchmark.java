@@ -0,0 +1,59 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+/**
+ * HistoryLog Benchmark measures how fast commands are made on a logged
+ * Board against one kept in memory. Like every *Benchmark class it is run on
+ * its own, not with the unit tests, and prints what it measures.
+ */
+public class HistoryLogBenchmark {
+    /**
+     * Benchmark of how fast commands are made on a Board kept in memory and
+     * on a logged Board, whose BoardLog is forced to the disk in batches by
+     * the flusher thread meanwhile. The numbers are printed, not compared.
+     */
+    @Test
+    public void drawThroughput() throws IOException {
+        int commands = 200000;
+        // Warms up the code shared by both Boards before timing it
+        Board warmUpBoard = new Board("Board1");
+        for (int i = 0; i < commands; i++) {
+            warmUpBoard.draw(i % 800, i % 600, i % 800 + 3, i % 600 + 2, 5, i & 0xff, 128, 64);
+        }
+        Board memoryBoard = new Board("Board1");
+        long startTime = System.nanoTime();
+        for (int i = 0; i < commands; i++) {
+            memoryBoard.draw(i % 800, i % 600, i % 800 + 3, i % 600 + 2, 5, i & 0xff, 128, 64);
+        }
+        long memoryNanos = System.nanoTime() - startTime;
+
+        Path directory = Files.createTempDirectory("history");
+        try {
+            HistoryLog log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            Board loggedBoard = new Board("Board1");
+            log.addBoard(loggedBoard);
+            startTime = System.nanoTime();
+            for (int i = 0; i < commands; i++) {
+                loggedBoard.draw(i % 800, i % 600, i % 800 + 3, i % 600 + 2, 5, i & 0xff, 128, 64);
+            }
+            long loggedNanos = System.nanoTime() - startTime;
+            long flushes = log.getFlushes();
+            log.close();
+
+            System.out.println("draws per second in memory: " + commands * 1000000000L / memoryNanos
+                    + ", logged: " + commands * 1000000000L / loggedNanos + " with " + flushes + " batches forced");
+            log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            assertEquals(log.getRecoveredBoards().get(0).historySize(), commands);
+            log.close();
+        } finally {
+            HistoryLogTest.delete(directory.toFile());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+/**
+ * HistoryLog Test runs the JUnit tests for the History Log and Board Log
+ * classes, by logging Boards in a temporary directory and opening it again as
+ * the server does when it restarts.
+ */
+public class HistoryLogTest {
+    /**
+     * TESTING addBoard, BoardLog append and recovery
+     *
+     * Partition the input space as follows:
+     * Boards:      none, one, several
+     * Commands:    none, draw, erase, past the end of a segment
+     * Names file:  complete, last name partly written
+     * Segments:    first one, grown, rolled over by a compaction
+     */
+    @Test
+    public void emptyDirectory() throws IOException {
+        Path directory = Files.createTempDirectory("history");
+        try {
+            HistoryLog log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            assertEquals(log.getRecoveredBoards().size(), 0);
+            assertFalse(log.contains("Board1"));
+            log.close();
+            log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            assertEquals(log.getRecoveredBoards().size(), 0);
+            log.close();
+        } finally {
+            delete(directory.toFile());
+        }
+    }
+
+    @Test
+    public void recoverBoardsAndCommands() throws IOException {
+        Path directory = Files.createTempDirectory("history");
+        try {
+            HistoryLog log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            Board board1 = new Board("Board1");
+            Board board2 = new Board("Board 2");
+            Board board3 = new Board("Board3");
+            log.addBoard(board1);
+            log.addBoard(board2);
+            log.addBoard(board3);
+            assertTrue(log.contains("Board 2"));
+            board1.draw(0, 0, 100, 100, 50, 12, 34, 56);
+            board2.erase(-5, -5, 70000, -7, 3);
+            board1.draw(1, 2, 3, 4, 5, 255, 0, 255);
+            log.close();
+
+            log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            List<Board> boards = log.getRecoveredBoards();
+            assertEquals(boards.size(), 3);
+            assertEquals(boards.get(0).name, "Board1");
+            assertEquals(boards.get(1).name, "Board 2");
+            assertEquals(boards.get(2).name, "Board3");
+            assertEquals(boards.get(0).historySize(), 2);
+            assertEquals(boards.get(0).getCommand(0), "Board1 draw 0 0 100 100 50 12 34 56");
+            assertEquals(boards.get(0).getCommand(1), "Board1 draw 1 2 3 4 5 255 0 255");
+            assertEquals(boards.get(1).historySize(), 1);
+            assertEquals(boards.get(1).getCommand(0), "Board 2 erase -5 -5 70000 -7 3");
+            assertEquals(boards.get(2).historySize(), 0);
+
+            // Commands made after a restart are added after the recovered ones
+            boards.get(2).erase(9, 9, 9, 9, 9);
+            log.addBoard(new Board("Board4"));
+            log.close();
+            log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            boards = log.getRecoveredBoards();
+            assertEquals(boards.size(), 4);
+            assertEquals(boards.get(0).historySize(), 2);
+            assertEquals(boards.get(2).getCommand(0), "Board3 erase 9 9 9 9 9");
+            assertEquals(boards.get(3).name, "Board4");
+            log.close();
+        } finally {
+            delete(directory.toFile());
+        }
+    }
+
+    @Test
+    public void commandsPastOneSegment() throws IOException {
+        Path directory = Files.createTempDirectory("history");
+        try {
+            // Room for 4 records, the last byte is left over
+            int segmentSize = BoardLog.RECORD_SIZE * 4 + 1;
+            HistoryLog log = new HistoryLog(directory, segmentSize);
+            Board board = new Board("Board1");
+            log.addBoard(board);
+            for (int i = 0; i < 10; i++) {
+                board.draw(i, i, i + 1, i + 1, 5, i, 0, 0);
+            }
+            log.close();
+            assertEquals(directory.resolve("board-0").toFile().list().length, 3);
+
+            log = new HistoryLog(directory, segmentSize);
+            board = log.getRecoveredBoards().get(0);
+            assertEquals(board.historySize(), 10);
+            for (int i = 0; i < 10; i++) {
+                assertEquals(board.getCommand(i), "Board1 draw " + i + " " + i + " " + (i + 1) + " " + (i + 1)
+                        + " 5 " + i + " 0 0");
+            }
+            for (int i = 10; i < 13; i++) {
+                board.erase(i, i, i, i, 1);
+            }
+            log.close();
+            log = new HistoryLog(directory, segmentSize);
+            board = log.getRecoveredBoards().get(0);
+            assertEquals(board.historySize(), 13);
+            assertEquals(board.getCommand(12), "Board1 erase 12 12 12 12 1");
+            log.close();
+        } finally {
+            delete(directory.toFile());
+        }
+    }
+
+    @Test
+    public void segmentsGrow() throws IOException {
+        Path directory = Files.createTempDirectory("history");
+        try {
+            HistoryLog log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            Board board = new Board("Board1");
+            log.addBoard(board);
+            Path segments = directory.resolve("board-0");
+            assertEquals(Files.size(segments.resolve("segment-00000000.log")), BoardLog.FIRST_SEGMENT_SIZE);
+            int commands = BoardLog.FIRST_SEGMENT_SIZE / BoardLog.RECORD_SIZE + 1;
+            for (int i = 0; i < commands; i++) {
+                board.draw(i % 800, 0, i % 800 + 1, 1, 5, 1, 2, 3);
+            }
+            assertEquals(Files.size(segments.resolve("segment-00000001.log")), 2 * BoardLog.FIRST_SEGMENT_SIZE);
+            log.close();
+
+            log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            assertEquals(log.getRecoveredBoards().get(0).historySize(), commands);
+            log.close();
+        } finally {
+            delete(directory.toFile());
+        }
+    }
+
+    @Test
+    public void checkpointAfterCompaction() throws IOException {
+        Path directory = Files.createTempDirectory("history");
+        try {
+            HistoryLog log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            Board board = new Board("Board1", 4, DIRECT_EXECUTOR);
+            log.addBoard(board);
+            for (int i = 0; i < 10; i++) {
+                board.draw(100, 100, 110, 100, 3, i, 0, 0);
+            }
+            board.requestCompaction();
+            // The compacted history is swapped in before the next command
+            board.draw(1, 2, 3, 4, 5, 6, 7, 8);
+            assertEquals(board.historySize(), 2);
+            Path segments = directory.resolve("board-0");
+            assertEquals(Files.exists(segments.resolve("checkpoint-00000001.log")), true);
+            assertEquals(Files.exists(segments.resolve("segment-00000000.log")), false);
+            board.erase(0, 0, 10, 10, 5);
+            log.close();
+
+            log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            board = log.getRecoveredBoards().get(0);
+            assertEquals(board.historySize(), 3);
+            assertEquals(board.getCommand(0), "Board1 draw 100 100 110 100 3 9 0 0");
+            assertEquals(board.getCommand(1), "Board1 draw 1 2 3 4 5 6 7 8");
+            assertEquals(board.getCommand(2), "Board1 erase 0 0 10 10 5");
+            log.close();
+        } finally {
+            delete(directory.toFile());
+        }
+    }
+
+    @Test
+    public void partlyWrittenName() throws IOException {
+        Path directory = Files.createTempDirectory("history");
+        try {
+            HistoryLog log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            log.addBoard(new Board("Board1"));
+            log.close();
+            OutputStream names = Files.newOutputStream(directory.resolve("boards"), StandardOpenOption.APPEND);
+            names.write("Boa".getBytes("UTF-8"));
+            names.close();
+
+            log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            assertEquals(log.getRecoveredBoards().size(), 1);
+            assertFalse(log.contains("Boa"));
+            log.addBoard(new Board("Board2"));
+            log.close();
+            log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+            List<Board> boards = log.getRecoveredBoards();
+            assertEquals(boards.size(), 2);
+            assertEquals(boards.get(1).name, "Board2");
+            log.close();
+        } finally {
+            delete(directory.toFile());
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    protected static void delete(final File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // Runs the Board's keyframe and compaction tasks in the thread that asks for them
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+}
@@ -0,0 +1,68 @@
+package server;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import protocol.KeyframeCodec;
+
+/**
+ * Keyframe represents the image of a Whiteboard after a number of commands
+ * of its history, sent to a client as the text message
+ *      keyframe WHITEBOARD IMAGE
+ * on which the client replaces its canvas with the image. The client is then
+ * only sent the commands made after the Keyframe.
+ *
+ * A Keyframe is encoded once and sent as it is to every client.
+ */
+class Keyframe extends Message {
+    // Size of the clients' Canvas, in pixels
+    protected static final int WIDTH = 800;
+    protected static final int HEIGHT = 600;
+
+    private final int commandCount;
+
+    /**
+     * Makes a Keyframe.
+     *
+     * @param whiteboard represents the name of the Whiteboard
+     * @param image represents the image of the Whiteboard
+     * @param commandCount represents the number of commands of the history
+     *            drawn in the image
+     * @throws IOException if the image cannot be compressed
+     */
+    protected Keyframe(final String whiteboard, final BufferedImage image, final int commandCount) throws IOException {
+        super("keyframe " + whiteboard + " " + KeyframeCodec.encode(image), true);
+        this.commandCount = commandCount;
+    }
+
+    /**
+     * Makes a Keyframe of the same image as another Keyframe, after the
+     * history it was made from was compacted.
+     *
+     * @param keyframe represents the Keyframe whose image is used
+     * @param commandCount represents the number of commands of the compacted
+     *            history drawn in the image
+     */
+    protected Keyframe(final Keyframe keyframe, final int commandCount) {
+        this(keyframe.getText(), commandCount);
+    }
+
+    /**
+     * Makes a Keyframe from its text message, when a Board is read back.
+     *
+     * @param text represents the text message of the Keyframe
+     * @param commandCount represents the number of commands of the history
+     *            drawn in the image
+     */
+    protected Keyframe(final String text, final int commandCount) {
+        super(text, true);
+        this.commandCount = commandCount;
+    }
+
+    /**
+     * Returns the number of commands of the history drawn in the image.
+     */
+    protected int getCommandCount() {
+        return commandCount;
+    }
+}
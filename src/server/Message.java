@@ -0,0 +1,86 @@
+package server;
+
+import java.nio.charset.Charset;
+
+/**
+ * Message represents a text message queued to be sent to one or more clients.
+ * The message is encoded to bytes once, when it is created, and the same
+ * immutable Message is put in the BlockingQueue of every client it is sent
+ * to, so broadcasting it to many clients does not encode it again for each
+ * of them.
+ */
+public class Message {
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final String text;
+    // The text followed by the line separator, in the charset clients read with
+    private final byte[] line;
+    // True for the messages a Resync of the Whiteboard replaces: draw and
+    // erase commands, and the Replays, Resyncs and Keyframes of its history
+    private final boolean ink;
+
+    /**
+     * Makes a Message that a Resync does not replace.
+     *
+     * @param text represents the text message, without a line separator
+     */
+    public Message(final String text) {
+        this(text, false);
+    }
+
+    /**
+     * Makes a Message.
+     *
+     * @param text represents the text message, without a line separator
+     * @param ink represents whether the message is a draw or erase command,
+     *            or holds commands of the history, which a later Resync of
+     *            the Whiteboard holds too
+     */
+    public Message(final String text, final boolean ink) {
+        this.text = text;
+        this.line = encodeLine(text);
+        this.ink = ink;
+    }
+
+    /**
+     * Returns the text message.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the encoded line sent for this Message in the text protocol.
+     * The array is shared by every client and must not be modified.
+     */
+    protected byte[] getLine() {
+        return line;
+    }
+
+    /**
+     * Returns true if a Resync of the Whiteboard replaces the Message: if it
+     * is a draw or erase command, or a Replay, Resync or Keyframe of the
+     * history. A Resync is made from the history once it is queued, so it
+     * holds every command of the messages it replaces, in the client's
+     * current viewport.
+     */
+    public boolean isInk() {
+        return ink;
+    }
+
+    /**
+     * Encodes a text message, followed by the line separator, the way it is
+     * sent in the text protocol.
+     *
+     * @param text represents the text message, without a line separator
+     */
+    protected static byte[] encodeLine(final String text) {
+        return (text + LINE_SEPARATOR).getBytes(CHARSET);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
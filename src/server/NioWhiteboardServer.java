@@ -0,0 +1,482 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Nio Whiteboard Server is a Whiteboard Server that handles its clients with a
+ * small fixed number of event loop threads instead of an input and an output
+ * thread per client. Each event loop owns a Selector and performs the reads,
+ * the calls to handleRequest and the writes of the clients assigned to it.
+ *
+ * The text message protocol is the same as the one used by WhiteboardServer,
+ * so WhiteboardClient can connect to either server.
+ *
+ * An event loop never waits for a Board's lane of the BoardExecutor: when the
+ * lane is full, the client's draw or erase command is held back and the event
+ * loop stops reading the client, until the lane has room again.
+ */
+public class NioWhiteboardServer extends WhiteboardServer {
+    private static final int READ_BUFFER_SIZE = 8192;
+    // Chunks of a Replay written in one go before the other clients get a turn
+    private static final int REPLAY_CHUNKS_PER_WRITE = 8;
+    private final Charset charset = Charset.defaultCharset();
+    private final EventLoop[] eventLoops;
+    // The connection an event loop is handling a line of, if any
+    private final ThreadLocal<Connection> reading = new ThreadLocal<Connection>();
+
+    /**
+     * Creates a Nio Whiteboard Server.
+     *
+     * @param eventLoopCount represents the number of event loop threads,
+     *            must be greater than 0
+     * @throws IOException if a Selector cannot be opened
+     */
+    public NioWhiteboardServer(final int eventLoopCount) throws IOException {
+        this(eventLoopCount, SlowConsumerPolicy.COALESCE, QUEUE_CAPACITY);
+    }
+
+    /**
+     * Creates a Nio Whiteboard Server.
+     *
+     * @param eventLoopCount represents the number of event loop threads,
+     *            must be greater than 0
+     * @param slowConsumerPolicy represents what is done with a client that
+     *            falls maxLag messages behind
+     * @param maxLag represents the number of messages that can wait to be
+     *            sent to a client, must be greater than 0
+     * @throws IOException if a Selector cannot be opened
+     */
+    public NioWhiteboardServer(final int eventLoopCount, final SlowConsumerPolicy slowConsumerPolicy,
+            final int maxLag) throws IOException {
+        super(ThreadMode.PLATFORM, slowConsumerPolicy, maxLag);
+        eventLoops = new EventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) {
+            eventLoops[i] = new EventLoop(i);
+        }
+    }
+
+    /**
+     * Run the Nio Whiteboard Server, accepting client connections and handing
+     * them to the event loops. Never returns unless an exception is thrown.
+     *
+     * @param port represents the listening port of the Whiteboard Server's
+     *            socket
+     * @throws IOException if the main server socket is broken (IOExceptions
+     *             from individual clients do *not* terminate serve())
+     */
+    @Override
+    public void serve(int port) throws IOException {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        for (EventLoop eventLoop : eventLoops) {
+            Thread eventLoopThread = new Thread(eventLoop, "Event Loop " + eventLoop.loopNum);
+            eventLoopThread.start();
+        }
+
+        int accepted = 0;
+        while (true) {
+            // Block until a client connects
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+
+            // Clients are spread over the event loops in the order they connect
+            EventLoop eventLoop = eventLoops[accepted];
+            accepted = (accepted + 1) % eventLoops.length;
+            Connection connection = new Connection(channel, eventLoop);
+            connection.threadNum = addSession(connection.commandsQueue);
+            connection.commandsQueue.threadNum = connection.threadNum;
+            eventLoop.register(connection);
+        }
+    }
+
+    /**
+     * Hands a draw or erase command to the Board's lane without waiting when
+     * called by an event loop, which stops reading the client if the lane is
+     * full.
+     */
+    @Override
+    protected boolean executeOnBoard(final Board board, final Runnable command) {
+        Connection connection = reading.get();
+        if (connection == null) {
+            return super.executeOnBoard(board, command);
+        }
+        return boardExecutor.tryExecute(board, command, connection.resumeReading);
+    }
+
+    /**
+     * Connection holds the state of one client: its channel, its blocking
+     * queue of messages and the partially read and written bytes.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final EventLoop eventLoop;
+        private final ClientQueue commandsQueue;
+        // Set while the connection is waiting in the event loop's pendingWrites
+        private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+        // Messages taken from the commandsQueue and not written yet, in order
+        private final Queue<Message> batch = new ArrayDeque<Message>();
+        // Replay being written a chunk at a time, ahead of the batch
+        private Replay replay = null;
+        private byte[] lineBytes = new byte[256];
+        private int lineLength = 0;
+        // The encoded lines of the batch being written, shared with other clients
+        private ByteBuffer[] pendingOutput = null;
+        private SelectionKey key;
+        private Integer threadNum;
+        // Line held back while its Board's lane is full, and the bytes read after it
+        private String pausedLine = null;
+        private ByteBuffer unread = null;
+        // Run by the Board's lane once it has room for the paused line
+        private final Runnable resumeReading = new Runnable() {
+            public void run() {
+                eventLoop.resume(Connection.this);
+            }
+        };
+
+        private Connection(final SocketChannel channel, final EventLoop eventLoop) {
+            this.channel = channel;
+            this.eventLoop = eventLoop;
+            // Queue that wakes up the event loop each time a message is added
+            this.commandsQueue = new ClientQueue(channel) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public boolean offer(Message message) {
+                    boolean added = super.offer(message);
+                    if (added) {
+                        scheduleWrite();
+                    }
+                    return added;
+                }
+            };
+        }
+
+        /**
+         * Asks the event loop to write the queued messages, unless it has
+         * already been asked to.
+         */
+        private void scheduleWrite() {
+            if (writeScheduled.compareAndSet(false, true)) {
+                eventLoop.pendingWrites.add(this);
+                eventLoop.selector.wakeup();
+            }
+        }
+
+        /**
+         * Appends the byte to the line being read, growing the line if needed.
+         */
+        private void appendToLine(byte b) {
+            if (lineLength == lineBytes.length) {
+                lineBytes = Arrays.copyOf(lineBytes, lineLength * 2);
+            }
+            lineBytes[lineLength++] = b;
+        }
+
+        /**
+         * Returns the line read so far, without its line terminator, and
+         * starts a new line.
+         */
+        private String takeLine() {
+            int length = lineLength;
+            if (length > 0 && lineBytes[length - 1] == '\r') {
+                length--;
+            }
+            lineLength = 0;
+            return new String(lineBytes, 0, length, charset);
+        }
+    }
+
+    /**
+     * EventLoop selects on the channels of its clients, reading and handling
+     * their messages and writing out their blocking queues.
+     */
+    private class EventLoop implements Runnable {
+        private final int loopNum;
+        private final Selector selector;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final Queue<Connection> pendingRegistrations = new ConcurrentLinkedQueue<Connection>();
+        private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+        private final Queue<Connection> pendingResumes = new ConcurrentLinkedQueue<Connection>();
+
+        private EventLoop(final int loopNum) throws IOException {
+            this.loopNum = loopNum;
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Hands a newly accepted connection to this event loop.
+         */
+        private void register(final Connection connection) {
+            pendingRegistrations.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Asks this event loop to handle the paused line of a connection again.
+         */
+        private void resume(final Connection connection) {
+            pendingResumes.add(connection);
+            selector.wakeup();
+        }
+
+        public void run() {
+            System.out.println("Starting Event Loop " + loopNum);
+            try {
+                while (true) {
+                    selector.select();
+                    registerPending();
+                    writePending();
+                    resumePending();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                read(connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(connection);
+                            }
+                        } catch (IOException e) {
+                            System.err.println("Client socket closed for Thread " + connection.threadNum);
+                            close(connection);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                System.out.println("Event Loop " + loopNum + " done running.");
+            }
+        }
+
+        /**
+         * Registers the connections accepted since the last select.
+         */
+        private void registerPending() {
+            Connection connection;
+            while ((connection = pendingRegistrations.poll()) != null) {
+                try {
+                    connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+                    // Messages may have been queued before the registration
+                    write(connection);
+                } catch (IOException e) {
+                    close(connection);
+                }
+            }
+        }
+
+        /**
+         * Writes out the connections whose blocking queues received messages.
+         */
+        private void writePending() {
+            Connection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                connection.writeScheduled.set(false);
+                if (connection.key == null) {
+                    // Not registered yet, written out once it is
+                    continue;
+                }
+                try {
+                    write(connection);
+                } catch (IOException e) {
+                    System.err.println("Client socket closed for Thread " + connection.threadNum);
+                    close(connection);
+                }
+            }
+        }
+
+        /**
+         * Handles the paused lines of the connections whose Board lanes have
+         * room again, then the bytes read after them, and reads the clients
+         * again unless their lanes are full once more.
+         */
+        private void resumePending() {
+            Connection connection;
+            while ((connection = pendingResumes.poll()) != null) {
+                if (connection.pausedLine == null || !connection.key.isValid()) {
+                    continue;
+                }
+                if (!handle(connection, connection.pausedLine)) {
+                    // Still full, resumed again once it has room
+                    continue;
+                }
+                connection.pausedLine = null;
+                ByteBuffer unread = connection.unread;
+                connection.unread = null;
+                handleLines(connection, unread);
+                if (connection.pausedLine == null && connection.key.isValid()) {
+                    connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        /**
+         * Reads the available bytes from the client and handles every
+         * complete line.
+         */
+        private void read(final Connection connection) throws IOException {
+            readBuffer.clear();
+            int count = connection.channel.read(readBuffer);
+            if (count < 0) {
+                System.err.println("Input: Client socket closed for Thread " + connection.threadNum);
+                close(connection);
+                return;
+            }
+            readBuffer.flip();
+            handleLines(connection, readBuffer);
+        }
+
+        /**
+         * Handles every complete line of the input. Stops at a line whose
+         * Board lane is full, keeping the rest of the input, and stops reading
+         * the client until the lane has room.
+         */
+        private void handleLines(final Connection connection, final ByteBuffer input) {
+            while (input.hasRemaining()) {
+                byte b = input.get();
+                if (b != '\n') {
+                    connection.appendToLine(b);
+                    continue;
+                }
+                String line = connection.takeLine();
+                if (isDisconnect(line)) { // If the server receives the disconnect message
+                    handleDisconnect(line, connection.threadNum);
+                    close(connection);
+                    return;
+                }
+                if (!handle(connection, line)) {
+                    connection.pausedLine = line;
+                    connection.unread = ByteBuffer.allocate(input.remaining());
+                    connection.unread.put(input).flip();
+                    connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Handles a line of the client without waiting for its Board's lane.
+         *
+         * @return false if the line was not handled because the lane is full
+         */
+        private boolean handle(final Connection connection, final String line) {
+            reading.set(connection);
+            try {
+                return handleRequest(line, connection.threadNum);
+            } finally {
+                reading.remove();
+            }
+        }
+
+        /**
+         * Writes as much of the client's blocking queue as the socket accepts
+         * without blocking, and waits for the socket to become writable if
+         * some of it is left. A Replay is encoded a chunk at a time, and after
+         * REPLAY_CHUNKS_PER_WRITE chunks the rest of it waits for the next
+         * select, so the other clients of the event loop are not held up.
+         */
+        private void write(final Connection connection) throws IOException {
+            if (!connection.channel.isOpen()) {
+                return;
+            }
+            int replayChunks = 0;
+            while (true) {
+                if (connection.pendingOutput == null) {
+                    List<ByteBuffer> lines = new ArrayList<ByteBuffer>();
+                    if (connection.replay != null) {
+                        if (connection.commandsQueue.isResyncPending()) {
+                            // A Resync will replace the rest of it
+                            connection.replay = null;
+                            continue;
+                        }
+                        if (replayChunks == REPLAY_CHUNKS_PER_WRITE) {
+                            break;
+                        }
+                        connection.replay.nextLines(lines, Replay.CHUNK_SIZE);
+                        replayChunks++;
+                        if (!connection.replay.hasNext()) {
+                            connection.replay = null;
+                        }
+                    } else {
+                        if (connection.batch.isEmpty()) {
+                            connection.commandsQueue.resyncIfPending();
+                            connection.commandsQueue.drainTo(connection.batch);
+                        }
+                        if (connection.batch.isEmpty()) {
+                            break;
+                        }
+                        // Wraps the lines already encoded by each Message, without
+                        // copying them, up to the next Replay
+                        while (!connection.batch.isEmpty() && connection.replay == null) {
+                            Message output = connection.batch.poll();
+                            if (output instanceof Replay) {
+                                connection.replay = (Replay) output;
+                            } else if (output != OUTPUT_WAKE_UP) {
+                                lines.add(ByteBuffer.wrap(output.getLine()));
+                            }
+                        }
+                    }
+                    if (lines.isEmpty()) {
+                        continue;
+                    }
+                    connection.pendingOutput = lines.toArray(new ByteBuffer[lines.size()]);
+                }
+                connection.channel.write(connection.pendingOutput);
+                if (connection.pendingOutput[connection.pendingOutput.length - 1].hasRemaining()) {
+                    break;
+                }
+                connection.pendingOutput = null;
+            }
+            int interestOps = connection.pausedLine == null ? SelectionKey.OP_READ : 0;
+            if (connection.pendingOutput != null || connection.replay != null) {
+                interestOps |= SelectionKey.OP_WRITE;
+            }
+            connection.key.interestOps(interestOps);
+        }
+
+        /**
+         * Closes the client's channel and stops writing to it.
+         */
+        private void close(final Connection connection) {
+            if (connection.key != null) {
+                connection.key.cancel();
+            }
+            try {
+                connection.channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (connection.threadNum != null) {
+                // Also removes the client if it did not send the disconnect message
+                removeSession(connection.threadNum);
+            }
+        }
+    }
+
+    /**
+     * Returns the default number of event loops, one per available processor.
+     */
+    protected static int defaultEventLoopCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,127 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * NioWhiteboardServer Benchmark measures the Nio Whiteboard Server against
+ * the Whiteboard Server's input and output thread per client, with clients
+ * connected over loopback sockets speaking the text message protocol. Like
+ * every *Benchmark class it is run on its own, not with the unit tests, and
+ * prints what it measures.
+ */
+public class NioWhiteboardServerBenchmark {
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /**
+     * Benchmark of 600 clients connected over loopback, 20 on each of 30
+     * Whiteboards, to a Whiteboard Server running a thread per client and to
+     * a Nio Whiteboard Server: the threads, heap and resident memory the
+     * connections add, and the 99th percentile of the time from a draw
+     * command sent by a client until it reads it back, the command being sent
+     * to the 19 other clients of its Whiteboard too. The clients run in the
+     * same process as the server, so their sockets are counted in the memory
+     * of both servers alike. Printed rather than asserted, as it depends on
+     * the machine.
+     */
+    @Test
+    public void loopbackBenchmark() throws IOException, InterruptedException {
+        StringBuilder report = new StringBuilder();
+        report.append(measure(new WhiteboardServer(), "thread per client", 600, 30, 3000));
+        report.append("; ").append(
+                measure(new NioWhiteboardServer(NioWhiteboardServer.defaultEventLoopCount()), "nio", 600, 30, 3000));
+        System.out.println("loopback clients, " + report);
+    }
+
+    /**
+     * Connects clients to a server, draws on each of its Whiteboards in turn,
+     * disconnects them and returns a report of what they cost.
+     */
+    private static String measure(final WhiteboardServer server, String name, int clients, int boards, int draws)
+            throws IOException, InterruptedException {
+        for (int b = 0; b < boards; b++) {
+            server.boards.put("Bench" + b, new Board("Bench" + b));
+        }
+        long heapBefore = usedHeap();
+        long residentBefore = residentBytes();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        int port = NioWhiteboardServerTest.serve(server);
+
+        List<Socket> sockets = NioWhiteboardServerTest.connect(port, clients, boards);
+        long heap = usedHeap() - heapBefore;
+        long resident = residentBytes() - residentBefore;
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+
+        // The first client of each Whiteboard draws on it and reads its draws back
+        BufferedReader[] readers = new BufferedReader[boards];
+        for (int b = 0; b < boards; b++) {
+            readers[b] = new BufferedReader(new InputStreamReader(sockets.get(b).getInputStream(), CHARSET));
+        }
+        long[] latencies = new long[draws];
+        for (int i = 0; i < draws; i++) {
+            int b = i % boards;
+            String command = "Bench" + b + " draw " + (i % 800) + " 300 " + (i % 800 + 3) + " 302 5 0 0 0";
+            long startTime = System.nanoTime();
+            write(sockets.get(b), command + "\n");
+            String line;
+            while (!command.equals(line = readers[b].readLine())) {
+                assertNotNull(line);
+            }
+            latencies[i] = System.nanoTime() - startTime;
+        }
+        Arrays.sort(latencies);
+
+        NioWhiteboardServerTest.disconnect(server, sockets);
+        return name + ": " + sockets.size() + " connections, " + threads + " threads, " + heap / 1024 / clients
+                + "KB heap and " + (resident < 0 ? "?" : resident / 1024 / clients + "KB") + " resident per client, "
+                + "draw latency p50 " + latencies[draws / 2] / 1000 + "us p99 " + latencies[draws * 99 / 100] / 1000
+                + "us";
+    }
+
+    /**
+     * Returns the bytes of heap in use once garbage has been collected.
+     */
+    protected static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Returns the resident memory of the process in bytes, or -1 where it is
+     * not found in /proc/self/status.
+     */
+    protected static long residentBytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), CHARSET)) {
+                if (line.startsWith("VmRSS:")) {
+                    return 1024 * Long.parseLong(line.substring(6).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private static void write(Socket socket, String lines) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(lines.getBytes(CHARSET));
+        out.flush();
+    }
+}
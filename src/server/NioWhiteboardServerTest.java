@@ -0,0 +1,170 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * NioWhiteboardServer Test checks the Nio Whiteboard Server with clients
+ * connected over loopback sockets speaking the text message protocol.
+ */
+public class NioWhiteboardServerTest {
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /**
+     * A client drawing while its Board's lane is full is no longer read, and
+     * its event loop keeps serving the other clients; once the lane has room
+     * every draw command of the client is run.
+     */
+    @Test(timeout = 120000)
+    public void fullLaneDoesNotBlockEventLoop() throws IOException, InterruptedException {
+        NioWhiteboardServer server = new NioWhiteboardServer(1);
+        final Board board = new Board("Bench0");
+        server.boards.put("Bench0", board);
+        int port = serve(server);
+        List<Socket> sockets = connect(port, 1, 1);
+
+        // The lane is held on its first command and filled up with others
+        final CountDownLatch gate = new CountDownLatch(1);
+        server.boardExecutor.execute(board, new Runnable() {
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Runnable nothing = new Runnable() {
+            public void run() {
+            }
+        };
+        while (server.boardExecutor.tryExecute(board, nothing, nothing)) {
+            // Until the lane is full
+        }
+        int draws = 1000;
+        StringBuilder commands = new StringBuilder();
+        for (int i = 0; i < draws; i++) {
+            commands.append("Bench0 draw ").append(i).append(" 0 ").append(i).append(" 1 5 0 0 0\n");
+        }
+        write(sockets.get(0), commands.toString());
+        // Until the event loop has read them
+        Thread.sleep(200);
+
+        // A client connecting meanwhile is answered by the same event loop
+        Socket late = new Socket("localhost", port);
+        late.setSoTimeout(10000);
+        sockets.add(late);
+        write(late, "new username late\n");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(late.getInputStream(), CHARSET));
+        String line;
+        while (!"Done sending whiteboard names".equals(line = reader.readLine())) {
+            assertNotNull(line);
+        }
+        assertEquals(board.historySize(), 0);
+
+        // The client reads its last draw back once the lane has run them all
+        gate.countDown();
+        Socket drawing = sockets.get(0);
+        drawing.setSoTimeout(60000);
+        reader = new BufferedReader(new InputStreamReader(drawing.getInputStream(), CHARSET));
+        String last = "Bench0 draw " + (draws - 1) + " 0 " + (draws - 1) + " 1 5 0 0 0";
+        while (!last.equals(line = reader.readLine())) {
+            assertNotNull(line);
+        }
+        server.boardExecutor.await();
+        assertEquals(board.historySize(), draws);
+        disconnect(server, sockets);
+    }
+
+    /**
+     * Runs the server on a free port, on daemon threads, and returns the port.
+     */
+    protected static int serve(final WhiteboardServer server) throws IOException {
+        ServerSocket probe = new ServerSocket(0);
+        final int port = probe.getLocalPort();
+        probe.close();
+        // The threads of the clients and event loops are daemons like it
+        Thread serverThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.serve(port);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "Server on port " + port);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        return port;
+    }
+
+    /**
+     * Connects clients to the server on the port, each picking a username and
+     * a Whiteboard "Bench" + (client % boards), and waits until each of them
+     * is told it is on its Whiteboard.
+     */
+    protected static List<Socket> connect(int port, int clients, int boards)
+            throws IOException, InterruptedException {
+        List<Socket> sockets = new ArrayList<Socket>();
+        for (int i = 0; i < clients; i++) {
+            Socket socket = null;
+            // Until the server is listening
+            for (int attempt = 0; socket == null; attempt++) {
+                try {
+                    socket = new Socket("localhost", port);
+                } catch (ConnectException e) {
+                    if (attempt == 100) {
+                        throw e;
+                    }
+                    Thread.sleep(50);
+                }
+            }
+            write(socket, "new username user" + i + "\nuser" + i + " selectBoard Bench" + (i % boards) + "\n");
+            sockets.add(socket);
+        }
+        for (int i = 0; i < clients; i++) {
+            Socket socket = sockets.get(i);
+            socket.setSoTimeout(60000);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), CHARSET));
+            String joined = "user" + i + " on board Bench" + (i % boards);
+            String line;
+            while (!joined.equals(line = reader.readLine())) {
+                assertNotNull(line);
+            }
+        }
+        return sockets;
+    }
+
+    /**
+     * Closes the sockets and waits until the server has closed their Sessions.
+     */
+    protected static void disconnect(WhiteboardServer server, List<Socket> sockets)
+            throws IOException, InterruptedException {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        // Removed by the server once it sees the sockets closed
+        while (!server.sessions.isEmpty()) {
+            Thread.sleep(20);
+        }
+    }
+
+    private static void write(Socket socket, String lines) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(lines.getBytes(CHARSET));
+        out.flush();
+    }
+}
@@ -0,0 +1,180 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import protocol.BinaryFrameWriter;
+
+/**
+ * Replay represents the history of a Whiteboard queued to a client that
+ * joined it: the Whiteboard's latest Keyframe, if any, followed by every
+ * command made after it, up to the cutover, the size of the history when the
+ * client was subscribed. Every command made after the cutover is queued
+ * behind the Replay, so the client receives each command exactly once and in
+ * order.
+ *
+ * The Replay holds a snapshot sharing the arrays of the Whiteboard's
+ * StrokeHistory and takes a single place in the client's BlockingQueue. It is
+ * a cursor: the client's output writes it CHUNK_SIZE lines at a time, as the
+ * client's socket accepts them, so a long history is never encoded all at
+ * once. A Replay is queued to a single client and is only used by its
+ * output.
+ */
+class Replay extends Message {
+    protected static final int CHUNK_SIZE = 512;
+
+    private final String whiteboard;
+    private final Keyframe keyframe;
+    private final StrokeHistory history;
+    // Position in the history of the first command sent
+    private final int from;
+    // Number of lines before the commands: the header line, then the Keyframe
+    private final int headerLines;
+    private final int keyframeLines;
+    // Position of the next line written, among every line of the Replay
+    private int next = 0;
+
+    /**
+     * Makes a Replay of the Whiteboard.
+     *
+     * @param whiteboard represents the name of the Whiteboard
+     * @param keyframe represents the latest Keyframe of the Whiteboard, or null
+     * @param history represents a snapshot of the Whiteboard's history of
+     *            commands, taken at the cutover
+     */
+    protected Replay(final String whiteboard, final Keyframe keyframe, final StrokeHistory history) {
+        this("replay " + whiteboard, false, whiteboard, keyframe, history);
+    }
+
+    /**
+     * Makes a Replay of the Whiteboard.
+     *
+     * @param text represents the text message of the Replay
+     * @param header represents whether the text message is sent to the client
+     *            before the Keyframe
+     * @param whiteboard represents the name of the Whiteboard
+     * @param keyframe represents the latest Keyframe of the Whiteboard, or null
+     * @param history represents a snapshot of the Whiteboard's history of
+     *            commands, taken at the cutover
+     */
+    protected Replay(final String text, final boolean header, final String whiteboard, final Keyframe keyframe,
+            final StrokeHistory history) {
+        // Replaced by a Resync queued after it, which holds its commands too
+        super(text, true);
+        this.whiteboard = whiteboard;
+        this.keyframe = keyframe;
+        this.history = history;
+        this.from = keyframe == null ? 0 : keyframe.getCommandCount();
+        this.headerLines = header ? 1 : 0;
+        this.keyframeLines = keyframe == null ? 0 : 1;
+    }
+
+    /**
+     * Returns the name of the Whiteboard.
+     */
+    protected String getWhiteboard() {
+        return whiteboard;
+    }
+
+    /**
+     * Returns the Keyframe sent before the commands, or null if the
+     * Whiteboard had no Keyframe.
+     */
+    protected Keyframe getKeyframe() {
+        return keyframe;
+    }
+
+    /**
+     * Returns the number of commands of the snapshot made after the Keyframe.
+     */
+    protected int getCommandCount() {
+        return history.size() - from;
+    }
+
+    /**
+     * Returns the text message of a command of the snapshot.
+     *
+     * @param index represents the position of the command among the commands
+     *            made after the Keyframe
+     */
+    protected String getCommand(final int index) {
+        return history.toLine(whiteboard, from + index);
+    }
+
+    /**
+     * Writes a command of the snapshot as a binary frame.
+     *
+     * @param out represents the writer of the client's binary frames
+     * @param index represents the position of the command among the commands
+     *            made after the Keyframe
+     * @throws IOException if the connection has an error
+     */
+    protected void writeCommand(final BinaryFrameWriter out, final int index) throws IOException {
+        history.writeTo(out, whiteboard, from + index);
+    }
+
+    /**
+     * Returns true if some lines of the Replay have not been written yet.
+     */
+    protected boolean hasNext() {
+        return next < headerLines + keyframeLines + getCommandCount();
+    }
+
+    /**
+     * Adds the encoded text lines of the next lines of the Replay to a list.
+     *
+     * @param lines represents the list the lines are added to
+     * @param max represents the largest number of lines added
+     */
+    protected void nextLines(final List<ByteBuffer> lines, final int max) {
+        for (int i = 0; i < max && hasNext(); i++, next++) {
+            if (next < headerLines) {
+                lines.add(ByteBuffer.wrap(getLine()));
+            } else if (next < headerLines + keyframeLines) {
+                lines.add(ByteBuffer.wrap(keyframe.getLine()));
+            } else {
+                lines.add(ByteBuffer.wrap(encodeLine(getCommand(next - headerLines - keyframeLines))));
+            }
+        }
+    }
+
+    /**
+     * Writes the next lines of the Replay as text lines.
+     *
+     * @param out represents the client's output stream
+     * @param max represents the largest number of lines written
+     * @throws IOException if the connection has an error
+     */
+    protected void writeNext(final OutputStream out, final int max) throws IOException {
+        for (int i = 0; i < max && hasNext(); i++, next++) {
+            if (next < headerLines) {
+                out.write(getLine());
+            } else if (next < headerLines + keyframeLines) {
+                out.write(keyframe.getLine());
+            } else {
+                out.write(encodeLine(getCommand(next - headerLines - keyframeLines)));
+            }
+        }
+    }
+
+    /**
+     * Writes the next lines of the Replay as binary frames.
+     *
+     * @param out represents the writer of the client's binary frames
+     * @param max represents the largest number of lines written
+     * @throws IOException if the connection has an error
+     */
+    protected void writeNext(final BinaryFrameWriter out, final int max) throws IOException {
+        for (int i = 0; i < max && hasNext(); i++, next++) {
+            if (next < headerLines) {
+                out.writeLine(getText());
+            } else if (next < headerLines + keyframeLines) {
+                out.writeText(keyframe.getText());
+            } else {
+                writeCommand(out, next - headerLines - keyframeLines);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import protocol.LineScanner;
+
+/**
+ * Request represents one parsed text message sent by a client to the
+ * Whiteboard Server.
+ *
+ * The messages are:
+ *      new username NAME
+ *      addBoard WHITEBOARD
+ *      Disconnect NAME
+ *      NAME selectBoard WHITEBOARD
+ *      WHITEBOARD draw X1 Y1 X2 Y2 STROKESIZE RED GREEN BLUE
+ *      WHITEBOARD erase X1 Y1 X2 Y2 STROKESIZE
+ *      WHITEBOARD viewport X Y WIDTH HEIGHT
+ * RED, GREEN and BLUE are between 0 and 255, WIDTH and HEIGHT are positive.
+ * NAME and WHITEBOARD do not contain an '='.
+ */
+class Request {
+    /**
+     * Type represents the kind of a Request.
+     */
+    enum Type {
+        NEW_USERNAME, ADD_BOARD, DISCONNECT, SELECT_BOARD, DRAW, ERASE, VIEWPORT
+    }
+
+    // Types of the messages that are identified by their second token
+    private static final Map<String, Type> SECOND_TOKEN_TYPES = new HashMap<String, Type>();
+    static {
+        SECOND_TOKEN_TYPES.put("selectBoard", Type.SELECT_BOARD);
+        SECOND_TOKEN_TYPES.put("draw", Type.DRAW);
+        SECOND_TOKEN_TYPES.put("erase", Type.ERASE);
+        SECOND_TOKEN_TYPES.put("viewport", Type.VIEWPORT);
+    }
+
+    protected Type type;
+    // The client's name for NEW_USERNAME, DISCONNECT and SELECT_BOARD
+    protected String client;
+    // The Whiteboard's name for ADD_BOARD, SELECT_BOARD, DRAW, ERASE and VIEWPORT
+    protected String whiteboard;
+    // The upper-left corner of the viewport for VIEWPORT
+    protected int x1;
+    protected int y1;
+    protected int x2;
+    protected int y2;
+    protected int strokeSize;
+    protected int red;
+    protected int green;
+    protected int blue;
+    // The size of the viewport for VIEWPORT
+    protected int width;
+    protected int height;
+
+    /**
+     * Parses a text message from a client.
+     *
+     * @param input represents the text message from the client
+     * @return the parsed Request, or null if the message is not part of the
+     *         protocol
+     */
+    protected static Request parse(final String input) {
+        LineScanner scanner = new LineScanner(input);
+        Request request = new Request();
+        try {
+            String first = scanner.nextName();
+            if (first.equals("new") && scanner.nextIs("username")) {
+                request.type = Type.NEW_USERNAME;
+                request.client = scanner.nextName();
+                return request;
+            }
+            String second = scanner.nextName();
+            if (first.equals("addBoard")) {
+                request.type = Type.ADD_BOARD;
+                request.whiteboard = second;
+                return request;
+            }
+            if (first.equals("Disconnect")) {
+                request.type = Type.DISCONNECT;
+                request.client = second;
+                return request;
+            }
+            request.type = SECOND_TOKEN_TYPES.get(second);
+            if (request.type == null) {
+                return null;
+            }
+            switch (request.type) {
+            case SELECT_BOARD:
+                request.client = first;
+                request.whiteboard = scanner.nextName();
+                return request;
+            case DRAW:
+                request.whiteboard = first;
+                request.parseSegment(scanner);
+                request.red = scanner.nextInt();
+                request.green = scanner.nextInt();
+                request.blue = scanner.nextInt();
+                if (!isColorValue(request.red) || !isColorValue(request.green) || !isColorValue(request.blue)) {
+                    return null;
+                }
+                return scanner.hasNext() ? null : request;
+            case ERASE:
+                request.whiteboard = first;
+                request.parseSegment(scanner);
+                return scanner.hasNext() ? null : request;
+            case VIEWPORT:
+                request.whiteboard = first;
+                request.x1 = scanner.nextInt();
+                request.y1 = scanner.nextInt();
+                request.width = scanner.nextInt();
+                request.height = scanner.nextInt();
+                if (request.width <= 0 || request.height <= 0) {
+                    return null;
+                }
+                return scanner.hasNext() ? null : request;
+            default:
+                return null;
+            }
+        } catch (NoSuchElementException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the value fits in a color byte.
+     */
+    private static boolean isColorValue(final int value) {
+        return value >= 0 && value <= 255;
+    }
+
+    /**
+     * Parses the coordinates and stroke size of a draw or erase message.
+     */
+    private void parseSegment(final LineScanner scanner) {
+        x1 = scanner.nextInt();
+        y1 = scanner.nextInt();
+        x2 = scanner.nextInt();
+        y2 = scanner.nextInt();
+        strokeSize = scanner.nextInt();
+    }
+}
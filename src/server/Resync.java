@@ -0,0 +1,26 @@
+package server;
+
+/**
+ * Resync represents a snapshot of a Whiteboard's history of commands queued
+ * to a client whose draw and erase commands were dropped or coalesced. The
+ * client is sent the text message "resync WHITEBOARD", on which it clears its
+ * canvas, followed by the Whiteboard's latest Keyframe, if any, and every
+ * command of the snapshot made after it.
+ *
+ * Like every Replay, a Resync takes a single place in the client's
+ * BlockingQueue however long the history is, and is written a chunk at a
+ * time.
+ */
+class Resync extends Replay {
+    /**
+     * Makes a Resync of the Whiteboard.
+     *
+     * @param whiteboard represents the name of the Whiteboard
+     * @param keyframe represents the latest Keyframe of the Whiteboard, or null
+     * @param history represents a snapshot of the Whiteboard's history of
+     *            commands
+     */
+    protected Resync(final String whiteboard, final Keyframe keyframe, final StrokeHistory history) {
+        super("resync " + whiteboard, true, whiteboard, keyframe, history);
+    }
+}
@@ -0,0 +1,81 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server Metrics counts what the Whiteboard Server does to its slow clients,
+ * and the Whiteboards its BoardExecutor moves between lanes. The counters
+ * are only ever incremented and can be read from any thread.
+ */
+public class ServerMetrics {
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final AtomicLong coalescedMessages = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+    private final AtomicLong slowConsumerDisconnects = new AtomicLong();
+    private final AtomicLong boardMoves = new AtomicLong();
+
+    /**
+     * Returns the number of messages dropped because a client's BlockingQueue
+     * was full.
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Returns the number of queued draw and erase commands replaced by a
+     * Resync.
+     */
+    public long getCoalescedMessages() {
+        return coalescedMessages.get();
+    }
+
+    /**
+     * Returns the number of Resyncs queued to slow clients.
+     */
+    public long getResyncs() {
+        return resyncs.get();
+    }
+
+    /**
+     * Returns the number of clients disconnected for being too slow.
+     */
+    public long getSlowConsumerDisconnects() {
+        return slowConsumerDisconnects.get();
+    }
+
+    /**
+     * Returns the number of Whiteboards moved to another lane of the
+     * BoardExecutor by its rebalancer.
+     */
+    public long getBoardMoves() {
+        return boardMoves.get();
+    }
+
+    protected void messageDropped() {
+        droppedMessages.incrementAndGet();
+    }
+
+    protected void messagesCoalesced(final int count) {
+        coalescedMessages.addAndGet(count);
+    }
+
+    protected void resyncQueued() {
+        resyncs.incrementAndGet();
+    }
+
+    protected void slowConsumerDisconnected() {
+        slowConsumerDisconnects.incrementAndGet();
+    }
+
+    protected void boardMoved() {
+        boardMoves.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "dropped " + getDroppedMessages() + ", coalesced " + getCoalescedMessages() + ", resyncs "
+                + getResyncs() + ", slow consumer disconnects " + getSlowConsumerDisconnects() + ", board moves "
+                + getBoardMoves();
+    }
+}
@@ -0,0 +1,200 @@
+package server;
+
+import java.nio.file.Path;
+
+/**
+ * Server Options holds how runWhiteboardServer sets up a Whiteboard Server.
+ * Each option starts at its default and is changed by a setter, which returns
+ * the Server Options so that they can be chained, and which throws an
+ * IllegalArgumentException for a value out of range.
+ */
+public class ServerOptions {
+    private int port = 4444;
+    private boolean nonBlocking = false;
+    private ThreadMode threadMode = ThreadMode.PLATFORM;
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.COALESCE;
+    private int maxLag = WhiteboardServer.QUEUE_CAPACITY;
+    private Path logDirectory = null;
+    private long boardMemory = -1;
+    private long idleMillis = 10 * 60 * 1000;
+    private boolean rebalanceBoards = false;
+
+    /**
+     * Sets the port the server listens on, 4444 by default.
+     *
+     * @param port represents the port, in the range 0 to 65535 inclusive
+     */
+    public ServerOptions setPort(final int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("port " + port + " out of range");
+        }
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * Sets whether the clients are handled by a NioWhiteboardServer instead
+     * of a thread per client, false by default.
+     *
+     * @param nonBlocking represents whether a NioWhiteboardServer is run
+     */
+    public ServerOptions setNonBlocking(final boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+        return this;
+    }
+
+    /**
+     * Sets the kind of thread the input and output of each client run on,
+     * when they are not handled by a NioWhiteboardServer, platform threads by
+     * default.
+     *
+     * @param threadMode represents the kind of thread
+     */
+    public ServerOptions setThreadMode(final ThreadMode threadMode) {
+        if (threadMode == null) {
+            throw new IllegalArgumentException("no thread mode");
+        }
+        this.threadMode = threadMode;
+        return this;
+    }
+
+    /**
+     * Sets what is done with a client that falls maxLag messages behind,
+     * coalesced by default.
+     *
+     * @param slowConsumerPolicy represents the policy
+     */
+    public ServerOptions setSlowConsumerPolicy(final SlowConsumerPolicy slowConsumerPolicy) {
+        if (slowConsumerPolicy == null) {
+            throw new IllegalArgumentException("no slow consumer policy");
+        }
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        return this;
+    }
+
+    /**
+     * Sets the number of messages that can wait to be sent to a client,
+     * QUEUE_CAPACITY by default.
+     *
+     * @param maxLag represents the number of messages, greater than 0
+     */
+    public ServerOptions setMaxLag(final int maxLag) {
+        if (maxLag < 1) {
+            throw new IllegalArgumentException("max lag " + maxLag + " out of range");
+        }
+        this.maxLag = maxLag;
+        return this;
+    }
+
+    /**
+     * Sets the directory of the HistoryLog, by default null to keep the
+     * Whiteboards only in memory.
+     *
+     * @param logDirectory represents the directory, or null
+     */
+    public ServerOptions setLogDirectory(final Path logDirectory) {
+        this.logDirectory = logDirectory;
+        return this;
+    }
+
+    /**
+     * Sets the heap the Whiteboards may use before idle ones are evicted to
+     * disk, by default -1 to never evict them.
+     *
+     * @param boardMemory represents the heap in bytes, or -1
+     */
+    public ServerOptions setBoardMemory(final long boardMemory) {
+        if (boardMemory < -1) {
+            throw new IllegalArgumentException("board memory " + boardMemory + " out of range");
+        }
+        this.boardMemory = boardMemory;
+        return this;
+    }
+
+    /**
+     * Sets the heap the Whiteboards may use before idle ones are evicted to
+     * disk, as given on the command line.
+     *
+     * @param megabytes represents the heap in megabytes, not negative
+     */
+    public ServerOptions setBoardMemoryMegabytes(final long megabytes) {
+        if (megabytes < 0 || megabytes > Long.MAX_VALUE / (1024L * 1024L)) {
+            throw new IllegalArgumentException("board memory " + megabytes + " out of range");
+        }
+        return setBoardMemory(megabytes * 1024L * 1024L);
+    }
+
+    /**
+     * Sets the time a Whiteboard must have had no client before it can be
+     * evicted, 10 minutes by default.
+     *
+     * @param idleMillis represents the time in milliseconds, not negative
+     */
+    public ServerOptions setIdleMillis(final long idleMillis) {
+        if (idleMillis < 0) {
+            throw new IllegalArgumentException("idle time " + idleMillis + " out of range");
+        }
+        this.idleMillis = idleMillis;
+        return this;
+    }
+
+    /**
+     * Sets the time a Whiteboard must have had no client before it can be
+     * evicted, as given on the command line.
+     *
+     * @param minutes represents the time in minutes, not negative
+     */
+    public ServerOptions setIdleMinutes(final long minutes) {
+        if (minutes < 0 || minutes > Long.MAX_VALUE / (60L * 1000L)) {
+            throw new IllegalArgumentException("idle minutes " + minutes + " out of range");
+        }
+        return setIdleMillis(minutes * 60L * 1000L);
+    }
+
+    /**
+     * Sets whether busy Whiteboards are moved between the lanes of the
+     * BoardExecutor to even them out, false by default.
+     *
+     * @param rebalanceBoards represents whether they are moved
+     */
+    public ServerOptions setRebalanceBoards(final boolean rebalanceBoards) {
+        this.rebalanceBoards = rebalanceBoards;
+        return this;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isNonBlocking() {
+        return nonBlocking;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    public int getMaxLag() {
+        return maxLag;
+    }
+
+    public Path getLogDirectory() {
+        return logDirectory;
+    }
+
+    public long getBoardMemory() {
+        return boardMemory;
+    }
+
+    public long getIdleMillis() {
+        return idleMillis;
+    }
+
+    public boolean isRebalanceBoards() {
+        return rebalanceBoards;
+    }
+}
@@ -0,0 +1,98 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+/**
+ * ServerOptions Test runs the JUnit tests for the Server Options class.
+ */
+public class ServerOptionsTest {
+    /**
+     * TESTING the setters and getters
+     *
+     * Partition the input space as follows:
+     * Options:     left at their defaults, set and chained, out of range
+     */
+    @Test
+    public void defaults() {
+        ServerOptions options = new ServerOptions();
+        assertEquals(options.getPort(), 4444);
+        assertEquals(options.isNonBlocking(), false);
+        assertEquals(options.getThreadMode(), ThreadMode.PLATFORM);
+        assertEquals(options.getSlowConsumerPolicy(), SlowConsumerPolicy.COALESCE);
+        assertEquals(options.getMaxLag(), WhiteboardServer.QUEUE_CAPACITY);
+        assertNull(options.getLogDirectory());
+        assertEquals(options.getBoardMemory(), -1);
+        assertEquals(options.getIdleMillis(), 10 * 60 * 1000);
+        assertEquals(options.isRebalanceBoards(), false);
+    }
+
+    @Test
+    public void chained() {
+        ServerOptions options = new ServerOptions().setPort(1234).setNonBlocking(true)
+                .setSlowConsumerPolicy(SlowConsumerPolicy.DROP).setMaxLag(500).setLogDirectory(Paths.get("logs"))
+                .setBoardMemory(1024).setIdleMillis(0).setRebalanceBoards(true);
+        assertEquals(options.getPort(), 1234);
+        assertEquals(options.isNonBlocking(), true);
+        assertEquals(options.getSlowConsumerPolicy(), SlowConsumerPolicy.DROP);
+        assertEquals(options.getMaxLag(), 500);
+        assertEquals(options.getLogDirectory(), Paths.get("logs"));
+        assertEquals(options.getBoardMemory(), 1024);
+        assertEquals(options.getIdleMillis(), 0);
+        assertEquals(options.isRebalanceBoards(), true);
+
+        // As given on the command line, converted without overflowing an int
+        options.setBoardMemoryMegabytes(4096).setIdleMinutes(60 * 24 * 30);
+        assertEquals(options.getBoardMemory(), 4096L * 1024 * 1024);
+        assertEquals(options.getIdleMillis(), 30L * 24 * 60 * 60 * 1000);
+    }
+
+    @Test
+    public void outOfRange() {
+        ServerOptions options = new ServerOptions();
+        try {
+            options.setPort(65536);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            options.setMaxLag(0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            options.setThreadMode(null);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            options.setBoardMemoryMegabytes(-1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            options.setBoardMemoryMegabytes(Long.MAX_VALUE / 1024);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            options.setIdleMinutes(-1);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            options.setIdleMinutes(Long.MAX_VALUE / 1000);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        // Left as they were
+        assertEquals(options.getPort(), 4444);
+        assertEquals(options.getMaxLag(), WhiteboardServer.QUEUE_CAPACITY);
+        assertEquals(options.getThreadMode(), ThreadMode.PLATFORM);
+        assertEquals(options.getBoardMemory(), -1);
+        assertEquals(options.getIdleMillis(), 10 * 60 * 1000);
+    }
+}
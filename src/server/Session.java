@@ -0,0 +1,31 @@
+package server;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Session represents one connection of a client to the Whiteboard Server,
+ * from the moment it is accepted until it is closed. Sessions are kept in the
+ * server's registry under their id, which is never reused, and are removed
+ * from it as soon as the connection closes, whether or not the client sent
+ * the disconnect message.
+ */
+class Session {
+    protected final Integer id;
+    // Messages waiting to be sent to the client
+    protected final BlockingQueue<Message> commandsQueue;
+    // Cleared to make the client's output finish
+    protected volatile boolean outputActive = true;
+    // The client's username, null until the client has picked one
+    protected volatile String client = null;
+
+    /**
+     * Makes a Session.
+     *
+     * @param id represents the id of the Session in the server's registry
+     * @param commandsQueue represents the client's blockingQueue
+     */
+    protected Session(final Integer id, final BlockingQueue<Message> commandsQueue) {
+        this.id = id;
+        this.commandsQueue = commandsQueue;
+    }
+}
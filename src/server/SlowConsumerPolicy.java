@@ -0,0 +1,44 @@
+package server;
+
+/**
+ * Slow Consumer Policy represents what the Whiteboard Server does with a
+ * client that reads its messages more slowly than they are sent, once the
+ * client's BlockingQueue holds the maximum lag of messages.
+ */
+public enum SlowConsumerPolicy {
+    /**
+     * Removes the draw and erase commands waiting in the client's
+     * BlockingQueue, and sends the client a single Resync of its Whiteboard
+     * instead when its output next takes messages from the queue.
+     */
+    COALESCE,
+
+    /**
+     * Disconnects the client from the server.
+     */
+    DISCONNECT,
+
+    /**
+     * Drops the messages that do not fit in the client's BlockingQueue, and
+     * sends the client a Resync of its Whiteboard, in place of the draw and
+     * erase commands still waiting in the queue, when its output next takes
+     * messages from the queue.
+     */
+    DROP;
+
+    /**
+     * Returns the Slow Consumer Policy with the given command line name,
+     * "coalesce", "disconnect" or "drop".
+     *
+     * @throws IllegalArgumentException if the name is not a Slow Consumer
+     *             Policy
+     */
+    public static SlowConsumerPolicy fromName(final String name) {
+        for (SlowConsumerPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("unknown slow consumer policy: \"" + name + "\"");
+    }
+}
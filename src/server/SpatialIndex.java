@@ -0,0 +1,274 @@
+package server;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Spatial Index finds the commands of a StrokeHistory that may draw inside a
+ * rectangle without going through the whole history. The plane is cut into
+ * square tiles of TILE_SIZE pixels, and each tile keeps the positions, in
+ * order, of the commands whose bounds (the bounds of the pixels the Canvas may
+ * draw for them) overlap it. Only the tiles some command overlaps are kept,
+ * so the index covers any coordinates, however far apart.
+ *
+ * A command whose bounds overlap more than MAX_TILES_PER_COMMAND tiles, like a
+ * long stroke of a thick eraser, is kept in a single list instead, which every
+ * query goes through.
+ *
+ * Like the StrokeHistory it indexes, a Spatial Index is only ever added to,
+ * and is not thread safe: the Board changes and reads it holding its lock.
+ */
+class SpatialIndex {
+    protected static final int TILE_SHIFT = 6;
+    protected static final int TILE_SIZE = 1 << TILE_SHIFT;
+    protected static final int MAX_TILES_PER_COMMAND = 64;
+
+    private static final int INITIAL_TILES = 64;
+
+    // Open addressing map of the tiles: the key of each tile, its column in
+    // the upper half and its row in the lower half, and its Postings, null
+    // for a free slot
+    private long[] keys = new long[INITIAL_TILES];
+    private Postings[] tiles = new Postings[INITIAL_TILES];
+    private int tileCount = 0;
+    // Commands overlapping too many tiles
+    private final Postings large = new Postings();
+    // Number of commands of the history indexed
+    private int size = 0;
+    private final int[] bounds = new int[4];
+
+    /**
+     * Indexes the commands of the history added since the previous call.
+     *
+     * @param history represents the history indexed, whose first commands
+     *            are the ones already indexed
+     */
+    protected void addAll(final StrokeHistory history) {
+        for (; size < history.size(); size++) {
+            history.boundsOf(size, bounds);
+            int minColumn = bounds[0] >> TILE_SHIFT;
+            int minRow = bounds[1] >> TILE_SHIFT;
+            int maxColumn = bounds[2] >> TILE_SHIFT;
+            int maxRow = bounds[3] >> TILE_SHIFT;
+            if ((long) (maxColumn - minColumn + 1) * (maxRow - minRow + 1) > MAX_TILES_PER_COMMAND) {
+                large.add(size);
+                continue;
+            }
+            for (int column = minColumn; column <= maxColumn; column++) {
+                for (int row = minRow; row <= maxRow; row++) {
+                    tileAt(column, row, true).add(size);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of commands indexed.
+     */
+    protected int size() {
+        return size;
+    }
+
+    /**
+     * Returns the positions, in order, of the commands of the history that
+     * may draw inside a rectangle.
+     *
+     * @param history represents the history indexed, with every command
+     *            indexed
+     * @param minX represents the left edge of the rectangle
+     * @param minY represents the top edge of the rectangle
+     * @param maxX represents the right edge of the rectangle, included
+     * @param maxY represents the bottom edge of the rectangle, included
+     */
+    protected int[] commandsIn(final StrokeHistory history, final int minX, final int minY, final int maxX,
+            final int maxY) {
+        if (minX > maxX || minY > maxY) {
+            return new int[0];
+        }
+        Postings found = new Postings();
+        int minColumn = minX >> TILE_SHIFT;
+        int minRow = minY >> TILE_SHIFT;
+        int maxColumn = maxX >> TILE_SHIFT;
+        int maxRow = maxY >> TILE_SHIFT;
+        long rectangleTiles = (long) (maxColumn - minColumn + 1) * (maxRow - minRow + 1);
+        if (rectangleTiles <= tileCount) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                for (int row = minRow; row <= maxRow; row++) {
+                    Postings tile = tileAt(column, row, false);
+                    if (tile != null) {
+                        addIntersecting(tile, column, row, history, minX, minY, maxX, maxY, found);
+                    }
+                }
+            }
+        } else {
+            // A rectangle of more tiles than the index holds goes through the tiles held
+            for (int slot = 0; slot < tiles.length; slot++) {
+                Postings tile = tiles[slot];
+                if (tile != null) {
+                    int column = (int) (keys[slot] >> 32);
+                    int row = (int) keys[slot];
+                    if (column >= minColumn && column <= maxColumn && row >= minRow && row <= maxRow) {
+                        addIntersecting(tile, column, row, history, minX, minY, maxX, maxY, found);
+                    }
+                }
+            }
+        }
+        large.addIntersecting(history, minX, minY, maxX, maxY, found);
+        return distinct(found, history.size());
+    }
+
+    /**
+     * Adds the positions of the commands of a tile that may draw inside the
+     * rectangle to the Postings found. Every command of a tile inside the
+     * rectangle does.
+     */
+    private static void addIntersecting(final Postings tile, final int column, final int row,
+            final StrokeHistory history, final int minX, final int minY, final int maxX, final int maxY,
+            final Postings found) {
+        long left = (long) column << TILE_SHIFT;
+        long top = (long) row << TILE_SHIFT;
+        if (left >= minX && left + TILE_SIZE - 1 <= maxX && top >= minY && top + TILE_SIZE - 1 <= maxY) {
+            found.addAll(tile);
+        } else {
+            tile.addIntersecting(history, minX, minY, maxX, maxY, found);
+        }
+    }
+
+    /**
+     * Returns the positions found, in order and each once: a command
+     * overlapping several tiles of the rectangle was found once per tile.
+     *
+     * @param found represents the positions found
+     * @param size represents the number of commands of the history
+     */
+    private static int[] distinct(final Postings found, final int size) {
+        int[] positions = found.positions;
+        int distinct = 0;
+        if (found.size > size / 64) {
+            // Marking the positions costs less than sorting this many
+            BitSet marked = new BitSet(size);
+            for (int i = 0; i < found.size; i++) {
+                marked.set(positions[i]);
+            }
+            for (int i = marked.nextSetBit(0); i >= 0; i = marked.nextSetBit(i + 1)) {
+                positions[distinct++] = i;
+            }
+        } else {
+            Arrays.sort(positions, 0, found.size);
+            for (int i = 0; i < found.size; i++) {
+                if (distinct == 0 || positions[i] != positions[distinct - 1]) {
+                    positions[distinct++] = positions[i];
+                }
+            }
+        }
+        return Arrays.copyOf(positions, distinct);
+    }
+
+    /**
+     * Returns an estimate of the heap used by the index.
+     */
+    protected long residentBytes() {
+        long bytes = 12L * keys.length + large.residentBytes();
+        for (Postings tile : tiles) {
+            if (tile != null) {
+                bytes += tile.residentBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the Postings of a tile, or null if no command overlaps it and
+     * make is false.
+     *
+     * @param make represents whether the tile is added if missing
+     */
+    private Postings tileAt(final int column, final int row, final boolean make) {
+        long key = ((long) column << 32) | (row & 0xffffffffL);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (tiles[slot] != null) {
+            if (keys[slot] == key) {
+                return tiles[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!make) {
+            return null;
+        }
+        Postings tile = new Postings();
+        keys[slot] = key;
+        tiles[slot] = tile;
+        if (++tileCount * 2 > keys.length) {
+            rehash();
+        }
+        return tile;
+    }
+
+    /**
+     * Doubles the slots of the tile map, keeping it at most half full.
+     */
+    private void rehash() {
+        long[] oldKeys = keys;
+        Postings[] oldTiles = tiles;
+        keys = new long[oldKeys.length * 2];
+        tiles = new Postings[oldTiles.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldTiles[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (tiles[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                tiles[slot] = oldTiles[i];
+            }
+        }
+    }
+
+    private static int hash(final long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Postings holds the positions, in order, of the commands overlapping a
+     * tile, or the positions found by a query.
+     */
+    private static class Postings {
+        private int[] positions = new int[4];
+        private int size = 0;
+
+        private void add(final int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size + (size >> 1));
+            }
+            positions[size++] = position;
+        }
+
+        private void addAll(final Postings other) {
+            if (size + other.size > positions.length) {
+                positions = Arrays.copyOf(positions, Math.max(size + other.size, size + (size >> 1)));
+            }
+            System.arraycopy(other.positions, 0, positions, size, other.size);
+            size += other.size;
+        }
+
+        /**
+         * Adds the positions of the commands that may draw inside the
+         * rectangle to other Postings.
+         */
+        private void addIntersecting(final StrokeHistory history, final int minX, final int minY, final int maxX,
+                final int maxY, final Postings found) {
+            for (int i = 0; i < size; i++) {
+                if (history.intersects(positions[i], minX, minY, maxX, maxY)) {
+                    found.add(positions[i]);
+                }
+            }
+        }
+
+        private long residentBytes() {
+            return 4L * positions.length + 32;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * SpatialIndex Benchmark measures the indexing of a large history and the
+ * queries of the Spatial Index against going through the whole history. Like
+ * every *Benchmark class it is run on its own, not with the unit tests, and
+ * prints what it measures.
+ */
+public class SpatialIndexBenchmark {
+    /**
+     * Benchmark of a Board of 1M freehand commands on a Canvas 4 times the
+     * size of the clients' in each direction: the time to index a command,
+     * and the time to find the commands inside a rectangle with the index
+     * and by going through the whole history.
+     */
+    @Test
+    public void millionCommands() {
+        Random random = new Random(1);
+        StrokeHistory history = new StrokeHistory();
+        int width = 4 * Keyframe.WIDTH;
+        int height = 4 * Keyframe.HEIGHT;
+        while (history.size() < 1000000) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            int strokeSize = 1 + random.nextInt(10);
+            for (int i = 0; i < 50; i++) {
+                int nextX = x + random.nextInt(11) - 5;
+                int nextY = y + random.nextInt(11) - 5;
+                history.draw(x, y, nextX, nextY, strokeSize, 0, 0, 0);
+                x = nextX;
+                y = nextY;
+            }
+        }
+        // Warms up the index before timing it
+        new SpatialIndex().addAll(history);
+        SpatialIndex index = new SpatialIndex();
+        long startTime = System.nanoTime();
+        index.addAll(history);
+        long indexNanos = System.nanoTime() - startTime;
+
+        int[][] sizes = { { 100, 100 }, { Keyframe.WIDTH, Keyframe.HEIGHT } };
+        StringBuilder report = new StringBuilder();
+        for (int[] size : sizes) {
+            int queries = 1000;
+            long found = 0;
+            long queryNanos = 0;
+            for (int q = 0; q < 2 * queries; q++) {
+                int minX = random.nextInt(width - size[0]);
+                int minY = random.nextInt(height - size[1]);
+                long queryStart = System.nanoTime();
+                int[] positions = index.commandsIn(history, minX, minY, minX + size[0] - 1, minY + size[1] - 1);
+                // The first half warms up the queries
+                if (q >= queries) {
+                    queryNanos += System.nanoTime() - queryStart;
+                    found += positions.length;
+                }
+            }
+            int minX = random.nextInt(width - size[0]);
+            int minY = random.nextInt(height - size[1]);
+            long scanStart = System.nanoTime();
+            int[] scanned = SpatialIndexTest.scan(history, minX, minY, minX + size[0] - 1, minY + size[1] - 1);
+            long scanNanos = System.nanoTime() - scanStart;
+            assertArrayEquals(index.commandsIn(history, minX, minY, minX + size[0] - 1, minY + size[1] - 1), scanned);
+            report.append("; " + size[0] + "x" + size[1] + " query " + queryNanos / queries / 1000 + "us for "
+                    + found / queries + " commands, scan " + scanNanos / 1000 + "us");
+        }
+        System.out.println("spatial index of " + history.size() + " commands: " + indexNanos / history.size()
+                + "ns per command, " + index.residentBytes() / history.size() + " bytes per command" + report);
+    }
+}
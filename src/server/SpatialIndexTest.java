@@ -0,0 +1,198 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+/**
+ * SpatialIndex Test runs the JUnit tests for the Spatial Index class, by
+ * checking that the commands it finds inside a rectangle are the ones found
+ * by going through the whole history.
+ */
+public class SpatialIndexTest {
+    /**
+     * TESTING addAll, commandsIn and the Board's region queries
+     *
+     * Partition the input space as follows:
+     * Command:     inside one tile, across tiles, across more than
+     *              MAX_TILES_PER_COMMAND tiles, at negative coordinates, far
+     *              off the Canvas
+     * Rectangle:   empty, one pixel, a tile, larger than every tile held
+     * Board:       compacted, evicted and read back
+     */
+    @Test
+    public void commandsInRectangle() {
+        StrokeHistory history = new StrokeHistory();
+        history.draw(10, 10, 20, 10, 3, 0, 0, 0);
+        history.draw(60, 60, 70, 70, 3, 0, 0, 0);
+        history.erase(0, 300, 799, 300, 40);
+        history.draw(-100, -100, -90, -90, 1, 0, 0, 0);
+        history.draw(100000, 5, 100010, 5, 1, 0, 0, 0);
+        SpatialIndex index = new SpatialIndex();
+        index.addAll(history);
+        assertEquals(index.size(), 5);
+
+        assertArrayEquals(index.commandsIn(history, 0, 0, 30, 30), new int[] { 0 });
+        assertArrayEquals(index.commandsIn(history, 65, 65, 65, 65), new int[] { 1 });
+        // The stroke size and the caps are part of the bounds
+        assertArrayEquals(index.commandsIn(history, 20, 13, 20, 13), new int[] { 0 });
+        assertArrayEquals(index.commandsIn(history, 20, 15, 20, 15), new int[0]);
+        assertArrayEquals(index.commandsIn(history, 0, 0, 799, 599), new int[] { 0, 1, 2 });
+        assertArrayEquals(index.commandsIn(history, -200, -200, -95, -95), new int[] { 3 });
+        assertArrayEquals(index.commandsIn(history, 99990, 0, 200000, 10), new int[] { 4 });
+        assertArrayEquals(index.commandsIn(history, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE,
+                Integer.MAX_VALUE), new int[] { 0, 1, 2, 3, 4 });
+        assertArrayEquals(index.commandsIn(history, 10, 10, 0, 0), new int[0]);
+    }
+
+    @Test
+    public void randomQueriesMatchScan() {
+        Random random = new Random(18);
+        StrokeHistory history = new StrokeHistory();
+        SpatialIndex index = new SpatialIndex();
+        for (int i = 0; i < 20000; i++) {
+            int x = random.nextInt(4000) - 1000;
+            int y = random.nextInt(3000) - 1000;
+            int length = random.nextInt(20) == 0 ? 1500 : 30;
+            history.draw(x, y, x + random.nextInt(length), y + random.nextInt(length), 1 + random.nextInt(40), 0, 0,
+                    0);
+            if (i % 1000 == 0) {
+                index.addAll(history);
+            }
+        }
+        index.addAll(history);
+        for (int q = 0; q < 300; q++) {
+            int minX = random.nextInt(5000) - 1500;
+            int minY = random.nextInt(4000) - 1500;
+            int maxX = minX + random.nextInt(q % 10 == 0 ? 3000 : 200);
+            int maxY = minY + random.nextInt(q % 10 == 0 ? 3000 : 200);
+            assertArrayEquals(index.commandsIn(history, minX, minY, maxX, maxY),
+                    scan(history, minX, minY, maxX, maxY));
+        }
+    }
+
+    /**
+     * The commands found inside a region are enough to draw the region the
+     * way the whole history draws it, as for a thumbnail of the region.
+     */
+    @Test
+    public void regionDrawnFromFoundCommands() {
+        Random random = new Random(7);
+        StrokeHistory history = new StrokeHistory();
+        for (int i = 0; i < 5000; i++) {
+            int x = random.nextInt(Keyframe.WIDTH);
+            int y = random.nextInt(Keyframe.HEIGHT);
+            if (random.nextInt(10) == 0) {
+                history.erase(x, y, x + random.nextInt(60) - 30, y + random.nextInt(60) - 30, 20);
+            } else {
+                history.draw(x, y, x + random.nextInt(60) - 30, y + random.nextInt(60) - 30, 1 + random.nextInt(15),
+                        random.nextInt(256), random.nextInt(256), random.nextInt(256));
+            }
+        }
+        SpatialIndex index = new SpatialIndex();
+        index.addAll(history);
+        BufferedImage whole = draw(history);
+        int minX = 300;
+        int minY = 200;
+        int maxX = 449;
+        int maxY = 299;
+        StrokeHistory region = new StrokeHistory();
+        for (int position : index.commandsIn(history, minX, minY, maxX, maxY)) {
+            region.add(history, position);
+        }
+        assertTrue(region.size() < history.size() / 4);
+        BufferedImage drawn = draw(region);
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                assertEquals(drawn.getRGB(x, y), whole.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void boardRegionAfterCompactionAndEviction() throws IOException {
+        Board board = new Board("Board1", 4, DIRECT_EXECUTOR);
+        board.draw(100, 100, 110, 100, 3, 255, 0, 0);
+        board.draw(500, 500, 510, 500, 3, 255, 0, 0);
+        board.draw(90, 100, 120, 100, 20, 0, 0, 255);
+        board.draw(105, 100, 106, 100, 1, 0, 255, 0);
+        board.draw(505, 500, 506, 500, 1, 0, 255, 0);
+        assertArrayEquals(board.commandsIn(80, 80, 130, 130), new int[] { 0, 2, 3 });
+
+        // The first command is drawn over, the others move up
+        board.requestCompaction();
+        assertEquals(board.historySize(), 4);
+        assertArrayEquals(board.commandsIn(80, 80, 130, 130), new int[] { 1, 2 });
+        assertArrayEquals(board.commandsIn(495, 495, 515, 505), new int[] { 0, 3 });
+
+        Path directory = Files.createTempDirectory("spatialindex");
+        try {
+            assertTrue(board.evict(directory.resolve("Board1.history")));
+            assertArrayEquals(board.commandsIn(80, 80, 130, 130), new int[] { 1, 2 });
+        } finally {
+            directory.toFile().delete();
+        }
+
+        BlockingQueue<Message> commandsQueue = new ArrayBlockingQueue<Message>(10);
+        board.replayRegionTo(commandsQueue, 80, 80, 130, 130);
+        Replay replay = (Replay) commandsQueue.poll();
+        assertNull(replay.getKeyframe());
+        assertEquals(replay.getCommandCount(), 2);
+        assertEquals(replay.getCommand(0), "Board1 draw 90 100 120 100 20 0 0 255");
+        assertEquals(replay.getCommand(1), "Board1 draw 105 100 106 100 1 0 255 0");
+        board.replayRegionTo(commandsQueue, 700, 0, 799, 50);
+        assertEquals(commandsQueue.isEmpty(), true);
+    }
+
+    /**
+     * Returns the positions of the commands that may draw inside a rectangle,
+     * going through the whole history.
+     */
+    protected static int[] scan(final StrokeHistory history, final int minX, final int minY, final int maxX,
+            final int maxY) {
+        List<Integer> found = new ArrayList<Integer>();
+        for (int i = 0; i < history.size(); i++) {
+            if (history.intersects(i, minX, minY, maxX, maxY)) {
+                found.add(i);
+            }
+        }
+        int[] positions = new int[found.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = found.get(i);
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the image the clients' Canvas draws for a history.
+     */
+    private static BufferedImage draw(final StrokeHistory history) {
+        BufferedImage image = new BufferedImage(Keyframe.WIDTH, Keyframe.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, Keyframe.WIDTH, Keyframe.HEIGHT);
+        history.render(g, 0, history.size());
+        g.dispose();
+        return image;
+    }
+
+    // Runs the Board's keyframe and compaction tasks in the thread that asks for them
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        public void execute(final Runnable command) {
+            command.run();
+        }
+    };
+}
@@ -0,0 +1,443 @@
+package server;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import protocol.BinaryFrameWriter;
+
+/**
+ * Stroke History represents the draw and erase commands of one Whiteboard, in
+ * the order they were made. Rather than keeping each command as a text
+ * message, which repeats the name of the Whiteboard and spells out every
+ * number, the history keeps one primitive array per field:
+ *      the two points and the stroke size, as shorts for as long as every
+ *          value of the field fits in a short, and as ints afterwards
+ *      the style, the op type in the top byte and the packed red, green and
+ *          blue in the three lower bytes
+ * A command is turned back into a text message, or a binary frame, only when
+ * it is sent to a client.
+ *
+ * Commands are only ever added after the last one, so a snapshot shares the
+ * arrays of the history it was taken from and never changes afterwards.
+ */
+class StrokeHistory {
+    protected static final int DRAW = 0;
+    protected static final int ERASE = 1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Column x1s;
+    private final Column y1s;
+    private final Column x2s;
+    private final Column y2s;
+    private final Column strokeSizes;
+    private int[] styles;
+    private int size = 0;
+    private final boolean snapshot;
+
+    /**
+     * Makes an empty Stroke History.
+     */
+    protected StrokeHistory() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Makes an empty Stroke History with room for a number of commands.
+     */
+    private StrokeHistory(final int capacity) {
+        x1s = new Column(capacity);
+        y1s = new Column(capacity);
+        x2s = new Column(capacity);
+        y2s = new Column(capacity);
+        strokeSizes = new Column(capacity);
+        styles = new int[capacity];
+        snapshot = false;
+    }
+
+    /**
+     * Makes a snapshot of a Stroke History, sharing its arrays.
+     */
+    private StrokeHistory(final StrokeHistory history) {
+        x1s = new Column(history.x1s);
+        y1s = new Column(history.y1s);
+        x2s = new Column(history.x2s);
+        y2s = new Column(history.y2s);
+        strokeSizes = new Column(history.strokeSizes);
+        styles = history.styles;
+        size = history.size;
+        snapshot = true;
+    }
+
+    /**
+     * Adds a draw command after the last command.
+     *
+     * @throws IllegalArgumentException if red, green or blue is not between 0
+     *             and 255
+     */
+    protected void draw(int x1, int y1, int x2, int y2, int strokeSize, int red, int green, int blue) {
+        if (!isColorValue(red) || !isColorValue(green) || !isColorValue(blue)) {
+            throw new IllegalArgumentException("color out of range: " + red + " " + green + " " + blue);
+        }
+        add(DRAW, x1, y1, x2, y2, strokeSize, (red << 16) | (green << 8) | blue);
+    }
+
+    /**
+     * Adds an erase command after the last command.
+     */
+    protected void erase(int x1, int y1, int x2, int y2, int strokeSize) {
+        add(ERASE, x1, y1, x2, y2, strokeSize, 0);
+    }
+
+    /**
+     * Returns the number of commands.
+     */
+    protected int size() {
+        return size;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the arrays of the history.
+     */
+    protected long residentBytes() {
+        return x1s.residentBytes() + y1s.residentBytes() + x2s.residentBytes() + y2s.residentBytes()
+                + strokeSizes.residentBytes() + 4L * styles.length;
+    }
+
+    /**
+     * Writes the commands the way they are kept: the number of commands, then
+     * each array in turn, as shorts for the fields still kept as shorts.
+     *
+     * @param out represents where the commands are written
+     * @throws IOException if the commands cannot be written
+     */
+    protected void writeTo(final DataOutput out) throws IOException {
+        out.writeInt(size);
+        x1s.writeTo(out, size);
+        y1s.writeTo(out, size);
+        x2s.writeTo(out, size);
+        y2s.writeTo(out, size);
+        strokeSizes.writeTo(out, size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(styles[i]);
+        }
+    }
+
+    /**
+     * Reads commands written by writeTo.
+     *
+     * @param in represents where the commands are read from
+     * @return a Stroke History holding the commands
+     * @throws IOException if the commands cannot be read
+     */
+    protected static StrokeHistory readFrom(final DataInput in) throws IOException {
+        int size = in.readInt();
+        StrokeHistory history = new StrokeHistory(Math.max(size, INITIAL_CAPACITY));
+        history.x1s.readFrom(in, size);
+        history.y1s.readFrom(in, size);
+        history.x2s.readFrom(in, size);
+        history.y2s.readFrom(in, size);
+        history.strokeSizes.readFrom(in, size);
+        for (int i = 0; i < size; i++) {
+            history.styles[i] = in.readInt();
+        }
+        history.size = size;
+        return history;
+    }
+
+    /**
+     * Returns a Stroke History holding the commands made so far, which does
+     * not change when commands are added to this one.
+     */
+    protected StrokeHistory snapshot() {
+        return new StrokeHistory(this);
+    }
+
+    /**
+     * Returns the text message of a command.
+     *
+     * @param whiteboard represents the name of the Whiteboard
+     * @param index represents the position of the command, from 0
+     */
+    protected String toLine(final String whiteboard, final int index) {
+        checkIndex(index);
+        StringBuilder line = new StringBuilder(whiteboard.length() + 48);
+        line.append(whiteboard).append(opOf(index) == DRAW ? " draw " : " erase ");
+        line.append(x1s.get(index)).append(' ').append(y1s.get(index)).append(' ');
+        line.append(x2s.get(index)).append(' ').append(y2s.get(index)).append(' ');
+        line.append(strokeSizes.get(index));
+        if (opOf(index) == DRAW) {
+            int rgb = styles[index];
+            line.append(' ').append((rgb >> 16) & 0xff).append(' ').append((rgb >> 8) & 0xff).append(' ')
+                    .append(rgb & 0xff);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Writes a command as a DRAW or ERASE binary frame.
+     *
+     * @param out represents the writer of the client's binary frames
+     * @param whiteboard represents the name of the Whiteboard
+     * @param index represents the position of the command, from 0
+     * @throws IOException if the connection has an error
+     */
+    protected void writeTo(final BinaryFrameWriter out, final String whiteboard, final int index) throws IOException {
+        checkIndex(index);
+        if (opOf(index) == DRAW) {
+            int rgb = styles[index];
+            out.writeDraw(whiteboard, x1s.get(index), y1s.get(index), x2s.get(index), y2s.get(index),
+                    strokeSizes.get(index), (rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+        } else {
+            out.writeErase(whiteboard, x1s.get(index), y1s.get(index), x2s.get(index), y2s.get(index),
+                    strokeSizes.get(index));
+        }
+    }
+
+    /**
+     * Adds a command of another Stroke History after the last command.
+     *
+     * @param source represents the Stroke History holding the command
+     * @param index represents the position of the command in the source
+     */
+    protected void add(final StrokeHistory source, final int index) {
+        source.checkIndex(index);
+        add(source.opOf(index), source.x1s.get(index), source.y1s.get(index), source.x2s.get(index),
+                source.y2s.get(index), source.strokeSizes.get(index), source.styles[index] & 0xffffff);
+    }
+
+    /**
+     * Draws commands on an image the way the clients' Canvas draws them.
+     * Commands with a negative stroke size, which the Canvas cannot draw,
+     * are skipped.
+     *
+     * @param g represents the graphics of the image
+     * @param from represents the position of the first command drawn
+     * @param to represents the position after the last command drawn
+     */
+    protected void render(final Graphics2D g, final int from, final int to) {
+        render(g, from, to, false);
+    }
+
+    /**
+     * Draws commands on an image the way the clients' Canvas draws them, but
+     * each in the color whose packed red, green and blue is its position plus
+     * one, so that every pixel of the image tells which command drew it last.
+     *
+     * @param g represents the graphics of the image
+     * @param from represents the position of the first command drawn
+     * @param to represents the position after the last command drawn, at
+     *            most 0xffffff
+     */
+    protected void renderPositions(final Graphics2D g, final int from, final int to) {
+        render(g, from, to, true);
+    }
+
+    /**
+     * Returns true if every pixel the Canvas draws for a command is inside an
+     * image of the given size.
+     *
+     * @param index represents the position of the command, from 0
+     * @param width represents the width of the image
+     * @param height represents the height of the image
+     */
+    protected boolean fitsIn(final int index, final int width, final int height) {
+        checkIndex(index);
+        long margin = marginOf(index);
+        return Math.min(x1s.get(index), x2s.get(index)) - margin >= 0
+                && Math.max(x1s.get(index), x2s.get(index)) + margin < width
+                && Math.min(y1s.get(index), y2s.get(index)) - margin >= 0
+                && Math.max(y1s.get(index), y2s.get(index)) + margin < height;
+    }
+
+    /**
+     * Returns true if some pixel the Canvas may draw for a command is inside
+     * a rectangle.
+     *
+     * @param index represents the position of the command, from 0
+     * @param minX represents the left edge of the rectangle
+     * @param minY represents the top edge of the rectangle
+     * @param maxX represents the right edge of the rectangle, included
+     * @param maxY represents the bottom edge of the rectangle, included
+     */
+    protected boolean intersects(final int index, final int minX, final int minY, final int maxX, final int maxY) {
+        checkIndex(index);
+        long margin = marginOf(index);
+        return Math.min(x1s.get(index), x2s.get(index)) - margin <= maxX
+                && Math.max(x1s.get(index), x2s.get(index)) + margin >= minX
+                && Math.min(y1s.get(index), y2s.get(index)) - margin <= maxY
+                && Math.max(y1s.get(index), y2s.get(index)) + margin >= minY;
+    }
+
+    /**
+     * Writes the bounds of every pixel the Canvas may draw for a command,
+     * clamped to the range of an int.
+     *
+     * @param index represents the position of the command, from 0
+     * @param bounds represents the array the left, top, right and bottom
+     *            edges, included, are written to
+     */
+    protected void boundsOf(final int index, final int[] bounds) {
+        checkIndex(index);
+        long margin = marginOf(index);
+        bounds[0] = clamp(Math.min(x1s.get(index), x2s.get(index)) - margin);
+        bounds[1] = clamp(Math.min(y1s.get(index), y2s.get(index)) - margin);
+        bounds[2] = clamp(Math.max(x1s.get(index), x2s.get(index)) + margin);
+        bounds[3] = clamp(Math.max(y1s.get(index), y2s.get(index)) + margin);
+    }
+
+    private void render(final Graphics2D g, final int from, final int to, final boolean positions) {
+        int lastStyle = -1;
+        int lastStrokeSize = -1;
+        for (int i = from; i < to; i++) {
+            int strokeSize = strokeSizes.get(i);
+            if (strokeSize < 0) {
+                continue;
+            }
+            if (positions) {
+                g.setColor(new Color(i + 1));
+            } else if (styles[i] != lastStyle) {
+                lastStyle = styles[i];
+                g.setColor(opOf(i) == DRAW ? new Color(lastStyle & 0xffffff) : Color.WHITE);
+            }
+            if (strokeSize != lastStrokeSize) {
+                lastStrokeSize = strokeSize;
+                g.setStroke(new BasicStroke(strokeSize));
+            }
+            g.drawLine(x1s.get(i), y1s.get(i), x2s.get(i), y2s.get(i));
+        }
+    }
+
+    /**
+     * Adds a command after the last command, growing the arrays if they are
+     * full.
+     */
+    private void add(int op, int x1, int y1, int x2, int y2, int strokeSize, int rgb) {
+        if (snapshot) {
+            throw new UnsupportedOperationException("a snapshot cannot be changed");
+        }
+        if (size == styles.length) {
+            int capacity = size + (size >> 1);
+            x1s.grow(capacity);
+            y1s.grow(capacity);
+            x2s.grow(capacity);
+            y2s.grow(capacity);
+            strokeSizes.grow(capacity);
+            styles = Arrays.copyOf(styles, capacity);
+        }
+        x1s.set(size, x1);
+        y1s.set(size, y1);
+        x2s.set(size, x2);
+        y2s.set(size, y2);
+        strokeSizes.set(size, strokeSize);
+        styles[size] = (op << 24) | rgb;
+        size++;
+    }
+
+    /**
+     * Returns how far past its points a command may draw: wider than half
+     * the stroke, for the square caps of slanted lines.
+     */
+    private long marginOf(final int index) {
+        return (long) Math.abs(strokeSizes.get(index)) + 1;
+    }
+
+    private static int clamp(final long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    private int opOf(final int index) {
+        return styles[index] >>> 24;
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+
+    private static boolean isColorValue(final int value) {
+        return value >= 0 && value <= 255;
+    }
+
+    /**
+     * Column represents one int field of every command, kept in a short array
+     * until a value does not fit in a short, and in an int array afterwards.
+     */
+    private static class Column {
+        private short[] narrow;
+        // Null until a value does not fit in a short
+        private int[] wide;
+
+        private Column(final int capacity) {
+            narrow = new short[capacity];
+        }
+
+        private Column(final Column column) {
+            narrow = column.narrow;
+            wide = column.wide;
+        }
+
+        private int get(final int index) {
+            return wide != null ? wide[index] : narrow[index];
+        }
+
+        private void set(final int index, final int value) {
+            if (wide == null) {
+                if (value == (short) value) {
+                    narrow[index] = (short) value;
+                    return;
+                }
+                // Widens the values set so far, snapshots keep the short array
+                wide = new int[narrow.length];
+                for (int i = 0; i < index; i++) {
+                    wide[i] = narrow[i];
+                }
+                narrow = null;
+            }
+            wide[index] = value;
+        }
+
+        private long residentBytes() {
+            return wide != null ? 4L * wide.length : 2L * narrow.length;
+        }
+
+        private void writeTo(final DataOutput out, final int size) throws IOException {
+            out.writeBoolean(wide != null);
+            for (int i = 0; i < size; i++) {
+                if (wide != null) {
+                    out.writeInt(wide[i]);
+                } else {
+                    out.writeShort(narrow[i]);
+                }
+            }
+        }
+
+        private void readFrom(final DataInput in, final int size) throws IOException {
+            if (in.readBoolean()) {
+                wide = new int[narrow.length];
+                narrow = null;
+            }
+            for (int i = 0; i < size; i++) {
+                if (wide != null) {
+                    wide[i] = in.readInt();
+                } else {
+                    narrow[i] = in.readShort();
+                }
+            }
+        }
+
+        private void grow(final int capacity) {
+            if (wide != null) {
+                wide = Arrays.copyOf(wide, capacity);
+            } else {
+                narrow = Arrays.copyOf(narrow, capacity);
+            }
+        }
+    }
+}
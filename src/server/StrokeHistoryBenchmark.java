@@ -0,0 +1,62 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * StrokeHistory Benchmark measures the heap used by a Stroke History and how
+ * fast it is added to, against a history of text messages. Like every
+ * *Benchmark class it is run on its own, not with the unit tests, and prints
+ * what it measures.
+ */
+public class StrokeHistoryBenchmark {
+    /**
+     * Benchmark of the heap used by a history of text messages and by a
+     * Stroke History of the same draw commands, and of how fast each is
+     * added to. The numbers are printed, only the heap used is compared.
+     */
+    @Test
+    public void heapUseAndAppendThroughput() {
+        int segments = 500000;
+        long heapBefore = usedHeap();
+        long startTime = System.nanoTime();
+        ArrayList<String> lines = new ArrayList<String>();
+        for (int i = 0; i < segments; i++) {
+            lines.add("Board1 draw " + (i % 800) + " " + (i % 600) + " " + (i % 800 + 3) + " " + (i % 600 + 2)
+                    + " 5 " + (i & 0xff) + " 128 64");
+        }
+        long linesNanos = System.nanoTime() - startTime;
+        long linesBytes = usedHeap() - heapBefore;
+        assertEquals(lines.size(), segments);
+        lines = null;
+
+        heapBefore = usedHeap();
+        startTime = System.nanoTime();
+        StrokeHistory history = new StrokeHistory();
+        for (int i = 0; i < segments; i++) {
+            history.draw(i % 800, i % 600, i % 800 + 3, i % 600 + 2, 5, i & 0xff, 128, 64);
+        }
+        long historyNanos = System.nanoTime() - startTime;
+        long historyBytes = usedHeap() - heapBefore;
+        assertEquals(history.size(), segments);
+
+        System.out.println("bytes per segment as text: " + linesBytes / segments + ", in a StrokeHistory: "
+                + historyBytes / segments + "; appends per second as text: " + segments * 1000000000L / linesNanos
+                + ", in a StrokeHistory: " + segments * 1000000000L / historyNanos);
+        assertTrue(historyBytes * 2 < linesBytes);
+    }
+
+    /**
+     * Returns the heap in use once the garbage has been collected.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,112 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import protocol.BinaryFrameReader;
+import protocol.BinaryFrameWriter;
+
+/**
+ * StrokeHistory Test runs the JUnit tests for the Stroke History class, by
+ * adding commands and encoding them back as text messages and binary frames.
+ */
+public class StrokeHistoryTest {
+    /**
+     * TESTING draw, erase, toLine and writeTo
+     *
+     * Partition the input space as follows:
+     * Command:     draw, erase
+     * Values:      fit in a short, negative, do not fit in a short
+     * Color:       in range, out of range
+     * Size:        empty, within the initial capacity, past it
+     */
+    @Test
+    public void drawAndErase() {
+        StrokeHistory history = new StrokeHistory();
+        assertEquals(history.size(), 0);
+        history.draw(0, 0, 100, 100, 50, 12, 34, 56);
+        history.erase(-5, -5, -6, -7, 3);
+        assertEquals(history.size(), 2);
+        assertEquals(history.toLine("Board1", 0), "Board1 draw 0 0 100 100 50 12 34 56");
+        assertEquals(history.toLine("Board1", 1), "Board1 erase -5 -5 -6 -7 3");
+    }
+
+    @Test
+    public void valuesOutOfShortRange() {
+        StrokeHistory history = new StrokeHistory();
+        for (int i = 0; i < 100; i++) {
+            history.draw(i, -i, i + 1, -i - 1, 5, 255, 0, 255);
+        }
+        history.draw(Integer.MAX_VALUE, Integer.MIN_VALUE, 40000, -40000, 70000, 1, 2, 3);
+        history.draw(7, 8, 9, 10, 11, 0, 0, 0);
+        assertEquals(history.size(), 102);
+        assertEquals(history.toLine("Board1", 99), "Board1 draw 99 -99 100 -100 5 255 0 255");
+        assertEquals(history.toLine("Board1", 100),
+                "Board1 draw 2147483647 -2147483648 40000 -40000 70000 1 2 3");
+        assertEquals(history.toLine("Board1", 101), "Board1 draw 7 8 9 10 11 0 0 0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void drawColorOutOfRange() {
+        new StrokeHistory().draw(0, 0, 1, 1, 5, 256, 0, 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void toLinePastSize() {
+        StrokeHistory history = new StrokeHistory();
+        history.erase(0, 0, 1, 1, 5);
+        history.toLine("Board1", 1);
+    }
+
+    @Test
+    public void writeToBinaryFrames() throws IOException {
+        StrokeHistory history = new StrokeHistory();
+        history.draw(0, 0, 100, 100, 50, 12, 34, 56);
+        history.erase(-5, -5, -6, -7, 3);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryFrameWriter writer = new BinaryFrameWriter(bytes);
+        history.writeTo(writer, "Board1", 0);
+        history.writeTo(writer, "Board1", 1);
+        writer.flush();
+
+        BinaryFrameReader reader = new BinaryFrameReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(reader.read(), BinaryFrameReader.DRAW);
+        assertEquals(reader.toDrawLine(), "Board1 draw 0 0 100 100 50 12 34 56");
+        assertEquals(reader.read(), BinaryFrameReader.ERASE);
+        assertEquals(reader.toEraseLine(), "Board1 erase -5 -5 -6 -7 3");
+        assertEquals(reader.read(), -1);
+    }
+
+    /**
+     * TESTING snapshot
+     *
+     * Partition the input space as follows:
+     * After the snapshot:  commands added, arrays grown, a column widened
+     * Snapshot:            read, added to
+     */
+    @Test
+    public void snapshotDoesNotChange() {
+        StrokeHistory history = new StrokeHistory();
+        history.draw(1, 2, 3, 4, 5, 6, 7, 8);
+        StrokeHistory snapshot = history.snapshot();
+        for (int i = 0; i < 100; i++) {
+            history.erase(i, i, i, i, 1);
+        }
+        history.erase(100000, 0, 0, 0, 1);
+        assertEquals(snapshot.size(), 1);
+        assertEquals(snapshot.toLine("Board1", 0), "Board1 draw 1 2 3 4 5 6 7 8");
+        assertEquals(history.size(), 102);
+        assertEquals(history.toLine("Board1", 0), "Board1 draw 1 2 3 4 5 6 7 8");
+        assertEquals(history.toLine("Board1", 101), "Board1 erase 100000 0 0 0 1");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void snapshotCannotBeChanged() {
+        new StrokeHistory().snapshot().erase(0, 0, 1, 1, 5);
+    }
+}
@@ -0,0 +1,89 @@
+package server;
+
+import java.lang.reflect.Method;
+
+/**
+ * Thread Mode represents the kind of thread the Whiteboard Server runs the
+ * input and output of each client on.
+ */
+public enum ThreadMode {
+    /**
+     * A platform thread (with a full OS stack) for each input and output.
+     */
+    PLATFORM {
+        @Override
+        protected Thread newThread(final Runnable runnable) {
+            return new Thread(runnable);
+        }
+    },
+
+    /**
+     * A virtual thread for each input and output. Virtual threads need a Java
+     * 21 or later runtime; on older runtimes platform threads with a small
+     * stack are used instead.
+     */
+    VIRTUAL {
+        @Override
+        protected Thread newThread(final Runnable runnable) {
+            if (OF_VIRTUAL != null) {
+                try {
+                    return (Thread) UNSTARTED.invoke(OF_VIRTUAL.invoke(null), runnable);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("unable to create a virtual thread", e);
+                }
+            }
+            return new Thread(null, runnable, "Client Thread", SMALL_STACK_SIZE);
+        }
+    };
+
+    // Stack size requested for the fallback of VIRTUAL on older runtimes
+    private static final long SMALL_STACK_SIZE = 128 * 1024;
+    // Thread.ofVirtual() and Thread.Builder.unstarted(Runnable), null when the
+    // runtime has no virtual threads. Looked up reflectively so that the
+    // server still compiles and runs on older Java versions.
+    private static final Method OF_VIRTUAL;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+            unstarted = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
+    /**
+     * Creates an unstarted thread that runs the runnable.
+     *
+     * @param runnable represents the input or output handling of a client
+     */
+    protected abstract Thread newThread(Runnable runnable);
+
+    /**
+     * Returns true if the Java runtime supports virtual threads.
+     */
+    public static boolean virtualThreadsSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Returns the Thread Mode with the given command line name, "platform" or
+     * "virtual".
+     *
+     * @throws IllegalArgumentException if the name is not a Thread Mode
+     */
+    public static ThreadMode fromName(final String name) {
+        for (ThreadMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("unknown thread mode: \"" + name + "\"");
+    }
+}
@@ -1,64 +1,114 @@
 package server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 
+import protocol.BinaryFrameReader;
+import protocol.BinaryFrameWriter;
+import protocol.BinaryProtocol;
+
 /**
  * Whiteboard Server represents a server that allows many clients to collaborate
  * on whiteboards simultaneously over a network connection.
  */
 public class WhiteboardServer {
-    private final AtomicInteger threadID = new AtomicInteger(-1);
-    protected final Map<String, String> clientToWhiteboardMap;
-    protected final Map<String, ArrayList<String>> whiteboardToClientsMap;
-    protected final Map<String, ArrayList<String>> whiteboardToCommandsMap;
-    protected final Map<String, Integer> clientToThreadNumMap;
-    protected final List<BlockingQueue<String>> commandQueues;
-    protected final List<Boolean> outputThreadActive;
+    protected static final int QUEUE_CAPACITY = 100000;
+    // Queued to wake up an output thread, never written to the client
+    protected static final Message OUTPUT_WAKE_UP = new Message("Output wake up");
+    private final AtomicInteger sessionID = new AtomicInteger(-1);
+    protected final ConcurrentMap<String, String> clientToWhiteboardMap;
+    protected final ConcurrentMap<String, Board> boards;
+    protected final ConcurrentMap<String, Integer> clientToThreadNumMap;
+    protected final ConcurrentMap<Integer, Session> sessions;
+    protected final ServerMetrics metrics = new ServerMetrics();
+    // Runs the draw and erase commands of each Board on a single lane
+    protected final BoardExecutor boardExecutor = new BoardExecutor(BoardExecutor.defaultLaneCount(), metrics);
+    private final ThreadMode threadMode;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final int maxLag;
+    // Logs the Boards so that they survive a restart, null if they are only kept in memory
+    protected volatile HistoryLog historyLog = null;
+    // Evicts idle Boards to disk, null if every Board is kept in memory
+    protected volatile BoardCache boardCache = null;
 
     /**
-     * Creates a Whiteboard Server.
+     * Creates a Whiteboard Server that runs each client on platform threads.
      * 
      * @throws IOException
      */
     public WhiteboardServer() throws IOException {
-        // Maps each client to the Whiteboard it is working on
-        clientToWhiteboardMap = Collections.synchronizedMap(new HashMap<String, String>());
+        this(ThreadMode.PLATFORM);
+    }
+
+    /**
+     * Creates a Whiteboard Server that coalesces the draw and erase commands
+     * of clients that fall QUEUE_CAPACITY messages behind.
+     * 
+     * @param threadMode represents the kind of thread the input and output of
+     *            each client run on
+     * @throws IOException
+     */
+    public WhiteboardServer(final ThreadMode threadMode) throws IOException {
+        this(threadMode, SlowConsumerPolicy.COALESCE, QUEUE_CAPACITY);
+    }
 
-        // Maps each Whiteboard to all of its clients (similar to
-        // clientToWhiteboardMap), used to save repeat iterations in message
-        // passing
-        whiteboardToClientsMap = Collections.synchronizedMap(new HashMap<String, ArrayList<String>>());
+    /**
+     * Creates a Whiteboard Server.
+     * 
+     * @param threadMode represents the kind of thread the input and output of
+     *            each client run on
+     * @param slowConsumerPolicy represents what is done with a client that
+     *            falls maxLag messages behind
+     * @param maxLag represents the number of messages that can wait to be
+     *            sent to a client, must be greater than 0
+     * @throws IOException
+     */
+    public WhiteboardServer(final ThreadMode threadMode, final SlowConsumerPolicy slowConsumerPolicy,
+            final int maxLag) throws IOException {
+        this.threadMode = threadMode;
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        this.maxLag = maxLag;
 
-        // Maps each Whiteboard to its Commands History
-        whiteboardToCommandsMap = Collections.synchronizedMap(new HashMap<String, ArrayList<String>>());
+        // Maps each client to the Whiteboard it is working on, "" until it
+        // selects one
+        clientToWhiteboardMap = new ConcurrentHashMap<String, String>();
 
-        // List of Blocking Queues used to send messages to clients
-        commandQueues = Collections.synchronizedList(new ArrayList<BlockingQueue<String>>());
+        // Maps each Whiteboard's name to the Board holding its Commands
+        // History and the BlockingQueue of each of its clients
+        boards = new ConcurrentHashMap<String, Board>();
 
-        // Maps each client to its threadnum which corresponds to its Blocking
-        // Queue in the commandsQueue
-        clientToThreadNumMap = Collections.synchronizedMap(new HashMap<String, Integer>());
+        // Maps the id of each open Session to the Session, which holds the
+        // Blocking Queue used to send messages to its client
+        sessions = new ConcurrentHashMap<Integer, Session>();
 
-        // List of Booleans to keep output threads active
-        outputThreadActive = Collections.synchronizedList(new ArrayList<Boolean>());
+        // Maps each client to the id of its Session
+        clientToThreadNumMap = new ConcurrentHashMap<String, Integer>();
 
         // Creates the Server's starting Whiteboards
         createBoards();
@@ -81,16 +131,53 @@ public class WhiteboardServer {
         while (true) {
             // Block until a client connects
             final Socket socket = serverSocket.accept();
-            threadID.getAndIncrement();
 
-            // Creates the blocking queue for each client and adds it to the
-            // commandQueues list
-            BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-            commandQueues.add(blockingQueue);
+            // Creates the blocking queue for each client and opens its Session
+            ClientQueue blockingQueue = new ClientQueue(socket);
+            blockingQueue.threadNum = addSession(blockingQueue);
 
-            final Integer threadNum = threadID.get();
             // Create the Input and Output Threads for each client
-            createThreads(socket, threadNum);
+            createThreads(socket, blockingQueue, blockingQueue.threadNum);
+        }
+    }
+
+    /**
+     * Opens a Session for a newly connected client and adds it to the
+     * sessions registry.
+     * 
+     * @param blockingQueue represents the queue of messages waiting to be
+     *            sent to the client
+     * @return the id of the client's Session
+     */
+    protected Integer addSession(BlockingQueue<Message> blockingQueue) {
+        Integer id = sessionID.incrementAndGet();
+        sessions.put(id, new Session(id, blockingQueue));
+        return id;
+    }
+
+    /**
+     * Closes the client's Session: removes the client from the server if it
+     * did not disconnect itself, stops its output and removes the Session
+     * from the registry, releasing its blockingQueue. Does nothing if the
+     * Session is already closed.
+     * 
+     * @param threadNum represents the id of the client's Session
+     */
+    protected void removeSession(final Integer threadNum) {
+        Session session = sessions.get(threadNum);
+        if (session == null) {
+            return;
+        }
+        String client = session.client;
+        if (client != null) {
+            // The connection closed without the disconnect message
+            removeClient(client, threadNum);
+        }
+        stopOutput(threadNum);
+        if (sessions.remove(threadNum) != null) {
+            session.commandsQueue.clear();
+            // Wakes up the output after the clear
+            session.commandsQueue.offer(OUTPUT_WAKE_UP);
         }
     }
 
@@ -98,10 +185,57 @@ public class WhiteboardServer {
      * Creates 3 Boards for the Server to start with
      */
     protected void createBoards() {
-        ArrayList<String> emptyCommandAndClientList = new ArrayList<String>();
-        whiteboardToCommandsMap.put("Board1", emptyCommandAndClientList);
-        whiteboardToCommandsMap.put("Board2", emptyCommandAndClientList);
-        whiteboardToCommandsMap.put("Board3", emptyCommandAndClientList);
+        boards.put("Board1", new Board("Board1"));
+        boards.put("Board2", new Board("Board2"));
+        boards.put("Board3", new Board("Board3"));
+    }
+
+    /**
+     * Opens the HistoryLog in the directory and logs the Boards from now on,
+     * before the server starts serving. The Boards rebuilt from the
+     * HistoryLog replace the starting Boards of the same name, and the other
+     * starting Boards are added to it.
+     * 
+     * @param directory represents the directory of the HistoryLog
+     * @throws IOException if the HistoryLog cannot be read
+     */
+    public void openHistoryLog(final Path directory) throws IOException {
+        HistoryLog log = new HistoryLog(directory, BoardLog.SEGMENT_SIZE);
+        for (Board board : log.getRecoveredBoards()) {
+            boards.put(board.name, board);
+        }
+        for (Board board : boards.values()) {
+            if (!log.contains(board.name)) {
+                log.addBoard(board);
+            }
+        }
+        historyLog = log;
+        System.err.println("Recovered " + log.getRecoveredBoards().size() + " Whiteboards from " + directory);
+    }
+
+    /**
+     * Keeps the Boards within a memory budget from now on, by evicting idle
+     * Boards to files in the directory and reading them back when a client
+     * selects them or draws on them.
+     * 
+     * @param memoryBudget represents the heap the Boards may use, in bytes
+     * @param idleMillis represents the time a Board must have had no client
+     *            before it can be evicted, in milliseconds
+     * @param directory represents the directory the evicted Boards are
+     *            written to
+     * @throws IOException if the directory cannot be made
+     */
+    public void useBoardCache(final long memoryBudget, final long idleMillis, final Path directory)
+            throws IOException {
+        boardCache = new BoardCache(boards.values(), memoryBudget, idleMillis, directory);
+    }
+
+    /**
+     * Returns the BoardCache with the hit, miss and reload counters of the
+     * Boards, or null if every Board is kept in memory.
+     */
+    public BoardCache getBoardCache() {
+        return boardCache;
     }
 
     /**
@@ -110,13 +244,14 @@ public class WhiteboardServer {
      * 
      * @param socket
      *            represents the socket that the client is connected to
+     * @param commandsQueue
+     *            represents the client's blockingQueue
      * @param threadNum
-     *            represents the position of the client's blockingQueue in the
-     *            commandQueues list
+     *            represents the id of the client's Session
      */
-    private void createThreads(final Socket socket, final Integer threadNum) {
+    private void createThreads(final Socket socket, final ClientQueue commandsQueue, final Integer threadNum) {
         // Thread to handle inputs from the client
-        Thread inputThread = new Thread(new Runnable() {
+        Thread inputThread = threadMode.newThread(new Runnable() {
             public void run() {
                 System.out.println("Starting Client Input Thread with Thread " + threadNum);
                 try {
@@ -130,13 +265,11 @@ public class WhiteboardServer {
         });
 
         // Thread to handle outputs to the client
-        Thread outputThread = new Thread(new Runnable() {
+        Thread outputThread = threadMode.newThread(new Runnable() {
             public void run() {
                 System.out.println("Starting Output Thread with Thread " + threadNum);
                 try {
-                    boolean outputThreadStatus = true;
-                    outputThreadActive.add(outputThreadStatus);
-                    handleOutputs(socket, threadNum);
+                    handleOutputs(socket, commandsQueue, threadNum);
                 } catch (SocketException e) {
                     System.err.println("Client socket closed for Thread " + threadNum.toString());
                 } catch (IOException | InterruptedException e) {
@@ -151,33 +284,74 @@ public class WhiteboardServer {
     }
 
     /**
-     * Polls the output BlockingQueue of each client and writes items as text
-     * messages to the client's socket.
+     * Waits on the output BlockingQueue of each client and writes the
+     * already encoded lines of its Messages to the client's socket. Every message queued while the
+     * previous batch was being written is written as one batch, with a single
+     * flush of the socket. A Replay is encoded a chunk at a time while the
+     * socket takes it. Once the client has been sent BinaryProtocol.ACCEPT,
+     * the messages are written as binary frames instead.
      * 
      * @param socket represents the socket that the client is connected to
+     * @param commandsQueue represents the client's blockingQueue
      * @throws IOException if connection has an error or terminates unexpectedly
      * @throws InterruptedException
      */
-    private void handleOutputs(final Socket socket, final Integer threadNum)
+    private void handleOutputs(final Socket socket, final ClientQueue commandsQueue, final Integer threadNum)
             throws IOException, InterruptedException {
-        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        BufferedOutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        BinaryFrameWriter binaryOut = null;
+        List<Message> batch = new ArrayList<Message>();
         try {
             // Run as long as the client is connected
-            while (outputThreadActive.get(threadNum)) {
-                BlockingQueue<String> commandsQueue = commandQueues.get(threadNum);
-                // Constantly poll the client's Blocking Queue in the Commands Queue
-                while (commandsQueue.peek() != null) {
-                    String output = (String) commandsQueue.take();
-                    out.println(output);
+            while (isOutputActive(threadNum)) {
+                // Wait for a message, then take everything queued behind it
+                batch.add(commandsQueue.take());
+                commandsQueue.drainTo(batch);
+                for (Message output : batch) {
+                    if (output == OUTPUT_WAKE_UP) {
+                        continue;
+                    }
+                    if (output instanceof Replay) {
+                        // Encoded a chunk at a time while the socket takes it,
+                        // and given up once a Resync will replace it
+                        Replay replay = (Replay) output;
+                        while (replay.hasNext() && !commandsQueue.isResyncPending()) {
+                            if (binaryOut != null) {
+                                replay.writeNext(binaryOut, Replay.CHUNK_SIZE);
+                            } else {
+                                replay.writeNext(out, Replay.CHUNK_SIZE);
+                            }
+                        }
+                    } else if (binaryOut != null) {
+                        binaryOut.writeLine(output.getText());
+                    } else {
+                        // Already encoded once for all the clients it is sent to
+                        out.write(output.getLine());
+                        if (output.getText().equals(BinaryProtocol.ACCEPT)) {
+                            // Everything after the acceptance is a binary frame
+                            binaryOut = new BinaryFrameWriter(out);
+                        }
+                    }
                 }
+                if (binaryOut != null) {
+                    binaryOut.flush();
+                } else {
+                    out.flush();
+                }
+                batch.clear();
+                commandsQueue.resyncIfPending();
             }
         } finally {
+            // Makes the input finish too, if the output failed first
+            socket.close();
             System.out.println("Socket for Thread " + threadNum.toString() + " closed");
         }
     }
 
     /**
      * Listens to the client socket for messages and passes inputs to handleRequest to be handled.
+     * If the client's first message is BinaryProtocol.REQUEST, the client is sent
+     * BinaryProtocol.ACCEPT and the rest of its messages are read as binary frames.
      * 
      * @param socket represents the socket the client is connected to
      * @throws IOException if connection has an error or terminates unexpectedly
@@ -185,105 +359,430 @@ public class WhiteboardServer {
      */
     private void handleClientInput(final Socket socket, final Integer threadNum)
             throws IOException, InterruptedException {
-        BufferedReader in = new BufferedReader(new InputStreamReader(
-                socket.getInputStream()));
+        InputStream socketIn = socket.getInputStream();
         try {
-            for (String line = in.readLine(); line != null; line = in.readLine()) {
-                if (line.substring(0, 10).equals("Disconnect")) { // If the server receives the disconnectmessage
-                    in.close();
-                    socket.close();
-                    String[] tokens = line.split(" ");
-                    // Remove client from clientTothreadNumMap and from clientToWhiteboardMap
-                    removeDisconnectedUser(tokens[1], threadNum);
-                    clientToWhiteboardMap.remove(tokens[1]);
-                    clientToThreadNumMap.remove(tokens[1]);
+            // Read without buffering ahead, in case binary frames follow
+            String firstLine = BinaryProtocol.readLine(socketIn);
+            if (firstLine == null) {
+                return;
+            }
+            if (firstLine.equals(BinaryProtocol.REQUEST)) {
+                send(threadNum, BinaryProtocol.ACCEPT);
+                handleBinaryInput(socket, new BinaryFrameReader(new BufferedInputStream(socketIn)), threadNum);
+                return;
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(socketIn));
+            for (String line = firstLine; line != null; line = in.readLine()) {
+                if (!handleLine(socket, line, threadNum)) {
                     break;
-                } else {
-                    handleRequest(line, threadNum);
                 }
             }
         } catch (SocketException e) {
             System.err.println("Input: Client socket closed for Thread " + threadNum.toString());
         } finally {
+            // Also removes the client if the connection dropped without the
+            // disconnect message
+            removeSession(threadNum);
             System.err.println("Input Thread for Thread " + threadNum.toString() + " done");
         }
     }
 
+    /**
+     * Reads the binary frames sent by a client that uses the binary protocol.
+     * Draw and erase frames are handled without parsing them as text.
+     * 
+     * @param socket represents the socket the client is connected to
+     * @param in represents the reader of the client's binary frames
+     * @throws IOException if connection has an error or terminates unexpectedly
+     */
+    private void handleBinaryInput(final Socket socket, final BinaryFrameReader in, final Integer threadNum)
+            throws IOException {
+        for (int frame = in.read(); frame != -1; frame = in.read()) {
+            if (frame == BinaryFrameReader.DRAW) {
+                draw(in.getBoard(), in.getX1(), in.getY1(), in.getX2(), in.getY2(), in.getStrokeSize(),
+                        in.getRed(), in.getGreen(), in.getBlue());
+            } else if (frame == BinaryFrameReader.ERASE) {
+                erase(in.getBoard(), in.getX1(), in.getY1(), in.getX2(), in.getY2(), in.getStrokeSize());
+            } else if (!handleLine(socket, in.getText(), threadNum)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Handles one text message from the client, closing the client's socket if
+     * it is the disconnect message.
+     * 
+     * @param socket represents the socket the client is connected to
+     * @param line represents the text message from the client
+     * @return false if the client disconnected, true otherwise
+     * @throws IOException if the socket cannot be closed
+     */
+    private boolean handleLine(final Socket socket, final String line, final Integer threadNum) throws IOException {
+        if (isDisconnect(line)) { // If the server receives the disconnect message
+            socket.close();
+            handleDisconnect(line, threadNum);
+            return false;
+        }
+        handleRequest(line, threadNum);
+        return true;
+    }
+
+    /**
+     * Returns true if the line is the disconnect message sent by a client
+     * that is closing its connection.
+     * 
+     * @param line represents the text message from the client
+     */
+    protected static boolean isDisconnect(final String line) {
+        return line.startsWith("Disconnect ");
+    }
+
+    /**
+     * Removes the disconnecting client from the server, after its socket has
+     * been closed.
+     * 
+     * @param line represents the disconnect message from the client
+     * @param threadNum represents the id of the client's Session
+     */
+    protected void handleDisconnect(final String line, final Integer threadNum) {
+        String[] tokens = line.split(" ");
+        removeClient(tokens[1], threadNum);
+    }
+
+    /**
+     * Removes a client from the server and stops its output.
+     * 
+     * @param client represents the name of the client
+     * @param threadNum represents the id of the client's Session
+     */
+    protected void removeClient(final String client, final Integer threadNum) {
+        Session session = sessions.get(threadNum);
+        if (session != null && client.equals(session.client)) {
+            session.client = null;
+        }
+        // Remove client from clientTothreadNumMap and from clientToWhiteboardMap
+        Board board = unsubscribe(client);
+        removeDisconnectedUser(client, threadNum);
+        clientToWhiteboardMap.remove(client);
+        clientToThreadNumMap.remove(client);
+        if (board != null) {
+            // Undoes a join the Board's lane ran meanwhile, see selectBoard
+            board.unsubscribe(client);
+        }
+    }
+
     /**
      * Parses client input and performs the appropriate operations.
      * 
      * @param input represents the text message from the client
-     * @param threadNum represents the position of the client's blockingQueue in the commandQueues list
+     * @param threadNum represents the id of the client's Session
+     * @return false if the input is a command that was not taken because its
+     *         Board's lane is full, see executeOnBoard
      */
-    protected void handleRequest(final String input, final Integer threadNum) {
-        String regex = "([^=]* selectBoard [^=]*)|([^=]* draw -?\\d+ -?\\d+ -?\\d+ -?\\d+ -?\\d+ [^=]* [^=]* [^=]*)|([^=]* erase -?\\d+ -?\\d+ -?\\d+ -?\\d+ -?\\d+)|"
-                + "(Disconnect [^=]*)|(new username [^=]*)|(addBoard [^=]*)";
-        // If the input is not defined in the regex
-        if (!input.matches(regex)) {
+    protected boolean handleRequest(final String input, final Integer threadNum) {
+        Request request = Request.parse(input);
+        // If the input is not part of the protocol
+        if (request == null) {
             System.err.println("Not in Server Regex");
             System.err.println(input);
-            commandQueues.get(threadNum).offer("Not in Server Regex");
-            return;
+            send(threadNum, "Not in Server Regex");
+            return true;
         }
-        String[] tokens = input.split(" ");
-        if (tokens.length > 1) {
-            if ((tokens[0].equals("new")) && (tokens[1].equals("username"))) {
-                // If the username doesn't already exist in the server
-                if (!clientToWhiteboardMap.containsKey(tokens[2])) {
-                    clientToWhiteboardMap.put(tokens[2], "");
-                    clientToThreadNumMap.put(tokens[2], threadNum);
-                    // Send existing Whiteboard names only to the user that just joined
-                    getExistingWhiteboardsOne(threadNum);
-                    commandQueues.get(threadNum).offer("Select a whiteboard");
-                } else { // If the username already exists in the server
-                    commandQueues.get(threadNum).offer("Username already taken. Please select a new username.");
+        switch (request.type) {
+        case NEW_USERNAME:
+            newUsername(request.client, threadNum);
+            break;
+        case ADD_BOARD:
+            addBoard(request.whiteboard, threadNum);
+            break;
+        case DRAW:
+            return draw(request.whiteboard, request.x1, request.y1, request.x2, request.y2, request.strokeSize,
+                    request.red, request.green, request.blue);
+        case ERASE:
+            return erase(request.whiteboard, request.x1, request.y1, request.x2, request.y2, request.strokeSize);
+        case SELECT_BOARD:
+            return selectBoard(request.client, request.whiteboard, threadNum);
+        case VIEWPORT:
+            return viewport(request.whiteboard, request.x1, request.y1, request.width, request.height, threadNum);
+        default:
+            System.err.println("In Server Regex, no action");
+            System.err.println(input);
+            send(threadNum, "In Server Regex, no action");
+        }
+        return true;
+    }
+
+    /**
+     * Adds a new client to the server, unless the username is already taken.
+     * 
+     * @param client represents the desired username of the client
+     * @param threadNum represents the id of the client's Session
+     */
+    protected void newUsername(final String client, final Integer threadNum) {
+        // If the username doesn't already exist in the server, claims it
+        if (clientToWhiteboardMap.putIfAbsent(client, "") == null) {
+            clientToThreadNumMap.put(client, threadNum);
+            Session session = sessions.get(threadNum);
+            if (session != null && session.client == null) {
+                session.client = client;
+            }
+            // Send existing Whiteboard names only to the user that just joined
+            getExistingWhiteboardsOne(threadNum);
+            send(threadNum, "Select a whiteboard");
+        } else { // If the username already exists in the server
+            send(threadNum, "Username already taken. Please select a new username.");
+        }
+    }
+
+    /**
+     * Adds a new Whiteboard to the server, unless it already exists, and
+     * sends the names of the Whiteboards to all clients.
+     * 
+     * @param whiteboard represents the name of the new Whiteboard
+     * @param threadNum represents the id of the client's Session
+     */
+    protected void addBoard(final String whiteboard, final Integer threadNum) {
+        // Adds a new Whiteboard to the Server, unless it already exists
+        Board board = new Board(whiteboard);
+        boolean added;
+        if (historyLog == null) {
+            added = boards.putIfAbsent(whiteboard, board) == null;
+        } else {
+            // Nothing can be drawn on the Board before it is logged
+            synchronized (historyLog) {
+                added = !boards.containsKey(whiteboard);
+                if (added) {
+                    try {
+                        historyLog.addBoard(board);
+                    } catch (IOException e) {
+                        System.err.println("Whiteboard " + whiteboard + " is not logged: " + e);
+                    }
+                    boards.put(whiteboard, board);
                 }
-            } else if (tokens[0].equals("addBoard")) {
-                if (whiteboardToCommandsMap.containsKey(tokens[1])) {
-                    // If the Whiteboard already exists in the server
-                    commandQueues.get(threadNum).offer("Whiteboard already exists.");
-                } else {
-                    // Adds a new Whiteboard to the Server
-                    ArrayList<String> commandList = new ArrayList<String>();
-                    whiteboardToCommandsMap.put(tokens[1], commandList);
-                    commandQueues.get(threadNum).offer("Board " + tokens[1] + " added");
+            }
+        }
+        if (!added) {
+            send(threadNum, "Whiteboard already exists.");
+        } else {
+            send(threadNum, "Board " + whiteboard + " added");
+        }
+        // Send existing Whiteboard names to all users
+        getExistingWhiteboardsAll();
+    }
+
+    /**
+     * Adds a draw command to the Whiteboard's history and sends it to all
+     * clients working on the Whiteboard, on the Whiteboard's lane of the
+     * BoardExecutor.
+     * 
+     * @param whiteboard represents the name of the Whiteboard
+     * @return false if the command was not taken, see executeOnBoard
+     */
+    protected boolean draw(final String whiteboard, final int x1, final int y1, final int x2, final int y2,
+            final int strokeSize, final int red, final int green, final int blue) {
+        final Board board = boardNamed(whiteboard);
+        if (board == null) {
+            return true;
+        }
+        return executeOnBoard(board, new Runnable() {
+            public void run() {
+                // Put the command in the Whiteboard's history and all collaborator queues
+                if (touch(board)) {
+                    board.draw(x1, y1, x2, y2, strokeSize, red, green, blue);
                 }
-                // Send existing Whiteboard names to all users
-                getExistingWhiteboardsAll();
-            } else if ((tokens[1].equals("draw")) || (tokens[1].equals("erase"))) {
-                // Put the input in the Whiteboard commandlist
-                whiteboardToCommandsMap.get(tokens[0]).add(input);
-                // Putting commands into all collaborator queues
-                for (String keys : clientToWhiteboardMap.keySet()) {
-                    if (clientToWhiteboardMap.get(keys).equals(tokens[0])) {
-                        commandQueues.get(clientToThreadNumMap.get(keys)).offer(input);
-                    }
+            }
+        });
+    }
+
+    /**
+     * Adds an erase command to the Whiteboard's history and sends it to all
+     * clients working on the Whiteboard, on the Whiteboard's lane of the
+     * BoardExecutor.
+     * 
+     * @param whiteboard represents the name of the Whiteboard
+     * @return false if the command was not taken, see executeOnBoard
+     */
+    protected boolean erase(final String whiteboard, final int x1, final int y1, final int x2, final int y2,
+            final int strokeSize) {
+        final Board board = boardNamed(whiteboard);
+        if (board == null) {
+            return true;
+        }
+        return executeOnBoard(board, new Runnable() {
+            public void run() {
+                // Put the command in the Whiteboard's history and all collaborator queues
+                if (touch(board)) {
+                    board.erase(x1, y1, x2, y2, strokeSize);
                 }
-            } else if (tokens[1].equals("selectBoard")) {
-                // If the client doesn't exist
-                if (!clientToWhiteboardMap.containsKey(tokens[0])) {
-                    commandQueues.get(threadNum).offer("Username does not exist.");
-                    // If the whiteboard doesn't exist
-                } else if (!whiteboardToCommandsMap.containsKey(tokens[2])) {
-                    commandQueues.get(threadNum).offer("Whiteboard does not exist. Select a different board or make a board.");
-                } else {
-                    // Map the client to its Whiteboard
-                    clientToWhiteboardMap.put(tokens[0], tokens[2]);
-                    // Update all clients of the collaborator names
-                    getSameUsersWhiteboard();
-                    commandQueues.get(threadNum).offer(tokens[0] + " on board " + tokens[2]);
-                    System.out.println(tokens[0] + " on board " + tokens[2]);
-                    // Send Whiteboard history of commands to the client
-                    for (String command : whiteboardToCommandsMap.get(tokens[2])) {
-                        commandQueues.get(threadNum).offer(command);
+            }
+        });
+    }
+
+    /**
+     * Hands a command changing the Board to the Board's lane of the
+     * BoardExecutor, waiting while the lane is full, as the thread reading a
+     * client can.
+     * 
+     * @param board represents the Board the command changes
+     * @param command represents the command
+     * @return true if the command was taken; a server whose threads must not
+     *         wait returns false when the lane is full, and the command must
+     *         then be handled again
+     */
+    protected boolean executeOnBoard(final Board board, final Runnable command) {
+        boardExecutor.execute(board, command);
+        return true;
+    }
+
+    /**
+     * Waits until the BoardExecutor has run every draw and erase command
+     * handled before the call.
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected void awaitBoards() throws InterruptedException {
+        boardExecutor.await();
+    }
+
+    /**
+     * Returns the Board of the Whiteboard, or null if it does not exist.
+     * 
+     * @param whiteboard represents the name of the Whiteboard
+     */
+    private Board boardNamed(final String whiteboard) {
+        Board board = boards.get(whiteboard);
+        if (board == null) {
+            System.err.println("Whiteboard " + whiteboard + " does not exist");
+        }
+        return board;
+    }
+
+    /**
+     * Marks the Board as used by a client, reading it back if it was evicted.
+     * 
+     * @param board represents the Board
+     * @return false if the Board was evicted and cannot be read back
+     */
+    private boolean touch(final Board board) {
+        BoardCache cache = boardCache;
+        return cache == null || cache.touch(board);
+    }
+
+    /**
+     * Moves the client to the Whiteboard and sends it the Whiteboard's
+     * history of commands, on the Whiteboard's lane of the BoardExecutor.
+     * 
+     * @param client represents the name of the client
+     * @param whiteboard represents the name of the selected Whiteboard
+     * @param threadNum represents the id of the client's Session
+     * @return false if the client was not moved because the Whiteboard's
+     *         lane is full, see executeOnBoard
+     */
+    protected boolean selectBoard(final String client, final String whiteboard, final Integer threadNum) {
+        // If the client doesn't exist
+        if (!clientToWhiteboardMap.containsKey(client)) {
+            send(threadNum, "Username does not exist.");
+            // If the whiteboard doesn't exist
+        } else if (!boards.containsKey(whiteboard) || !touch(boards.get(whiteboard))) {
+            send(threadNum, "Whiteboard does not exist. Select a different board or make a board.");
+        } else if (sessions.containsKey(threadNum)) {
+            // Map the client to its Whiteboard
+            final Board board = boards.get(whiteboard);
+            final BlockingQueue<Message> commandsQueue = sessions.get(threadNum).commandsQueue;
+            Board previousBoard = boardOf(client);
+            clientToWhiteboardMap.put(client, whiteboard);
+            // Unsubscribed after the client is mapped to its new Whiteboard,
+            // so a join still running on the lane of the Whiteboard it left
+            // either sees it gone or is undone here
+            if (previousBoard != null) {
+                previousBoard.unsubscribe(client);
+            }
+            // Update the clients of the Whiteboard the client left
+            if (previousBoard != null && previousBoard != board) {
+                getSameUsersWhiteboard(previousBoard);
+            }
+            // Run by the Whiteboard's writer, so no command of the Whiteboard
+            // is made until the client has been sent its history, and it
+            // misses none and gets none twice
+            return executeOnBoard(board, new Runnable() {
+                public void run() {
+                    board.subscribe(client, commandsQueue);
+                    if (boardOf(client) != board) {
+                        // Left the Whiteboard or disconnected meanwhile
+                        board.unsubscribe(client);
+                        return;
                     }
+                    // Update the clients of the Whiteboard of the collaborator names
+                    getSameUsersWhiteboard(board);
+                    send(threadNum, client + " on board " + whiteboard);
+                    System.out.println(client + " on board " + whiteboard);
+                    // Send Whiteboard history of commands to the client, as a
+                    // single Replay written out by the client's output
+                    board.replayTo(commandsQueue);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Narrows the commands of the Whiteboard sent to the client to the ones
+     * that may draw inside its viewport, and sends it the ones of the history.
+     * The client is sent every command again once it selects a Whiteboard.
+     * 
+     * @param whiteboard represents the name of the Whiteboard the client is
+     *            working on
+     * @param x represents the left edge of the viewport
+     * @param y represents the top edge of the viewport
+     * @param width represents the width of the viewport, positive
+     * @param height represents the height of the viewport, positive
+     * @param threadNum represents the id of the client's Session
+     * @return false if the viewport was not taken because the Whiteboard's
+     *         lane is full, see executeOnBoard
+     */
+    protected boolean viewport(final String whiteboard, final int x, final int y, final int width,
+            final int height, final Integer threadNum) {
+        final String client = clientOf(threadNum);
+        final Board board = client == null ? null : boardOf(client);
+        if (board == null || !board.name.equals(whiteboard)) {
+            System.err.println("Client " + client + " is not working on Whiteboard " + whiteboard);
+            return true;
+        }
+        // Run by the Whiteboard's writer, in between two of its commands
+        return executeOnBoard(board, new Runnable() {
+            public void run() {
+                if (touch(board)) {
+                    board.setViewport(client, x, y, width, height);
                 }
-            } else {
-                System.err.println("In Server Regex, no action");
-                System.err.println(input);
-                commandQueues.get(threadNum).offer("In Server Regex, no action");
             }
+        });
+    }
+
+    /**
+     * Removes the client's BlockingQueue from the subscribers of the
+     * Whiteboard it is working on, if any.
+     * 
+     * @param client represents the name of the client
+     * @return the Board the client was working on, or null
+     */
+    protected Board unsubscribe(final String client) {
+        Board board = boardOf(client);
+        if (board != null) {
+            board.unsubscribe(client);
         }
+        return board;
+    }
+
+    /**
+     * Returns the Board the client is working on, or null if it is not
+     * working on one.
+     * 
+     * @param client represents the name of the client
+     */
+    protected Board boardOf(final String client) {
+        String whiteboard = clientToWhiteboardMap.get(client);
+        return whiteboard == null ? null : boards.get(whiteboard);
     }
 
     /**
@@ -291,15 +790,15 @@ public class WhiteboardServer {
      */
     protected void getExistingWhiteboardsAll() {
         // Gets all the names of the existing Whiteboards and send to all clients
-        for (String whiteboard : whiteboardToCommandsMap.keySet()) {
-            String whiteboards = "Existing Whiteboards " + whiteboard;
-            for (BlockingQueue<String> commandQueue : commandQueues) {
-                commandQueue.offer(whiteboards);
+        for (String whiteboard : boards.keySet()) {
+            Message whiteboards = new Message("Existing Whiteboards " + whiteboard);
+            for (Session session : sessions.values()) {
+                session.commandsQueue.offer(whiteboards);
             }
         }
-        String message = "Done sending whiteboard names";
-        for (BlockingQueue<String> commandQueue : commandQueues) {
-            commandQueue.offer(message);
+        Message message = new Message("Done sending whiteboard names");
+        for (Session session : sessions.values()) {
+            session.commandsQueue.offer(message);
         }
     }
 
@@ -309,62 +808,45 @@ public class WhiteboardServer {
      */
     protected void getExistingWhiteboardsOne(final int threadNum) {
         // Gets all the names of the existing Whiteboards
-        for (String whiteboard : whiteboardToCommandsMap.keySet()) {
+        for (String whiteboard : boards.keySet()) {
             String whiteboards = "Existing Whiteboards " + whiteboard;
-            commandQueues.get(threadNum).offer(whiteboards);
+            send(threadNum, whiteboards);
         }
         String message = "Done sending whiteboard names";
-        commandQueues.get(threadNum).offer(message);
-    }
-
-    /**
-     * Sends out to all clients the names of the other clients working on the
-     * same Whiteboard.
-     */
-    protected void getSameUsersWhiteboard() {
-        // Updating whiteboardToClientsMap
-        whiteboardToClientsMap.clear();
-        for (String client : clientToWhiteboardMap.keySet()) {
-            // If the whiteboardToClientsMap doesn't have the Whiteboard name
-            if (!whiteboardToClientsMap.containsKey(clientToWhiteboardMap.get(client))) {
-                // Create a list of clients working on the same Whiteboard and
-                // add the current client to the list
-                ArrayList<String> currentClients = new ArrayList<String>();
-                currentClients.add(client);
-                whiteboardToClientsMap.put(clientToWhiteboardMap.get(client),currentClients);
-            } else {
-                // Add the current client to the list of clients working on the
-                // same Whiteboard (only if the client isn't already in the
-                // list)
-                if (!whiteboardToClientsMap.get(clientToWhiteboardMap.get(client)).contains(client)) {
-                    whiteboardToClientsMap.get(clientToWhiteboardMap.get(client)).add(client);
-                }
-            }
-        }
+        send(threadNum, message);
+    }
 
-        // Go through all of the Whiteboards and send all collaborating clients
-        // the names of the other collaborators
-        for (String whiteboard : whiteboardToClientsMap.keySet()) {
-            ArrayList<String> sameClients = whiteboardToClientsMap.get(whiteboard);
-            ArrayList<String> sameClientsCommands = new ArrayList<String>();
+    /**
+     * Sends out to all clients working on the Whiteboard the names of the
+     * clients working on it.
+     * 
+     * @param board represents the Whiteboard
+     */
+    protected void getSameUsersWhiteboard(final Board board) {
+        // Copied, a slow client can be disconnected while it is sent to
+        List<String> sameClients = board.getClients();
+        ArrayList<Message> sameClientsCommands = new ArrayList<Message>();
 
-            // Generates the String commands to denote collaborators
-            for (String client : sameClients) {
-                String clientCommand = "sameClient " + client;
-                sameClientsCommands.add(clientCommand);
-            }
+        // Generates the commands to denote collaborators
+        for (String client : sameClients) {
+            Message clientCommand = new Message("sameClient " + client);
+            sameClientsCommands.add(clientCommand);
+        }
 
-            // Send each collaborator that shares the Whiteboard the names of
-            // the other collaborators
-            for (String client : sameClients) {
-                String sending = "Updating Clients";
-                commandQueues.get(clientToThreadNumMap.get(client)).offer(sending);
-                for (String clientCommands : sameClientsCommands) {
-                    commandQueues.get(clientToThreadNumMap.get(client)).offer(clientCommands);
-                }
-                String doneSending = "Done sending client names";
-                commandQueues.get(clientToThreadNumMap.get(client)).offer(doneSending);
+        // Send each collaborator that shares the Whiteboard the names of the
+        // other collaborators
+        Message sending = new Message("Updating Clients");
+        Message doneSending = new Message("Done sending client names");
+        for (String client : sameClients) {
+            BlockingQueue<Message> commandQueue = board.getSubscriber(client);
+            if (commandQueue == null) {
+                continue; // Disconnected while the others were sent to
+            }
+            commandQueue.offer(sending);
+            for (Message clientCommands : sameClientsCommands) {
+                commandQueue.offer(clientCommands);
             }
+            commandQueue.offer(doneSending);
         }
     }
 
@@ -373,29 +855,283 @@ public class WhiteboardServer {
      * names of the active clients working on the same Whiteboard.
      * 
      * @param client represents the name of the client who disconnected
-     * @param threadNum represents the thream number of the client
+     * @param threadNum represents the id of the client's Session
      */
     protected void removeDisconnectedUser(String client, final int threadNum) {
-        // Updating whiteboardToClientsMap
-        whiteboardToClientsMap.get(clientToWhiteboardMap.get(client)).remove(client);
-        String clientCommand = "removeClient " + client;
+        Board board = boardOf(client);
+        if (board != null) {
+            // Send each collaborator that shared the Whiteboard the name of
+            // the client that left
+            Message clientCommand = new Message("removeClient " + client);
+            for (BlockingQueue<Message> commandQueue : board.getSubscriberQueues()) {
+                commandQueue.offer(clientCommand);
+            }
+        }
+        stopOutput(threadNum);
+    }
 
-        // Go through all of the Whiteboards and send all collaborating clients the names of the other collaborators
-        for (String whiteboard : whiteboardToClientsMap.keySet()) {
-            ArrayList<String> sameClients = whiteboardToClientsMap.get(whiteboard);
+    /**
+     * Queues a text message to be sent to one client.
+     * 
+     * @param threadNum represents the id of the client's Session
+     * @param text represents the text message
+     */
+    protected void send(final Integer threadNum, final String text) {
+        send(threadNum, new Message(text));
+    }
+
+    /**
+     * Queues a Message to be sent to one client, unless its Session is
+     * closed.
+     * 
+     * @param threadNum represents the id of the client's Session
+     * @param message represents the Message
+     */
+    protected void send(final Integer threadNum, final Message message) {
+        Session session = sessions.get(threadNum);
+        if (session != null) {
+            session.commandsQueue.offer(message);
+        }
+    }
+
+    /**
+     * Makes the output thread of the client finish, waking it up if it is
+     * waiting on an empty BlockingQueue.
+     * 
+     * @param threadNum represents the id of the client's Session
+     */
+    protected void stopOutput(final Integer threadNum) {
+        Session session = sessions.get(threadNum);
+        if (session != null) {
+            session.outputActive = false;
+            session.commandsQueue.offer(OUTPUT_WAKE_UP);
+        }
+    }
+
+    /**
+     * Returns true until the client's output has been stopped.
+     * 
+     * @param threadNum represents the id of the client's Session
+     */
+    protected boolean isOutputActive(final Integer threadNum) {
+        Session session = sessions.get(threadNum);
+        return session != null && session.outputActive;
+    }
 
-            // Send each collaborator that shares the Whiteboard the names of the other collaborators
-            for (String c : sameClients) {
-                commandQueues.get(clientToThreadNumMap.get(c)).offer(clientCommand);
+    /**
+     * Returns the metrics of what the server did to its slow clients.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Applies the server's SlowConsumerPolicy to a client whose blockingQueue
+     * is full.
+     * 
+     * @param commandsQueue represents the client's full blockingQueue
+     * @param message represents the message that did not fit in the queue
+     * @return true if the message, or a Resync that replaces it, was queued
+     */
+    protected boolean handleSlowConsumer(final ClientQueue commandsQueue, final Message message) {
+        switch (slowConsumerPolicy) {
+        case COALESCE:
+            synchronized (commandsQueue) {
+                // Draw and erase commands and Replays are all in the Whiteboard's
+                // history, so one Resync of the Whiteboard replaces every one of them
+                int coalesced = commandsQueue.removeInk();
+                metrics.messagesCoalesced(message.isInk() ? coalesced + 1 : coalesced);
+                // The Resync is made by the client's output when it next takes
+                // messages from the queue, without locking a Board from here
+                commandsQueue.resyncPending.set(true);
+                if (message.isInk() ? commandsQueue.enqueue(OUTPUT_WAKE_UP) : commandsQueue.enqueue(message)) {
+                    return true;
+                }
+            }
+            // Full of messages that cannot be coalesced
+            disconnectSlowConsumer(commandsQueue);
+            return false;
+        case DISCONNECT:
+            disconnectSlowConsumer(commandsQueue);
+            return false;
+        case DROP:
+            metrics.messageDropped();
+            commandsQueue.resyncPending.set(true);
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Disconnects a client whose blockingQueue is full, unless it has
+     * already been disconnected, and removes it from the server.
+     * 
+     * @param commandsQueue represents the client's full blockingQueue
+     */
+    private void disconnectSlowConsumer(final ClientQueue commandsQueue) {
+        if (!commandsQueue.disconnected.compareAndSet(false, true)) {
+            return;
+        }
+        metrics.slowConsumerDisconnected();
+        System.err.println("Disconnecting slow client with Thread " + commandsQueue.threadNum + " (" + metrics + ")");
+        // Nothing queued will be sent any more
+        commandsQueue.clear();
+        try {
+            commandsQueue.connection.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        removeSession(commandsQueue.threadNum);
+    }
+
+    /**
+     * Returns the name of the client with the given threadNum, or null if the
+     * client has not picked a username.
+     * 
+     * @param threadNum represents the id of the client's Session
+     */
+    protected String clientOf(final Integer threadNum) {
+        Session session = sessions.get(threadNum);
+        return session == null ? null : session.client;
+    }
+
+    /**
+     * ClientQueue is the blockingQueue of messages waiting to be sent to one
+     * client. It holds at most maxLag messages; a message offered to a full
+     * ClientQueue is handled according to the server's SlowConsumerPolicy.
+     */
+    protected class ClientQueue extends ArrayBlockingQueue<Message> {
+        private static final long serialVersionUID = 1L;
+        // Closed to disconnect the client
+        private final Closeable connection;
+        // Set when messages were dropped and the client needs a Resync
+        private final AtomicBoolean resyncPending = new AtomicBoolean(false);
+        private final AtomicBoolean disconnected = new AtomicBoolean(false);
+        protected Integer threadNum;
+
+        /**
+         * Makes a ClientQueue.
+         * 
+         * @param connection represents the socket or channel of the client
+         */
+        protected ClientQueue(final Closeable connection) {
+            super(maxLag);
+            this.connection = connection;
+        }
+
+        /**
+         * Queues the message, applying the server's SlowConsumerPolicy if the
+         * queue is full.
+         * 
+         * @return true if the message, or a Resync that replaces it, was queued
+         */
+        @Override
+        public boolean offer(final Message message) {
+            if (super.offer(message)) {
+                return true;
+            }
+            if (message == OUTPUT_WAKE_UP) {
+                // The output is not waiting, it will see that it was stopped
+                return false;
+            }
+            if (message instanceof Resync) {
+                // Queued again by resyncIfPending once there is room
+                return false;
             }
+            return handleSlowConsumer(this, message);
+        }
+
+        /**
+         * Queues the message if there is room, without applying the
+         * SlowConsumerPolicy.
+         */
+        private boolean enqueue(final Message message) {
+            return super.offer(message);
+        }
+
+        /**
+         * Returns true if messages were dropped or coalesced since the last
+         * Resync, which will replace the Replays queued before it.
+         */
+        protected boolean isResyncPending() {
+            return resyncPending.get();
+        }
+
+        /**
+         * Removes the messages waiting in the queue that a Resync replaces,
+         * see Message.isInk: the draw and erase commands and the Replays,
+         * which are all in the history of the client's Whiteboard.
+         * 
+         * @return the number of messages removed
+         */
+        protected int removeInk() {
+            int removed = 0;
+            synchronized (this) {
+                Iterator<Message> queued = iterator();
+                while (queued.hasNext()) {
+                    if (queued.next().isInk()) {
+                        queued.remove();
+                        removed++;
+                    }
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Queues a Resync of the client's Whiteboard if messages were dropped
+         * or coalesced since the last one, in place of the draw and erase
+         * commands and Replays still waiting in the queue, so that a client that never
+         * catches up still gets it. Called by the client's output each time
+         * it takes messages from the queue. The Resync is queued by the
+         * Whiteboard's lane of the BoardExecutor.
+         * 
+         * @return true if the Resync was handed to the lane
+         */
+        protected boolean resyncIfPending() {
+            if (!resyncPending.compareAndSet(true, false)) {
+                return false;
+            }
+            metrics.messagesCoalesced(removeInk());
+            final String client = clientOf(threadNum);
+            Board board = client == null ? null : boardOf(client);
+            if (board == null) {
+                return false;
+            }
+            // Queued by the Board's writer, so no command made meanwhile is
+            // queued ahead of the Resync and then cleared by it. The output
+            // must not wait for the lane: it is woken up to try again once
+            // the lane has room
+            final Board resynced = board;
+            boolean taken = boardExecutor.tryExecute(board, new Runnable() {
+                public void run() {
+                    if (!resynced.resyncTo(client, ClientQueue.this)) {
+                        resyncPending.set(true);
+                        return;
+                    }
+                    metrics.resyncQueued();
+                    System.err.println("Resync queued for Thread " + threadNum + " (" + metrics + ")");
+                }
+            }, new Runnable() {
+                public void run() {
+                    offer(OUTPUT_WAKE_UP);
+                }
+            });
+            if (!taken) {
+                resyncPending.set(true);
+            }
+            return taken;
         }
-        outputThreadActive.set(threadNum, false); // Makes the output thread finish
     }
 
     /**
      * Start a WhiteboardServer using the given arguments.
      * 
-     * Usage: WhiteboardServer [--port PORT]
+     * Usage: WhiteboardServer [--port PORT] [--nio | --threads MODE]
+     *                          [--slow-consumer POLICY] [--max-lag LAG]
+     *                          [--log DIRECTORY] [--board-memory MB]
+     *                          [--idle-minutes MINUTES] [--rebalance-boards]
      * 
      * PORT is an optional integer in the range 0 to 65535 inclusive, specifying
      * the port the server should be listening on for incoming connections. E.g.
@@ -403,21 +1139,71 @@ public class WhiteboardServer {
      * If no port integer is entered, the WhiteboardServer will listen on port 4444
      * for incoming connections.
      * 
+     * --nio is an optional flag that runs the NioWhiteboardServer, which handles
+     * all clients on one event loop thread per processor instead of creating an
+     * input and an output thread for each client.
+     * 
+     * MODE is an optional thread mode, "platform" or "virtual", specifying the
+     * kind of thread the input and output of each client run on. E.g.
+     * "WhiteboardServer --threads virtual" runs them on virtual threads, which
+     * need a Java 21 or later runtime. If no mode is entered, platform threads
+     * are used.
+     * 
+     * POLICY is an optional slow consumer policy, "coalesce", "disconnect" or
+     * "drop", specifying what is done with a client once LAG messages are
+     * waiting to be sent to it: its waiting draw and erase commands are
+     * replaced by a single resync of its Whiteboard, it is disconnected, or
+     * the messages that do not fit are dropped and it is sent a resync in
+     * place of its waiting draw and erase commands. LAG is an optional
+     * integer greater than 0. If they are not entered, clients are coalesced
+     * after 100000 messages.
+     * 
+     * DIRECTORY is an optional directory where the Whiteboards and their
+     * draw and erase commands are logged, and rebuilt from when the server
+     * starts again. If no directory is entered, the Whiteboards are only
+     * kept in memory.
+     * 
+     * MB is an optional number of megabytes of heap the Whiteboards may use.
+     * Once they use more, the Whiteboards that have had no client for MINUTES
+     * minutes (10 by default) are written to a temporary directory, least
+     * recently used first, and read back when a client selects one or draws
+     * on it. If no MB is entered, every Whiteboard is kept in memory.
+     * 
+     * --rebalance-boards is an optional flag that moves busy Whiteboards
+     * between the threads running the draw and erase commands, one thread
+     * per processor, when some threads run many more commands than others.
+     * By default each Whiteboard stays on the thread it was first given.
+     * 
      * @throws IOException
      * 
      */
     public static void main(String[] args) throws IOException {
-        int port = 4444; // Default port
+        ServerOptions options = new ServerOptions();
+        boolean threadModeSet = false;
         Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
         try {
             while (!arguments.isEmpty()) {
                 String flag = arguments.remove();
                 try {
                     if (flag.equals("--port")) {
-                        port = Integer.parseInt(arguments.remove());
-                        if (port < 0 || port > 65535) {
-                            throw new IllegalArgumentException("port " + port + " out of range");
-                        }
+                        options.setPort(Integer.parseInt(arguments.remove()));
+                    } else if (flag.equals("--nio")) {
+                        options.setNonBlocking(true);
+                    } else if (flag.equals("--threads")) {
+                        options.setThreadMode(ThreadMode.fromName(arguments.remove()));
+                        threadModeSet = true;
+                    } else if (flag.equals("--slow-consumer")) {
+                        options.setSlowConsumerPolicy(SlowConsumerPolicy.fromName(arguments.remove()));
+                    } else if (flag.equals("--max-lag")) {
+                        options.setMaxLag(Integer.parseInt(arguments.remove()));
+                    } else if (flag.equals("--log")) {
+                        options.setLogDirectory(Paths.get(arguments.remove()));
+                    } else if (flag.equals("--rebalance-boards")) {
+                        options.setRebalanceBoards(true);
+                    } else if (flag.equals("--board-memory")) {
+                        options.setBoardMemoryMegabytes(Long.parseLong(arguments.remove()));
+                    } else if (flag.equals("--idle-minutes")) {
+                        options.setIdleMinutes(Long.parseLong(arguments.remove()));
                     } else {
                         throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
                     }
@@ -427,13 +1213,21 @@ public class WhiteboardServer {
                     throw new IllegalArgumentException("unable to parse number for " + flag);
                 }
             }
+            if (options.isNonBlocking() && threadModeSet) {
+                throw new IllegalArgumentException("--threads cannot be used with --nio");
+            }
         } catch (IllegalArgumentException iae) {
             System.err.println(iae.getMessage());
-            System.err.println("usage: WhiteBoardServer [--port PORT]");
+            System.err.println("usage: WhiteBoardServer [--port PORT] [--nio | --threads MODE]"
+                    + " [--slow-consumer POLICY] [--max-lag LAG] [--log DIRECTORY]"
+                    + " [--board-memory MB] [--idle-minutes MINUTES] [--rebalance-boards]");
             return;
         }
+        if (options.getThreadMode() == ThreadMode.VIRTUAL && !ThreadMode.virtualThreadsSupported()) {
+            System.err.println("Virtual threads are not supported by this Java runtime, using small stack threads instead");
+        }
         try {
-            runWhiteboardServer(port);
+            runWhiteboardServer(options);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -448,4 +1242,32 @@ public class WhiteboardServer {
         WhiteboardServer server = new WhiteboardServer();
         server.serve(port);
     }
-}
\ No newline at end of file
+
+    /**
+     * Starts a WhiteboardServer set up by the given options.
+     * 
+     * @param options represents the port, the kind of server and the options
+     *            the server runs with.
+     */
+    public static void runWhiteboardServer(final ServerOptions options) throws IOException {
+        WhiteboardServer server;
+        if (options.isNonBlocking()) {
+            server = new NioWhiteboardServer(NioWhiteboardServer.defaultEventLoopCount(),
+                    options.getSlowConsumerPolicy(), options.getMaxLag());
+        } else {
+            server = new WhiteboardServer(options.getThreadMode(), options.getSlowConsumerPolicy(),
+                    options.getMaxLag());
+        }
+        if (options.getLogDirectory() != null) {
+            server.openHistoryLog(options.getLogDirectory());
+        }
+        if (options.getBoardMemory() >= 0) {
+            server.useBoardCache(options.getBoardMemory(), options.getIdleMillis(),
+                    Files.createTempDirectory("whiteboards"));
+        }
+        if (options.isRebalanceBoards()) {
+            server.boardExecutor.startRebalancer();
+        }
+        server.serve(options.getPort());
+    }
+}
@@ -0,0 +1,330 @@
+package server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+/**
+ * WhiteboardServer Benchmark measures the parsing of the clients' messages,
+ * the dispatch of the commands to the clients and the sessions of the
+ * Whiteboard Server. Like every *Benchmark class it is run on its own, not
+ * with the unit tests, and prints what it measures.
+ */
+public class WhiteboardServerBenchmark {
+    // Makes the Keyframes in the thread that asks for them
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        public void execute(final Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    /**
+     * Benchmark of the fan-out of draw commands to 1, 10 and 100 subscribers,
+     * written by the output of each one to its buffered socket: encoded once
+     * in a Message shared by every subscriber, and encoded again by the
+     * output of each subscriber with PrintWriter.println, as they were
+     * before. Reports the nanoseconds per command and subscriber.
+     */
+    @Test
+    public void fanOutEncoding() {
+        int commands = 20000;
+        StringBuilder report = new StringBuilder();
+        // The first round warms up the encoding
+        for (int round = 0; round < 2; round++) {
+            for (int subscribers = 1; subscribers <= 100; subscribers *= 10) {
+                ByteArrayOutputStream[] sockets = new ByteArrayOutputStream[subscribers];
+                BufferedOutputStream[] outs = new BufferedOutputStream[subscribers];
+                PrintWriter[] writers = new PrintWriter[subscribers];
+                for (int s = 0; s < subscribers; s++) {
+                    sockets[s] = new ByteArrayOutputStream(1 << 16);
+                    outs[s] = new BufferedOutputStream(sockets[s]);
+                    writers[s] = new PrintWriter(outs[s], false);
+                }
+                long startTime = System.nanoTime();
+                for (int i = 0; i < commands; i++) {
+                    Message message = new Message("Board1 draw " + (i % 800) + " 300 " + (i % 800 + 3)
+                            + " 302 5 0 0 0", true);
+                    for (int s = 0; s < subscribers; s++) {
+                        write(outs[s], message.getLine(), sockets[s]);
+                    }
+                }
+                long sharedNanos = System.nanoTime() - startTime;
+                startTime = System.nanoTime();
+                for (int i = 0; i < commands; i++) {
+                    String command = "Board1 draw " + (i % 800) + " 300 " + (i % 800 + 3) + " 302 5 0 0 0";
+                    for (int s = 0; s < subscribers; s++) {
+                        writers[s].println(command);
+                        writers[s].flush();
+                        sockets[s].reset();
+                    }
+                }
+                long perSubscriberNanos = System.nanoTime() - startTime;
+                if (round == 1) {
+                    report.append(report.length() == 0 ? "" : "; ").append(subscribers).append(" subscribers: ")
+                            .append(sharedNanos / commands / subscribers).append("ns encoded once, ")
+                            .append(perSubscriberNanos / commands / subscribers).append("ns encoded per subscriber");
+                }
+            }
+        }
+        System.out.println("fan-out per command and subscriber, " + report);
+    }
+
+    /**
+     * Writes a line to a buffered socket and flushes it, as the output of a
+     * client does, then empties the socket.
+     */
+    private static void write(BufferedOutputStream out, byte[] line, ByteArrayOutputStream socket) {
+        try {
+            out.write(line);
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        socket.reset();
+    }
+
+    /**
+     * Benchmark of the parsing of the messages of clients drawing on a
+     * Whiteboard, mostly draw and erase commands: with Request, and with the
+     * regex match and split into Strings of each message it replaced.
+     */
+    @Test
+    public void parseThroughput() {
+        String oldRegex = "([^=]* selectBoard [^=]*)|([^=]* draw -?\\d+ -?\\d+ -?\\d+ -?\\d+ -?\\d+ [^=]* [^=]* [^=]*)|"
+                + "([^=]* erase -?\\d+ -?\\d+ -?\\d+ -?\\d+ -?\\d+)|(Disconnect [^=]*)|(new username [^=]*)|(addBoard [^=]*)";
+        Random random = new Random(5);
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; lines.size() < 100000; i++) {
+            if (i % 1000 == 0) {
+                lines.add("new username user" + i);
+                lines.add("user" + i + " selectBoard Board1");
+            } else if (i % 20 == 0) {
+                lines.add("Board1 erase " + random.nextInt(800) + " " + random.nextInt(600) + " "
+                        + random.nextInt(800) + " " + random.nextInt(600) + " 20");
+            } else {
+                lines.add("Board1 draw " + random.nextInt(800) + " " + random.nextInt(600) + " " + random.nextInt(800)
+                        + " " + random.nextInt(600) + " " + (1 + random.nextInt(10)) + " " + random.nextInt(256)
+                        + " 0 0");
+            }
+        }
+        int checksum = 0;
+        long regexNanos = 0;
+        long requestNanos = 0;
+        // The first round warms up the parsing
+        for (int round = 0; round < 2; round++) {
+            long startTime = System.nanoTime();
+            for (String line : lines) {
+                if (line.matches(oldRegex)) {
+                    String[] tokens = line.split(" ");
+                    if (tokens[1].equals("draw") || tokens[1].equals("erase")) {
+                        checksum += Integer.parseInt(tokens[2]) + Integer.parseInt(tokens[6]);
+                    }
+                }
+            }
+            regexNanos = System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            for (String line : lines) {
+                Request request = Request.parse(line);
+                assertNotNull(request);
+                if (request.type == Request.Type.DRAW || request.type == Request.Type.ERASE) {
+                    checksum -= request.x1 + request.strokeSize;
+                }
+            }
+            requestNanos = System.nanoTime() - startTime;
+        }
+        assertEquals(checksum, 0);
+        System.out.println("server messages parsed per second: regex and split " + lines.size() * 1000000000L
+                / regexNanos + ", Request " + lines.size() * 1000000000L / requestNanos);
+    }
+
+    /**
+     * Benchmark of draw commands handled from many threads at once, each
+     * thread drawing on its own Board, against one thread drawing on one
+     * Board.
+     */
+    @Test
+    public void concurrentDrawsManyBoards() throws IOException, InterruptedException {
+        int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        int draws = 20000;
+        WhiteboardServerTest.drawConcurrently(new WhiteboardServer(), 1, draws, true); // Warm up
+        long oneBoardNanos = WhiteboardServerTest.drawConcurrently(new WhiteboardServer(), 1, draws, true);
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        long manyBoardsNanos = WhiteboardServerTest.drawConcurrently(whiteboardServer, threads, draws, true);
+        for (int i = 0; i < threads; i++) {
+            assertEquals(whiteboardServer.boards.get("Stress" + i).historySize(), draws);
+        }
+        System.out.println("draws per second with 1 board: " + draws * 1000000000L / oneBoardNanos + ", with "
+                + threads + " boards on " + threads + " threads: " + threads * draws * 1000000000L / manyBoardsNanos);
+    }
+
+    /**
+     * Benchmark of the dispatch of a stroke to the 40 clients of its
+     * Whiteboard, with the Whiteboard alone on the server and with 50
+     * Whiteboards of 40 clients each. The subscribers of each Board are
+     * indexed, so a stroke costs the same whatever the number of clients
+     * working on other Whiteboards.
+     */
+    @Test
+    public void fanOutManyBoards() throws IOException, InterruptedException {
+        fanOutNanos(50, 40, 20000); // Warm up
+        long aloneNanos = fanOutNanos(1, 40, 20000);
+        long manyBoardsNanos = fanOutNanos(50, 40, 20000);
+        System.out.println("dispatch of a stroke to 40 clients, with 1 Whiteboard on the server: " + aloneNanos
+                + "ns, with 50 Whiteboards of 40 clients: " + manyBoardsNanos + "ns");
+    }
+
+    /**
+     * Draws on Whiteboards of clients, one draw command at a time on each
+     * Whiteboard in turn, and returns the nanoseconds per draw command until
+     * every client was sent the commands of its Whiteboard.
+     */
+    private static long fanOutNanos(int boards, int clientsPerBoard, int draws)
+            throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        Integer[] drawers = new Integer[boards];
+        List<BlockingQueue<Message>> queues = new ArrayList<BlockingQueue<Message>>();
+        for (int b = 0; b < boards; b++) {
+            whiteboardServer.boards.put("Bench" + b, new Board("Bench" + b));
+        }
+        for (int b = 0; b < boards; b++) {
+            for (int c = 0; c < clientsPerBoard; c++) {
+                BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(draws / boards + 1000);
+                Integer threadNum = whiteboardServer.addSession(blockingQueue);
+                String client = "user" + b + "_" + c;
+                whiteboardServer.handleRequest("new username " + client, threadNum);
+                whiteboardServer.handleRequest(client + " selectBoard Bench" + b, threadNum);
+                if (c == 0) {
+                    drawers[b] = threadNum;
+                }
+                queues.add(blockingQueue);
+            }
+        }
+        whiteboardServer.awaitBoards();
+        for (BlockingQueue<Message> blockingQueue : queues) {
+            blockingQueue.clear();
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < draws; i++) {
+            int b = i % boards;
+            whiteboardServer.handleRequest("Bench" + b + " draw " + (i % 800) + " 300 " + (i % 800 + 3)
+                    + " 302 5 0 0 0", drawers[b]);
+        }
+        whiteboardServer.awaitBoards();
+        long nanos = System.nanoTime() - startTime;
+        // Each client is sent the commands of its own Whiteboard only
+        for (BlockingQueue<Message> blockingQueue : queues) {
+            assertEquals(blockingQueue.size(), draws / boards);
+        }
+        return nanos / draws;
+    }
+
+    /**
+     * Benchmark of the commands sent to the clients of a Whiteboard 8 times
+     * the size of their Canvas in each direction, each client looking at its
+     * own part of it, with and without viewports.
+     */
+    @Test
+    public void viewportBandwidth() {
+        int clients = 64;
+        int draws = 200000;
+        Board board = new Board("Huge", 50000, DIRECT_EXECUTOR);
+        List<BlockingQueue<Message>> queues = new ArrayList<BlockingQueue<Message>>();
+        for (int i = 0; i < clients; i++) {
+            BlockingQueue<Message> commandsQueue = new ArrayBlockingQueue<Message>(draws);
+            board.subscribe("client" + i, commandsQueue);
+            queues.add(commandsQueue);
+        }
+        Random random = new Random(19);
+        int width = 8 * Keyframe.WIDTH;
+        int height = 8 * Keyframe.HEIGHT;
+        for (int i = 0; i < draws / 2; i++) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            board.draw(x, y, x + 3, y + 3, 5, 0, 0, 0);
+        }
+        long everyCommand = sentCommands(queues);
+        for (int i = 0; i < clients; i++) {
+            board.setViewport("client" + i, (i % 8) * Keyframe.WIDTH, (i / 8) * Keyframe.HEIGHT, Keyframe.WIDTH,
+                    Keyframe.HEIGHT);
+            queues.get(i).clear();
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < draws / 2; i++) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            board.draw(x, y, x + 3, y + 3, 5, 0, 0, 0);
+        }
+        long nanos = System.nanoTime() - startTime;
+        long viewportCommands = sentCommands(queues);
+        // Every command is sent to the client looking at it, and to the few
+        // whose margin it is in
+        assertTrue(viewportCommands >= draws / 2);
+        assertTrue(viewportCommands < everyCommand / 20);
+        System.out.println(clients + " clients on a Whiteboard of " + width + "x" + height + ", per client and "
+                + draws / 2 + " commands: " + everyCommand / clients + " commands sent without viewports, "
+                + viewportCommands / clients + " with viewports, " + nanos / (draws / 2) + "ns per command");
+    }
+
+    /**
+     * Returns the number of messages queued to all clients, and empties their
+     * BlockingQueues.
+     */
+    private static long sentCommands(final List<BlockingQueue<Message>> queues) {
+        long sent = 0;
+        for (BlockingQueue<Message> commandsQueue : queues) {
+            sent += commandsQueue.size();
+            commandsQueue.clear();
+        }
+        return sent;
+    }
+
+    /**
+     * Soak test of 2000 sessions opened over loopback to a Whiteboard Server
+     * running them on platform threads, and to one running them on virtual
+     * threads, each session picking a username and one of 20 Whiteboards:
+     * the threads, heap and resident memory the sessions add. Every session
+     * is closed by the server once its client disconnects. The clients run in
+     * the same process, so their sockets are counted in both modes alike.
+     */
+    @Test
+    public void threadModeSoak() throws IOException, InterruptedException {
+        int sessions = 2000;
+        int boards = 20;
+        StringBuilder report = new StringBuilder();
+        for (ThreadMode mode : ThreadMode.values()) {
+            WhiteboardServer whiteboardServer = new WhiteboardServer(mode);
+            for (int b = 0; b < boards; b++) {
+                whiteboardServer.boards.put("Bench" + b, new Board("Bench" + b));
+            }
+            long heapBefore = NioWhiteboardServerBenchmark.usedHeap();
+            long residentBefore = NioWhiteboardServerBenchmark.residentBytes();
+            int threadsBefore = Thread.activeCount();
+            int port = NioWhiteboardServerTest.serve(whiteboardServer);
+            List<Socket> sockets = NioWhiteboardServerTest.connect(port, sessions, boards);
+            long heap = NioWhiteboardServerBenchmark.usedHeap() - heapBefore;
+            long resident = NioWhiteboardServerBenchmark.residentBytes() - residentBefore;
+            int threads = Thread.activeCount() - threadsBefore;
+            assertEquals(whiteboardServer.sessions.size(), sessions);
+            NioWhiteboardServerTest.disconnect(whiteboardServer, sockets);
+            assertEquals(whiteboardServer.clientToThreadNumMap.isEmpty(), true);
+            report.append(report.length() == 0 ? "" : "; ").append(mode.name().toLowerCase()).append(": ")
+                    .append(threads).append(" platform threads, ").append(heap / 1024 / sessions)
+                    .append("KB heap and ").append(resident < 0 ? "?" : resident / 1024 / sessions + "KB")
+                    .append(" resident per session");
+        }
+        System.out.println(sessions + " loopback sessions" + (ThreadMode.virtualThreadsSupported() ? ""
+                : " (no virtual threads in this runtime)") + ", " + report);
+    }
+}
@@ -2,13 +2,23 @@ package server;
 
 import static org.junit.Assert.*;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 import org.junit.Test;
 
+import protocol.KeyframeCodec;
+
 /**
  * WhiteboardServer Test runs the JUnit tests for the Whiteboard Server class.
  * The parsing of the text message protocol is tested. All components that do
@@ -24,10 +34,10 @@ public class WhiteboardServerTest {
     public void createBoardsTest() throws IOException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
         whiteboardServer.createBoards();
-        assertEquals(whiteboardServer.whiteboardToCommandsMap.size(), 3);
-        assertEquals(whiteboardServer.whiteboardToCommandsMap.containsKey("Board1"), true);
-        assertEquals(whiteboardServer.whiteboardToCommandsMap.containsKey("Board2"), true);
-        assertEquals(whiteboardServer.whiteboardToCommandsMap.containsKey("Board3"), true);
+        assertEquals(whiteboardServer.boards.size(), 3);
+        assertEquals(whiteboardServer.boards.containsKey("Board1"), true);
+        assertEquals(whiteboardServer.boards.containsKey("Board2"), true);
+        assertEquals(whiteboardServer.boards.containsKey("Board3"), true);
     }
 
     /**
@@ -49,16 +59,16 @@ public class WhiteboardServerTest {
     @Test
     public void newUsernameNonExist() throws IOException, InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         whiteboardServer.handleRequest("new username bob", threadNum);
 
-        String one = whiteboardServer.commandQueues.get(threadNum).take();
-        String two = whiteboardServer.commandQueues.get(threadNum).take();
-        String three = whiteboardServer.commandQueues.get(threadNum).take();
-        String four = whiteboardServer.commandQueues.get(threadNum).take();
-        String five = whiteboardServer.commandQueues.get(threadNum).take();
+        String one = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String two = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String three = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String four = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String five = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
 
         assertEquals(one.substring(0, 21).equals("Existing Whiteboards "), true);
         assertEquals(two.substring(0, 21).equals("Existing Whiteboards "), true);
@@ -72,19 +82,19 @@ public class WhiteboardServerTest {
     @Test
     public void newUsernameExists() throws IOException, InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         Integer threadNum2 = 1;
         whiteboardServer.handleRequest("new username bob", threadNum);
         whiteboardServer.handleRequest("new username bob", threadNum2);
 
-        String one = whiteboardServer.commandQueues.get(threadNum).take();
-        String two = whiteboardServer.commandQueues.get(threadNum).take();
-        String three = whiteboardServer.commandQueues.get(threadNum).take();
-        String four = whiteboardServer.commandQueues.get(threadNum).take();
-        String five = whiteboardServer.commandQueues.get(threadNum).take();
+        String one = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String two = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String three = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String four = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String five = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
         
         assertEquals(one.substring(0, 21).equals("Existing Whiteboards "), true);
         assertEquals(two.substring(0, 21).equals("Existing Whiteboards "), true);
@@ -93,24 +103,24 @@ public class WhiteboardServerTest {
         assertEquals(five.substring(0, 19).equals("Select a whiteboard"), true);
         assertEquals(whiteboardServer.clientToWhiteboardMap.get("bob"), "");
         assertEquals(whiteboardServer.clientToThreadNumMap.get("bob"), threadNum);
-        String six = whiteboardServer.commandQueues.get(threadNum2).take();
+        String six = whiteboardServer.sessions.get(threadNum2).commandsQueue.take().getText();
         assertEquals(six.substring(0, 53).equals("Username already taken. Please select a new username."), true);
     }
 
     @Test
     public void addBoardNonExist() throws IOException, InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         whiteboardServer.handleRequest("addBoard test", threadNum);
 
-        String one = whiteboardServer.commandQueues.get(threadNum).take();
-        String two = whiteboardServer.commandQueues.get(threadNum).take();
-        String three = whiteboardServer.commandQueues.get(threadNum).take();
-        String four = whiteboardServer.commandQueues.get(threadNum).take();
-        String five = whiteboardServer.commandQueues.get(threadNum).take();
-        String six = whiteboardServer.commandQueues.get(threadNum).take();
+        String one = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String two = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String three = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String four = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String five = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String six = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
 
         assertEquals(one.substring(0, 16).equals("Board test added"), true);
         assertEquals(two.substring(0, 21).equals("Existing Whiteboards "), true);
@@ -123,24 +133,24 @@ public class WhiteboardServerTest {
     @Test
     public void addBoardExists() throws IOException, InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         whiteboardServer.handleRequest("addBoard test", threadNum);
         whiteboardServer.handleRequest("addBoard test", threadNum);
 
-        String one = whiteboardServer.commandQueues.get(threadNum).take();
-        String two = whiteboardServer.commandQueues.get(threadNum).take();
-        String three = whiteboardServer.commandQueues.get(threadNum).take();
-        String four = whiteboardServer.commandQueues.get(threadNum).take();
-        String five = whiteboardServer.commandQueues.get(threadNum).take();
-        String six = whiteboardServer.commandQueues.get(threadNum).take();
-        String seven = whiteboardServer.commandQueues.get(threadNum).take();
-        String eight = whiteboardServer.commandQueues.get(threadNum).take();
-        String nine = whiteboardServer.commandQueues.get(threadNum).take();
-        String ten = whiteboardServer.commandQueues.get(threadNum).take();
-        String eleven = whiteboardServer.commandQueues.get(threadNum).take();
-        String twelve = whiteboardServer.commandQueues.get(threadNum).take();
+        String one = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String two = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String three = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String four = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String five = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String six = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String seven = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String eight = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String nine = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String ten = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String eleven = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String twelve = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
 
         assertEquals(one.substring(0, 16).equals("Board test added"), true);
         assertEquals(two.substring(0, 21).equals("Existing Whiteboards "), true);
@@ -159,19 +169,19 @@ public class WhiteboardServerTest {
     @Test
     public void selectBoardNoUser() throws IOException, InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         whiteboardServer.handleRequest("addBoard test", threadNum);
         whiteboardServer.handleRequest("bob selectBoard test", threadNum);
 
-        String one = whiteboardServer.commandQueues.get(threadNum).take();
-        String two = whiteboardServer.commandQueues.get(threadNum).take();
-        String three = whiteboardServer.commandQueues.get(threadNum).take();
-        String four = whiteboardServer.commandQueues.get(threadNum).take();
-        String five = whiteboardServer.commandQueues.get(threadNum).take();
-        String six = whiteboardServer.commandQueues.get(threadNum).take();
-        String seven = whiteboardServer.commandQueues.get(threadNum).take();
+        String one = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String two = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String three = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String four = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String five = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String six = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String seven = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
 
         assertEquals(one.substring(0, 16).equals("Board test added"), true);
         assertEquals(two.substring(0, 21).equals("Existing Whiteboards "), true);
@@ -185,18 +195,18 @@ public class WhiteboardServerTest {
     @Test
     public void selectBoardNoBoard() throws IOException, InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         whiteboardServer.handleRequest("new username bob", threadNum);
         whiteboardServer.handleRequest("bob selectBoard test", threadNum);
 
-        String one = whiteboardServer.commandQueues.get(threadNum).take();
-        String two = whiteboardServer.commandQueues.get(threadNum).take();
-        String three = whiteboardServer.commandQueues.get(threadNum).take();
-        String four = whiteboardServer.commandQueues.get(threadNum).take();
-        String five = whiteboardServer.commandQueues.get(threadNum).take();
-        String six = whiteboardServer.commandQueues.get(threadNum).take();
+        String one = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String two = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String three = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String four = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String five = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
+        String six = whiteboardServer.sessions.get(threadNum).commandsQueue.take().getText();
 
         assertEquals(one.substring(0, 21).equals("Existing Whiteboards "), true);
         assertEquals(two.substring(0, 21).equals("Existing Whiteboards "), true);
@@ -209,14 +219,15 @@ public class WhiteboardServerTest {
     @Test
     public void selectBoardUserBoard() throws IOException, InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         whiteboardServer.handleRequest("new username bob", threadNum);
         whiteboardServer.handleRequest("bob selectBoard Board1", threadNum);
+        whiteboardServer.awaitBoards();
         ArrayList<String> commandsList = new ArrayList<String>();
-        for (String commands : whiteboardServer.commandQueues.get(threadNum)) {
-            commandsList.add(commands);
+        for (Message commands : whiteboardServer.sessions.get(threadNum).commandsQueue) {
+            commandsList.add(commands.getText());
         }
         assertEquals(commandsList.get(0).substring(0, 21).equals("Existing Whiteboards "), true);
         assertEquals(commandsList.get(1).substring(0, 21).equals("Existing Whiteboards "), true);
@@ -232,16 +243,17 @@ public class WhiteboardServerTest {
     @Test
     public void drawSingleUser() throws IOException, InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         whiteboardServer.handleRequest("new username bob", threadNum);
         whiteboardServer.handleRequest("bob selectBoard Board1", threadNum);
         whiteboardServer.handleRequest("Board1 draw 0 0 100 100 50 12 34 56", threadNum);
+        whiteboardServer.awaitBoards();
 
         ArrayList<String> commandsList = new ArrayList<String>();
-        for (String commands : whiteboardServer.commandQueues.get(threadNum)) {
-            commandsList.add(commands);
+        for (Message commands : whiteboardServer.sessions.get(threadNum).commandsQueue) {
+            commandsList.add(commands.getText());
         }
         assertEquals(commandsList.get(0).substring(0, 21).equals("Existing Whiteboards "), true);
         assertEquals(commandsList.get(1).substring(0, 21).equals("Existing Whiteboards "), true);
@@ -258,16 +270,17 @@ public class WhiteboardServerTest {
     @Test
     public void eraseSingleUser() throws IOException, InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         whiteboardServer.handleRequest("new username bob", threadNum);
         whiteboardServer.handleRequest("bob selectBoard Board1", threadNum);
         whiteboardServer.handleRequest("Board1 erase 0 0 100 100 50", threadNum);
+        whiteboardServer.awaitBoards();
 
         ArrayList<String> commandsList = new ArrayList<String>();
-        for (String commands : whiteboardServer.commandQueues.get(threadNum)) {
-            commandsList.add(commands);
+        for (Message commands : whiteboardServer.sessions.get(threadNum).commandsQueue) {
+            commandsList.add(commands.getText());
         }
         assertEquals(commandsList.get(0).substring(0, 21).equals("Existing Whiteboards "), true);
         assertEquals(commandsList.get(1).substring(0, 21).equals("Existing Whiteboards "), true);
@@ -281,33 +294,712 @@ public class WhiteboardServerTest {
         assertEquals(commandsList.get(9).substring(0, 27).equals("Board1 erase 0 0 100 100 50"), true);
     }
 
+    @Test
+    public void drawOtherBoardUser() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        BlockingQueue<Message> bobQueue = new ArrayBlockingQueue<Message>(100000);
+        BlockingQueue<Message> aliceQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(bobQueue); // Normally generated by method running network connections
+        whiteboardServer.addSession(aliceQueue);
+        whiteboardServer.handleRequest("new username bob", 0);
+        whiteboardServer.handleRequest("new username alice", 1);
+        whiteboardServer.handleRequest("bob selectBoard Board1", 0);
+        whiteboardServer.handleRequest("alice selectBoard Board1", 1);
+        whiteboardServer.handleRequest("alice selectBoard Board2", 1);
+        whiteboardServer.awaitBoards();
+        bobQueue.clear();
+        aliceQueue.clear();
+        whiteboardServer.handleRequest("Board1 draw 0 0 100 100 50 12 34 56", 0);
+        whiteboardServer.awaitBoards();
+
+        assertEquals(bobQueue.poll().getText(), "Board1 draw 0 0 100 100 50 12 34 56");
+        assertEquals(aliceQueue.isEmpty(), true);
+        assertEquals(whiteboardServer.boards.get("Board1").getClients().contains("alice"), false);
+        assertEquals(whiteboardServer.boards.get("Board2").getSubscriber("alice"), aliceQueue);
+    }
+
+    @Test
+    public void drawSharesMessage() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        BlockingQueue<Message> bobQueue = new ArrayBlockingQueue<Message>(100000);
+        BlockingQueue<Message> aliceQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(bobQueue); // Normally generated by method running network connections
+        whiteboardServer.addSession(aliceQueue);
+        whiteboardServer.handleRequest("new username bob", 0);
+        whiteboardServer.handleRequest("new username alice", 1);
+        whiteboardServer.handleRequest("bob selectBoard Board1", 0);
+        whiteboardServer.handleRequest("alice selectBoard Board1", 1);
+        whiteboardServer.awaitBoards();
+        bobQueue.clear();
+        aliceQueue.clear();
+        whiteboardServer.handleRequest("Board1 draw 0 0 100 100 50 12 34 56", 0);
+        whiteboardServer.awaitBoards();
+
+        Message bobMessage = bobQueue.poll();
+        assertEquals(bobMessage.getText(), "Board1 draw 0 0 100 100 50 12 34 56");
+        assertSame(bobMessage, aliceQueue.poll());
+        assertArrayEquals(bobMessage.getLine(),
+                ("Board1 draw 0 0 100 100 50 12 34 56" + System.lineSeparator()).getBytes());
+    }
+
     @Test
     public void commandInRegexNoAction() throws IOException,
             InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         whiteboardServer.handleRequest("Disconnect Bob", threadNum);
         ArrayList<String> commandsList = new ArrayList<String>();
-        for (String commands : whiteboardServer.commandQueues.get(threadNum)) {
-            commandsList.add(commands);
+        for (Message commands : whiteboardServer.sessions.get(threadNum).commandsQueue) {
+            commandsList.add(commands.getText());
         }
         assertEquals(commandsList.get(0).substring(0, 26).equals("In Server Regex, no action"), true);
     }
 
+    @Test
+    public void drawNotNumbers() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
+        Integer threadNum = 0;
+        whiteboardServer.handleRequest("Board1 draw 0 0 100 1OO 50 12 34 56", threadNum);
+        whiteboardServer.handleRequest("Board1 erase 0 0 100 100", threadNum);
+        whiteboardServer.handleRequest("Board1 draw 0 0 100 100 50 12 34 256", threadNum);
+
+        assertEquals(blockingQueue.poll().getText(), "Not in Server Regex");
+        assertEquals(blockingQueue.poll().getText(), "Not in Server Regex");
+        assertEquals(blockingQueue.poll().getText(), "Not in Server Regex");
+        assertEquals(whiteboardServer.boards.get("Board1").historySize(), 0);
+    }
+
+    @Test
+    public void namesWithEquals() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
+        Integer threadNum = 0;
+        whiteboardServer.handleRequest("new username bob=1", threadNum);
+        whiteboardServer.handleRequest("addBoard Board=4", threadNum);
+        whiteboardServer.handleRequest("Board=1 draw 0 0 100 100 50 12 34 56", threadNum);
+
+        assertEquals(blockingQueue.poll().getText(), "Not in Server Regex");
+        assertEquals(blockingQueue.poll().getText(), "Not in Server Regex");
+        assertEquals(blockingQueue.poll().getText(), "Not in Server Regex");
+        assertEquals(whiteboardServer.clientToThreadNumMap.isEmpty(), true);
+        assertEquals(whiteboardServer.boards.containsKey("Board=4"), false);
+    }
+
     @Test
     public void commandNotInRegex() throws IOException, InterruptedException {
         WhiteboardServer whiteboardServer = new WhiteboardServer();
-        BlockingQueue<String> blockingQueue = new ArrayBlockingQueue<String>(100000);
-        whiteboardServer.commandQueues.add(blockingQueue); // Normally generated by method running network connections
+        BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(100000);
+        whiteboardServer.addSession(blockingQueue); // Normally generated by method running network connections
         Integer threadNum = 0;
         whiteboardServer.handleRequest("Command Not in the Regex", threadNum);
 
         ArrayList<String> commandsList = new ArrayList<String>();
-        for (String commands : whiteboardServer.commandQueues.get(threadNum)) {
-            commandsList.add(commands);
+        for (Message commands : whiteboardServer.sessions.get(threadNum).commandsQueue) {
+            commandsList.add(commands.getText());
         }
         assertEquals(commandsList.get(0).substring(0, 19).equals("Not in Server Regex"), true);
     }
+
+    /**
+     * TESTING addSession and removeSession
+     * 
+     * Partition the input space as follows:
+     * Session: closed after the disconnect message, closed without the
+     *          disconnect message, closed before picking a username
+     */
+    @Test
+    public void sessionChurn() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        WeakReference<BlockingQueue<Message>> lastQueue = null;
+        for (int i = 0; i < 300; i++) {
+            BlockingQueue<Message> blockingQueue = new ArrayBlockingQueue<Message>(1000);
+            Integer threadNum = whiteboardServer.addSession(blockingQueue);
+            if (i % 3 != 2) {
+                whiteboardServer.handleRequest("new username user" + i, threadNum);
+                whiteboardServer.handleRequest("user" + i + " selectBoard Board1", threadNum);
+            }
+            if (i % 3 == 0) {
+                whiteboardServer.handleDisconnect("Disconnect user" + i, threadNum);
+            }
+            whiteboardServer.removeSession(threadNum);
+            lastQueue = new WeakReference<BlockingQueue<Message>>(blockingQueue);
+        }
+        whiteboardServer.awaitBoards();
+
+        assertEquals(whiteboardServer.sessions.isEmpty(), true);
+        assertEquals(whiteboardServer.clientToThreadNumMap.isEmpty(), true);
+        assertEquals(whiteboardServer.clientToWhiteboardMap.isEmpty(), true);
+        assertEquals(whiteboardServer.boards.get("Board1").getClients().isEmpty(), true);
+        // Nothing holds on to the queue of a closed Session
+        for (int i = 0; i < 10 && lastQueue.get() != null; i++) {
+            System.gc();
+        }
+        assertNull(lastQueue.get());
+    }
+
+    @Test
+    public void removeSessionRemovesClient() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        BlockingQueue<Message> bobQueue = new ArrayBlockingQueue<Message>(100000);
+        BlockingQueue<Message> aliceQueue = new ArrayBlockingQueue<Message>(100000);
+        Integer bobThreadNum = whiteboardServer.addSession(bobQueue);
+        Integer aliceThreadNum = whiteboardServer.addSession(aliceQueue);
+        whiteboardServer.handleRequest("new username bob", bobThreadNum);
+        whiteboardServer.handleRequest("new username alice", aliceThreadNum);
+        whiteboardServer.handleRequest("bob selectBoard Board1", bobThreadNum);
+        whiteboardServer.handleRequest("alice selectBoard Board1", aliceThreadNum);
+        whiteboardServer.awaitBoards();
+        aliceQueue.clear();
+        // bob's connection drops without the disconnect message
+        whiteboardServer.removeSession(bobThreadNum);
+
+        assertEquals(aliceQueue.poll().getText(), "removeClient bob");
+        assertEquals(whiteboardServer.sessions.containsKey(bobThreadNum), false);
+        assertEquals(whiteboardServer.isOutputActive(bobThreadNum), false);
+        assertEquals(whiteboardServer.clientToWhiteboardMap.containsKey("bob"), false);
+        assertEquals(whiteboardServer.clientOf(aliceThreadNum), "alice");
+        assertEquals(bobQueue.isEmpty(), false); // Only the wake up of its output
+        assertSame(bobQueue.poll(), WhiteboardServer.OUTPUT_WAKE_UP);
+    }
+
+    /**
+     * TESTING drawOrErase from many threads
+     * 
+     * Partition the input space as follows:
+     * Boards:  one Board per thread, all threads on one Board
+     */
+    @Test
+    public void concurrentDrawsBoardPerThread() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        drawConcurrently(whiteboardServer, 4, 5000, true);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(whiteboardServer.boards.get("Stress" + i).historySize(), 5000);
+        }
+    }
+
+    @Test
+    public void concurrentDrawsOneBoard() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        drawConcurrently(whiteboardServer, 4, 5000, false);
+        Board board = whiteboardServer.boards.get("Stress0");
+        assertEquals(board.historySize(), 20000);
+        // Every subscriber receives the commands in the order of the history
+        for (BlockingQueue<Message> subscriberQueue : board.getSubscriberQueues()) {
+            assertEquals(subscriberQueue.size(), 20000);
+            for (int i = 0; i < 20000; i++) {
+                assertEquals(subscriberQueue.poll().getText(), board.getCommand(i));
+            }
+        }
+    }
+
+    /**
+     * TESTING Keyframes
+     * 
+     * Partition the input space as follows:
+     * Keyframes:   none yet, one, commands made after the latest one
+     * Sent by:     replayTo, resync
+     */
+    @Test
+    public void replayWithoutKeyframe() throws IOException {
+        Board board = new Board("Board1", 4, DIRECT_EXECUTOR);
+        drawRedLines(board, 3);
+        BlockingQueue<Message> commandsQueue = new ArrayBlockingQueue<Message>(100);
+        board.replayTo(commandsQueue);
+
+        assertNull(board.getKeyframe());
+        assertEquals(commandsQueue.size(), 1);
+        Replay replay = (Replay) commandsQueue.poll();
+        assertNull(replay.getKeyframe());
+        assertEquals(replay.getCommandCount(), 3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        replay.writeNext(out, Replay.CHUNK_SIZE);
+        assertEquals(replay.hasNext(), false);
+        assertEquals(out.toString(), "Board1 draw 0 100 10 100 5 255 0 0" + System.lineSeparator()
+                + "Board1 draw 10 100 20 100 5 255 0 0" + System.lineSeparator()
+                + "Board1 draw 20 100 30 100 5 255 0 0" + System.lineSeparator());
+    }
+
+    @Test
+    public void replayEmptyBoard() {
+        BlockingQueue<Message> commandsQueue = new ArrayBlockingQueue<Message>(100);
+        new Board("Board1").replayTo(commandsQueue);
+        assertEquals(commandsQueue.size(), 0);
+    }
+
+    @Test
+    public void replayKeyframeAndTail() throws IOException {
+        Board board = new Board("Board1", 4, DIRECT_EXECUTOR);
+        drawRedLines(board, 10);
+        BlockingQueue<Message> commandsQueue = new ArrayBlockingQueue<Message>(100);
+        board.replayTo(commandsQueue);
+
+        // The latest Keyframe holds the first 8 commands, the last 2 follow it
+        assertEquals(commandsQueue.size(), 1);
+        Replay replay = (Replay) commandsQueue.poll();
+        List<ByteBuffer> lines = new ArrayList<ByteBuffer>();
+        replay.nextLines(lines, 2);
+        assertEquals(replay.hasNext(), true);
+        replay.nextLines(lines, 2);
+        assertEquals(replay.hasNext(), false);
+        assertEquals(lines.size(), 3);
+        Keyframe keyframe = replay.getKeyframe();
+        assertSame(lines.get(0).array(), keyframe.getLine());
+        assertEquals(keyframe.getCommandCount(), 8);
+        assertEquals(keyframe.getText().startsWith("keyframe Board1 "), true);
+        BufferedImage image = KeyframeCodec.decode(keyframe.getText().substring("keyframe Board1 ".length()));
+        assertEquals(image.getWidth(), Keyframe.WIDTH);
+        assertEquals(image.getHeight(), Keyframe.HEIGHT);
+        assertEquals(image.getRGB(75, 100) & 0xffffff, 0xff0000);
+        assertEquals(image.getRGB(85, 100) & 0xffffff, 0xffffff);
+        assertEquals(image.getRGB(75, 120) & 0xffffff, 0xffffff);
+        assertEquals(new String(lines.get(1).array()),
+                "Board1 draw 80 100 90 100 5 255 0 0" + System.lineSeparator());
+        assertEquals(new String(lines.get(2).array()),
+                "Board1 draw 90 100 100 100 5 255 0 0" + System.lineSeparator());
+    }
+
+    @Test
+    public void replayCutover() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        BlockingQueue<Message> bobQueue = new ArrayBlockingQueue<Message>(100);
+        whiteboardServer.addSession(bobQueue);
+        whiteboardServer.handleRequest("new username bob", 0);
+        for (int i = 0; i < 3 * Replay.CHUNK_SIZE; i++) {
+            whiteboardServer.handleRequest("Board1 draw " + i + " 0 " + (i + 1) + " 0 5 1 2 3", 0);
+        }
+        whiteboardServer.awaitBoards();
+        bobQueue.clear();
+        whiteboardServer.handleRequest("bob selectBoard Board1", 0);
+        whiteboardServer.handleRequest("Board1 erase 1 1 2 2 3", 0);
+        whiteboardServer.awaitBoards();
+
+        // The history is queued as one Replay, the command made afterwards behind it
+        ArrayList<Message> commandsList = new ArrayList<Message>(bobQueue);
+        Replay replay = (Replay) commandsList.get(commandsList.size() - 2);
+        assertEquals(replay.getCommandCount(), 3 * Replay.CHUNK_SIZE);
+        assertEquals(commandsList.get(commandsList.size() - 1).getText(), "Board1 erase 1 1 2 2 3");
+        List<ByteBuffer> lines = new ArrayList<ByteBuffer>();
+        int chunks = 0;
+        while (replay.hasNext()) {
+            replay.nextLines(lines, Replay.CHUNK_SIZE);
+            chunks++;
+        }
+        assertEquals(chunks, 3);
+        assertEquals(new String(lines.get(lines.size() - 1).array()), "Board1 draw " + (3 * Replay.CHUNK_SIZE - 1)
+                + " 0 " + 3 * Replay.CHUNK_SIZE + " 0 5 1 2 3" + System.lineSeparator());
+    }
+
+    @Test
+    public void resyncKeyframeAndTail() {
+        Board board = new Board("Board1", 4, DIRECT_EXECUTOR);
+        drawRedLines(board, 10);
+        Resync resync = board.resync();
+
+        assertSame(resync.getKeyframe(), board.getKeyframe());
+        assertEquals(resync.getCommandCount(), 2);
+        assertEquals(resync.getCommand(0), "Board1 draw 80 100 90 100 5 255 0 0");
+    }
+
+    /**
+     * TESTING viewport, and the commands sent to a client with a viewport
+     *
+     * Partition the input space as follows:
+     * Command:     inside the viewport, inside its margin, outside of it
+     * Viewport:    set, moved, reset by selecting the Whiteboard again,
+     *              malformed, on a Whiteboard the client is not working on
+     */
+    @Test
+    public void viewportCommands() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer();
+        BlockingQueue<Message> aliceQueue = new ArrayBlockingQueue<Message>(1000);
+        BlockingQueue<Message> bobQueue = new ArrayBlockingQueue<Message>(1000);
+        whiteboardServer.addSession(aliceQueue);
+        whiteboardServer.addSession(bobQueue);
+        whiteboardServer.handleRequest("new username alice", 0);
+        whiteboardServer.handleRequest("new username bob", 1);
+        whiteboardServer.handleRequest("alice selectBoard Board1", 0);
+        whiteboardServer.handleRequest("bob selectBoard Board1", 1);
+        whiteboardServer.handleRequest("Board1 draw 1000 1000 1010 1000 5 1 2 3", 0);
+        whiteboardServer.awaitBoards();
+        bobQueue.clear();
+
+        // The commands of the history inside the viewport are replayed first
+        whiteboardServer.handleRequest("Board1 viewport 900 900 800 600", 1);
+        whiteboardServer.awaitBoards();
+        Replay replay = (Replay) bobQueue.poll();
+        assertEquals(replay.getCommandCount(), 1);
+        assertNull(replay.getKeyframe());
+        assertArrayEquals(whiteboardServer.boards.get("Board1").getViewport("bob"), new int[] {
+                900 - Board.VIEWPORT_MARGIN, 900 - Board.VIEWPORT_MARGIN, 1699 + Board.VIEWPORT_MARGIN,
+                1499 + Board.VIEWPORT_MARGIN });
+
+        whiteboardServer.handleRequest("Board1 draw 10 10 20 20 5 1 2 3", 0);
+        whiteboardServer.handleRequest("Board1 draw 1200 1200 1210 1210 5 1 2 3", 0);
+        whiteboardServer.handleRequest("Board1 erase 850 850 860 860 5", 0);
+        whiteboardServer.handleRequest("Board1 erase 700 700 710 710 5", 0);
+        whiteboardServer.awaitBoards();
+        assertEquals(inkOf(bobQueue), "Board1 draw 1200 1200 1210 1210 5 1 2 3,Board1 erase 850 850 860 860 5");
+        assertEquals(inkOf(aliceQueue).split(",").length, 5);
+
+        // Moving the viewport sends the commands of the new one
+        whiteboardServer.handleRequest("Board1 viewport 0 0 100 100", 1);
+        whiteboardServer.awaitBoards();
+        replay = (Replay) bobQueue.poll();
+        assertEquals(replay.getCommandCount(), 1);
+        assertEquals(replay.getCommand(0), "Board1 draw 10 10 20 20 5 1 2 3");
+        whiteboardServer.handleRequest("Board1 draw 1200 1200 1210 1210 5 1 2 3", 0);
+        whiteboardServer.awaitBoards();
+        assertEquals(inkOf(bobQueue), "");
+
+        // Malformed, or not on the client's Whiteboard
+        whiteboardServer.handleRequest("Board1 viewport 0 0 0 100", 1);
+        assertEquals(bobQueue.poll().getText(), "Not in Server Regex");
+        whiteboardServer.handleRequest("Board2 viewport 0 0 100 100", 1);
+        assertEquals(bobQueue.isEmpty(), true);
+
+        // Selecting the Whiteboard again sends every command
+        whiteboardServer.handleRequest("bob selectBoard Board1", 1);
+        whiteboardServer.awaitBoards();
+        assertNull(whiteboardServer.boards.get("Board1").getViewport("bob"));
+        bobQueue.clear();
+        whiteboardServer.handleRequest("Board1 draw 1200 1200 1210 1210 5 1 2 3", 0);
+        whiteboardServer.awaitBoards();
+        assertEquals(inkOf(bobQueue), "Board1 draw 1200 1200 1210 1210 5 1 2 3");
+    }
+
+    @Test
+    public void resyncViewport() {
+        Board board = new Board("Board1", 4, DIRECT_EXECUTOR);
+        drawRedLines(board, 40);
+        board.subscribe("bob", new ArrayBlockingQueue<Message>(10));
+        assertSame(board.resync("bob").getKeyframe(), board.getKeyframe());
+        board.setViewport("bob", 200, 100, 1, 1);
+
+        // Only the lines from x = 120 to x = 280 reach x = 136 to 264, without the Keyframe
+        Resync resync = board.resync("bob");
+        assertNull(resync.getKeyframe());
+        assertEquals(resync.getCommandCount(), 16);
+        assertEquals(resync.getCommand(0), "Board1 draw 120 100 130 100 5 255 0 0");
+        assertEquals(resync.getCommand(15), "Board1 draw 270 100 280 100 5 255 0 0");
+    }
+
+    /**
+     * Returns the draw and erase commands queued, separated by commas, and
+     * empties the BlockingQueue.
+     */
+    private static String inkOf(final BlockingQueue<Message> commandsQueue) {
+        StringBuilder ink = new StringBuilder();
+        for (Message message = commandsQueue.poll(); message != null; message = commandsQueue.poll()) {
+            if (message.isInk()) {
+                ink.append(ink.length() == 0 ? "" : ",").append(message.getText());
+            }
+        }
+        return ink.toString();
+    }
+
+    // Makes the Keyframes in the thread that asks for them
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        public void execute(final Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    /**
+     * Draws red lines along y = 100, each 10 pixels to the right of the last.
+     */
+    private static void drawRedLines(final Board board, final int lines) {
+        for (int i = 0; i < lines; i++) {
+            board.draw(10 * i, 100, 10 * i + 10, 100, 5, 255, 0, 0);
+        }
+    }
+
+    /**
+     * Draws from many threads at once, each thread on its own Board or all
+     * of them on Board Stress0, with two subscribers on each Board.
+     * 
+     * @return the time taken, in nanoseconds
+     */
+    protected static long drawConcurrently(final WhiteboardServer whiteboardServer, int threads, final int draws,
+            boolean boardPerThread) throws InterruptedException {
+        int boards = boardPerThread ? threads : 1;
+        for (int i = 0; i < boards; i++) {
+            Board board = new Board("Stress" + i);
+            board.subscribe("first", new ArrayBlockingQueue<Message>(threads * draws));
+            board.subscribe("second", new ArrayBlockingQueue<Message>(threads * draws));
+            whiteboardServer.boards.put(board.name, board);
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final String whiteboard = "Stress" + (boardPerThread ? i : 0);
+            final int thread = i;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < draws; j++) {
+                            whiteboardServer.handleRequest(whiteboard + " draw " + thread + " " + j + " " + thread
+                                    + " " + (j + 1) + " 5 1 2 3", 0);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        whiteboardServer.awaitBoards();
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * TESTING SlowConsumerPolicy
+     * 
+     * Partition the input space as follows:
+     * Policy:  coalesce, disconnect, drop, unknown policy
+     * Queue:   full of draw commands, emptied after a drop
+     */
+    @Test
+    public void slowConsumerPolicyFromName() {
+        assertEquals(SlowConsumerPolicy.COALESCE, SlowConsumerPolicy.fromName("coalesce"));
+        assertEquals(SlowConsumerPolicy.DISCONNECT, SlowConsumerPolicy.fromName("Disconnect"));
+        assertEquals(SlowConsumerPolicy.DROP, SlowConsumerPolicy.fromName("drop"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void slowConsumerPolicyFromUnknownName() {
+        SlowConsumerPolicy.fromName("block");
+    }
+
+    @Test
+    public void slowConsumerCoalesce() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer(ThreadMode.PLATFORM, SlowConsumerPolicy.COALESCE, 20);
+        WhiteboardServer.ClientQueue bobQueue = fullQueue(whiteboardServer, new ClosedFlag());
+        whiteboardServer.handleRequest("Board1 draw 11 0 12 0 5 1 2 3", bobQueue.threadNum);
+        whiteboardServer.awaitBoards();
+
+        assertEquals(bobQueue.size(), 10);
+        ArrayList<Message> commandsList = new ArrayList<Message>(bobQueue);
+        assertEquals(commandsList.get(8).getText(), "bob on board Board1");
+        assertSame(commandsList.get(9), WhiteboardServer.OUTPUT_WAKE_UP);
+        assertEquals(whiteboardServer.getMetrics().getCoalescedMessages(), 12);
+        // When its output next takes messages, the client is sent a Resync
+        bobQueue.clear();
+        assertEquals(bobQueue.resyncIfPending(), true);
+        whiteboardServer.awaitBoards();
+        Resync resync = (Resync) bobQueue.poll();
+        assertEquals(resync.getText(), "resync Board1");
+        assertEquals(resync.getCommandCount(), 12);
+        assertEquals(resync.getCommand(11), "Board1 draw 11 0 12 0 5 1 2 3");
+        assertEquals(whiteboardServer.getMetrics().getResyncs(), 1);
+    }
+
+    @Test
+    public void slowConsumerDisconnect() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer(ThreadMode.PLATFORM, SlowConsumerPolicy.DISCONNECT, 20);
+        ClosedFlag connection = new ClosedFlag();
+        WhiteboardServer.ClientQueue bobQueue = fullQueue(whiteboardServer, connection);
+        whiteboardServer.handleRequest("Board1 draw 11 0 12 0 5 1 2 3", bobQueue.threadNum);
+        whiteboardServer.awaitBoards();
+
+        assertEquals(connection.closed, true);
+        assertEquals(whiteboardServer.clientToThreadNumMap.containsKey("bob"), false);
+        assertEquals(whiteboardServer.boards.get("Board1").getClients().isEmpty(), true);
+        assertEquals(whiteboardServer.sessions.containsKey(bobQueue.threadNum), false);
+        assertEquals(whiteboardServer.getMetrics().getSlowConsumerDisconnects(), 1);
+    }
+
+    @Test
+    public void slowConsumerDrop() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer(ThreadMode.PLATFORM, SlowConsumerPolicy.DROP, 20);
+        WhiteboardServer.ClientQueue bobQueue = fullQueue(whiteboardServer, new ClosedFlag());
+        whiteboardServer.handleRequest("Board1 draw 11 0 12 0 5 1 2 3", bobQueue.threadNum);
+        whiteboardServer.awaitBoards();
+
+        assertEquals(bobQueue.size(), 20);
+        assertEquals(whiteboardServer.getMetrics().getDroppedMessages(), 1);
+        // When its output next takes messages, the client is sent a Resync
+        bobQueue.clear();
+        assertEquals(bobQueue.resyncIfPending(), true);
+        whiteboardServer.awaitBoards();
+        Resync resync = (Resync) bobQueue.poll();
+        assertEquals(resync.getCommandCount(), 12);
+        assertEquals(bobQueue.resyncIfPending(), false);
+        assertEquals(whiteboardServer.getMetrics().getResyncs(), 1);
+    }
+
+    @Test
+    public void slowConsumerDropNeverCatchingUp() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer(ThreadMode.PLATFORM, SlowConsumerPolicy.DROP, 20);
+        WhiteboardServer.ClientQueue bobQueue = fullQueue(whiteboardServer, new ClosedFlag());
+        whiteboardServer.handleRequest("Board1 draw 11 0 12 0 5 1 2 3", bobQueue.threadNum);
+        whiteboardServer.awaitBoards();
+
+        // The queue is still full, the Resync replaces its draw commands
+        assertEquals(bobQueue.resyncIfPending(), true);
+        whiteboardServer.awaitBoards();
+        assertEquals(bobQueue.size(), 10);
+        ArrayList<Message> commandsList = new ArrayList<Message>(bobQueue);
+        assertEquals(commandsList.get(8).getText(), "bob on board Board1");
+        Resync resync = (Resync) commandsList.get(9);
+        assertEquals(resync.getCommandCount(), 12);
+        assertEquals(whiteboardServer.getMetrics().getCoalescedMessages(), 11);
+        assertEquals(whiteboardServer.getMetrics().getResyncs(), 1);
+    }
+
+    @Test
+    public void resyncReplacesQueuedReplay() throws IOException, InterruptedException {
+        WhiteboardServer whiteboardServer = new WhiteboardServer(ThreadMode.PLATFORM, SlowConsumerPolicy.DROP, 100);
+        WhiteboardServer.ClientQueue bobQueue = whiteboardServer.new ClientQueue(new ClosedFlag());
+        bobQueue.threadNum = whiteboardServer.addSession(bobQueue);
+        whiteboardServer.handleRequest("new username bob", bobQueue.threadNum);
+        for (int i = 0; i < 3; i++) {
+            whiteboardServer.handleRequest("Board1 draw " + i + " 0 " + (i + 1) + " 0 5 1 2 3", bobQueue.threadNum);
+        }
+        whiteboardServer.handleRequest("bob selectBoard Board1", bobQueue.threadNum);
+        whiteboardServer.handleRequest("Board1 erase 0 0 1 1 3", bobQueue.threadNum);
+        whiteboardServer.awaitBoards();
+        ArrayList<Message> commandsList = new ArrayList<Message>(bobQueue);
+        assertEquals(commandsList.get(commandsList.size() - 2) instanceof Replay, true);
+
+        // A message is dropped before the output took the Replay
+        whiteboardServer.handleSlowConsumer(bobQueue, new Message("Board1 draw 9 9 9 9 1 0 0 0", true));
+        assertEquals(bobQueue.resyncIfPending(), true);
+        whiteboardServer.awaitBoards();
+
+        // The Resync replaces the Replay and the erase, and holds their commands
+        commandsList = new ArrayList<Message>(bobQueue);
+        for (Message output : commandsList) {
+            assertEquals(output instanceof Replay && !(output instanceof Resync), false);
+        }
+        Resync resync = (Resync) commandsList.get(commandsList.size() - 1);
+        assertEquals(resync.getCommandCount(), 4);
+        assertEquals(resync.getCommand(0), "Board1 draw 0 0 1 0 5 1 2 3");
+        assertEquals(resync.getCommand(3), "Board1 erase 0 0 1 1 3");
+        assertEquals(whiteboardServer.getMetrics().getCoalescedMessages(), 2);
+    }
+
+    /**
+     * A client sent Resyncs while drawing is sent every command: each one is
+     * either in the last Resync or queued behind it.
+     */
+    @Test
+    public void resyncWhileDrawing() throws IOException, InterruptedException {
+        final WhiteboardServer whiteboardServer = new WhiteboardServer(ThreadMode.PLATFORM, SlowConsumerPolicy.DROP,
+                100000);
+        final WhiteboardServer.ClientQueue bobQueue = whiteboardServer.new ClientQueue(new ClosedFlag());
+        bobQueue.threadNum = whiteboardServer.addSession(bobQueue);
+        whiteboardServer.handleRequest("new username bob", bobQueue.threadNum);
+        whiteboardServer.handleRequest("bob selectBoard Board1", bobQueue.threadNum);
+        final int draws = 5000;
+        Thread drawer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < draws; i++) {
+                    whiteboardServer.handleRequest("Board1 draw " + i + " 0 " + (i + 1) + " 0 5 1 2 3",
+                            bobQueue.threadNum);
+                }
+            }
+        });
+        drawer.start();
+        int resyncs = 0;
+        while (drawer.isAlive()) {
+            whiteboardServer.handleSlowConsumer(bobQueue, WhiteboardServer.OUTPUT_WAKE_UP);
+            if (bobQueue.resyncIfPending()) {
+                resyncs++;
+            }
+            Thread.yield();
+        }
+        drawer.join();
+        whiteboardServer.awaitBoards();
+        assertTrue(resyncs > 0);
+
+        // Applies the queue as the client does, clearing on each Resync
+        List<String> drawn = new ArrayList<String>();
+        for (Message output : bobQueue) {
+            if (output instanceof Resync) {
+                Resync resync = (Resync) output;
+                drawn.clear();
+                for (int i = 0; i < resync.getCommandCount(); i++) {
+                    drawn.add(resync.getCommand(i));
+                }
+            } else if (output.getText().startsWith("Board1 draw ")) {
+                drawn.add(output.getText());
+            }
+        }
+        assertEquals(draws, drawn.size());
+        for (int i = 0; i < draws; i++) {
+            assertEquals("Board1 draw " + i + " 0 " + (i + 1) + " 0 5 1 2 3", drawn.get(i));
+        }
+    }
+
+    /**
+     * Returns the full ClientQueue, holding 20 messages, of the client bob
+     * who is working on Board1 and made 11 draw commands.
+     */
+    private static WhiteboardServer.ClientQueue fullQueue(WhiteboardServer whiteboardServer, Closeable connection)
+            throws InterruptedException {
+        WhiteboardServer.ClientQueue bobQueue = whiteboardServer.new ClientQueue(connection);
+        bobQueue.threadNum = whiteboardServer.addSession(bobQueue);
+        whiteboardServer.handleRequest("new username bob", bobQueue.threadNum);
+        whiteboardServer.handleRequest("bob selectBoard Board1", bobQueue.threadNum);
+        for (int i = 0; i < 11; i++) {
+            whiteboardServer.handleRequest("Board1 draw " + i + " 0 " + (i + 1) + " 0 5 1 2 3", bobQueue.threadNum);
+        }
+        whiteboardServer.awaitBoards();
+        assertEquals(bobQueue.remainingCapacity(), 0);
+        return bobQueue;
+    }
+
+    /**
+     * Connection that records whether it was closed.
+     */
+    private static class ClosedFlag implements Closeable {
+        private boolean closed = false;
+
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * TESTING ThreadMode
+     * 
+     * Partition the input space as follows:
+     * Name:    platform, virtual, different case, unknown mode
+     */
+    @Test
+    public void threadModeFromName() {
+        assertEquals(ThreadMode.PLATFORM, ThreadMode.fromName("platform"));
+        assertEquals(ThreadMode.VIRTUAL, ThreadMode.fromName("virtual"));
+        assertEquals(ThreadMode.VIRTUAL, ThreadMode.fromName("Virtual"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void threadModeFromUnknownName() {
+        ThreadMode.fromName("green");
+    }
+
+    @Test
+    public void threadModeRunsRunnable() throws InterruptedException {
+        for (ThreadMode mode : ThreadMode.values()) {
+            final BlockingQueue<String> ran = new ArrayBlockingQueue<String>(1);
+            Thread thread = mode.newThread(new Runnable() {
+                public void run() {
+                    ran.offer("ran");
+                }
+            });
+            thread.start();
+            thread.join();
+            assertEquals("ran", ran.poll());
+        }
+    }
 }